@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.internal.com.jcraft.jsch;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses deflate level of outbound stream from observed traffic.
+ * <br/>
+ * Each sample period compression ratio and share of time writers were blocked
+ * (waiting for remote window or socket) are evaluated.
+ * <ul>
+ * <li>incompressible data or link which is not a bottleneck (LAN) - {@link #NONE}</li>
+ * <li>link is a bottleneck and data compresses well - {@link #HIGH}</li>
+ * <li>otherwise - {@link #FAST}</li>
+ * </ul>
+ * Ratio could not be observed at level 0, so {@link #FAST} is probed periodically.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class AdaptiveCompression {
+
+	static final int NONE = 0;
+	static final int FAST = 1;
+	static final int HIGH = 6;
+
+	static final long SAMPLE_PERIOD = TimeUnit.SECONDS.toNanos(1);
+	static final long SAMPLE_BYTES = 64 << 10;
+	static final int PROBE_INTERVAL = 30;
+
+	private int level;
+	private long sampleStart;
+	private long raw;
+	private long compressed;
+	private long deflateTime;
+	private long blockedTime;
+	private int idleSamples;
+	private boolean incompressible;
+
+	AdaptiveCompression(int initialLevel, long now) {
+		this.level = initialLevel;
+		this.sampleStart = now;
+	}
+
+	synchronized int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Accounts time writer threads were waiting for the link.
+	 */
+	synchronized void blocked(long nanos) {
+		blockedTime += nanos;
+	}
+
+	/**
+	 * Accounts compressed packet.
+	 * @return new deflate level or -1 if level should not be changed
+	 */
+	synchronized int compressed(int rawLen, int compressedLen, long deflateNanos, long now) {
+		raw += rawLen;
+		compressed += compressedLen;
+		deflateTime += deflateNanos;
+		long elapsed = now - sampleStart;
+		if (elapsed < SAMPLE_PERIOD || raw < SAMPLE_BYTES) {
+			return -1;
+		}
+		int next = decide(elapsed);
+		sampleStart = now;
+		raw = 0;
+		compressed = 0;
+		deflateTime = 0;
+		blockedTime = 0;
+		if (next != level) {
+			level = next;
+			return next;
+		}
+		return -1;
+	}
+
+	private int decide(long elapsed) {
+		double blockedShare = Math.min(1d, ((double)blockedTime) / elapsed);
+		if (level == NONE) {
+			++idleSamples;
+			if ((blockedShare > 0.5 && !incompressible) || idleSamples >= PROBE_INTERVAL) {
+				// ratio is unknown at level 0, try to measure it
+				idleSamples = 0;
+				return FAST;
+			}
+			return NONE;
+		}
+		double ratio = ((double)compressed) / raw;
+		double cpuShare = ((double)deflateTime) / elapsed;
+		incompressible = ratio > 0.9;
+		if (incompressible || blockedShare < 0.1) {
+			return NONE;
+		}
+		if (blockedShare > 0.5 && ratio < 0.6 && cpuShare < 0.5) {
+			return HIGH;
+		}
+		return FAST;
+	}
+}
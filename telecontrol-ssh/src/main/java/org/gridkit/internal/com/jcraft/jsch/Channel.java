@@ -100,6 +100,10 @@ public abstract class Channel implements Runnable{
   volatile int lwsize=lwsize_max;     // local initial window size
   volatile int lmpsize=0x4000;     // local maximum packet size
 
+  volatile int pipe_size=32<<10;  // buffer for getInputStream()/getExtInputStream()
+
+  ChannelInbox inbox=null;        // if not null, inbound data is delivered by pooled thread
+
   volatile long rwsize=0;         // remote initial window size
   volatile int rmpsize=0;        // remote maximum packet size
 
@@ -191,12 +195,12 @@ public abstract class Channel implements Runnable{
     io.setExtOutputStream(out, dontclose);
   }
   public InputStream getInputStream() throws IOException {
-	StreamPipe pipe = new StreamPipe(32 << 10); // this value should be customizable
+	StreamPipe pipe = new StreamPipe(pipe_size);
     io.setOutputStream(pipe.getOutputStream(), false);
     return pipe.getInputStream();
   }
   public InputStream getExtInputStream() throws IOException {
-    StreamPipe pipe = new StreamPipe(32 << 10); // this value should be customizable
+    StreamPipe pipe = new StreamPipe(pipe_size);
     io.setExtOutputStream(pipe.getOutputStream(), false);
     return pipe.getInputStream();
   }
@@ -309,6 +313,50 @@ public abstract class Channel implements Runnable{
     return out;
   }
 
+  /**
+   * Applies throughput tuning from session config, called before channel is opened.
+   * <ul>
+   * <li>"channel.window_size" - local window size (k/m suffixes are allowed), larger window keeps more data in flight on high latency links</li>
+   * <li>"channel.pipe_size" - buffer size of channel input streams, session reader thread blocks when it is full</li>
+   * <li>"channel.async_dispatch" - "yes" to hand off inbound data to per channel queue, so slow consumer does not block session reader thread</li>
+   * </ul>
+   */
+  void configure(Session session){
+    if("yes".equals(session.getConfig("channel.async_dispatch"))){
+      inbox=new ChannelInbox(this);
+    }
+    int window=parseSize(session.getConfig("channel.window_size"));
+    if(window>0){
+      setLocalWindowSizeMax(window);
+      setLocalWindowSize(window);
+    }
+    int pipe=parseSize(session.getConfig("channel.pipe_size"));
+    if(pipe>0){
+      pipe_size=pipe;
+    }
+  }
+
+  private static int parseSize(String value){
+    if(value==null){
+      return -1;
+    }
+    try{
+      String v=value.trim().toLowerCase();
+      long mul=1;
+      if(v.endsWith("k")){ mul=1<<10; v=v.substring(0, v.length()-1); }
+      else if(v.endsWith("m")){ mul=1<<20; v=v.substring(0, v.length()-1); }
+      long size=Long.parseLong(v);
+      if(size<=0){
+        return -1;
+      }
+      // window is uint32 in protocol, but int here
+      return (int)Math.min(Integer.MAX_VALUE, size>Long.MAX_VALUE/mul ? Long.MAX_VALUE : size*mul);
+    }
+    catch(NumberFormatException e){
+      return -1;
+    }
+  }
+
   void setLocalWindowSizeMax(int foo){ this.lwsize_max=foo; }
   void setLocalWindowSize(int foo){ this.lwsize=foo; }
   void setLocalPacketSize(int foo){ this.lmpsize=foo; }
@@ -350,15 +398,17 @@ public abstract class Channel implements Runnable{
     eof_local=true;
 
     try{
-      Buffer buf=new Buffer(100);
+      Session _session=getSession();
+      Buffer buf=_session.takeControlBuffer();
       Packet packet=new Packet(buf);
       packet.reset();
       buf.putByte((byte)Session.SSH_MSG_CHANNEL_EOF);
       buf.putInt(getRecipient());
       synchronized(this){
         if(!close)
-          getSession().write(packet);
+          _session.write(packet);
       }
+      _session.recycleControlBuffer(buf);
     }
     catch(Exception e){
       //System.err.println("Channel.eof");
@@ -410,15 +460,22 @@ public abstract class Channel implements Runnable{
     close=true;
     eof_local=eof_remote=true;
 
+    synchronized(this){
+      // wake up writers waiting for window
+      notifyAll();
+    }
+
     try{
-      Buffer buf=new Buffer(100);
+      Session _session=getSession();
+      Buffer buf=_session.takeControlBuffer();
       Packet packet=new Packet(buf);
       packet.reset();
       buf.putByte((byte)Session.SSH_MSG_CHANNEL_CLOSE);
       buf.putInt(getRecipient());
       synchronized(this){
-        getSession().write(packet);
+        _session.write(packet);
       }
+      _session.recycleControlBuffer(buf);
     }
     catch(Exception e){
       //e.printStackTrace();
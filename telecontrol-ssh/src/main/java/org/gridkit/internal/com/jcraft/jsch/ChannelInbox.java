@@ -0,0 +1,232 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2012 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.gridkit.internal.com.jcraft.jsch;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inbound data of single channel, delivered to channel by pooled thread.
+ * <br/>
+ * Session reader thread only copies payload here and continues with next packet,
+ * so slow consumer of one channel does not stall other channels of the session.
+ * Window adjust is sent after data is handed to the channel, so size of
+ * the queue is bounded by local window through SSH flow control.
+ */
+class ChannelInbox implements Runnable{
+
+  private static final int DATA=0;
+  private static final int EXT_DATA=1;
+  private static final int EOF=2;
+  private static final int CLOSE=3;
+
+  private static final ExecutorService DELIVERY=new ThreadPoolExecutor(0, Integer.MAX_VALUE, 10, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory(){
+
+    private final AtomicInteger counter=new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r){
+      Thread t=new Thread(r);
+      t.setDaemon(true);
+      t.setName("JSch-ChannelDelivery-" + counter.getAndIncrement());
+      return t;
+    }
+  });
+
+  private final Channel channel;
+  private final ArrayDeque<Entry> queue=new ArrayDeque<Entry>();
+  private long queued;
+  private boolean scheduled;
+  private boolean dead;
+
+  ChannelInbox(Channel channel){
+    this.channel=channel;
+  }
+
+  void data(byte[] buf, int s, int l) throws InterruptedException{
+    enqueue(new Entry(DATA, copy(buf, s, l)));
+  }
+
+  void extData(byte[] buf, int s, int l) throws InterruptedException{
+    enqueue(new Entry(EXT_DATA, copy(buf, s, l)));
+  }
+
+  void eof() throws InterruptedException{
+    enqueue(new Entry(EOF, null));
+  }
+
+  void close() throws InterruptedException{
+    enqueue(new Entry(CLOSE, null));
+  }
+
+  synchronized int size(){
+    return queue.size();
+  }
+
+  private static byte[] copy(byte[] buf, int s, int l){
+    byte[] data=new byte[l];
+    System.arraycopy(buf, s, data, 0, l);
+    return data;
+  }
+
+  private synchronized void enqueue(Entry e) throws InterruptedException{
+    if(dead){
+      return;
+    }
+    // peer should respect window, this is a guard against one which does not
+    while(e.data != null && queued > 2l * channel.lwsize_max && !dead){
+      if(channel.close){
+        return;
+      }
+      // channel close does not notify inbox, so wait is timed
+      wait(100);
+    }
+    queue.add(e);
+    queued+=e.length();
+    if(!scheduled){
+      scheduled=true;
+      DELIVERY.execute(this);
+    }
+  }
+
+  @Override
+  public void run(){
+    while(true){
+      Entry e;
+      synchronized(this){
+        e=queue.poll();
+        if(e == null){
+          scheduled=false;
+          return;
+        }
+      }
+      deliver(e);
+      synchronized(this){
+        queued-=e.length();
+        notifyAll();
+      }
+    }
+  }
+
+  private void deliver(Entry e){
+    switch(e.type){
+      case DATA:
+        try{
+          channel.write(e.data, 0, e.data.length);
+        }
+        catch(Exception ex){
+          discard();
+          try{
+            channel.disconnect();
+          }
+          catch(Exception ee){
+            // ignore
+          }
+          return;
+        }
+        consumed(e.data.length);
+        break;
+      case EXT_DATA:
+        try{
+          channel.write_ext(e.data, 0, e.data.length);
+        }
+        catch(Exception ex){
+          // same as synchronous dispatch, error is ignored
+        }
+        consumed(e.data.length);
+        break;
+      case EOF:
+        channel.eof_remote();
+        break;
+      case CLOSE:
+        channel.disconnect();
+        break;
+    }
+  }
+
+  private synchronized void discard(){
+    dead=true;
+    queue.clear();
+    queued=0;
+    notifyAll();
+  }
+
+  private void consumed(int len){
+    channel.setLocalWindowSize(channel.lwsize - len);
+    if(channel.lwsize < channel.lwsize_max / 2){
+      Session session;
+      try{
+        session=channel.getSession();
+      }
+      catch(JSchException e){
+        return;
+      }
+      Buffer buf=session.takeControlBuffer();
+      Packet packet=new Packet(buf);
+      packet.reset();
+      buf.putByte((byte)Session.SSH_MSG_CHANNEL_WINDOW_ADJUST);
+      buf.putInt(channel.getRecipient());
+      buf.putInt(channel.lwsize_max - channel.lwsize);
+      try{
+        synchronized(channel){
+          if(!channel.close){
+            session.write(packet);
+          }
+        }
+      }
+      catch(Exception e){
+        // session is broken, reader thread would handle it
+        return;
+      }
+      session.recycleControlBuffer(buf);
+      channel.setLocalWindowSize(channel.lwsize_max);
+    }
+  }
+
+  private static class Entry{
+
+    final int type;
+    final byte[] data;
+
+    Entry(int type, byte[] data){
+      this.type=type;
+      this.data=data;
+    }
+
+    int length(){
+      return data == null ? 0 : data.length;
+    }
+  }
+}
@@ -135,6 +135,7 @@ public class ChannelSftp extends ChannelSession{
   public static final int OVERWRITE=0;
   public static final int RESUME=1;
   public static final int APPEND=2;
+  private static final int WRITE_AT=-1;
 
   private boolean interactive=false;
   private int seq=1;
@@ -209,6 +210,40 @@ public class ChannelSftp extends ChannelSession{
     return rq.size();
   }
 
+  private int write_packet_size=0;
+
+  /**
+   * Limits size of SSH_FXP_WRITE packets. Packet could not be larger than
+   * maximum packet size advertised by server, so this value could only
+   * reduce it. Zero means largest packet allowed by server.
+   */
+  public void setWritePacketSize(int size){
+    write_packet_size=size;
+    if(obuf!=null){
+      int len=getWriteBufferSize();
+      if(len!=obuf.buffer.length){
+        obuf=new Buffer(len);
+        opacket=new Packet(obuf);
+      }
+    }
+  }
+
+  /**
+   * @return effective size of SSH_FXP_WRITE packet, available after connect
+   */
+  public int getWritePacketSize(){
+    return obuf==null ? write_packet_size : obuf.buffer.length;
+  }
+
+  private int getWriteBufferSize(){
+    int len=rmpsize;
+    if(write_packet_size>0 && write_packet_size<len){
+      // at least some payload should fit into a packet
+      len=Math.max(write_packet_size, 1024);
+    }
+    return len;
+  }
+
   ChannelSftp(){
     super();
     setLocalWindowSizeMax(LOCAL_WINDOW_SIZE_MAX);
@@ -245,7 +280,7 @@ public class ChannelSftp extends ChannelSession{
       buf=new Buffer(lmpsize);
       packet=new Packet(buf);
 
-      obuf=new Buffer(rmpsize);
+      obuf=new Buffer(getWriteBufferSize());
       opacket=new Packet(obuf);
 
       int i=0;
@@ -503,8 +538,29 @@ public class ChannelSftp extends ChannelSession{
     }
   }
 
+  /**
+   * Writes stream content to remote file starting at given offset.
+   * File is created if missing, but never truncated, so several
+   * channels could upload different parts of same file in parallel.
+   */
+  public void put(InputStream src, String dst, long offset) throws SftpException{
+    try{
+      dst=remoteAbsolutePath(dst);
+      _put(src, dst, null, WRITE_AT, offset);
+    }
+    catch(Exception e){
+      if(e instanceof SftpException) throw (SftpException)e;
+      throw new SftpException(SSH_FX_FAILURE, e.toString(), e);
+    }
+  }
+
   public void _put(InputStream src, String dst, 
                    SftpProgressMonitor monitor, int mode) throws SftpException{
+    _put(src, dst, monitor, mode, 0);
+  }
+
+  private void _put(InputStream src, String dst, 
+                   SftpProgressMonitor monitor, int mode, long start) throws SftpException{
     try{
     	
       byte[] dstb=Util.str2byte(dst, fEncoding);
@@ -554,7 +610,7 @@ public class ChannelSftp extends ChannelSession{
         ];
       }
 
-      long offset=0;
+      long offset=start;
       if(mode==RESUME || mode==APPEND){
 	offset+=skip;
       }
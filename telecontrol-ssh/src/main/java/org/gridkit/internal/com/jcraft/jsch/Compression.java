@@ -35,4 +35,8 @@ public interface Compression{
   void init(int type, int level);
   byte[] compress(byte[] buf, int start, int[] len);
   byte[] uncompress(byte[] buf, int start, int[] len);
+  /**
+   * Changes deflate level for subsequent data, stream is not reset.
+   */
+  void setLevel(int level);
 }
@@ -44,13 +44,15 @@ public class JSch{
     config.put("kex", "diffie-hellman-group1-sha1,diffie-hellman-group14-sha1,diffie-hellman-group-exchange-sha1");
     config.put("server_host_key", "ssh-rsa,ssh-dss");
 
+    // ordered by throughput, AES-GCM and AES-CTR are accelerated by AES-NI intrinsics on modern JVMs
     config.put("cipher.s2c", 
-               "aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-cbc,aes256-cbc");
+               "aes128-gcm@openssh.com,aes256-gcm@openssh.com,aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-cbc,aes256-cbc");
     config.put("cipher.c2s",
-               "aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-cbc,aes256-cbc");
+               "aes128-gcm@openssh.com,aes256-gcm@openssh.com,aes128-ctr,aes128-cbc,3des-ctr,3des-cbc,blowfish-cbc,aes192-cbc,aes256-cbc");
 
-    config.put("mac.s2c", "hmac-md5,hmac-sha1,hmac-sha1-96,hmac-md5-96");
-    config.put("mac.c2s", "hmac-md5,hmac-sha1,hmac-sha1-96,hmac-md5-96");
+    // MAC is not used with AES-GCM, SHA-512 is faster than SHA-256 on 64 bit JVMs
+    config.put("mac.s2c", "hmac-sha2-512-etm@openssh.com,hmac-sha2-256-etm@openssh.com,hmac-md5,hmac-sha1,hmac-sha2-512,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
+    config.put("mac.c2s", "hmac-sha2-512-etm@openssh.com,hmac-sha2-256-etm@openssh.com,hmac-md5,hmac-sha1,hmac-sha2-512,hmac-sha2-256,hmac-sha1-96,hmac-md5-96");
     config.put("compression.s2c", "none");
     config.put("compression.c2s", "none");
 
@@ -73,6 +75,10 @@ public class JSch{
     config.put("hmac-sha1-96",  "org.gridkit.internal.com.jcraft.jsch.jce.HMACSHA196");
     config.put("hmac-md5",      "org.gridkit.internal.com.jcraft.jsch.jce.HMACMD5");
     config.put("hmac-md5-96",   "org.gridkit.internal.com.jcraft.jsch.jce.HMACMD596");
+    config.put("hmac-sha2-256", "org.gridkit.internal.com.jcraft.jsch.jce.HMACSHA256");
+    config.put("hmac-sha2-512", "org.gridkit.internal.com.jcraft.jsch.jce.HMACSHA512");
+    config.put("hmac-sha2-256-etm@openssh.com", "org.gridkit.internal.com.jcraft.jsch.jce.HMACSHA256ETM");
+    config.put("hmac-sha2-512-etm@openssh.com", "org.gridkit.internal.com.jcraft.jsch.jce.HMACSHA512ETM");
     config.put("sha-1",         "org.gridkit.internal.com.jcraft.jsch.jce.SHA1");
     config.put("md5",           "org.gridkit.internal.com.jcraft.jsch.jce.MD5");
     config.put("signature.dss", "org.gridkit.internal.com.jcraft.jsch.jce.SignatureDSA");
@@ -90,6 +96,8 @@ public class JSch{
     config.put("aes128-ctr",    "org.gridkit.internal.com.jcraft.jsch.jce.AES128CTR");
     config.put("aes192-ctr",    "org.gridkit.internal.com.jcraft.jsch.jce.AES192CTR");
     config.put("aes256-ctr",    "org.gridkit.internal.com.jcraft.jsch.jce.AES256CTR");
+    config.put("aes128-gcm@openssh.com", "org.gridkit.internal.com.jcraft.jsch.jce.AES128GCM");
+    config.put("aes256-gcm@openssh.com", "org.gridkit.internal.com.jcraft.jsch.jce.AES256GCM");
     config.put("3des-ctr",      "org.gridkit.internal.com.jcraft.jsch.jce.TripleDESCTR");
     config.put("arcfour",      "org.gridkit.internal.com.jcraft.jsch.jce.ARCFOUR");
     config.put("arcfour128",      "org.gridkit.internal.com.jcraft.jsch.jce.ARCFOUR128");
@@ -110,10 +118,12 @@ public class JSch{
 
     config.put("PreferredAuthentications", "gssapi-with-mic,publickey,keyboard-interactive,password");
 
-    config.put("CheckCiphers", "aes256-ctr,aes192-ctr,aes128-ctr,aes256-cbc,aes192-cbc,aes128-cbc,3des-ctr,arcfour,arcfour128,arcfour256");
+    config.put("CheckCiphers", "aes128-gcm@openssh.com,aes256-gcm@openssh.com,aes256-ctr,aes192-ctr,aes128-ctr,aes256-cbc,aes192-cbc,aes128-cbc,3des-ctr,arcfour,arcfour128,arcfour256");
     config.put("CheckKexes", "diffie-hellman-group14-sha1");
 
     config.put("MaxAuthTries", "6");
+
+    config.put("channel.async_dispatch", "yes");
   }
 
   private java.util.Vector sessionPool = new java.util.Vector();
@@ -44,8 +44,15 @@ public class Packet{
     buffer.index=5;
   }
   void padding(int bsize){
+    padding(bsize, true);
+  }
+  /**
+   * @param includeLength <code>false</code> if packet length field is not encrypted
+   *        (aes-gcm, encrypt-then-mac), so it is not counted for block alignment
+   */
+  void padding(int bsize, boolean includeLength){
     int len=buffer.index;
-    int pad=(-len)&(bsize-1);
+    int pad=(-(includeLength ? len : len-4))&(bsize-1);
     if(pad<bsize){
       pad+=bsize;
     }
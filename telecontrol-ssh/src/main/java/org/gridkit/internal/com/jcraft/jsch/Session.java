@@ -95,10 +95,17 @@ public class Session implements Runnable{
   private MAC s2cmac;
   private MAC c2smac;
   //private byte[] mac_buf;
+  // aes-gcm, packet is authenticated by cipher, MAC is not used
+  private boolean s2caead=false;
+  private boolean c2saead=false;
+  // encrypt-then-mac, packet length is sent in clear
+  private boolean s2cetm=false;
+  private boolean c2setm=false;
   private byte[] s2cmac_result1;
   private byte[] s2cmac_result2;
 
   private Compression deflater;
+  private AdaptiveCompression adaptive_compression;
   private Compression inflater;
 
   private IO io;
@@ -126,7 +133,7 @@ public class Session implements Runnable{
   SocketFactory socket_factory=null;
 
   static final int buffer_margin = 32 + // maximum padding length
-                                   20 + // maximum mac length
+                                   64 + // maximum mac length
                                    32;  // margin for deflater; deflater may inflate data
 
   private java.util.Hashtable config=null;
@@ -291,7 +298,7 @@ public class Session implements Runnable{
 
       buf=read(buf);
       if(buf.getCommand()!=SSH_MSG_KEXINIT){
-        in_kex=false;
+        kexDone();
 	throw new JSchException("invalid protocol: "+buf.getCommand());
       }
 
@@ -309,12 +316,12 @@ public class Session implements Runnable{
           boolean result=kex.next(buf);
 	  if(!result){
 	    //System.err.println("verify: "+result);
-            in_kex=false;
+            kexDone();
 	    throw new JSchException("verify: "+result);
 	  }
 	}
 	else{
-          in_kex=false;
+          kexDone();
 	  throw new JSchException("invalid protocol(kex): "+buf.getCommand());
 	}
 	if(kex.getState()==KeyExchange.STATE_END){
@@ -324,7 +331,7 @@ public class Session implements Runnable{
 
       try{ checkHost(host, port, kex); }
       catch(JSchException ee){
-        in_kex=false;
+        kexDone();
         throw ee;
       }
 
@@ -343,7 +350,7 @@ public class Session implements Runnable{
 	receive_newkeys(buf, kex);
       }
       else{
-        in_kex=false;
+        kexDone();
 	throw new JSchException("invalid protocol(newkyes): "+buf.getCommand());
       }
 
@@ -510,7 +517,7 @@ public class Session implements Runnable{
       }
     }
     catch(Exception e) {
-      in_kex=false;
+      kexDone();
       if(isConnected){
 	try{
 	  packet.reset();
@@ -575,7 +582,67 @@ public class Session implements Runnable{
     return kex;
   }
 
-  private boolean in_kex=false;
+  private volatile boolean in_kex=false;
+  private final Object kexLock=new Object();
+
+  private void kexDone(){
+    synchronized(kexLock){
+      in_kex=false;
+      kexLock.notifyAll();
+    }
+  }
+
+  /*
+   * Writers are parked here while key exchange is in progress,
+   * kexDone() or disconnect() wakes them up.
+   */
+  private void awaitKex(long t) throws JSchException{
+    if(t>0L && (System.currentTimeMillis()-kex_start_time)>t){
+      throw new JSchException("timeout in wating for rekeying process.");
+    }
+    if(!isConnected){
+      throw new JSchException("session is down");
+    }
+    synchronized(kexLock){
+      if(in_kex){
+        try{ kexLock.wait(t>0L ? Math.min(t, 1000) : 1000); }
+        catch(java.lang.InterruptedException e){};
+      }
+    }
+  }
+
+  private static final int CONTROL_BUFFER_SIZE=256;
+  private static final int CONTROL_BUFFER_POOL=8;
+  private final java.util.ArrayList<Buffer> controlBuffers=new java.util.ArrayList<Buffer>();
+
+  /*
+   * Small buffers for channel control messages (eof, close, keepalive)
+   * are reused instead of allocating default sized buffer per message.
+   * Data packets are not pooled, channel output stream allocates its
+   * buffer once and reuses it for every packet it sends.
+   */
+  Buffer takeControlBuffer(){
+    synchronized(controlBuffers){
+      if(!controlBuffers.isEmpty()){
+        Buffer buf=controlBuffers.remove(controlBuffers.size()-1);
+        buf.reset();
+        return buf;
+      }
+    }
+    return new Buffer(CONTROL_BUFFER_SIZE);
+  }
+
+  void recycleControlBuffer(Buffer buf){
+    if(buf.buffer.length!=CONTROL_BUFFER_SIZE){
+      return;
+    }
+    synchronized(controlBuffers){
+      if(controlBuffers.size()<CONTROL_BUFFER_POOL){
+        controlBuffers.add(buf);
+      }
+    }
+  }
+
   public void rekey() throws Exception {
     send_kexinit();
   }
@@ -798,6 +865,7 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       Channel channel=Channel.getChannel(type);
       addChannel(channel);
       channel.init();
+      channel.configure(this);
       return channel;
     }
     catch(Exception e){
@@ -814,10 +882,43 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 //Thread.dumpStack();
 //}
     if(deflater!=null){
+      AdaptiveCompression adaptive=adaptive_compression;
+      long t0=adaptive!=null ? System.nanoTime() : 0;
+      int raw=packet.buffer.index;
       compress_len[0]=packet.buffer.index;
       packet.buffer.buffer=deflater.compress(packet.buffer.buffer, 
                                              5, compress_len);
       packet.buffer.index=compress_len[0];
+      if(adaptive!=null){
+        long t1=System.nanoTime();
+        int level=adaptive.compressed(raw-5, compress_len[0]-5, t1-t0, t1);
+        if(level>=0){
+          deflater.setLevel(level);
+          if(JSch.getLogger().isEnabled(Logger.INFO)){
+            JSch.getLogger().log(Logger.INFO, "Compression level for "+host+" changed to "+level);
+          }
+        }
+      }
+    }
+    if(c2saead){
+      AEADCipher cipher=(AEADCipher)c2scipher;
+      packet.padding(c2scipher_size, false);
+      packet.buffer.checkFreeSize(cipher.getTagSize());
+      byte[] buf=packet.buffer.buffer;
+      cipher.updateAAD(buf, 0, 4);
+      cipher.doFinal(buf, 4, packet.buffer.index-4, buf, 4);
+      packet.buffer.skip(cipher.getTagSize());
+      return;
+    }
+    if(c2setm){
+      packet.padding(c2scipher_size, false);
+      byte[] buf=packet.buffer.buffer;
+      c2scipher.update(buf, 4, packet.buffer.index-4, buf, 4);
+      c2smac.update(seqo);
+      c2smac.update(buf, 0, packet.buffer.index);
+      c2smac.doFinal(buf, packet.buffer.index);
+      packet.buffer.skip(c2smac.getBlockSize());
+      return;
     }
     if(c2scipher!=null){
       //packet.padding(c2scipher.getIVSize());
@@ -850,9 +951,59 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 
   private int s2ccipher_size=8;
   private int c2scipher_size=8;
+  /*
+   * Reads aes-gcm or encrypt-then-mac packet. Length is not encrypted,
+   * whole packet is verified before decryption.
+   */
+  private void readAuthenticated(Buffer buf) throws Exception{
+    buf.reset();
+    io.getByte(buf.buffer, buf.index, 4);
+    buf.index+=4;
+    int j=((buf.buffer[0]<<24)&0xff000000)|
+          ((buf.buffer[1]<<16)&0x00ff0000)|
+          ((buf.buffer[2]<< 8)&0x0000ff00)|
+          ((buf.buffer[3]    )&0x000000ff);
+    if(j<5 || j>PACKET_MAX_SIZE || (j%s2ccipher_size)!=0){
+      throw new IOException("Bad packet length "+j);
+    }
+    int tail=s2caead ? ((AEADCipher)s2ccipher).getTagSize() : s2cmac.getBlockSize();
+    if((buf.index+j+tail)>buf.buffer.length){
+      byte[] foo=new byte[buf.index+j+tail];
+      System.arraycopy(buf.buffer, 0, foo, 0, buf.index);
+      buf.buffer=foo;
+    }
+    io.getByte(buf.buffer, buf.index, j+tail);
+    if(s2caead){
+      AEADCipher cipher=(AEADCipher)s2ccipher;
+      try{
+        cipher.updateAAD(buf.buffer, 0, 4);
+        cipher.doFinal(buf.buffer, 4, j+tail, buf.buffer, 4);
+      }
+      catch(java.security.GeneralSecurityException e){
+        throw new IOException("MAC Error");
+      }
+    }
+    else{
+      s2cmac.update(seqi);
+      s2cmac.update(buf.buffer, 0, 4+j);
+      s2cmac.doFinal(s2cmac_result1, 0);
+      for(int i=0; i<tail; i++){
+        if(s2cmac_result1[i]!=buf.buffer[4+j+i]){
+          throw new IOException("MAC Error");
+        }
+      }
+      s2ccipher.update(buf.buffer, 4, j, buf.buffer, 4);
+    }
+    buf.index+=j;
+  }
+
   public Buffer read(Buffer buf) throws Exception{
     int j=0;
     while(true){
+      if(s2caead || s2cetm){
+        readAuthenticated(buf);
+      }
+      else{
       buf.reset();
       io.getByte(buf.buffer, buf.index, s2ccipher_size); 
       buf.index+=s2ccipher_size;
@@ -906,6 +1057,7 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
           continue;
 	}
       }
+      }
 
       seqi++;
 
@@ -1027,8 +1179,31 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 
   private void receive_newkeys(Buffer buf, KeyExchange kex) throws Exception {
     updateKeys(kex);
-    in_kex=false;
+    kexDone();
+  }
+  /*
+   * RFC 4253 7.2, key is extended with HASH(K || H || key) until it is long enough.
+   */
+  private byte[] expandKey(byte[] K, byte[] H, byte[] key, HASH hash, int required) throws Exception{
+    while(required>key.length){
+      buf.reset();
+      buf.putMPInt(K);
+      buf.putByte(H);
+      buf.putByte(key);
+      hash.update(buf.buffer, 0, buf.index);
+      byte[] foo=hash.digest();
+      byte[] bar=new byte[key.length+foo.length];
+      System.arraycopy(key, 0, bar, 0, key.length);
+      System.arraycopy(foo, 0, bar, key.length, foo.length);
+      key=bar;
+    }
+    return key;
+  }
+
+  private static boolean isEtm(MAC mac){
+    return mac.getName().endsWith("-etm@openssh.com");
   }
+
   private void updateKeys(KeyExchange kex) throws Exception{
     byte[] K=kex.getK();
     byte[] H=kex.getH();
@@ -1087,51 +1262,48 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
       method=guess[KeyExchange.PROPOSAL_ENC_ALGS_STOC];
       c=Class.forName(getConfig(method));
       s2ccipher=(Cipher)(c.newInstance());
-      while(s2ccipher.getBlockSize()>Es2c.length){
-        buf.reset();
-        buf.putMPInt(K);
-        buf.putByte(H);
-        buf.putByte(Es2c);
-        hash.update(buf.buffer, 0, buf.index);
-        byte[] foo=hash.digest();
-        byte[] bar=new byte[Es2c.length+foo.length];
-	System.arraycopy(Es2c, 0, bar, 0, Es2c.length);
-	System.arraycopy(foo, 0, bar, Es2c.length, foo.length);
-	Es2c=bar;
-      }
+      Es2c=expandKey(K, H, Es2c, hash, s2ccipher.getBlockSize());
       s2ccipher.init(Cipher.DECRYPT_MODE, Es2c, IVs2c);
-      s2ccipher_size=s2ccipher.getIVSize();
+      s2caead=s2ccipher instanceof AEADCipher;
+      // gcm works with 16 byte blocks, though its nonce is 12 bytes
+      s2ccipher_size=s2caead ? 16 : s2ccipher.getIVSize();
 
-      method=guess[KeyExchange.PROPOSAL_MAC_ALGS_STOC];
-      c=Class.forName(getConfig(method));
-      s2cmac=(MAC)(c.newInstance());
-      s2cmac.init(MACs2c);
-      //mac_buf=new byte[s2cmac.getBlockSize()];
-      s2cmac_result1=new byte[s2cmac.getBlockSize()];
-      s2cmac_result2=new byte[s2cmac.getBlockSize()];
+      if(s2caead){
+        s2cmac=null;
+        s2cetm=false;
+      }
+      else{
+        method=guess[KeyExchange.PROPOSAL_MAC_ALGS_STOC];
+        c=Class.forName(getConfig(method));
+        s2cmac=(MAC)(c.newInstance());
+        MACs2c=expandKey(K, H, MACs2c, hash, s2cmac.getBlockSize());
+        s2cmac.init(MACs2c);
+        //mac_buf=new byte[s2cmac.getBlockSize()];
+        s2cmac_result1=new byte[s2cmac.getBlockSize()];
+        s2cmac_result2=new byte[s2cmac.getBlockSize()];
+        s2cetm=isEtm(s2cmac);
+      }
 
       method=guess[KeyExchange.PROPOSAL_ENC_ALGS_CTOS];
       c=Class.forName(getConfig(method));
       c2scipher=(Cipher)(c.newInstance());
-      while(c2scipher.getBlockSize()>Ec2s.length){
-        buf.reset();
-        buf.putMPInt(K);
-        buf.putByte(H);
-        buf.putByte(Ec2s);
-        hash.update(buf.buffer, 0, buf.index);
-        byte[] foo=hash.digest();
-        byte[] bar=new byte[Ec2s.length+foo.length];
-	System.arraycopy(Ec2s, 0, bar, 0, Ec2s.length);
-	System.arraycopy(foo, 0, bar, Ec2s.length, foo.length);
-	Ec2s=bar;
-      }
+      Ec2s=expandKey(K, H, Ec2s, hash, c2scipher.getBlockSize());
       c2scipher.init(Cipher.ENCRYPT_MODE, Ec2s, IVc2s);
-      c2scipher_size=c2scipher.getIVSize();
+      c2saead=c2scipher instanceof AEADCipher;
+      c2scipher_size=c2saead ? 16 : c2scipher.getIVSize();
 
-      method=guess[KeyExchange.PROPOSAL_MAC_ALGS_CTOS];
-      c=Class.forName(getConfig(method));
-      c2smac=(MAC)(c.newInstance());
-      c2smac.init(MACc2s);
+      if(c2saead){
+        c2smac=null;
+        c2setm=false;
+      }
+      else{
+        method=guess[KeyExchange.PROPOSAL_MAC_ALGS_CTOS];
+        c=Class.forName(getConfig(method));
+        c2smac=(MAC)(c.newInstance());
+        MACc2s=expandKey(K, H, MACc2s, hash, c2smac.getBlockSize());
+        c2smac.init(MACc2s);
+        c2setm=isEtm(c2smac);
+      }
 
       method=guess[KeyExchange.PROPOSAL_COMP_ALGS_CTOS];
       initDeflater(method);
@@ -1151,24 +1323,31 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
     long t = getTimeout();
     while(true){
       if(in_kex){
-        if(t>0L && (System.currentTimeMillis()-kex_start_time)>t){
-          throw new JSchException("timeout in wating for rekeying process.");
-        }
-        try{Thread.sleep(10);}
-        catch(java.lang.InterruptedException e){};
+        awaitKex(t);
         continue;
       }
       synchronized(c){
 
-        if(c.rwsize<length){
+        if(c.rwsize<=0){
+          // woken up by window adjust or channel close,
+          // partially open window is used without waiting.
+          // Wait is timed, so session going down without
+          // notifying the channel is still noticed
+          AdaptiveCompression adaptive=adaptive_compression;
+          long t0=adaptive!=null ? System.nanoTime() : 0;
           try{ 
             c.notifyme++;
-            c.wait(100); 
+            while(c.rwsize<=0 && !c.close && isConnected && c.isConnected()){
+              c.wait(t>0L ? Math.min(t, 1000) : 1000);
+            }
           }
           catch(java.lang.InterruptedException e){
           }
           finally{
             c.notifyme--;
+            if(adaptive!=null){
+              adaptive.blocked(System.nanoTime()-t0);
+            }
           }
         }
 
@@ -1178,7 +1357,7 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
         }
 
       }
-      if(c.close || !c.isConnected()){
+      if(c.close || !isConnected || !c.isConnected()){
 	throw new IOException("channel is broken");
       }
 
@@ -1195,7 +1374,8 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
           if(len!=length){
             s=packet.shift((int)len, 
                            (c2scipher!=null ? c2scipher_size : 8),
-                           (c2smac!=null ? c2smac.getBlockSize() : 0));
+                           (c2smac!=null ? c2smac.getBlockSize() : 
+                            c2saead ? ((AEADCipher)c2scipher).getTagSize() : 0));
           }
 	  command=packet.buffer.getCommand();
 	  recipient=c.getRecipient();
@@ -1240,9 +1420,6 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
     // System.err.println("in_kex="+in_kex+" "+(packet.buffer.getCommand()));
     long t = getTimeout();
     while(in_kex){
-      if(t>0L && (System.currentTimeMillis()-kex_start_time)>t){
-        throw new JSchException("timeout in wating for rekeying process.");
-      }
       byte command=packet.buffer.getCommand();
       //System.err.println("command: "+command);
       if(command==SSH_MSG_KEXINIT ||
@@ -1256,8 +1433,7 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
          command==SSH_MSG_DISCONNECT){
         break;
       }
-      try{Thread.sleep(10);}
-      catch(java.lang.InterruptedException e){};
+      awaitKex(t);
     }
     _write(packet);
   }
@@ -1266,7 +1442,15 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
     synchronized(lock){
       encode(packet);
       if(io!=null){
-        io.put(packet);
+        AdaptiveCompression adaptive=adaptive_compression;
+        if(adaptive!=null){
+          long t0=System.nanoTime();
+          io.put(packet);
+          adaptive.blocked(System.nanoTime()-t0);
+        }
+        else{
+          io.put(packet);
+        }
         seqo++;
       }
     }
@@ -1345,6 +1529,12 @@ key_type+" key fingerprint is "+key_fprint+".\n"+
 	    break;
           }
 
+          if(channel.inbox!=null){
+            // window adjust is sent by inbox once data is delivered
+            channel.inbox.data(foo, start[0], length[0]);
+            break;
+          }
+
 try{
 	  channel.write(foo, start[0], length[0]);
 }
@@ -1384,6 +1574,11 @@ break;
 	    break;
           }
 
+          if(channel.inbox!=null){
+            channel.inbox.extData(foo, start[0], length[0]);
+            break;
+          }
+
 	  channel.write_ext(foo, start[0], length[0]);
 
 	  len=length[0];
@@ -1420,7 +1615,13 @@ break;
 	  if(channel!=null){
 	    //channel.eof_remote=true;
 	    //channel.eof();
-	    channel.eof_remote();
+	    if(channel.inbox!=null){
+	      // delivered after pending data
+	      channel.inbox.eof();
+	    }
+	    else{
+	      channel.eof_remote();
+	    }
 	  }
 	  /*
 	  packet.reset();
@@ -1436,7 +1637,12 @@ break;
 	  channel=Channel.getChannel(i, this);
 	  if(channel!=null){
 //	      channel.close();
-	    channel.disconnect();
+	    if(channel.inbox!=null){
+	      channel.inbox.close();
+	    }
+	    else{
+	      channel.disconnect();
+	    }
 	  }
 	  /*
           if(Channel.pool.size()==0){
@@ -1579,7 +1785,7 @@ break;
       }
     }
     catch(Exception e){
-      in_kex=false;
+      kexDone();
       if(JSch.getLogger().isEnabled(Logger.INFO)){
         JSch.getLogger().log(Logger.INFO,
                              "Caught an exception, leaving main loop due to " + e.getMessage());
@@ -1623,6 +1829,9 @@ break;
     Channel.disconnect(this);
 
     isConnected=false;
+    synchronized(kexLock){
+      kexLock.notifyAll();
+    }
 
     PortWatcher.delPort(this);
     ChannelForwardedTCPIP.delPort(this);
@@ -1782,6 +1991,7 @@ break;
   private void initDeflater(String method) throws JSchException{
     if(method.equals("none")){
       deflater=null;
+      adaptive_compression=null;
       return;
     }
     String foo=getConfig(method);
@@ -1794,6 +2004,13 @@ break;
           int level=6;
           try{ level=Integer.parseInt(getConfig("compression_level"));}
           catch(Exception ee){ }
+          if("adaptive".equals(getConfig("compression_mode"))){
+            // level chosen so far survives rekey
+            if(adaptive_compression==null){
+              adaptive_compression=new AdaptiveCompression(level, System.nanoTime());
+            }
+            level=adaptive_compression.getLevel();
+          }
           deflater.init(Compression.DEFLATER, level);
         }
         catch(Exception ee){
@@ -1929,13 +2146,14 @@ break;
 
   private static final byte[] keepalivemsg=Util.str2byte("keepalive@jcraft.com");
   public void sendKeepAliveMsg() throws Exception{
-    Buffer buf=new Buffer();
+    Buffer buf=takeControlBuffer();
     Packet packet=new Packet(buf);
     packet.reset();
     buf.putByte((byte)SSH_MSG_GLOBAL_REQUEST);
     buf.putString(keepalivemsg);
     buf.putByte((byte)1);
     write(packet);
+    recycleControlBuffer(buf);
   }
   
   private HostKey hostkey=null;
@@ -2012,6 +2230,10 @@ break;
     catch(Exception e){
       return false;
     }
+    catch(LinkageError e){
+      // cipher needs newer JCE than available
+      return false;
+    }
   }
 
   private String[] checkKexes(String kexes){
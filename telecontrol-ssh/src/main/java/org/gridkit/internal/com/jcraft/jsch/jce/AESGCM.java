@@ -0,0 +1,94 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2002-2012 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package org.gridkit.internal.com.jcraft.jsch.jce;
+
+import javax.crypto.spec.*;
+
+import org.gridkit.internal.com.jcraft.jsch.AEADCipher;
+
+/**
+ * AES-GCM as specified for SSH by RFC 5647 and OpenSSH.
+ * 12 byte nonce consists of 4 byte fixed field and 8 byte
+ * invocation counter incremented after each packet.
+ * <br/>
+ * Requires Java 7+ JCE, unavailable runtimes are filtered out
+ * by "CheckCiphers".
+ */
+abstract class AESGCM implements AEADCipher{
+  private static final int ivsize=12;
+  private static final int tsize=16;
+  private javax.crypto.Cipher cipher;
+  private SecretKeySpec keyspec;
+  private int mode;
+  private byte[] iv;
+  public int getIVSize(){return ivsize;} 
+  public int getTagSize(){return tsize;} 
+  public void init(int mode, byte[] key, byte[] iv) throws Exception{
+    byte[] tmp;
+    int bsize=getBlockSize();
+    // always copied, counter part of IV is modified after each packet
+    tmp=new byte[ivsize];
+    System.arraycopy(iv, 0, tmp, 0, tmp.length);
+    iv=tmp;
+    if(key.length>bsize){
+      tmp=new byte[bsize];
+      System.arraycopy(key, 0, tmp, 0, tmp.length);
+      key=tmp;
+    }
+    this.mode=(mode==ENCRYPT_MODE?
+               javax.crypto.Cipher.ENCRYPT_MODE:
+               javax.crypto.Cipher.DECRYPT_MODE);
+    this.iv=iv;
+    try{
+      keyspec=new SecretKeySpec(key, "AES");
+      cipher=javax.crypto.Cipher.getInstance("AES/GCM/NoPadding");
+      cipher.init(this.mode, keyspec, new GCMParameterSpec(tsize*8, iv));
+    }
+    catch(Exception e){
+      cipher=null;
+      throw e;
+    }
+  }
+  public void update(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception{
+    cipher.update(foo, s1, len, bar, s2);
+  }
+  public void updateAAD(byte[] foo, int s1, int len) throws Exception{
+    cipher.updateAAD(foo, s1, len);
+  }
+  public void doFinal(byte[] foo, int s1, int len, byte[] bar, int s2) throws Exception{
+    cipher.doFinal(foo, s1, len, bar, s2);
+    // increment invocation counter, JCE does not allow key/IV reuse for next packet
+    for(int i=ivsize-1; i>=4; i--){
+      if(++iv[i]!=0) break;
+    }
+    cipher.init(mode, keyspec, new GCMParameterSpec(tsize*8, iv));
+  }
+  public boolean isCBC(){return false; }
+}
@@ -34,7 +34,7 @@ import com.jcraft.jzlib.ZStream;
 @SuppressWarnings({"deprecation", "unused"})
 public class Compression implements org.gridkit.internal.com.jcraft.jsch.Compression {
   static private final int BUF_SIZE=4096;
-  private final int buffer_margin=32+20; // AES256 + HMACSHA1
+  private final int buffer_margin=32+64; // AES256 + HMACSHA512
   private int type;
 private ZStream stream;
   private byte[] tmpbuf=new byte[BUF_SIZE];
@@ -57,6 +57,18 @@ private ZStream stream;
 
   private byte[] inflated_buf;
 
+  private int pending_level=-1;
+
+  /*
+   * deflateParams() may flush data written so far, so new level is
+   * applied in compress() where flushed output could be captured.
+   */
+  public void setLevel(int level){
+    if(type==DEFLATER){
+      pending_level=level;
+    }
+  }
+
   public byte[] compress(byte[] buf, int start, int[] len){
     stream.next_in=buf;
     stream.next_in_index=start;
@@ -66,6 +78,22 @@ private ZStream stream;
     byte[] outputbuf=buf;
     int tmp=0;
 
+    if(pending_level>=0){
+      stream.next_out=tmpbuf;
+      stream.next_out_index=0;
+      stream.avail_out=BUF_SIZE;
+      stream.deflateParams(pending_level, JZlib.Z_DEFAULT_STRATEGY);
+      pending_level=-1;
+      tmp=BUF_SIZE-stream.avail_out;
+      if(outputbuf.length<outputlen+tmp+buffer_margin){
+        byte[] foo=new byte[(outputlen+tmp+buffer_margin)*2];
+        System.arraycopy(outputbuf, 0, foo, 0, outputbuf.length);
+        outputbuf=foo;
+      }
+      System.arraycopy(tmpbuf, 0, outputbuf, outputlen, tmp);
+      outputlen+=tmp;
+    }
+
     do{
       stream.next_out=tmpbuf;
       stream.next_out_index=0;
@@ -0,0 +1,343 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.lab.util.shell;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a batch of commands concurrently.
+ * <br/>
+ * At most <code>parallelism</code> processes are alive at any time.
+ * Launching, output pumping and exit tracking for all processes are done
+ * by calling thread, so no thread is allocated per child process.
+ * Stderr of each command is merged into its stdout.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class BatchExec {
+
+	private static final long MIN_IDLE_NS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long MAX_IDLE_NS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final int parallelism;
+	private final File baseDir;
+	private final Map<String, String> env;
+	private final List<Job> jobs = new ArrayList<Job>();
+
+	public BatchExec(int parallelism) {
+		this(parallelism, new File("."), Collections.<String, String>emptyMap());
+	}
+
+	public BatchExec(int parallelism, File baseDir, Map<String, String> env) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("parallelism should be positive");
+		}
+		this.parallelism = parallelism;
+		this.baseDir = baseDir;
+		this.env = new HashMap<String, String>(env);
+	}
+
+	public BatchExec add(String... command) {
+		return addAt(baseDir, null, command);
+	}
+
+	public BatchExec addAt(File dir, String... command) {
+		return addAt(dir, null, command);
+	}
+
+	/**
+	 * @param out sink for command output, if <code>null</code> output is captured in {@link JobResult#getOutput()}
+	 */
+	public BatchExec addAt(File dir, OutputStream out, String... command) {
+		File wd = dir.isAbsolute() ? dir : new File(baseDir, dir.getPath());
+		jobs.add(new Job(jobs.size(), wd, out, command));
+		return this;
+	}
+
+	public int size() {
+		return jobs.size();
+	}
+
+	/**
+	 * Executes all commands. Processes still running after timeout are destroyed
+	 * and reported as timed out.
+	 */
+	public BatchResult run(long timeout, TimeUnit tu) throws InterruptedException {
+		long start = System.nanoTime();
+		long deadline = start + tu.toNanos(timeout);
+		List<Job> pending = new ArrayList<Job>(jobs);
+		List<Job> running = new ArrayList<Job>();
+		byte[] buffer = new byte[16 << 10];
+		long idleNs = MIN_IDLE_NS;
+
+		while(!pending.isEmpty() || !running.isEmpty()) {
+			boolean progress = false;
+
+			while(running.size() < parallelism && !pending.isEmpty()) {
+				Job job = pending.remove(0);
+				job.start(env);
+				if (job.process != null) {
+					running.add(job);
+				}
+				progress = true;
+			}
+
+			Iterator<Job> it = running.iterator();
+			while(it.hasNext()) {
+				Job job = it.next();
+				if (job.pump(buffer)) {
+					progress = true;
+				}
+				if (job.checkExit(buffer)) {
+					it.remove();
+					progress = true;
+				}
+			}
+
+			if (System.nanoTime() - deadline > 0) {
+				for(Job job: running) {
+					job.kill(buffer);
+				}
+				for(Job job: pending) {
+					job.result.timedOut = true;
+				}
+				break;
+			}
+
+			if (progress) {
+				idleNs = MIN_IDLE_NS;
+			}
+			else {
+				TimeUnit.NANOSECONDS.sleep(idleNs);
+				idleNs = Math.min(MAX_IDLE_NS, 2 * idleNs);
+			}
+		}
+
+		List<JobResult> results = new ArrayList<JobResult>(jobs.size());
+		for(Job job: jobs) {
+			results.add(job.result);
+		}
+		return new BatchResult(results, System.nanoTime() - start);
+	}
+
+	private static class Job {
+
+		final File dir;
+		final OutputStream sink;
+		final ByteArrayOutputStream capture;
+		final JobResult result;
+		Process process;
+		InputStream stdOut;
+
+		Job(int index, File dir, OutputStream out, String[] command) {
+			this.dir = dir;
+			this.capture = out == null ? new ByteArrayOutputStream() : null;
+			this.sink = out == null ? capture : out;
+			this.result = new JobResult(index, command);
+		}
+
+		void start(Map<String, String> env) {
+			ProcessBuilder pb = new ProcessBuilder(result.command);
+			pb.directory(dir);
+			pb.environment().putAll(env);
+			pb.redirectErrorStream(true);
+			result.startNs = System.nanoTime();
+			try {
+				process = pb.start();
+				process.getOutputStream().close();
+				stdOut = process.getInputStream();
+			}
+			catch(IOException e) {
+				result.error = e;
+				result.finishNs = System.nanoTime();
+				process = null;
+			}
+		}
+
+		boolean pump(byte[] buffer) {
+			try {
+				int n = stdOut.available();
+				if (n > 0) {
+					n = stdOut.read(buffer, 0, Math.min(n, buffer.length));
+					if (n > 0) {
+						sink.write(buffer, 0, n);
+						return true;
+					}
+				}
+			}
+			catch(IOException e) {
+				// ignore
+			}
+			return false;
+		}
+
+		boolean checkExit(byte[] buffer) {
+			try {
+				result.exitCode = process.exitValue();
+			}
+			catch(IllegalThreadStateException e) {
+				return false;
+			}
+			drain(buffer);
+			result.finishNs = System.nanoTime();
+			return true;
+		}
+
+		void kill(byte[] buffer) {
+			process.destroy();
+			drain(buffer);
+			result.timedOut = true;
+			result.finishNs = System.nanoTime();
+		}
+
+		private void drain(byte[] buffer) {
+			// do not block on EOF, grand children may still hold the pipe
+			while(pump(buffer)) {
+				continue;
+			}
+			try {
+				sink.flush();
+				stdOut.close();
+			}
+			catch(IOException e) {
+				// ignore
+			}
+			if (capture != null) {
+				result.output = new String(capture.toByteArray());
+			}
+		}
+	}
+
+	public static class JobResult {
+
+		private final int index;
+		private final String[] command;
+		private int exitCode = -1;
+		private boolean timedOut;
+		private IOException error;
+		private String output;
+		private long startNs;
+		private long finishNs;
+
+		JobResult(int index, String[] command) {
+			this.index = index;
+			this.command = command;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public List<String> getCommand() {
+			return Arrays.asList(command);
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		public boolean isTimedOut() {
+			return timedOut;
+		}
+
+		/**
+		 * @return launch error or <code>null</code>
+		 */
+		public IOException getError() {
+			return error;
+		}
+
+		/**
+		 * @return captured output or <code>null</code> if explicit sink was provided
+		 */
+		public String getOutput() {
+			return output;
+		}
+
+		public boolean isSuccess() {
+			return error == null && !timedOut && exitCode == 0;
+		}
+
+		public long getDuration(TimeUnit tu) {
+			return startNs == 0 ? 0 : tu.convert(finishNs - startNs, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			return getCommand() + " -> " + (timedOut ? "timeout" : error != null ? error.toString() : "exit code " + exitCode)
+					+ " in " + getDuration(TimeUnit.MILLISECONDS) + "ms";
+		}
+	}
+
+	public static class BatchResult {
+
+		private final List<JobResult> results;
+		private final long elapsedNs;
+
+		BatchResult(List<JobResult> results, long elapsedNs) {
+			this.results = Collections.unmodifiableList(results);
+			this.elapsedNs = elapsedNs;
+		}
+
+		/**
+		 * @return results in order commands were added
+		 */
+		public List<JobResult> getResults() {
+			return results;
+		}
+
+		public List<JobResult> getFailures() {
+			List<JobResult> failed = new ArrayList<JobResult>();
+			for(JobResult r: results) {
+				if (!r.isSuccess()) {
+					failed.add(r);
+				}
+			}
+			return failed;
+		}
+
+		public boolean isSuccess() {
+			return getFailures().isEmpty();
+		}
+
+		public long getElapsed(TimeUnit tu) {
+			return tu.convert(elapsedNs, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @throws Shell.NonZeroExitCodeException if any command has failed
+		 */
+		public BatchResult verify() throws Shell.NonZeroExitCodeException {
+			List<JobResult> failed = getFailures();
+			if (!failed.isEmpty()) {
+				throw new Shell.NonZeroExitCodeException(failed.size() + " of " + results.size() + " commands failed, first: " + failed.get(0));
+			}
+			return this;
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.lab.util.shell;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Follows any number of growing text files from single thread.
+ * <br/>
+ * Files are checked for new data using cheap size check,
+ * poll interval grows while files are idle and is reset on first new line.
+ * Files which do not exist yet are picked up once created.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class LogFollower {
+
+	private static final long MIN_POLL_NS = TimeUnit.MILLISECONDS.toNanos(5);
+	private static final long MAX_POLL_NS = TimeUnit.MILLISECONDS.toNanos(300);
+
+	private final Charset charset;
+	private final List<Source> sources = new ArrayList<Source>();
+	private Thread worker;
+	private volatile boolean stopped;
+
+	public LogFollower() {
+		this(Charset.defaultCharset());
+	}
+
+	public LogFollower(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Adds file to follow. Lines are delivered to listener starting from file beginning.
+	 */
+	public synchronized void follow(File file, LineListener listener) {
+		sources.add(new Source(file, listener));
+		notifyAll();
+	}
+
+	/**
+	 * Reads all available data from followed files and dispatches completed lines.
+	 * @return number of lines dispatched
+	 */
+	public synchronized int poll() {
+		int lines = 0;
+		Iterator<Source> it = sources.iterator();
+		while(it.hasNext()) {
+			Source source = it.next();
+			try {
+				if (!source.open()) {
+					continue;
+				}
+				source.tailer.feed();
+				String line;
+				while((line = source.tailer.nextLine()) != null) {
+					++lines;
+					if (!source.listener.onLine(source.file, line)) {
+						source.close();
+						it.remove();
+						break;
+					}
+				}
+			}
+			catch(IOException e) {
+				// file may be recreated, reopen on next poll
+				source.close();
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Starts background thread dispatching lines for all followed files.
+	 */
+	public synchronized void start() {
+		if (worker != null) {
+			throw new IllegalStateException("Already started");
+		}
+		worker = new Thread("LogFollower") {
+			@Override
+			public void run() {
+				long pollNs = MIN_POLL_NS;
+				while(!stopped) {
+					if (poll() > 0) {
+						pollNs = MIN_POLL_NS;
+					}
+					else {
+						try {
+							idle(pollNs);
+						} catch (InterruptedException e) {
+							break;
+						}
+						pollNs = Math.min(MAX_POLL_NS, 2 * pollNs);
+					}
+				}
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	private synchronized void idle(long pollNs) throws InterruptedException {
+		TimeUnit.NANOSECONDS.timedWait(this, pollNs);
+	}
+
+	public void stop() {
+		stopped = true;
+		Thread t;
+		synchronized(this) {
+			t = worker;
+			for(Source source: sources) {
+				source.close();
+			}
+			sources.clear();
+		}
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * Blocks until line (or incomplete trailing line) in file matches any of patterns.
+	 * Patterns are combined and each line is scanned once.
+	 * @return index of matched pattern
+	 */
+	public static int waitForAny(File file, Charset charset, long timeout, TimeUnit tu, String... patterns) throws TimeoutException {
+		PatternSet matcher = new PatternSet(patterns);
+		long deadline = System.nanoTime() + tu.toNanos(timeout);
+		long pollNs = MIN_POLL_NS;
+		Tailer tail = null;
+		try {
+			while(true) {
+				if (deadline - System.nanoTime() < 0) {
+					throw new TimeoutException();
+				}
+				try {
+					if (tail == null) {
+						tail = new Tailer(file, charset);
+					}
+					String line;
+					while((line = tail.nextLine()) != null) {
+						pollNs = MIN_POLL_NS;
+						int n = matcher.find(line);
+						if (n >= 0) {
+							return n;
+						}
+					}
+					int n = matcher.find(tail.getRemainder());
+					if (n >= 0) {
+						return n;
+					}
+				}
+				catch(IOException e) {
+					// file may be missing yet or recreated, retry until timeout
+					if (tail != null) {
+						tail.close();
+						tail = null;
+					}
+				}
+				try {
+					long sleep = Math.min(pollNs, deadline - System.nanoTime());
+					if (sleep > 0) {
+						TimeUnit.NANOSECONDS.sleep(sleep);
+					}
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				pollNs = Math.min(MAX_POLL_NS, 2 * pollNs);
+			}
+		}
+		finally {
+			if (tail != null) {
+				tail.close();
+			}
+		}
+	}
+
+	public interface LineListener {
+
+		/**
+		 * @return <code>false</code> to stop following this file
+		 */
+		public boolean onLine(File file, String line);
+
+	}
+
+	private class Source {
+
+		final File file;
+		final LineListener listener;
+		Tailer tailer;
+
+		Source(File file, LineListener listener) {
+			this.file = file;
+			this.listener = listener;
+		}
+
+		boolean open() {
+			if (tailer == null) {
+				try {
+					tailer = new Tailer(file, charset);
+				} catch (FileNotFoundException e) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		void close() {
+			if (tailer != null) {
+				tailer.close();
+				tailer = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.lab.util.shell;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Several regular expressions combined into single alternation,
+ * so line is scanned once regardless of number of patterns.
+ * <br/>
+ * Patterns are wrapped in non capturing groups, matched alternative
+ * is identified by matching patterns at position of combined match.
+ * If combining would shift numbers of back references, patterns
+ * are scanned one by one.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class PatternSet {
+
+	private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\([1-9]|k<)");
+
+	private final Pattern[] patterns;
+	private final Pattern combined;
+
+	public PatternSet(String... patterns) {
+		if (patterns.length == 0) {
+			throw new IllegalArgumentException("No patterns");
+		}
+		this.patterns = new Pattern[patterns.length];
+		StringBuilder sb = new StringBuilder();
+		int groups = 0;
+		boolean combinable = true;
+		for(int i = 0; i != patterns.length; ++i) {
+			this.patterns[i] = Pattern.compile(patterns[i]);
+			if (groups > 0 && BACK_REFERENCE.matcher(patterns[i]).find()) {
+				combinable = false;
+			}
+			groups += this.patterns[i].matcher("").groupCount();
+			if (sb.length() > 0) {
+				sb.append('|');
+			}
+			sb.append("(?:").append(patterns[i]).append(')');
+		}
+		combined = combinable ? Pattern.compile(sb.toString()) : null;
+	}
+
+	/**
+	 * @return index of pattern matching leftmost in text or -1
+	 */
+	public int find(CharSequence text) {
+		if (combined != null) {
+			Matcher m = combined.matcher(text);
+			if (m.find()) {
+				// first alternative matching at this position is the one taken by alternation
+				int start = m.start();
+				for(int i = 0; i != patterns.length; ++i) {
+					Matcher pm = patterns[i].matcher(text);
+					pm.useAnchoringBounds(false);
+					pm.useTransparentBounds(true);
+					pm.region(start, text.length());
+					if (pm.lookingAt()) {
+						return i;
+					}
+				}
+			}
+			return -1;
+		}
+		else {
+			int match = -1;
+			int start = Integer.MAX_VALUE;
+			for(int i = 0; i != patterns.length; ++i) {
+				Matcher m = patterns[i].matcher(text);
+				if (m.find() && m.start() < start) {
+					match = i;
+					start = m.start();
+				}
+			}
+			return match;
+		}
+	}
+}
@@ -82,6 +82,12 @@ public interface Prompt {
 	public boolean exists(String path) throws IOException;
 
 	public Prompt waitForMatch(String path, String pattern) throws TimeoutException, IOException;
+
+	/**
+	 * Waits until any of patterns is found in file.
+	 * @return index of matched pattern
+	 */
+	public int waitForAnyMatch(String path, String... patterns) throws TimeoutException, IOException;
 	
 	public Prompt exec(String... command) throws IOException, InterruptedException;
 
@@ -95,6 +101,11 @@ public interface Prompt {
 
 	public Prompt execAt(String path, StringBuilder stdOut, String... command) throws IOException, InterruptedException;
 	
+	/**
+	 * Creates batch of commands to be executed concurrently in current directory and environment.
+	 */
+	public BatchExec batch(int parallelism) throws IOException;
+
 	public ChildProcess execInteractive(String... command) throws IOException, InterruptedException;
 
 	public ChildProcess execInteractive(OutputStream stdOut, String... command) throws IOException, InterruptedException;
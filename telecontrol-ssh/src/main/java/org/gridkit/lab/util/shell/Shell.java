@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -45,11 +46,6 @@ public class Shell {
 		return new SimpleShell();
 	}
 
-	private static final long ANCHOR = System.nanoTime();
-	private static long now() {
-		return System.nanoTime() - ANCHOR;
-	}
-	
 	public static class SimpleShell implements Prompt, Serializable {
 
 		private static final long serialVersionUID = 20121118L;
@@ -191,53 +187,14 @@ public class Shell {
 
 		@Override
 		public Prompt waitForMatch(String path, String pattern) throws TimeoutException, IOException {
+			waitForAnyMatch(path, pattern);
+			return this;
+		}
+
+		@Override
+		public int waitForAnyMatch(String path, String... patterns) throws TimeoutException, IOException {
 			File file = resolvePath(path);
-			Pattern re = Pattern.compile(pattern);
-			long deadline = now() + waitTimeoutNs;
-			while(true) {
-				if (deadline < now()) {
-					throw new TimeoutException();
-				}
-				try {
-					Tailer tail = new Tailer(file);
-					try {
-						while(true) {
-							if (deadline < now()) {
-								throw new TimeoutException();
-							}
-							String line  = tail.nextLine();							
-							if (line == null) {
-								String rm = tail.getRemainder();
-								if (re.matcher(rm).find()) {
-									return this;
-								}
-								
-								try {
-									Thread.sleep(300);
-								} catch (InterruptedException e) {
-									throw new RuntimeException(e);
-								}
-							}
-							else {
-								if (re.matcher(line).find()) {
-									return this;
-								}								
-							}
-						}
-					}
-					finally {
-						tail.close();
-					}
-				}
-				catch(IOException e) {
-					try {
-						Thread.sleep(300);
-					} catch (InterruptedException ee) {
-						throw new RuntimeException(ee);
-					}
-					continue;
-				}
-			}
+			return LogFollower.waitForAny(file, Charset.defaultCharset(), waitTimeoutNs, TimeUnit.NANOSECONDS, patterns);
 		}
 
 		@Override
@@ -445,6 +402,11 @@ public class Shell {
 			return this;
 		}
 
+		@Override
+		public BatchExec batch(int parallelism) throws IOException {
+			return new BatchExec(parallelism, resolvePath("."), env);
+		}
+
 		@Override
 		public ChildProcess execInteractive(String... command) throws IOException, InterruptedException {
 			return execInteractiveAt(".", stdOut, command);
@@ -16,39 +16,61 @@
 package org.gridkit.lab.util.shell;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
+/**
+ * Incremental line reader for growing file.
+ * <br/>
+ * Byte and char buffers are allocated once and reused between reads.
+ * If file is truncated (e.g. log rotation) reading restarts from file start.
+ */
 class Tailer {
-	
-	private RandomAccessFile data;
+
+	private static final int BLOCK_SIZE = 64 << 10;
+
+	private final FileInputStream stream;
+	private final FileChannel data;
+	private final CharsetDecoder decoder;
+	private final ByteBuffer bytes = ByteBuffer.allocateDirect(BLOCK_SIZE);
+	private final CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
 	private long position;
-	private List<String> buffer = new ArrayList<String>();
+	private Deque<String> buffer = new ArrayDeque<String>();
 	private StringBuilder remaineder = new StringBuilder();
-	
+
 	public Tailer(File file) throws FileNotFoundException {
-		data = new RandomAccessFile(file, "r");		
+		this(file, Charset.defaultCharset());
 	}
-	
+
+	public Tailer(File file, Charset charset) throws FileNotFoundException {
+		stream = new FileInputStream(file);
+		data = stream.getChannel();
+		decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
 	public synchronized String nextLine() throws IOException {
 		if (buffer.isEmpty()) {
 			feed();
 		}
-		if (buffer.isEmpty()) {
-			return null;
-		}
-		else {
-			return buffer.remove(0);
-		}
+		return buffer.poll();
 	}
-	
+
 	public void close() {
 		buffer.clear();
 		try {
-			data.close();
+			stream.close();
 		} catch (IOException e) {
 			// ignore
 		}
@@ -58,30 +80,61 @@ class Tailer {
 		return remaineder.toString();
 	}
 
-	private synchronized void feed() throws IOException {
-		long size = data.length();
-		if (position < size) {
-			byte[] block = new byte[64 << 10];
-			data.seek(position);
-			int n = data.read(block);
+	/**
+	 * @return <code>true</code> if any new data has been read
+	 */
+	synchronized boolean feed() throws IOException {
+		long size = data.size();
+		if (size < position) {
+			// file has been truncated
+			position = 0;
+			bytes.clear();
+			decoder.reset();
+			remaineder.setLength(0);
+		}
+		boolean progress = false;
+		while (position < size) {
+			int n = data.read(bytes, position);
+			if (n <= 0) {
+				break;
+			}
 			position += n;
-			for(int i = 0; i != n; ++i) {
-				if ('\n'  == block[i]) {
-					trimRf(remaineder);
-					buffer.add(remaineder.toString());
-					remaineder.setLength(0);
-				}
-				else {
-					remaineder.append((char)block[i]);
+			progress = true;
+			bytes.flip();
+			while(true) {
+				CoderResult cr = decoder.decode(bytes, chars, false);
+				chars.flip();
+				splitLines();
+				chars.clear();
+				if (!cr.isOverflow()) {
+					break;
 				}
 			}
-		}		
+			// undecoded tail of multibyte char remains for next read
+			bytes.compact();
+		}
+		return progress;
+	}
+
+	private void splitLines() {
+		int start = chars.position();
+		int limit = chars.limit();
+		for(int i = start; i != limit; ++i) {
+			if ('\n' == chars.get(i)) {
+				remaineder.append(chars.array(), chars.arrayOffset() + start, i - start);
+				trimRf(remaineder);
+				buffer.add(remaineder.toString());
+				remaineder.setLength(0);
+				start = i + 1;
+			}
+		}
+		remaineder.append(chars.array(), chars.arrayOffset() + start, limit - start);
 	}
 
 	private void trimRf(StringBuilder buf) {
 		if (buf.length() > 0 && buf.charAt(buf.length() - 1) == '\r') {
 			buf.setLength(buf.length() - 1);
 		}
-		
+
 	}
 }
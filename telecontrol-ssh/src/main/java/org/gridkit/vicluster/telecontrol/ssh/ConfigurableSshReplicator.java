@@ -163,6 +163,11 @@ public class ConfigurableSshReplicator implements ViNodeProvider {
 		s.keyFile = override(s.keyFile, nodeConfig.getProp(RemoteNodeProps.SSH_KEY_FILE));
 		s.javaExec = override(s.javaExec, nodeConfig.getProp(RemoteNodeProps.JAVA_EXEC));
 		s.jarCachePath = override(s.jarCachePath, nodeConfig.getProp(RemoteNodeProps.JAR_CACHE_PATH));
+		s.lazyClasspath = override(s.lazyClasspath, nodeConfig.getProp(RemoteNodeProps.LAZY_CLASSPATH));
+		s.windowSize = override(s.windowSize, nodeConfig.getProp(RemoteNodeProps.SSH_WINDOW_SIZE));
+		s.compression = override(s.compression, nodeConfig.getProp(RemoteNodeProps.SSH_COMPRESSION));
+		s.sftpConcurrency = override(s.sftpConcurrency, nodeConfig.getProp(RemoteNodeProps.SFTP_CONCURRENCY));
+		s.sftpFileParallelism = override(s.sftpFileParallelism, nodeConfig.getProp(RemoteNodeProps.SFTP_FILE_PARALLELISM));
 		
 		if (s.host == null) {
 			throw new IllegalArgumentException("Remote host is not specified for node '" + name + "'");
@@ -320,6 +325,11 @@ public class ConfigurableSshReplicator implements ViNodeProvider {
 		String authMethods;
 		String javaExec;
 		String jarCachePath;
+		String lazyClasspath;
+		String windowSize;
+		String compression;
+		String sftpConcurrency;
+		String sftpFileParallelism;
 		
 		public Map<String, String> toConfig() {
 			Map<String, String> config = new HashMap<String, String>();
@@ -330,6 +340,19 @@ public class ConfigurableSshReplicator implements ViNodeProvider {
 			config.put(RemoteNodeProps.SSH_AUTH_METHODS, authMethods);
 			config.put(RemoteNodeProps.JAVA_EXEC, javaExec);
 			config.put(RemoteNodeProps.JAR_CACHE_PATH, jarCachePath);
+			config.put(RemoteNodeProps.LAZY_CLASSPATH, lazyClasspath);
+			if (windowSize != null) {
+				config.put(RemoteNodeProps.SSH_WINDOW_SIZE, windowSize);
+			}
+			if (compression != null) {
+				config.put(RemoteNodeProps.SSH_COMPRESSION, compression);
+			}
+			if (sftpConcurrency != null) {
+				config.put(RemoteNodeProps.SFTP_CONCURRENCY, sftpConcurrency);
+			}
+			if (sftpFileParallelism != null) {
+				config.put(RemoteNodeProps.SFTP_FILE_PARALLELISM, sftpFileParallelism);
+			}
 			return config;
 		}
 		
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster.telecontrol.ssh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.gridkit.vicluster.telecontrol.Classpath.ClasspathEntry;
+import org.gridkit.vicluster.telecontrol.ClasspathUtils;
+import org.gridkit.vicluster.telecontrol.ssh.TunnellerJvmReplicator.ByteBlob;
+
+/**
+ * Content addressed view of classpath replicated to remote host.
+ * <br/>
+ * Entries are tracked by content hash, so classpath variations
+ * (see {@link org.gridkit.vicluster.telecontrol.JvmConfig#filterClasspath(List)})
+ * upload only entries which are not on the host yet.
+ * Manifest jars are cached by main class and ordered entry hashes,
+ * so nodes sharing classpath reuse same boot jar.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class RemoteClasspathSnapshot {
+
+	private final RemoteFileCache cache;
+
+	/** content hash -> remote path */
+	private final Map<String, String> remotePaths = new HashMap<String, String>();
+
+	/** main class + entry hashes -> remote path of manifest jar */
+	private final Map<String, String> manifestJars = new HashMap<String, String>();
+
+	public RemoteClasspathSnapshot(RemoteFileCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Uploads entries missing on remote side.
+	 * @return remote paths in same order as classpath
+	 */
+	public synchronized List<String> replicate(List<ClasspathEntry> classpath) {
+		List<ClasspathEntry> delta = new ArrayList<ClasspathEntry>();
+		for(ClasspathEntry ce: classpath) {
+			if (!remotePaths.containsKey(ce.getContentHash())) {
+				delta.add(ce);
+			}
+		}
+
+		if (!delta.isEmpty()) {
+			// random upload order improve performance if cache is on shared mount
+			Collections.shuffle(delta);
+			List<String> rnames = cache.upload(delta);
+			for(int i = 0; i != rnames.size(); ++i) {
+				remotePaths.put(delta.get(i).getContentHash(), rnames.get(i));
+			}
+		}
+
+		List<String> result = new ArrayList<String>(classpath.size());
+		for(ClasspathEntry ce: classpath) {
+			result.add(remotePaths.get(ce.getContentHash()));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns remote path of manifest only jar referencing provided classpath.
+	 * Jar is built and uploaded only once per distinct classpath and main class.
+	 */
+	public synchronized String getManifestJar(String jarName, String mainClass, List<ClasspathEntry> classpath) throws IOException {
+		String key = snapshotKey(mainClass, classpath);
+		String path = manifestJars.get(key);
+		if (path == null) {
+			List<String> rpath = replicate(classpath);
+
+			StringBuilder remoteClasspath = new StringBuilder();
+			for(String rp: rpath) {
+				if (remoteClasspath.length() > 0) {
+					remoteClasspath.append(' ');
+				}
+				remoteClasspath.append(rp);
+			}
+
+			Manifest mf = new Manifest();
+			mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+			mf.getMainAttributes().put(Attributes.Name.CLASS_PATH, remoteClasspath.toString());
+			mf.getMainAttributes().put(Attributes.Name.MAIN_CLASS, mainClass);
+
+			byte[] jar = ClasspathUtils.createManifestJar(mf);
+			path = cache.upload(new ByteBlob(jarName, jar));
+			manifestJars.put(key, path);
+		}
+		return path;
+	}
+
+	public synchronized int getReplicatedEntryCount() {
+		return remotePaths.size();
+	}
+
+	private static String snapshotKey(String mainClass, List<ClasspathEntry> classpath) {
+		StringBuilder sb = new StringBuilder(mainClass);
+		for(ClasspathEntry ce: classpath) {
+			sb.append('|').append(ce.getContentHash());
+		}
+		return sb.toString();
+	}
+}
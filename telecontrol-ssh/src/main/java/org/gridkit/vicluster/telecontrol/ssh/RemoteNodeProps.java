@@ -53,6 +53,36 @@ public class RemoteNodeProps implements ViNodeProps {
 	 */
 	public static String JAR_CACHE_PATH = "remote:jar-cache-path"; 
 
+	/**
+	 * If <code>true</code>, remote JVM will load classes from master on demand
+	 * instead of requiring whole classpath to be uploaded to host.
+	 */
+	public static String LAZY_CLASSPATH = "remote:lazy-classpath"; 
+
+	/**
+	 * SSH channel window size in bytes. Larger window keeps more data in flight,
+	 * which improves throughput of tunneled traffic on high latency links.
+	 */
+	public static String SSH_WINDOW_SIZE = "remote:ssh-window-size"; 
+
+	/**
+	 * Number of SFTP channels used to upload classpath to a host.
+	 */
+	public static String SFTP_CONCURRENCY = "remote:sftp-concurrency"; 
+
+	/**
+	 * SSH compression: <code>none</code> (default), <code>fast</code>, <code>high</code> or <code>adaptive</code>.
+	 * Adaptive mode picks deflate level from observed compression ratio and link saturation,
+	 * so it is effectively off on LAN.
+	 */
+	public static String SSH_COMPRESSION = "remote:ssh-compression"; 
+
+	/**
+	 * Maximum number of SFTP channels used to upload single large file.
+	 * Channels are borrowed from host pool (see {@link #SFTP_CONCURRENCY}).
+	 */
+	public static String SFTP_FILE_PARALLELISM = "remote:sftp-file-parallelism"; 
+
 	private ViConfigurable config;
 	
 	public static RemoteNodeProps at(ViConfigurable target) {
@@ -116,4 +146,49 @@ public class RemoteNodeProps implements ViNodeProps {
 		config.setProp(JAR_CACHE_PATH, jarCachePath);
 		return this;
 	}	
+
+	public static void setLazyClasspath(ViConfigurable config, boolean lazy) {
+		config.setProp(LAZY_CLASSPATH, String.valueOf(lazy));
+	}	
+	
+	public RemoteNodeProps setLazyClasspath(boolean lazy) {
+		config.setProp(LAZY_CLASSPATH, String.valueOf(lazy));
+		return this;
+	}	
+
+	public static void setSshWindowSize(ViConfigurable config, int bytes) {
+		config.setProp(SSH_WINDOW_SIZE, String.valueOf(bytes));
+	}	
+	
+	public RemoteNodeProps setSshWindowSize(int bytes) {
+		config.setProp(SSH_WINDOW_SIZE, String.valueOf(bytes));
+		return this;
+	}	
+
+	public static void setSshCompression(ViConfigurable config, String mode) {
+		config.setProp(SSH_COMPRESSION, mode);
+	}	
+	
+	public RemoteNodeProps setSshCompression(String mode) {
+		config.setProp(SSH_COMPRESSION, mode);
+		return this;
+	}	
+
+	public static void setSftpConcurrency(ViConfigurable config, int channels) {
+		config.setProp(SFTP_CONCURRENCY, String.valueOf(channels));
+	}	
+	
+	public RemoteNodeProps setSftpConcurrency(int channels) {
+		config.setProp(SFTP_CONCURRENCY, String.valueOf(channels));
+		return this;
+	}	
+
+	public static void setSftpFileParallelism(ViConfigurable config, int channels) {
+		config.setProp(SFTP_FILE_PARALLELISM, String.valueOf(channels));
+	}	
+	
+	public RemoteNodeProps setSftpFileParallelism(int channels) {
+		config.setProp(SFTP_FILE_PARALLELISM, String.valueOf(channels));
+		return this;
+	}	
 }
@@ -15,6 +15,9 @@
  */
 package org.gridkit.vicluster.telecontrol.ssh;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -34,10 +37,12 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.gridkit.internal.com.jcraft.jsch.ChannelSftp;
 import org.gridkit.internal.com.jcraft.jsch.JSchException;
 import org.gridkit.internal.com.jcraft.jsch.Session;
+import org.gridkit.internal.com.jcraft.jsch.SftpATTRS;
 import org.gridkit.internal.com.jcraft.jsch.SftpException;
 import org.gridkit.vicluster.telecontrol.FileBlob;
 import org.slf4j.Logger;
@@ -45,12 +50,22 @@ import org.slf4j.LoggerFactory;
 
 
 /**
+ * Uploads files to remote host via pool of SFTP channels.
+ * <br/>
+ * Upload of single file is RTT bound if too few write requests are in flight.
+ * Number of outstanding requests is derived from measured RTT and target bandwidth
+ * unless set explicitly. Large files are split in parts uploaded over several channels
+ * of the pool in parallel, each channel adds its own SSH window to data in flight.
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
 public class SftFileCache implements RemoteFileCache {
 	
 	private final static Logger LOGGER = LoggerFactory.getLogger(SftFileCache.class);
+
+	private final static int MIN_BULK_REQUESTS = 16;
+	private final static int MAX_BULK_REQUESTS = 256;
+	private final static long MIN_PART_SIZE = 512 << 10;
 	
 	private final Session session;
 	private final String jarCachePath;
@@ -60,6 +75,16 @@ public class SftFileCache implements RemoteFileCache {
 
 	private Map<String, String> fileMapping = new ConcurrentHashMap<String, String>();
 
+	private volatile int bulkRequests = 0;
+	private volatile int packetSize = 0;
+	private volatile int fileParallelism = 1;
+	private volatile long targetBandwidth = 100 << 20;
+	private volatile long rtt = -1;
+
+	private final AtomicLong bytesUploaded = new AtomicLong();
+	private final AtomicLong uploadTime = new AtomicLong();
+	private volatile double transferRate = -1;
+
 	public SftFileCache(Session session, String cachePath, int concurency) throws JSchException, InterruptedException, SftpException {
 		this.session = session;
 		this.jarCachePath = cachePath;
@@ -100,8 +125,87 @@ public class SftFileCache implements RemoteFileCache {
 		sftpMkdirs(sftp, jarCachePath);
 		sftp.cd(jarCachePath);
 		absoluteCachPath = sftp.pwd();
+		measureRtt(sftp);
 		release(sftp);
 	}
+
+	private void measureRtt(ChannelSftp sftp) {
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i != 3; ++i) {
+			long start = System.nanoTime();
+			exists(sftp, absoluteCachPath);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		rtt = best;
+		LOGGER.debug("SFTP round trip to " + session.getHost() + " is " + TimeUnit.NANOSECONDS.toMicros(best) + "us");
+	}
+
+	/**
+	 * Number of outstanding write requests per channel. 
+	 * Zero (default) means it would be calculated from RTT and target bandwidth.
+	 */
+	public void setBulkRequests(int bulkRequests) {
+		if (bulkRequests < 0) {
+			throw new IllegalArgumentException("bulkRequests should not be negative");
+		}
+		this.bulkRequests = bulkRequests;
+	}
+
+	/**
+	 * Size of write request. Zero (default) means largest packet allowed by server,
+	 * packet could not exceed that limit anyway.
+	 */
+	public void setPacketSize(int packetSize) {
+		if (packetSize < 0) {
+			throw new IllegalArgumentException("packetSize should not be negative");
+		}
+		this.packetSize = packetSize;
+	}
+
+	/**
+	 * Maximum number of channels used to upload single file.
+	 * Extra channels are borrowed only if idle, so concurrent uploads of several 
+	 * files are not slowed down.
+	 */
+	public void setFileParallelism(int fileParallelism) {
+		if (fileParallelism < 1) {
+			throw new IllegalArgumentException("fileParallelism should be positive");
+		}
+		this.fileParallelism = fileParallelism;
+	}
+
+	/**
+	 * Bandwidth (bytes per second) used to calculate number of outstanding requests 
+	 * from RTT (bandwidth-delay product).
+	 */
+	public void setTargetBandwidth(long bytesPerSecond) {
+		if (bytesPerSecond <= 0) {
+			throw new IllegalArgumentException("bandwidth should be positive");
+		}
+		this.targetBandwidth = bytesPerSecond;
+	}
+
+	/**
+	 * @return round trip time of SFTP request measured at start up
+	 */
+	public long getRoundTripTime(TimeUnit tu) {
+		return tu.convert(rtt, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return smoothed upload rate to this host in bytes per second, or -1 if nothing was uploaded yet
+	 */
+	public double getTransferRate() {
+		return transferRate;
+	}
+
+	public long getBytesUploaded() {
+		return bytesUploaded.get();
+	}
+
+	public long getUploadTime(TimeUnit tu) {
+		return tu.convert(uploadTime.get(), TimeUnit.NANOSECONDS);
+	}
 	
 	private void prime() throws JSchException, SftpException {
 		List<ChannelSftp> all = new ArrayList<ChannelSftp>();
@@ -195,9 +299,9 @@ public class SftFileCache implements RemoteFileCache {
 		while(tries > 0) {
 			--tries;
 			try {
-				if (!exists(sftp, rname)) {
+				if (!isComplete(sftp, rname, blob.size())) {
 					LOGGER.info("Uploading: " + session.getHost() + ":" + rname + " " + blob.size() + " bytes");
-					sftp.put(blob.getContent(), rname);
+					transfer(sftp, blob, rname);
 				}
 				else {
 					LOGGER.debug("Already exists: " + session.getHost() + ":" + rname + " " + blob.size() + " bytes");
@@ -218,6 +322,244 @@ public class SftFileCache implements RemoteFileCache {
 	}
 	
 
+	/**
+	 * File is uploaded under temporary name and renamed once complete,
+	 * so failed upload never leaves truncated file under cached name.
+	 */
+	private void transfer(ChannelSftp sftp, FileBlob blob, String rname) throws SftpException {
+		long start = System.nanoTime();
+		String tname = rname + ".tmp-" + Long.toHexString(System.nanoTime());
+		List<ChannelSftp> extra = borrowExtraChannels(blob.size());
+		boolean done = false;
+		try {
+			tune(sftp);
+			if (extra.isEmpty()) {
+				InputStream is = blob.getContent();
+				try {
+					sftp.put(is, tname);
+				}
+				finally {
+					close(is);
+				}
+			}
+			else {
+				transferParts(sftp, extra, blob, tname);
+			}
+			commit(sftp, tname, rname, blob.size());
+			done = true;
+		}
+		finally {
+			if (!done) {
+				// runtime errors and interruption should not leave temp file behind either
+				silentRemove(sftp, tname);
+			}
+			for(ChannelSftp ch: extra) {
+				release(ch);
+			}
+		}
+		long time = System.nanoTime() - start;
+		recordTransfer(blob.size(), time);
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Uploaded: " + session.getHost() + ":" + rname + " " + blob.size() + " bytes in " + TimeUnit.NANOSECONDS.toMillis(time) + "ms over " + (1 + extra.size()) + " channel(s)");
+		}
+	}
+
+	private static void commit(ChannelSftp sftp, String tname, String rname, long size) throws SftpException {
+		if (!isComplete(sftp, tname, size)) {
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, "Uploaded file size mismatch " + tname);
+		}
+		try {
+			sftp.rename(tname, rname);
+		}
+		catch(SftpException e) {
+			// file could be uploaded concurrently, or left incomplete by older version
+			if (isComplete(sftp, rname, size)) {
+				silentRemove(sftp, tname);
+			}
+			else {
+				silentRemove(sftp, rname);
+				sftp.rename(tname, rname);
+			}
+		}
+	}
+
+	private static void silentRemove(ChannelSftp sftp, String path) {
+		try {
+			sftp.rm(path);
+		}
+		catch(Exception e) {
+			// ignore, channel may be already broken
+		}
+	}
+
+	private List<ChannelSftp> borrowExtraChannels(long size) {
+		int parts = (int) Math.min(fileParallelism, size / MIN_PART_SIZE);
+		if (parts < 2) {
+			return Collections.emptyList();
+		}
+		List<ChannelSftp> extra = new ArrayList<ChannelSftp>();
+		while(extra.size() < parts - 1) {
+			// never wait for channel, it is either idle or busy with another file
+			ChannelSftp ch = channels.poll();
+			if (ch == null) {
+				break;
+			}
+			extra.add(ch);
+		}
+		return extra;
+	}
+
+	private void transferParts(ChannelSftp sftp, List<ChannelSftp> extra, final FileBlob blob, final String rname) throws SftpException {
+		// create and truncate file, parts are written without truncation
+		sftp.put(new ByteArrayInputStream(new byte[0]), rname);
+		int parts = extra.size() + 1;
+		long size = blob.size();
+		long partSize = (size + parts - 1) / parts;
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for(int i = 1; i < parts; ++i) {
+			final ChannelSftp ch = extra.get(i - 1);
+			final long offset = i * partSize;
+			final long len = Math.min(partSize, size - offset);
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					tune(ch);
+					putPart(ch, blob, rname, offset, len);
+					return null;
+				}
+			}));
+		}
+		SftpException error = null;
+		try {
+			putPart(sftp, blob, rname, 0, Math.min(partSize, size));
+		}
+		catch(SftpException e) {
+			error = e;
+		}
+		for(Future<?> f: futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted");
+			} catch (ExecutionException e) {
+				if (error == null) {
+					Throwable cause = e.getCause();
+					error = cause instanceof SftpException ? (SftpException)cause : new SftpException(ChannelSftp.SSH_FX_FAILURE, cause.toString(), cause);
+				}
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private static void putPart(ChannelSftp sftp, FileBlob blob, String rname, long offset, long len) throws SftpException {
+		InputStream is = blob.getContent();
+		try {
+			skipFully(is, offset);
+			sftp.put(new RangeInputStream(is, len), rname, offset);
+		} catch (IOException e) {
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.toString(), e);
+		}
+		finally {
+			close(is);
+		}
+	}
+
+	private void tune(ChannelSftp sftp) throws SftpException {
+		sftp.setWritePacketSize(packetSize);
+		int bulk = bulkRequests;
+		if (bulk == 0) {
+			bulk = adaptiveBulkRequests(rtt, targetBandwidth, sftp.getWritePacketSize());
+		}
+		if (sftp.getBulkRequests() != bulk) {
+			try {
+				sftp.setBulkRequests(bulk);
+			} catch (JSchException e) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.toString(), e);
+			}
+		}
+	}
+
+	/**
+	 * Bandwidth-delay product expressed in write requests.
+	 */
+	static int adaptiveBulkRequests(long rttNs, long bandwidth, int packetSize) {
+		if (rttNs <= 0 || packetSize <= 0) {
+			return MIN_BULK_REQUESTS;
+		}
+		double inflight = ((double)bandwidth) * rttNs / TimeUnit.SECONDS.toNanos(1);
+		long n = (long)Math.ceil(inflight / packetSize);
+		return (int)Math.max(MIN_BULK_REQUESTS, Math.min(MAX_BULK_REQUESTS, n));
+	}
+
+	private void recordTransfer(long bytes, long timeNs) {
+		bytesUploaded.addAndGet(bytes);
+		uploadTime.addAndGet(timeNs);
+		if (timeNs > 0 && bytes >= MIN_PART_SIZE) {
+			// small files are dominated by latency, not bandwidth
+			double rate = ((double)bytes) * TimeUnit.SECONDS.toNanos(1) / timeNs;
+			double prev = transferRate;
+			transferRate = prev < 0 ? rate : 0.7 * prev + 0.3 * rate;
+		}
+	}
+
+	private static void skipFully(InputStream is, long n) throws IOException {
+		while(n > 0) {
+			long m = is.skip(n);
+			if (m <= 0) {
+				if (is.read() < 0) {
+					throw new IOException("Unexpected end of stream");
+				}
+				m = 1;
+			}
+			n -= m;
+		}
+	}
+
+	private static void close(InputStream is) {
+		try {
+			is.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private static class RangeInputStream extends InputStream {
+
+		private final InputStream is;
+		private long remaining;
+
+		public RangeInputStream(InputStream is, long len) {
+			this.is = is;
+			this.remaining = len;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = is.read();
+			if (b >= 0) {
+				--remaining;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int n = is.read(b, off, (int)Math.min(len, remaining));
+			if (n > 0) {
+				remaining -= n;
+			}
+			return n;
+		}
+	}
+
 	private static void sftpMkdirs(ChannelSftp sftp, String path) throws SftpException {
 		if (path.lastIndexOf('/') > 0) {
 			String parPath = path.substring(0, path.lastIndexOf('/'));
@@ -250,6 +592,15 @@ public class SftFileCache implements RemoteFileCache {
 			return false;
 		}
 	}
+
+	private static boolean isComplete(ChannelSftp sftp, String path, long size) {
+		try {
+			SftpATTRS attrs = sftp.stat(path);
+			return attrs != null && attrs.getSize() == size;
+		} catch (SftpException e) {
+			return false;
+		}
+	}
 	
 	private static class SameThreadExecutor implements ExecutorService {
 
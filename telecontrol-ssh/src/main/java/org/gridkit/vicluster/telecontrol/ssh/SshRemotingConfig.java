@@ -15,10 +15,14 @@
  */
 package org.gridkit.vicluster.telecontrol.ssh;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 class SshRemotingConfig {
 
+	static final List<String> COMPRESSION_MODES = Arrays.asList("none", "fast", "high", "adaptive");
+
 	private String host;
 	private String account;
 	private String javaExec;
@@ -28,6 +32,12 @@ class SshRemotingConfig {
 	private String keyfile;
 	private String authMethods;
 	
+	private boolean lazyClasspath;
+	private String windowSize;
+	private String compression;
+	private int sftpConcurrency = 4;
+	private int sftpFileParallelism = 4;
+	
 	public SshRemotingConfig() {		
 	}
 	
@@ -53,6 +63,21 @@ class SshRemotingConfig {
 		if (props.containsKey(RemoteNodeProps.SSH_AUTH_METHODS)) {
 			authMethods = props.get(RemoteNodeProps.SSH_AUTH_METHODS);
 		}
+		if (props.containsKey(RemoteNodeProps.LAZY_CLASSPATH)) {
+			lazyClasspath = Boolean.valueOf(props.get(RemoteNodeProps.LAZY_CLASSPATH));
+		}
+		if (props.containsKey(RemoteNodeProps.SSH_WINDOW_SIZE)) {
+			windowSize = props.get(RemoteNodeProps.SSH_WINDOW_SIZE);
+		}
+		if (props.containsKey(RemoteNodeProps.SSH_COMPRESSION)) {
+			compression = props.get(RemoteNodeProps.SSH_COMPRESSION);
+		}
+		if (props.containsKey(RemoteNodeProps.SFTP_CONCURRENCY)) {
+			sftpConcurrency = Integer.parseInt(props.get(RemoteNodeProps.SFTP_CONCURRENCY));
+		}
+		if (props.containsKey(RemoteNodeProps.SFTP_FILE_PARALLELISM)) {
+			sftpFileParallelism = Integer.parseInt(props.get(RemoteNodeProps.SFTP_FILE_PARALLELISM));
+		}
 	}
 	
 	public void validate() {
@@ -71,6 +96,12 @@ class SshRemotingConfig {
 		if (password == null && keyfile == null) {
 			throw new IllegalArgumentException("SSH credentials are missing");
 		}
+		if (compression != null && !COMPRESSION_MODES.contains(compression)) {
+			throw new IllegalArgumentException("Unknown SSH compression mode \"" + compression + "\", expected one of " + COMPRESSION_MODES);
+		}
+		if (sftpConcurrency < 1) {
+			throw new IllegalArgumentException("SFTP concurrency should be positive");
+		}
 // TODO SSH key file validator
 //		if (keyfile != null) {
 //			String kf = keyfile;
@@ -92,7 +123,15 @@ class SshRemotingConfig {
 		sb.append("host").append(":").append(host).append("|");
 		sb.append("account").append(":").append(account).append("|");
 		sb.append("javaExec").append(":").append(javaExec).append("|");
-		sb.append("jarCachePath").append(":").append(jarCache);
+		sb.append("jarCachePath").append(":").append(jarCache).append("|");
+		sb.append("lazyClasspath").append(":").append(lazyClasspath);
+		if (windowSize != null) {
+			sb.append("|").append("windowSize").append(":").append(windowSize);
+		}
+		if (compression != null) {
+			sb.append("|").append("compression").append(":").append(compression);
+		}
+		sb.append("|").append("sftp").append(":").append(sftpConcurrency).append("/").append(sftpFileParallelism);
 		
 		return sb.toString();
 	}
@@ -152,4 +191,44 @@ class SshRemotingConfig {
 	public void setAuthMethods(String authMethods) {
 		this.authMethods = authMethods;
 	}
+
+	public boolean isLazyClasspath() {
+		return lazyClasspath;
+	}
+
+	public void setLazyClasspath(boolean lazyClasspath) {
+		this.lazyClasspath = lazyClasspath;
+	}
+
+	public String getWindowSize() {
+		return windowSize;
+	}
+
+	public void setWindowSize(String windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	public String getCompression() {
+		return compression;
+	}
+
+	public void setCompression(String compression) {
+		this.compression = compression;
+	}
+
+	public int getSftpConcurrency() {
+		return sftpConcurrency;
+	}
+
+	public void setSftpConcurrency(int sftpConcurrency) {
+		this.sftpConcurrency = sftpConcurrency;
+	}
+
+	public int getSftpFileParallelism() {
+		return sftpFileParallelism;
+	}
+
+	public void setSftpFileParallelism(int sftpFileParallelism) {
+		this.sftpFileParallelism = sftpFileParallelism;
+	}
 }
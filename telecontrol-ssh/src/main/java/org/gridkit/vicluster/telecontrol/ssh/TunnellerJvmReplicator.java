@@ -20,16 +20,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.jar.Attributes;
-import java.util.jar.Manifest;
 
 import org.gridkit.internal.com.jcraft.jsch.ChannelExec;
 import org.gridkit.internal.com.jcraft.jsch.JSchException;
@@ -39,12 +37,13 @@ import org.gridkit.util.concurrent.FutureBox;
 import org.gridkit.util.concurrent.FutureEx;
 import org.gridkit.vicluster.telecontrol.BackgroundStreamDumper;
 import org.gridkit.vicluster.telecontrol.Classpath;
-import org.gridkit.vicluster.telecontrol.ClasspathUtils;
 import org.gridkit.vicluster.telecontrol.ExecCommand;
 import org.gridkit.vicluster.telecontrol.FileBlob;
 import org.gridkit.vicluster.telecontrol.JvmConfig;
 import org.gridkit.vicluster.telecontrol.ManagedProcess;
 import org.gridkit.vicluster.telecontrol.bootstraper.Bootstraper;
+import org.gridkit.vicluster.telecontrol.bootstraper.LazyBootstraper;
+import org.gridkit.vicluster.telecontrol.bootstraper.RemoteClasspathServer;
 import org.gridkit.vicluster.telecontrol.bootstraper.Tunneller;
 import org.gridkit.vicluster.telecontrol.bootstraper.TunnellerConnection;
 import org.gridkit.vicluster.telecontrol.bootstraper.TunnellerConnection.ExecHandler;
@@ -73,7 +72,11 @@ public class TunnellerJvmReplicator implements RemoteJmvReplicator {
 	private TunnellerConnection control;
 	
 	private RemoteFileCache jarCache;
+	private RemoteClasspathSnapshot classpathSnapshot;
+	private RemoteClasspathServer classpathServer;
+	private int classpathPort;
 	private String tunnellerJarPath;
+	private List<Classpath.ClasspathEntry> bootClasspath;
 	
 	private String tunnelHost;
 	private int tunnelPort;
@@ -114,12 +117,23 @@ public class TunnellerJvmReplicator implements RemoteJmvReplicator {
 			if (rconfig.getAuthMethods() != null) {
 				sf.setConfig("PreferredAuthentications", rconfig.getAuthMethods());
 			}
+			if (rconfig.getWindowSize() != null) {
+				// pipe as large as window, so session reader never blocks on slow consumer
+				sf.setConfig("channel.window_size", rconfig.getWindowSize());
+				sf.setConfig("channel.pipe_size", rconfig.getWindowSize());
+			}
+			configureCompression(sf, rconfig.getCompression());
 			session = sf.getSession(rconfig.getHost(), rconfig.getAccount());
-			jarCache = new SftFileCache(session, rconfig.getJarCachePath(), 4);
+			SftFileCache sftpCache = new SftFileCache(session, rconfig.getJarCachePath(), rconfig.getSftpConcurrency());
+			sftpCache.setFileParallelism(rconfig.getSftpFileParallelism());
+			jarCache = sftpCache;
 			initRemoteClasspath();
 			startTunneler();
 			hub = new RemotingHub(ZLogFactory.getDefaultRootLogger());
 			initPortForwarding();
+			if (rconfig.isLazyClasspath()) {
+				initClasspathServer();
+			}
 		}
 		catch(Exception e) {
 			destroyed = true;
@@ -134,66 +148,70 @@ public class TunnellerJvmReplicator implements RemoteJmvReplicator {
 		}
 	}
 
+	private static void configureCompression(SimpleSshSessionProvider sf, String mode) {
+		if (mode == null || "none".equals(mode)) {
+			return;
+		}
+		// delayed compression is preferred, it starts after authentication
+		sf.setConfig("compression.s2c", "zlib@openssh.com,zlib,none");
+		sf.setConfig("compression.c2s", "zlib@openssh.com,zlib,none");
+		if ("fast".equals(mode)) {
+			sf.setConfig("compression_level", "1");
+		}
+		else if ("high".equals(mode)) {
+			sf.setConfig("compression_level", "6");
+		}
+		else if ("adaptive".equals(mode)) {
+			sf.setConfig("compression_level", "1");
+			sf.setConfig("compression_mode", "adaptive");
+		}
+	}
+
 	private void initRemoteClasspath() throws IOException {
 		List<Classpath.ClasspathEntry> classpath = Classpath.getClasspath(getClass().getClassLoader()); //bob-the-dyer hack
 
-		// random upload order improve performance if cache is on shared mount
-		List<Classpath.ClasspathEntry> uploadJars = new ArrayList<Classpath.ClasspathEntry>(classpath);
-		Collections.shuffle(uploadJars);
-		List<String> rnames = jarCache.upload(uploadJars);
-		Map<String, String> pathMap = new HashMap<String, String>();
-		for(int i = 0; i != rnames.size(); ++i) {
-			pathMap.put(uploadJars.get(i).getUrl().toString(), rnames.get(i));
+		if (rconfig.isLazyClasspath()) {
+			Classpath.ClasspathEntry bootEntry = findBootEntry(classpath);
+			if (bootEntry == null) {
+				logger.warn("Cannot locate classpath entry for " + Tunneller.class.getName() + ", lazy classpath is disabled");
+				rconfig.setLazyClasspath(false);
+			}
+			else {
+				// tunneller and lazy booter need only own jar on the host
+				bootClasspath = Collections.singletonList(bootEntry);
+			}
 		}
+		
+		classpathSnapshot = new RemoteClasspathSnapshot(jarCache);
+		tunnellerJarPath = classpathSnapshot.getManifestJar("tunneller.jar", Tunneller.class.getName(), bootClasspath == null ? classpath : bootClasspath);
+	}
 
-		StringBuilder remoterClasspath = new StringBuilder();
-		for(Classpath.ClasspathEntry ce: classpath) {
-			if (remoterClasspath.length() > 0) {
-				remoterClasspath.append(' ');
+	private Classpath.ClasspathEntry findBootEntry(List<Classpath.ClasspathEntry> classpath) {
+		try {
+			URI location = Tunneller.class.getProtectionDomain().getCodeSource().getLocation().toURI();
+			for(Classpath.ClasspathEntry ce: classpath) {
+				if (location.equals(ce.getUrl().toURI())) {
+					return ce;
+				}
 			}
-			remoterClasspath.append(pathMap.get(ce.getUrl().toString()));			
 		}
-
-		Manifest mf = new Manifest();
-		mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-		mf.getMainAttributes().put(Attributes.Name.CLASS_PATH, remoterClasspath.toString());
-		mf.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Tunneller.class.getName());
-
-		byte[] tunnelerJar = ClasspathUtils.createManifestJar(mf);
-		tunnellerJarPath = jarCache.upload(new ByteBlob("tunneller.jar", tunnelerJar));		
+		catch(Exception e) {
+			// ignore
+		}
+		return null;
 	}
 
 	private String createBootJar(String name, JvmConfig config) throws IOException {
 		
-		List<Classpath.ClasspathEntry> classpath = Classpath.getClasspath(getClass().getClassLoader()); //bob-the-dyer hack
-		classpath = config.filterClasspath(classpath);
-
-		// random upload order improve performance if cache is on shared mount
-		List<Classpath.ClasspathEntry> uploadJars = new ArrayList<Classpath.ClasspathEntry>(classpath);
-		Collections.shuffle(uploadJars);
-		List<String> rnames = jarCache.upload(uploadJars);
-		Map<String, String> pathMap = new HashMap<String, String>();
-		for(int i = 0; i != rnames.size(); ++i) {
-			pathMap.put(uploadJars.get(i).getUrl().toString(), rnames.get(i));
-		}
-
-		StringBuilder remoterClasspath = new StringBuilder();
-		for(Classpath.ClasspathEntry ce: classpath) {
-			if (remoterClasspath.length() > 0) {
-				remoterClasspath.append(' ');
-			}
-			remoterClasspath.append(pathMap.get(ce.getUrl().toString()));			
+		if (rconfig.isLazyClasspath()) {
+			return classpathSnapshot.getManifestJar("lazy-booter.jar", LazyBootstraper.class.getName(), bootClasspath);
 		}
 
-		Manifest mf = new Manifest();
-		mf.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-		mf.getMainAttributes().put(Attributes.Name.CLASS_PATH, remoterClasspath.toString());
-		mf.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Bootstraper.class.getName());
-		
-		byte[] bootJar = ClasspathUtils.createManifestJar(mf);
-		String bootJarPath = jarCache.upload(new ByteBlob(makeBootJarName(name), bootJar));
+		List<Classpath.ClasspathEntry> classpath = Classpath.getClasspath(getClass().getClassLoader()); //bob-the-dyer hack
+		classpath = config.filterClasspath(classpath);
 
-		return bootJarPath;
+		// only entries added by config are uploaded, boot jar is reused for same classpath
+		return classpathSnapshot.getManifestJar(makeBootJarName(name), Bootstraper.class.getName(), classpath);
 	}
 	
 	private String makeBootJarName(String name) {
@@ -358,6 +376,31 @@ public class TunnellerJvmReplicator implements RemoteJmvReplicator {
 		}
 	}
 	
+	private void initClasspathServer() throws InterruptedException, ExecutionException, IOException {
+		classpathServer = new RemoteClasspathServer();
+		final FutureBox<Void> box = new FutureBox<Void>();
+		control.newSocket(new SocketHandler() {
+			
+			@Override
+			public void bound(String host, int port) {
+				logger.info("Remote classpath port bound " + host + ":" + port);
+				classpathPort = port;
+				box.setData(null);				
+			}
+			
+			@Override
+			public void accepted(String rhost, int rport, InputStream soIn, OutputStream soOut) {
+				logger.debug("Inbound classpath connection");
+				classpathServer.serve(rconfig.getHost() + ":" + rport, soIn, soOut);
+			}
+		});
+		try {
+			box.get(15000, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new RuntimeException("Failed to bind remote port due to timeout");
+		}
+	}
+	
 	protected void handleInbound(String rhost, int rport, InputStream soIn, OutputStream soOut) {		
 		String sname;
 		if ("localhost".equals(rhost)) {
@@ -391,6 +434,14 @@ public class TunnellerJvmReplicator implements RemoteJmvReplicator {
 		jvmCmd.addArg("-jar")
 			.addArg(bootJarPath);
 		
+		if (rconfig.isLazyClasspath()) {
+			List<Classpath.ClasspathEntry> classpath = Classpath.getClasspath(getClass().getClassLoader()); //bob-the-dyer hack
+			String cpId = classpathServer.register(jvmArgs.filterClasspath(classpath));
+			jvmCmd.addArg(rconfig.getJarCachePath() + "/classes")
+				.addArg(String.valueOf(classpathPort))
+				.addArg(cpId);
+		}
+		
 		RemoteControlSession session = new RemoteControlSession();
 		String sessionId = LegacySpore.uidOf(hub.allocateSession(caption, session));
 		jvmCmd.addArg(sessionId).addArg(tunnelHost).addArg(String.valueOf(tunnelPort));
@@ -435,6 +486,9 @@ public class TunnellerJvmReplicator implements RemoteJmvReplicator {
 			destroyed = true;
 			hub.dropAllSessions();
 			session.disconnect();
+			if (classpathServer != null) {
+				classpathServer.close();
+			}
 			
 			hub = null;
 			session = null;			
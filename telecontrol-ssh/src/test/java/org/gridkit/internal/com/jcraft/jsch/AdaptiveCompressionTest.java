@@ -0,0 +1,110 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.internal.com.jcraft.jsch;
+
+import static org.gridkit.internal.com.jcraft.jsch.AdaptiveCompression.FAST;
+import static org.gridkit.internal.com.jcraft.jsch.AdaptiveCompression.HIGH;
+import static org.gridkit.internal.com.jcraft.jsch.AdaptiveCompression.NONE;
+import static org.gridkit.internal.com.jcraft.jsch.AdaptiveCompression.PROBE_INTERVAL;
+import static org.gridkit.internal.com.jcraft.jsch.AdaptiveCompression.SAMPLE_PERIOD;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveCompressionTest {
+
+	long now = 0;
+
+	/**
+	 * Simulates one sample period.
+	 * @return new level or -1
+	 */
+	private int sample(AdaptiveCompression ac, double ratio, double blockedShare) {
+		ac.blocked((long)(SAMPLE_PERIOD * blockedShare));
+		now += SAMPLE_PERIOD;
+		return ac.compressed(1 << 20, (int)((1 << 20) * ratio), SAMPLE_PERIOD / 10, now);
+	}
+
+	@Test
+	public void lan_link_disables_compression() {
+		AdaptiveCompression ac = new AdaptiveCompression(FAST, now);
+		Assert.assertEquals(NONE, sample(ac, 0.3, 0.01));
+		Assert.assertEquals(-1, sample(ac, 1, 0.01));
+	}
+
+	@Test
+	public void saturated_link_with_compressible_data_uses_high_level() {
+		AdaptiveCompression ac = new AdaptiveCompression(FAST, now);
+		Assert.assertEquals(HIGH, sample(ac, 0.3, 0.8));
+		Assert.assertEquals(-1, sample(ac, 0.3, 0.8));
+		Assert.assertEquals(FAST, sample(ac, 0.7, 0.8));
+	}
+
+	@Test
+	public void incompressible_data_is_not_compressed_until_probe() {
+		AdaptiveCompression ac = new AdaptiveCompression(FAST, now);
+		Assert.assertEquals(NONE, sample(ac, 0.98, 0.8));
+		for(int i = 1; i < PROBE_INTERVAL; ++i) {
+			Assert.assertEquals(-1, sample(ac, 1, 0.8));
+		}
+		Assert.assertEquals(FAST, sample(ac, 1, 0.8));
+	}
+
+	@Test
+	public void saturated_link_enables_compression() {
+		AdaptiveCompression ac = new AdaptiveCompression(NONE, now);
+		Assert.assertEquals(FAST, sample(ac, 1, 0.8));
+	}
+
+	@Test
+	public void decision_waits_for_full_sample() {
+		AdaptiveCompression ac = new AdaptiveCompression(FAST, now);
+		Assert.assertEquals(-1, ac.compressed(1 << 20, 1 << 10, 0, SAMPLE_PERIOD / 2));
+	}
+
+	@Test
+	public void level_change_keeps_stream_consistent() {
+		Compression deflater = new org.gridkit.internal.com.jcraft.jsch.jcraft.Compression();
+		Compression inflater = new org.gridkit.internal.com.jcraft.jsch.jcraft.Compression();
+		deflater.init(Compression.DEFLATER, 1);
+		inflater.init(Compression.INFLATER, 0);
+
+		Random rnd = new Random(1);
+		int[] levels = {1, 6, 0, 1, 0, 6};
+		for(int i = 0; i != 60; ++i) {
+			if (i % 10 == 0) {
+				deflater.setLevel(levels[i / 10]);
+			}
+			byte[] payload = new byte[1000 + rnd.nextInt(20000)];
+			for(int j = 0; j != payload.length; ++j) {
+				payload[j] = (byte)('a' + rnd.nextInt(4));
+			}
+			// packet layout, payload starts at offset 5
+			byte[] buf = new byte[5 + payload.length + 256];
+			System.arraycopy(payload, 0, buf, 5, payload.length);
+			int[] len = {5 + payload.length};
+			buf = deflater.compress(buf, 5, len);
+
+			int[] ulen = {len[0] - 5};
+			byte[] out = inflater.uncompress(buf, 5, ulen);
+			Assert.assertNotNull(out);
+			Assert.assertArrayEquals(payload, Arrays.copyOfRange(out, 5, 5 + ulen[0]));
+		}
+	}
+}
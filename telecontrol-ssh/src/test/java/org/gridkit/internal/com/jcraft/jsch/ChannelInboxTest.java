@@ -0,0 +1,98 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.internal.com.jcraft.jsch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChannelInboxTest {
+
+	@Test(timeout = 10000)
+	public void reader_is_not_blocked_by_slow_consumer() throws Exception {
+		ChannelExec slow = new ChannelExec();
+		final CountDownLatch release = new CountDownLatch(1);
+		final ByteArrayOutputStream slowOut = new ByteArrayOutputStream() {
+			@Override
+			public void write(byte[] b, int off, int len) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.write(b, off, len);
+			}
+		};
+		slow.setOutputStream(slowOut);
+		slow.inbox = new ChannelInbox(slow);
+
+		ChannelExec fast = new ChannelExec();
+		InputStream fastIn = fast.getInputStream();
+		fast.inbox = new ChannelInbox(fast);
+
+		// slow consumer holds its delivery thread, reader keeps going
+		slow.inbox.data("slow".getBytes(), 0, 4);
+		slow.inbox.data("slow".getBytes(), 0, 4);
+		fast.inbox.data("fast".getBytes(), 0, 4);
+		fast.inbox.eof();
+
+		Assert.assertEquals("fast", readAll(fastIn));
+		Assert.assertEquals(0, slowOut.size());
+
+		release.countDown();
+		slow.inbox.eof();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(slowOut.size() < 8 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals("slowslow", slowOut.toString());
+	}
+
+	@Test(timeout = 10000)
+	public void data_is_delivered_in_order_before_eof() throws Exception {
+		ChannelExec ch = new ChannelExec();
+		InputStream in = ch.getInputStream();
+		ch.inbox = new ChannelInbox(ch);
+
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i != 1000; ++i) {
+			byte[] chunk = (i + ",").getBytes();
+			expected.append(i).append(",");
+			ch.inbox.data(chunk, 0, chunk.length);
+		}
+		ch.inbox.eof();
+
+		Assert.assertEquals(expected.toString(), readAll(in));
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		while(true) {
+			int n = in.read(buf);
+			if (n < 0) {
+				break;
+			}
+			bos.write(buf, 0, n);
+		}
+		return bos.toString();
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.internal.com.jcraft.jsch.jce;
+
+import org.gridkit.internal.com.jcraft.jsch.AEADCipher;
+import org.gridkit.internal.com.jcraft.jsch.Cipher;
+import org.gridkit.internal.com.jcraft.jsch.JSch;
+import org.gridkit.internal.com.jcraft.jsch.MAC;
+
+/**
+ * Measures cost of packet encryption for cipher/MAC combinations
+ * the way {@link org.gridkit.internal.com.jcraft.jsch.Session} encodes packets.
+ * <br/>
+ * Run as plain main, JMH is not available in this build.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class CipherBenchmark {
+
+	private static final int PACKET = 32 << 10;
+	private static final long VOLUME = 1l << 30;
+
+	private static final String[][] SUITES = {
+		{"aes128-gcm@openssh.com", null},
+		{"aes256-gcm@openssh.com", null},
+		{"aes128-ctr", "hmac-sha2-256-etm@openssh.com"},
+		{"aes128-ctr", "hmac-sha1"},
+		{"aes128-ctr", "hmac-md5"},
+		{"aes128-ctr", "hmac-sha2-512-etm@openssh.com"},
+		{"aes256-ctr", "hmac-sha2-256-etm@openssh.com"},
+		{"aes128-cbc", "hmac-sha1"},
+		{"3des-ctr", "hmac-sha1"},
+		{"blowfish-cbc", "hmac-sha1"},
+		{"arcfour256", "hmac-md5"},
+	};
+
+	public static void main(String[] args) throws Exception {
+		for(int i = 0; i != 2; ++i) {
+			System.out.println(i == 0 ? "Warm up" : "Measurement");
+			for(String[] suite: SUITES) {
+				try {
+					run(suite[0], suite[1], i == 0 ? VOLUME / 8 : VOLUME);
+				}
+				catch(Exception e) {
+					System.out.println(String.format("%-24s %-30s not available: %s", suite[0], suite[1], e));
+				}
+			}
+		}
+	}
+
+	private static void run(String cipherName, String macName, long volume) throws Exception {
+		Cipher cipher = (Cipher) Class.forName(JSch.getConfig(cipherName)).newInstance();
+		cipher.init(Cipher.ENCRYPT_MODE, new byte[64], new byte[64]);
+		MAC mac = null;
+		if (macName != null) {
+			mac = (MAC) Class.forName(JSch.getConfig(macName)).newInstance();
+			mac.init(new byte[64]);
+		}
+		byte[] buf = new byte[PACKET + 128];
+		byte[] macOut = new byte[64];
+		long packets = volume / PACKET;
+		long start = System.nanoTime();
+		for(int seq = 0; seq != packets; ++seq) {
+			if (cipher instanceof AEADCipher) {
+				AEADCipher aead = (AEADCipher) cipher;
+				aead.updateAAD(buf, 0, 4);
+				aead.doFinal(buf, 4, PACKET, buf, 4);
+			}
+			else {
+				// encrypt-then-mac, for other MACs order does not affect cost
+				cipher.update(buf, 4, PACKET, buf, 4);
+				mac.update(seq);
+				mac.update(buf, 0, PACKET + 4);
+				mac.doFinal(macOut, 0);
+			}
+		}
+		long time = System.nanoTime() - start;
+		double mbs = ((double)packets * PACKET) / (1 << 20) / (time / 1e9);
+		System.out.println(String.format("%-24s %-30s %8.1f MiB/s", cipherName, macName == null ? "(aead)" : macName, mbs));
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.internal.com.jcraft.jsch.jce;
+
+import java.util.Arrays;
+
+import org.gridkit.internal.com.jcraft.jsch.AEADCipher;
+import org.gridkit.internal.com.jcraft.jsch.Cipher;
+import org.gridkit.internal.com.jcraft.jsch.MAC;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CipherSuiteTest {
+
+	@Test
+	public void aes128_gcm_known_answer_with_counter_carry() throws Exception {
+		byte[] key = new byte[16];
+		for(int i = 0; i != key.length; ++i) {
+			key[i] = (byte) i;
+		}
+		byte[] iv = {1, 2, 3, 4, 0, 0, 0, 0, 0, 0, 0, (byte)0xFF};
+		AEADCipher cipher = new AES128GCM();
+		cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+
+		Assert.assertEquals("1fe216e78ce2cd59dfe0013c7e686cda4a49ef0df3c0f6f10bea7fca03a26f14", hex(encrypt(cipher)));
+		// invocation counter is incremented between packets
+		Assert.assertEquals("be38ab1bdfa3c8f5caf9710ffcc2e82ef26d2c6fa58a67a9fdbc0cb3f752a065", hex(encrypt(cipher)));
+	}
+
+	@Test
+	public void aes_gcm_round_trip_in_place() throws Exception {
+		byte[] key = new byte[16];
+		byte[] iv = new byte[12];
+		AEADCipher enc = new AES128GCM();
+		AEADCipher dec = new AES128GCM();
+		enc.init(Cipher.ENCRYPT_MODE, key, iv);
+		dec.init(Cipher.DECRYPT_MODE, key, iv);
+
+		for(int n = 0; n != 3; ++n) {
+			byte[] packet = packet(1024);
+			byte[] buf = Arrays.copyOf(packet, packet.length + 16);
+			enc.updateAAD(buf, 0, 4);
+			enc.doFinal(buf, 4, packet.length - 4, buf, 4);
+			dec.updateAAD(buf, 0, 4);
+			dec.doFinal(buf, 4, packet.length - 4 + 16, buf, 4);
+			Assert.assertArrayEquals(packet, Arrays.copyOf(buf, packet.length));
+		}
+	}
+
+	@Test(expected=javax.crypto.AEADBadTagException.class)
+	public void aes_gcm_detects_tampering() throws Exception {
+		byte[] key = new byte[16];
+		byte[] iv = new byte[12];
+		AEADCipher enc = new AES128GCM();
+		AEADCipher dec = new AES128GCM();
+		enc.init(Cipher.ENCRYPT_MODE, key, iv);
+		dec.init(Cipher.DECRYPT_MODE, key, iv);
+
+		byte[] packet = packet(64);
+		byte[] buf = Arrays.copyOf(packet, packet.length + 16);
+		enc.updateAAD(buf, 0, 4);
+		enc.doFinal(buf, 4, packet.length - 4, buf, 4);
+		buf[10] ^= 1;
+		dec.updateAAD(buf, 0, 4);
+		dec.doFinal(buf, 4, packet.length - 4 + 16, buf, 4);
+	}
+
+	@Test
+	public void hmac_sha2_256_rfc4231() throws Exception {
+		Assert.assertEquals("b0344c61d8db38535ca8afceaf0bf12b881dc200c9833da726e9376c2e32cff7", hex(rfc4231(new HMACSHA256ETM())));
+	}
+
+	@Test
+	public void hmac_sha2_512_rfc4231() throws Exception {
+		Assert.assertEquals("87aa7cdea5ef619d4ff0b4241a1d6cb02379f4e2ce4ec2787ad0b30545e17cdedaa833b7d6b8a702038b274eaea3f4e4be9d914eeb61f1702e696c203a126854", hex(rfc4231(new HMACSHA512())));
+	}
+
+	@Test
+	public void etm_names() {
+		Assert.assertEquals("hmac-sha2-256-etm@openssh.com", new HMACSHA256ETM().getName());
+		Assert.assertEquals("hmac-sha2-512-etm@openssh.com", new HMACSHA512ETM().getName());
+		Assert.assertEquals("hmac-sha2-256", new HMACSHA256().getName());
+	}
+
+	private static byte[] rfc4231(MAC mac) throws Exception {
+		byte[] key = new byte[20];
+		Arrays.fill(key, (byte)0x0b);
+		mac.init(key);
+		byte[] data = "Hi There".getBytes("ASCII");
+		mac.update(data, 0, data.length);
+		byte[] result = new byte[mac.getBlockSize()];
+		mac.doFinal(result, 0);
+		return result;
+	}
+
+	private static byte[] encrypt(AEADCipher cipher) throws Exception {
+		byte[] buf = new byte[4 + 16 + 16];
+		buf[3] = 16;
+		for(int i = 0; i != 16; ++i) {
+			buf[4 + i] = (byte)(100 + i);
+		}
+		cipher.updateAAD(buf, 0, 4);
+		cipher.doFinal(buf, 4, 16, buf, 4);
+		return Arrays.copyOfRange(buf, 4, buf.length);
+	}
+
+	private static byte[] packet(int len) {
+		byte[] packet = new byte[len];
+		packet[2] = (byte)((len - 4) >> 8);
+		packet[3] = (byte)(len - 4);
+		for(int i = 4; i != len; ++i) {
+			packet[i] = (byte)i;
+		}
+		return packet;
+	}
+
+	private static String hex(byte[] data) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b: data) {
+			sb.append(Integer.toHexString(0x100 | (0xFF & b)).substring(1));
+		}
+		return sb.toString();
+	}
+}
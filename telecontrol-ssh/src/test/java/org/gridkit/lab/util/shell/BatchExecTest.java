@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.lab.util.shell;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.gridkit.lab.util.shell.BatchExec.BatchResult;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchExecTest {
+
+	@Before
+	public void unixOnly() {
+		Assume.assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+	}
+
+	@Test
+	public void verify_concurrent_execution() throws IOException, InterruptedException {
+		BatchExec batch = Shell.prompt().batch(8);
+		for(int i = 0; i != 8; ++i) {
+			batch.add("sh", "-c", "sleep 0.5; echo job" + i);
+		}
+		BatchResult result = batch.run(30, TimeUnit.SECONDS);
+		result.verify();
+		Assert.assertTrue("Should run concurrently, elapsed " + result.getElapsed(TimeUnit.MILLISECONDS), result.getElapsed(TimeUnit.MILLISECONDS) < 3000);
+		for(int i = 0; i != 8; ++i) {
+			Assert.assertEquals("job" + i + "\n", result.getResults().get(i).getOutput());
+		}
+	}
+
+	@Test
+	public void verify_failure_reporting() throws IOException, InterruptedException {
+		BatchResult result = Shell.prompt().batch(2)
+			.add("sh", "-c", "exit 0")
+			.add("sh", "-c", "echo boom >&2; exit 3")
+			.add("no-such-command-xyz")
+			.run(30, TimeUnit.SECONDS);
+		Assert.assertFalse(result.isSuccess());
+		Assert.assertEquals(2, result.getFailures().size());
+		Assert.assertEquals(3, result.getResults().get(1).getExitCode());
+		Assert.assertEquals("boom\n", result.getResults().get(1).getOutput());
+		Assert.assertNotNull(result.getResults().get(2).getError());
+	}
+
+	@Test
+	public void verify_timeout() throws IOException, InterruptedException {
+		BatchResult result = Shell.prompt().batch(1)
+			.add("sleep", "10")
+			.add("sh", "-c", "exit 0")
+			.run(300, TimeUnit.MILLISECONDS);
+		Assert.assertTrue(result.getResults().get(0).isTimedOut());
+		Assert.assertTrue(result.getResults().get(1).isTimedOut());
+	}
+}
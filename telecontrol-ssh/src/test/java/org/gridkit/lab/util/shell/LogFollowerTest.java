@@ -0,0 +1,148 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.lab.util.shell;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+public class LogFollowerTest {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File dir = new File("target/log-follower-test");
+
+	private File newFile(String name) {
+		dir.mkdirs();
+		File f = new File(dir, name);
+		f.delete();
+		return f;
+	}
+
+	private void append(File file, String text) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file, true);
+		fos.write(text.getBytes(UTF8));
+		fos.close();
+	}
+
+	@Test
+	public void verify_tailer_lines() throws IOException {
+		File f = newFile("tailer.log");
+		append(f, "line1\r\nline2\nli");
+		Tailer tailer = new Tailer(f, UTF8);
+		Assert.assertEquals("line1", tailer.nextLine());
+		Assert.assertEquals("line2", tailer.nextLine());
+		Assert.assertNull(tailer.nextLine());
+		Assert.assertEquals("li", tailer.getRemainder());
+		append(f, "ne3\n");
+		Assert.assertEquals("line3", tailer.nextLine());
+		tailer.close();
+	}
+
+	@Test
+	public void verify_tailer_split_multibyte_char() throws IOException {
+		File f = newFile("utf8.log");
+		byte[] text = "\u041f\u0440\u0438\u0432\u0435\u0442\n".getBytes(UTF8);
+		FileOutputStream fos = new FileOutputStream(f);
+		fos.write(text, 0, 3);
+		fos.close();
+		Tailer tailer = new Tailer(f, UTF8);
+		Assert.assertNull(tailer.nextLine());
+		fos = new FileOutputStream(f, true);
+		fos.write(text, 3, text.length - 3);
+		fos.close();
+		Assert.assertEquals("\u041f\u0440\u0438\u0432\u0435\u0442", tailer.nextLine());
+		tailer.close();
+	}
+
+	@Test
+	public void verify_pattern_set() {
+		PatternSet ps = new PatternSet("(a+)b", "started", "fail(ed)?");
+		Assert.assertEquals(0, ps.find("xxaab"));
+		Assert.assertEquals(1, ps.find("node started"));
+		Assert.assertEquals(2, ps.find("node failed"));
+		Assert.assertEquals(-1, ps.find("nothing"));
+	}
+
+	@Test
+	public void verify_pattern_set_back_references() {
+		PatternSet ps = new PatternSet("(x)y\\1", "(a)b\\1");
+		Assert.assertEquals(1, ps.find("--aba--"));
+		Assert.assertEquals(0, ps.find("xyx"));
+		Assert.assertEquals(-1, ps.find("abx"));
+		ps = new PatternSet("(['\"])q\\1", "started");
+		Assert.assertEquals(0, ps.find("say 'q'"));
+		Assert.assertEquals(1, ps.find("'q\" started"));
+	}
+
+	@Test
+	public void verify_wait_for_any() throws IOException, TimeoutException {
+		File f = newFile("wait.log");
+		append(f, "booting\nstill booting\n");
+		Assert.assertEquals(1, LogFollower.waitForAny(f, UTF8, 1, TimeUnit.SECONDS, "ERROR", "booting"));
+	}
+
+	@Test(expected=TimeoutException.class)
+	public void verify_wait_timeout() throws IOException, TimeoutException {
+		File f = newFile("timeout.log");
+		append(f, "booting\n");
+		LogFollower.waitForAny(f, UTF8, 200, TimeUnit.MILLISECONDS, "started");
+	}
+
+	@Test
+	public void verify_follow_many_files() throws IOException, InterruptedException {
+		File f1 = newFile("node1.log");
+		File f2 = newFile("node2.log");
+		final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+		LogFollower follower = new LogFollower(UTF8);
+		LogFollower.LineListener listener = new LogFollower.LineListener() {
+			@Override
+			public boolean onLine(File file, String line) {
+				lines.add(file.getName() + ":" + line);
+				return !line.equals("stop");
+			}
+		};
+		follower.follow(f1, listener);
+		follower.follow(f2, listener);
+		follower.start();
+		try {
+			append(f1, "a\n");
+			append(f2, "b\nstop\nc\n");
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while(lines.size() < 3 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(50);
+			Assert.assertTrue(lines.contains("node1.log:a"));
+			Assert.assertTrue(lines.contains("node2.log:b"));
+			Assert.assertTrue(lines.contains("node2.log:stop"));
+			Assert.assertFalse(lines.contains("node2.log:c"));
+		}
+		finally {
+			follower.stop();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster.telecontrol.ssh;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.gridkit.vicluster.telecontrol.Classpath;
+import org.gridkit.vicluster.telecontrol.Classpath.ClasspathEntry;
+import org.gridkit.vicluster.telecontrol.FileBlob;
+import org.junit.Test;
+
+public class RemoteClasspathSnapshotTest {
+
+	private CountingCache cache = new CountingCache();
+	private RemoteClasspathSnapshot snapshot = new RemoteClasspathSnapshot(cache);
+
+	@Test
+	public void verify_delta_upload() throws IOException {
+		ClasspathEntry a = entry("a.jar", "AAA");
+		ClasspathEntry b = entry("b.jar", "BBB");
+		ClasspathEntry c = entry("c.jar", "CCC");
+
+		List<String> p1 = snapshot.replicate(list(a, b));
+		Assert.assertEquals(2, cache.uploaded.size());
+
+		List<String> p2 = snapshot.replicate(list(b, a, c));
+		Assert.assertEquals(3, cache.uploaded.size());
+		Assert.assertEquals("c.jar", cache.uploaded.get(2));
+
+		Assert.assertEquals(p1.get(0), p2.get(1));
+		Assert.assertEquals(p1.get(1), p2.get(0));
+		Assert.assertEquals(3, snapshot.getReplicatedEntryCount());
+	}
+
+	@Test
+	public void verify_manifest_jar_reuse() throws IOException {
+		ClasspathEntry a = entry("a.jar", "AAA");
+		ClasspathEntry b = entry("b.jar", "BBB");
+
+		String j1 = snapshot.getManifestJar("booter.jar", "Main", list(a, b));
+		int uploads = cache.uploaded.size();
+		String j2 = snapshot.getManifestJar("booter.jar", "Main", list(a, b));
+		Assert.assertEquals(j1, j2);
+		Assert.assertEquals(uploads, cache.uploaded.size());
+
+		String j3 = snapshot.getManifestJar("booter.jar", "Main", list(b, a));
+		Assert.assertFalse(j1.equals(j3));
+		// only new manifest jar is uploaded
+		Assert.assertEquals(uploads + 1, cache.uploaded.size());
+	}
+
+	private static List<ClasspathEntry> list(ClasspathEntry... entries) {
+		List<ClasspathEntry> list = new ArrayList<ClasspathEntry>();
+		for(ClasspathEntry e: entries) {
+			list.add(e);
+		}
+		return list;
+	}
+
+	private static ClasspathEntry entry(String name, String content) throws IOException {
+		File dir = new File("target/cp-snapshot-test");
+		dir.mkdirs();
+		File f = new File(dir, name);
+		FileOutputStream fos = new FileOutputStream(f);
+		fos.write(content.getBytes());
+		fos.close();
+		return Classpath.getLocalEntry(f.getPath());
+	}
+
+	private static class CountingCache implements RemoteFileCache {
+
+		List<String> uploaded = new ArrayList<String>();
+
+		@Override
+		public String upload(FileBlob blob) {
+			uploaded.add(blob.getFileName());
+			return "/cache/" + blob.getContentHash() + "/" + blob.getFileName();
+		}
+
+		@Override
+		public List<String> upload(List<? extends FileBlob> blobs) {
+			List<String> result = new ArrayList<String>();
+			for(FileBlob blob: blobs) {
+				result.add(upload(blob));
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster.telecontrol.ssh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SftFileCacheTest {
+
+	@Test
+	public void bulk_requests_on_lan() {
+		// 200us, 100MiB/s -> 640 KiB in flight
+		Assert.assertEquals(16, SftFileCache.adaptiveBulkRequests(TimeUnit.MICROSECONDS.toNanos(200), 100 << 20, 32 << 10));
+	}
+
+	@Test
+	public void bulk_requests_on_wan() {
+		// 20ms, 100MiB/s -> 2MiB in flight
+		Assert.assertEquals(64, SftFileCache.adaptiveBulkRequests(TimeUnit.MILLISECONDS.toNanos(20), 100 << 20, 32 << 10));
+	}
+
+	@Test
+	public void bulk_requests_are_capped() {
+		Assert.assertEquals(256, SftFileCache.adaptiveBulkRequests(TimeUnit.SECONDS.toNanos(1), 100 << 20, 32 << 10));
+	}
+
+	@Test
+	public void bulk_requests_without_rtt() {
+		Assert.assertEquals(16, SftFileCache.adaptiveBulkRequests(-1, 100 << 20, 32 << 10));
+	}
+}
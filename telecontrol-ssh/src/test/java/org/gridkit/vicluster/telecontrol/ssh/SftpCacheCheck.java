@@ -20,6 +20,7 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import org.gridkit.internal.com.jcraft.jsch.JSchException;
 import org.gridkit.internal.com.jcraft.jsch.Session;
@@ -64,6 +65,19 @@ public class SftpCacheCheck {
 		
 		cache.upload(blobs);		
 	}
+
+	@Test
+	public void test_large_file_parallel_upload() throws JSchException, InterruptedException, SftpException {
+		SftFileCache cache = new SftFileCache(createSession(), "/tmp/.vigrid/.jarcache", 4); 
+		cache.setFileParallelism(4);
+		
+		Random r = new Random();
+		byte[] data = new byte[(16 << 20) + r.nextInt(64 << 10)];
+		r.nextBytes(data);
+		
+		cache.upload(new TestBlob("large-file", data));
+		System.out.println("RTT: " + cache.getRoundTripTime(TimeUnit.MICROSECONDS) + "us, rate: " + (long)(cache.getTransferRate() / 1024) + "KiB/s");
+	}
 	
 	public static class TestBlob implements FileBlob {
 
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster.telecontrol.ssh;
+
+import java.io.InputStream;
+
+import org.gridkit.internal.com.jcraft.jsch.ChannelExec;
+import org.gridkit.internal.com.jcraft.jsch.Session;
+import org.junit.Test;
+
+/**
+ * Streams bulk data from remote <code>cat</code> through exec channel
+ * and reports throughput for default and enlarged channel window.
+ * <br/>
+ * Requires SSH server on localhost and key based login for current user.
+ * There is no in-process SSH server in test dependencies, so this is a manual
+ * check and is not run by the build.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class SshThroughputCheck {
+
+	private static final long VOLUME = 512l << 20;
+
+	public Session createSession(String windowSize) throws Exception {
+		SimpleSshSessionProvider sf = new SimpleSshSessionProvider();
+		sf.setUser(System.getProperty("user.name"));
+		sf.setKeyFile(System.getProperty("user.home") + "/.ssh/id_rsa");
+		if (windowSize != null) {
+			sf.setConfig("channel.window_size", windowSize);
+			sf.setConfig("channel.pipe_size", windowSize);
+		}
+		return sf.getSession("localhost", null);
+	}
+
+	@Test
+	public void stream_default_window() throws Exception {
+		measure("default", createSession(null));
+	}
+
+	@Test
+	public void stream_4m_window() throws Exception {
+		measure("4m", createSession("4m"));
+	}
+
+	@Test
+	public void stream_16m_window() throws Exception {
+		measure("16m", createSession("16m"));
+	}
+
+	private void measure(String name, Session session) throws Exception {
+		try {
+			// warm up
+			stream(session, VOLUME / 8);
+			long start = System.nanoTime();
+			long n = stream(session, VOLUME);
+			long time = System.nanoTime() - start;
+			System.out.println(String.format("%s window: %d bytes in %dms, %.1f MB/s", name, n, time / 1000000, ((double)n) / (1 << 20) / (time / 1e9)));
+		}
+		finally {
+			session.disconnect();
+		}
+	}
+
+	private long stream(Session session, long volume) throws Exception {
+		ChannelExec exec = (ChannelExec) session.openChannel("exec");
+		exec.setCommand("head -c " + volume + " /dev/zero");
+		InputStream in = exec.getInputStream();
+		exec.connect();
+		byte[] buf = new byte[64 << 10];
+		long n = 0;
+		while(true) {
+			int m = in.read(buf);
+			if (m < 0) {
+				break;
+			}
+			n += m;
+		}
+		exec.disconnect();
+		return n;
+	}
+}
@@ -15,12 +15,23 @@
  */
 package org.gridkit.vicluster;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.gridkit.util.concurrent.Box;
+import org.gridkit.util.concurrent.FutureBox;
+import org.gridkit.util.concurrent.FutureEx;
 
 
 /**
@@ -96,6 +107,150 @@ public class MassExec {
 		return Arrays.asList(results);
 	}
 	
+	/**
+	 * Results are returned in order of completion, regardless of submission order.
+	 * Iteration stops with exception at first failed future.
+	 */
+	public static <T> ResultStream<T> stream(List<? extends Future<? extends T>> futures) {
+		return new ResultStream<T>(futures);
+	}
+
+	/**
+	 * Pushes each result to callback as soon as it is available, without blocking caller.
+	 * Callback invocations are serialized. After first failure, callback receives
+	 * {@link Box#setError(Throwable)} and no further notifications.
+	 * 
+	 * @return future which is complete when all results are consumed or on first failure
+	 */
+	public static <T> FutureEx<Void> forEach(List<? extends Future<? extends T>> futures, final Box<? super T> callback) {
+		final FutureBox<Void> done = new FutureBox<Void>();
+		if (futures.isEmpty()) {
+			done.setData(null);
+			return done;
+		}
+		Box<T> listener = new SerialCallback<T>(futures.size(), callback, done);
+		for(Future<? extends T> f: futures) {
+			ResultStream.addListener(f, listener);
+		}
+		return done;
+	}
+	
+	/**
+	 * Feeds results to accumulator in order of completion, so only reduced state is kept in memory.
+	 * On first failure remaining futures are cancelled and exception is rethrown.
+	 */
+	public static <T, R> R reduce(List<? extends Future<? extends T>> futures, ResultAccumulator<? super T, R> accumulator) {
+		ResultStream<T> stream = stream(futures);
+		boolean complete = false;
+		try {
+			for(T value: stream) {
+				accumulator.add(value);
+			}
+			complete = true;
+		}
+		finally {
+			if (!complete) {
+				stream.cancelRemaining();
+			}
+		}
+		return accumulator.result();
+	}
+
+	/**
+	 * Sums numeric results as <code>long</code>s.
+	 */
+	public static ResultAccumulator<Number, Long> longSum() {
+		return new ResultAccumulator<Number, Long>() {
+			
+			long sum;
+			
+			@Override
+			public void add(Number value) {
+				sum += value.longValue();
+			}
+
+			@Override
+			public Long result() {
+				return sum;
+			}
+		};
+	}
+
+	/**
+	 * Sums numeric results as <code>double</code>s.
+	 */
+	public static ResultAccumulator<Number, Double> doubleSum() {
+		return new ResultAccumulator<Number, Double>() {
+			
+			double sum;
+			
+			@Override
+			public void add(Number value) {
+				sum += value.doubleValue();
+			}
+			
+			@Override
+			public Double result() {
+				return sum;
+			}
+		};
+	}
+	
+	/**
+	 * Concatenates collections returned by nodes.
+	 */
+	public static <T> ResultAccumulator<Collection<? extends T>, List<T>> merge() {
+		return new ResultAccumulator<Collection<? extends T>, List<T>>() {
+
+			List<T> list = new ArrayList<T>();
+			
+			@Override
+			public void add(Collection<? extends T> value) {
+				if (value != null) {
+					list.addAll(value);
+				}
+			}
+
+			@Override
+			public List<T> result() {
+				return list;
+			}
+		};
+	}
+
+	/**
+	 * Keeps <code>k</code> greatest results according to comparator.
+	 * @return list sorted in descending order
+	 */
+	public static <T> ResultAccumulator<T, List<T>> topK(final int k, final Comparator<? super T> cmp) {
+		if (k <= 0) {
+			throw new IllegalArgumentException("k should be positive");
+		}
+		return new ResultAccumulator<T, List<T>>() {
+			
+			// min heap, head is the smallest of retained
+			PriorityQueue<T> heap = new PriorityQueue<T>(k, cmp);
+			
+			@Override
+			public void add(T value) {
+				if (heap.size() < k) {
+					heap.add(value);
+				}
+				else if (cmp.compare(value, heap.peek()) > 0) {
+					heap.poll();
+					heap.add(value);
+				}
+			}
+			
+			@Override
+			public List<T> result() {
+				List<T> list = new ArrayList<T>(heap);
+				Collections.sort(list, Collections.reverseOrder(cmp));
+				return list;
+			}
+		};
+	}
+	
 	public static <T> List<T> singleNodeMassExec(ViExecutor exec, Callable<? extends T> task) {
 		return Collections.singletonList((T)exec.exec(task));
 	}
@@ -144,7 +299,88 @@ public class MassExec {
 		}
 	}	
 	
-	private static class AnyThrow {
+	/**
+	 * Serializes notifications of {@link #forEach(List, Box)} callback.
+	 * Completions are queued and drained by one of completing threads,
+	 * callback is never invoked under a lock.
+	 */
+	private static class SerialCallback<T> implements Box<T> {
+
+		private static final Object NULL = new Object();
+
+		private final Box<? super T> callback;
+		private final FutureBox<Void> done;
+		private final Queue<Object> events = new ConcurrentLinkedQueue<Object>();
+		private final AtomicBoolean draining = new AtomicBoolean();
+		/** Accessed only by draining thread */
+		private int remaining;
+
+		public SerialCallback(int count, Box<? super T> callback, FutureBox<Void> done) {
+			this.remaining = count;
+			this.callback = callback;
+			this.done = done;
+		}
+
+		@Override
+		public void setData(T data) {
+			events.add(data == null ? NULL : data);
+			drain();
+		}
+
+		@Override
+		public void setError(Throwable e) {
+			events.add(new Failure(e));
+			drain();
+		}
+
+		private void drain() {
+			while(!events.isEmpty()) {
+				if (!draining.compareAndSet(false, true)) {
+					// other thread is draining, it would pick our event
+					return;
+				}
+				try {
+					Object event;
+					while((event = events.poll()) != null) {
+						deliver(event);
+					}
+				}
+				finally {
+					draining.set(false);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void deliver(Object event) {
+			if (remaining == 0) {
+				return;
+			}
+			if (event instanceof Failure) {
+				remaining = 0;
+				Throwable e = ((Failure)event).error;
+				callback.setError(e);
+				done.setError(e);
+			}
+			else {
+				callback.setData(event == NULL ? null : (T)event);
+				if (--remaining == 0) {
+					done.setData(null);
+				}
+			}
+		}
+
+		private static class Failure {
+
+			final Throwable error;
+
+			Failure(Throwable error) {
+				this.error = error;
+			}
+		}
+	}
+
+	static class AnyThrow {
 
 	    public static void throwUncheked(Throwable e) {
 	        AnyThrow.<RuntimeException>throwAny(e);
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.gridkit.vicluster.NamePattern.Token;
+
+/**
+ * Trie of dotted names, one level per segment.
+ * Lookup by {@link NamePattern} visits only branches which could match,
+ * so its cost is proportional to number of matches rather than number of names.
+ * <br/>
+ * Updates should be serialized by caller, lookups are safe to run concurrently with updates.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class NameIndex<V> {
+
+	private final Node<V> root = new Node<V>();
+	
+	public void put(String name, V value) {
+		Node<V> node = root;
+		for(String segment: NamePattern.split(name)) {
+			Node<V> child = node.children.get(segment);
+			if (child == null) {
+				child = new Node<V>();
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		node.value = value;
+	}
+
+	public void remove(String name) {
+		String[] segments = NamePattern.split(name);
+		List<Node<V>> path = new ArrayList<Node<V>>(segments.length + 1);
+		Node<V> node = root;
+		path.add(node);
+		for(String segment: segments) {
+			node = node.children.get(segment);
+			if (node == null) {
+				return;
+			}
+			path.add(node);
+		}
+		node.value = null;
+		// prune empty branch
+		for(int i = segments.length; i > 0; --i) {
+			Node<V> n = path.get(i);
+			if (n.value == null && n.children.isEmpty()) {
+				path.get(i - 1).children.remove(segments[i - 1]);
+			}
+			else {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * @return values for names matching pattern, ordered by name
+	 */
+	public List<V> match(NamePattern pattern) {
+		Map<String, V> result = new TreeMap<String, V>();
+		Set<Visit<V>> visited = new HashSet<Visit<V>>();
+		for(Token[] tokens: pattern.getVariants()) {
+			walk(root, null, tokens, 0, pattern, visited, result);
+		}
+		return result.isEmpty() ? Collections.<V>emptyList() : new ArrayList<V>(result.values());
+	}
+
+	private void walk(Node<V> node, String path, Token[] tokens, int ti, NamePattern pattern, Set<Visit<V>> visited, Map<String, V> result) {
+		if (!visited.add(new Visit<V>(node, tokens, ti))) {
+			return;
+		}
+		if (ti == tokens.length) {
+			V value = node.value;
+			if (value != null && path != null && pattern.matches(path)) {
+				result.put(path, value);
+			}
+			return;
+		}
+		Token token = tokens[ti];
+		if (token.any) {
+			// zero segments
+			walk(node, path, tokens, ti + 1, pattern, visited, result);
+			// one or more segments
+			for(Map.Entry<String, Node<V>> e: node.children.entrySet()) {
+				walk(e.getValue(), append(path, e.getKey()), tokens, ti, pattern, visited, result);
+			}
+		}
+		else if (token.literal) {
+			Node<V> child = node.children.get(token.text);
+			if (child != null) {
+				walk(child, append(path, token.text), tokens, ti + 1, pattern, visited, result);
+			}
+		}
+		else {
+			for(Map.Entry<String, Node<V>> e: node.children.entrySet()) {
+				if (token.matches(e.getKey())) {
+					walk(e.getValue(), append(path, e.getKey()), tokens, ti + 1, pattern, visited, result);
+				}
+			}
+		}
+	}
+
+	private static String append(String path, String segment) {
+		return path == null ? segment : path + "." + segment;
+	}
+	
+	private static class Node<V> {
+		
+		final Map<String, Node<V>> children = new ConcurrentHashMap<String, Node<V>>(4);
+		volatile V value;
+		
+	}
+	
+	private static class Visit<V> {
+		
+		final Node<V> node;
+		final Token[] tokens;
+		final int ti;
+
+		public Visit(Node<V> node, Token[] tokens, int ti) {
+			this.node = node;
+			this.tokens = tokens;
+			this.ti = ti;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(node) ^ System.identityHashCode(tokens) ^ ti;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			Visit<?> v = (Visit<?>) obj;
+			return node == v.node && tokens == v.tokens && ti == v.ti;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled node name GLOB, see {@link GlobHelper}.
+ * <br/>
+ * Besides full regex, pattern is split into per segment matchers,
+ * which are used to walk {@link NameIndex} and {@link PatternIndex}.
+ * Segment matching is permissive, i.e. it could produce false positives
+ * (which are then filtered by regex) but never false negatives.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class NamePattern {
+
+	private static final int CACHE_LIMIT = 1024;
+	
+	private static final Map<String, NamePattern> CACHE = new ConcurrentHashMap<String, NamePattern>();
+	
+	public static NamePattern compile(String pattern) {
+		NamePattern np = CACHE.get(pattern);
+		if (np == null) {
+			np = new NamePattern(pattern);
+			if (CACHE.size() >= CACHE_LIMIT) {
+				CACHE.clear();
+			}
+			CACHE.put(pattern, np);
+		}
+		return np;
+	}
+
+	static String[] split(String name) {
+		List<String> segments = new ArrayList<String>();
+		int n = 0;
+		while(true) {
+			int m = name.indexOf('.', n);
+			if (m < 0) {
+				segments.add(name.substring(n));
+				break;
+			}
+			segments.add(name.substring(n, m));
+			n = m + 1;
+		}
+		return segments.toArray(new String[segments.size()]);
+	}
+	
+	private final String pattern;
+	private final Pattern regEx;
+	
+	/** 
+	 * Token sequences to match segment by segment. Leading and trailing tokens which
+	 * may match empty string are optional, because name could be matched with leading or
+	 * trailing separator appended (see {@link #matches(String)}) and leading or trailing
+	 * <code>**</code> could match nothing.
+	 */
+	private final Token[][] variants;
+
+	private NamePattern(String pattern) {
+		this.pattern = pattern;
+		this.regEx = GlobHelper.translate(pattern, ".");
+		
+		String[] parts = split(pattern);
+		Token[] tokens = new Token[parts.length];
+		for(int i = 0; i != parts.length; ++i) {
+			tokens[i] = new Token(parts[i]);
+		}
+		// leading and trailing runs of tokens, which may match empty string, are optional
+		int lead = 0;
+		while(lead < tokens.length && tokens[lead].matchesEmpty()) {
+			++lead;
+		}
+		int trail = 0;
+		while(trail < tokens.length && tokens[tokens.length - 1 - trail].matchesEmpty()) {
+			++trail;
+		}
+		List<Token[]> vars = new ArrayList<Token[]>();
+		for(int i = 0; i <= lead; ++i) {
+			for(int j = 0; j <= trail; ++j) {
+				if (i + j < tokens.length) {
+					vars.add(Arrays.copyOfRange(tokens, i, tokens.length - j));
+				}
+			}
+		}
+		this.variants = vars.toArray(new Token[vars.size()][]);
+	}
+	
+	public String getPattern() {
+		return pattern;
+	}
+	
+	public Pattern getRegEx() {
+		return regEx;
+	}
+
+	Token[][] getVariants() {
+		return variants;
+	}
+
+	/**
+	 * Exact match, name is also tried with leading and/or trailing separator.
+	 */
+	public boolean matches(String name) {
+		return regEx.matcher(name).matches()
+				|| regEx.matcher("." + name).matches()
+				|| regEx.matcher(name + ".").matches()
+				|| regEx.matcher("." + name + ".").matches();
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+	/**
+	 * Single segment of pattern.
+	 */
+	static class Token {
+		
+		final String text;
+		/** Token containing <code>**</code> may span any number of segments */ 
+		final boolean any;
+		final boolean literal;
+		final Pattern glob;
+
+		Token(String text) {
+			this.text = text;
+			this.any = text.indexOf("**") >= 0;
+			this.literal = text.indexOf('*') < 0 && text.indexOf('?') < 0;
+			this.glob = any || literal ? null : GlobHelper.translate(text, ".");
+		}
+		
+		boolean matchesEmpty() {
+			for(int i = 0; i != text.length(); ++i) {
+				if (text.charAt(i) != '*') {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Should not be called for {@link #any} tokens.
+		 */
+		boolean matches(String segment) {
+			return literal ? text.equals(segment) : glob.matcher(segment).matches();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Token && text.equals(((Token)obj).text);
+		}
+
+		@Override
+		public int hashCode() {
+			return text.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return text;
+		}
+	}
+}
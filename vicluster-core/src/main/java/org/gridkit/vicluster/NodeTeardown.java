@@ -0,0 +1,189 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Concurrent shutdown of a set of nodes.
+ * <br/>
+ * Nodes are stopped using bounded number of threads. Nodes which
+ * have not stopped before deadline are killed.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class NodeTeardown {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(NodeTeardown.class);
+
+	static final int DEFAULT_PARALLELISM = 32;
+	static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+	/** Time given to force kill of stragglers */
+	static final long KILL_TIMEOUT = TimeUnit.SECONDS.toMillis(5);
+
+	/**
+	 * @return teardown time in milliseconds per node name, -1 for nodes which have not stopped in time
+	 */
+	public static Map<String, Long> shutdown(Collection<? extends ViNode> nodes, boolean kill, int parallelism, long timeoutMs) {
+		if (nodes.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		List<ViNode> order = new ArrayList<ViNode>(nodes);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, order.size()), new TeardownThreadFactory());
+		try {
+			List<Future<Long>> epitaphs = new ArrayList<Future<Long>>();
+			for(ViNode node: order) {
+				epitaphs.add(pool.submit(new Stopper(node, kill)));
+			}
+			Map<String, Long> timings = new LinkedHashMap<String, Long>();
+			List<ViNode> stragglers = new ArrayList<ViNode>();
+			collect(order, epitaphs, deadline, timings, stragglers);
+
+			if (!stragglers.isEmpty() && !kill) {
+				LOGGER.warn("Nodes " + stragglers + " have not stopped in " + timeoutMs + "ms, killing");
+				// pool threads are still busy with stuck shutdowns
+				ExecutorService killers = Executors.newCachedThreadPool(new TeardownThreadFactory());
+				try {
+					List<Future<Long>> kills = new ArrayList<Future<Long>>();
+					for(ViNode node: stragglers) {
+						kills.add(killers.submit(new Stopper(node, true)));
+					}
+					List<ViNode> survivors = new ArrayList<ViNode>();
+					collect(stragglers, kills, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(KILL_TIMEOUT), null, survivors);
+					if (!survivors.isEmpty()) {
+						LOGGER.warn("Nodes " + survivors + " have not been killed in " + KILL_TIMEOUT + "ms");
+					}
+				}
+				finally {
+					killers.shutdownNow();
+				}
+			}
+			else if (!stragglers.isEmpty()) {
+				LOGGER.warn("Nodes " + stragglers + " have not been killed in " + timeoutMs + "ms");
+			}
+			for(ViNode node: stragglers) {
+				timings.put(node.toString(), -1l);
+			}
+			report(timings, start, kill);
+			return timings;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void collect(List<ViNode> nodes, List<Future<Long>> epitaphs, long deadline, Map<String, Long> timings, List<ViNode> stragglers) {
+		boolean interrupted = false;
+		for(int i = 0; i != nodes.size(); ++i) {
+			Future<Long> f = epitaphs.get(i);
+			try {
+				long time = interrupted ? 0 : deadline - System.nanoTime();
+				Long t = f.get(Math.max(0, time), TimeUnit.NANOSECONDS);
+				if (timings != null) {
+					timings.put(nodes.get(i).toString(), t);
+				}
+			} catch (TimeoutException e) {
+				stragglers.add(nodes.get(i));
+			} catch (InterruptedException e) {
+				// do not wait any more, but keep collecting finished nodes
+				interrupted = true;
+				stragglers.add(nodes.get(i));
+			} catch (ExecutionException e) {
+				// Stopper does not throw
+				LOGGER.warn("Exception on shutdown for '" + nodes.get(i) + "'", e.getCause());
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void report(Map<String, Long> timings, long start, boolean kill) {
+		long total = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		String slowest = null;
+		long max = -1;
+		for(String name: timings.keySet()) {
+			long t = timings.get(name);
+			if (t > max) {
+				slowest = name;
+				max = t;
+			}
+		}
+		LOGGER.debug((kill ? "Kill" : "Shutdown") + " of " + timings.size() + " nodes took " + total + "ms"
+				+ (slowest == null ? "" : ", slowest '" + slowest + "' " + max + "ms"));
+	}
+
+	private static class Stopper implements Callable<Long> {
+
+		private final ViNode node;
+		private final boolean kill;
+
+		public Stopper(ViNode node, boolean kill) {
+			this.node = node;
+			this.kill = kill;
+		}
+
+		@Override
+		public Long call() {
+			long start = System.nanoTime();
+			try {
+				if (kill) {
+					node.kill();
+				}
+				else {
+					node.shutdown();
+				}
+			}
+			catch(Exception e) {
+				LOGGER.warn("Exception on " + (kill ? "kill" : "shutdown") + " for '" + node + "'", e);
+			}
+			long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			LOGGER.debug("ViNode[" + node + "] " + (kill ? "killed" : "stopped") + " in " + time + "ms");
+			return time;
+		}
+	}
+
+	private static class TeardownThreadFactory implements ThreadFactory {
+
+		int counter = 1;
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new Thread(r);
+			t.setName("ViNode-teardown-" + (counter++));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.gridkit.vicluster.NamePattern.Token;
+
+/**
+ * Trie of name patterns, one level per pattern token.
+ * Lookup by name visits literal branches via hash lookup, so only
+ * wildcard tokens are tested one by one.
+ * <br/>
+ * Not thread safe.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class PatternIndex<V> {
+
+	private final Node<V> root = new Node<V>();
+	
+	public void put(NamePattern pattern, V value) {
+		for(Token[] tokens: pattern.getVariants()) {
+			Node<V> node = root;
+			for(Token token: tokens) {
+				node = node.child(token);
+			}
+			node.values.put(pattern.getPattern(), new Entry<V>(pattern, value));
+		}
+	}
+
+	/**
+	 * @return values for patterns matching name, in order of insertion at each trie node
+	 */
+	public Set<V> match(String name) {
+		Set<V> result = new LinkedHashSet<V>();
+		walk(root, NamePattern.split(name), 0, name, new HashSet<Visit>(), result);
+		return result;
+	}
+
+	private void walk(Node<V> node, String[] segments, int si, String name, Set<Visit> visited, Set<V> result) {
+		if (!visited.add(new Visit(node, si))) {
+			return;
+		}
+		if (node.any && si < segments.length) {
+			// token spanning more than one segment
+			walk(node, segments, si + 1, name, visited, result);
+		}
+		for(Node<V> child: node.anyChildren.values()) {
+			// zero or more segments, handled by child itself
+			walk(child, segments, si, name, visited, result);
+		}
+		if (si == segments.length) {
+			for(Entry<V> e: node.values.values()) {
+				if (e.pattern.matches(name)) {
+					result.add(e.value);
+				}
+			}
+			return;
+		}
+		String segment = segments[si];
+		Node<V> child = node.literalChildren.get(segment);
+		if (child != null) {
+			walk(child, segments, si + 1, name, visited, result);
+		}
+		for(Map.Entry<Token, Node<V>> e: node.globChildren.entrySet()) {
+			if (e.getKey().matches(segment)) {
+				walk(e.getValue(), segments, si + 1, name, visited, result);
+			}
+		}
+	}
+
+	private static class Node<V> {
+		
+		/** Node is reached via "any" token, so it may consume additional segments */
+		boolean any;
+		final Map<String, Node<V>> literalChildren = new HashMap<String, Node<V>>(4);
+		final Map<Token, Node<V>> globChildren = new LinkedHashMap<Token, Node<V>>(4);
+		final Map<Token, Node<V>> anyChildren = new LinkedHashMap<Token, Node<V>>(4);
+		final Map<String, Entry<V>> values = new LinkedHashMap<String, Entry<V>>(4);
+		
+		Node<V> child(Token token) {
+			Map<Token, Node<V>> map = token.any ? anyChildren : token.literal ? null : globChildren;
+			Node<V> child;
+			if (map == null) {
+				child = literalChildren.get(token.text);
+				if (child == null) {
+					child = new Node<V>();
+					literalChildren.put(token.text, child);
+				}
+			}
+			else {
+				child = map.get(token);
+				if (child == null) {
+					child = new Node<V>();
+					child.any = token.any;
+					map.put(token, child);
+				}
+			}
+			return child;
+		}
+	}
+
+	private static class Entry<V> {
+		
+		final NamePattern pattern;
+		final V value;
+		
+		public Entry(NamePattern pattern, V value) {
+			this.pattern = pattern;
+			this.value = value;
+		}
+	}
+	
+	private static class Visit {
+		
+		final Object node;
+		final int si;
+		
+		public Visit(Object node, int si) {
+			this.node = node;
+			this.si = si;
+		}
+		
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(node) ^ si;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			Visit v = (Visit) obj;
+			return node == v.node && si == v.si;
+		}
+	}
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+/**
+ * Incremental reduction of mass execution results.
+ * Results are fed one by one in completion order, from single thread.
+ * 
+ * @see MassExec#reduce(java.util.List, ResultAccumulator)
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface ResultAccumulator<T, R> {
+
+	public void add(T value);
+	
+	public R result();
+	
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.gridkit.util.concurrent.Box;
+import org.gridkit.util.concurrent.FutureEx;
+
+/**
+ * Iterates over results of futures in order of their completion.
+ * <br/>
+ * Completion is tracked via {@link FutureEx} listeners, no thread is blocked
+ * per future. Plain {@link Future}s are polled by single shared daemon thread.
+ * <br/>
+ * {@link #next()} throws exception of failed future as is, so iteration
+ * stops at first failure. Use {@link #cancelRemaining()} to abandon the rest.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class ResultStream<T> implements Iterable<T>, Iterator<T> {
+
+	private static final long POLL_INTERVAL_MS = 5;
+
+	/** Plain futures yet to complete, guarded by itself */
+	private static final List<Pending> POLLED = new ArrayList<Pending>();
+	private static Thread POLLER;
+
+	/**
+	 * Delivers outcome of a future to a box, either via listener or
+	 * by single polling thread.
+	 */
+	@SuppressWarnings("unchecked")
+	static <V> void addListener(final Future<V> future, final Box<? super V> box) {
+		if (future instanceof FutureEx) {
+			((FutureEx<V>)future).addListener(box);
+		}
+		else if (future.isDone()) {
+			push(future, box);
+		}
+		else {
+			synchronized(POLLED) {
+				POLLED.add(new Pending(future, box));
+				if (POLLER == null) {
+					POLLER = new Thread("MassExec-poller") {
+						@Override
+						public void run() {
+							poll();
+						}
+					};
+					POLLER.setDaemon(true);
+					POLLER.start();
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void poll() {
+		List<Pending> done = new ArrayList<Pending>();
+		while(true) {
+			synchronized(POLLED) {
+				Iterator<Pending> it = POLLED.iterator();
+				while(it.hasNext()) {
+					Pending p = it.next();
+					if (p.future.isDone()) {
+						it.remove();
+						done.add(p);
+					}
+				}
+				if (done.isEmpty() && POLLED.isEmpty()) {
+					POLLER = null;
+					return;
+				}
+			}
+			// boxes are notified outside of lock
+			for(Pending p: done) {
+				try {
+					push((Future)p.future, (Box)p.box);
+				}
+				catch(RuntimeException e) {
+					// box failure should not stop the poller
+				}
+			}
+			if (done.isEmpty()) {
+				try {
+					Thread.sleep(POLL_INTERVAL_MS);
+				}
+				catch(InterruptedException e) {
+					// daemon thread, ignore
+				}
+			}
+			done.clear();
+		}
+	}
+	
+	private static <V> void push(Future<V> future, Box<? super V> box) {
+		V value;
+		try {
+			try {
+				value = future.get();
+			}
+			catch(ExecutionException e) {
+				// unwrapping ExecutionException
+				throw e.getCause() == null ? e : e.getCause();
+			}
+		}
+		catch(Throwable e) {
+			box.setError(e);
+			return;
+		}
+		box.setData(value);
+	}
+	
+	private final List<Future<? extends T>> futures;
+	private final BlockingQueue<Outcome> completed = new LinkedBlockingQueue<Outcome>();
+	private int remaining;
+	private int lastIndex = -1;
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ResultStream(Collection<? extends Future<? extends T>> futures) {
+		this.futures = new ArrayList<Future<? extends T>>(futures);
+		this.remaining = this.futures.size();
+		int n = 0;
+		for(Future<? extends T> f: this.futures) {
+			addListener((Future)f, new OutcomeBox(n++));
+		}
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return this;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return remaining > 0;
+	}
+
+	/**
+	 * Blocks until next future is complete.
+	 * @return result of next completed future
+	 * @throws NoSuchElementException if all results were consumed
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (remaining == 0) {
+			throw new NoSuchElementException();
+		}
+		Outcome o;
+		try {
+			o = completed.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		--remaining;
+		lastIndex = o.index;
+		if (o.error != null) {
+			MassExec.AnyThrow.throwUncheked(o.error);
+		}
+		return (T)o.value;
+	}
+
+	/**
+	 * @return position, in original list, of future consumed by last {@link #next()} call
+	 */
+	public int lastIndex() {
+		return lastIndex;
+	}
+
+	/**
+	 * @return number of results yet to be consumed
+	 */
+	public int remaining() {
+		return remaining;
+	}
+	
+	/**
+	 * Cancels futures which are not complete yet. Iteration is finished.
+	 */
+	public void cancelRemaining() {
+		for(Future<? extends T> f: futures) {
+			if (!f.isDone()) {
+				try {
+					f.cancel(true);
+				}
+				catch(RuntimeException e) {
+					// ignore;
+				}
+			}
+		}
+		remaining = 0;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	private static class Pending {
+
+		final Future<?> future;
+		final Box<?> box;
+
+		public Pending(Future<?> future, Box<?> box) {
+			this.future = future;
+			this.box = box;
+		}
+	}
+
+	private static class Outcome {
+		
+		final int index;
+		final Object value;
+		final Throwable error;
+		
+		public Outcome(int index, Object value, Throwable error) {
+			this.index = index;
+			this.value = value;
+			this.error = error;
+		}
+	}
+	
+	private class OutcomeBox implements Box<Object> {
+		
+		private final int index;
+
+		public OutcomeBox(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public void setData(Object data) {
+			completed.add(new Outcome(index, data, null));
+		}
+
+		@Override
+		public void setError(Throwable e) {
+			completed.add(new Outcome(index, null, e));
+		}
+	}
+}
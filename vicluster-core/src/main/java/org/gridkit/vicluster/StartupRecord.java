@@ -0,0 +1,114 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.io.Serializable;
+
+/**
+ * Startup timeline entry of a single node.
+ * All intervals are in milliseconds since node's startup has been requested.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public final class StartupRecord implements Serializable {
+
+	private static final long serialVersionUID = 20140301L;
+
+	private final String nodeName;
+	private final String group;
+	private final long scheduledAt;
+	private final long startedAfter;
+	private final long finishedAfter;
+	private final Throwable error;
+
+	StartupRecord(String nodeName, String group, long scheduledAt, long startedAfter, long finishedAfter, Throwable error) {
+		this.nodeName = nodeName;
+		this.group = group;
+		this.scheduledAt = scheduledAt;
+		this.startedAfter = startedAfter;
+		this.finishedAfter = finishedAfter;
+		this.error = error;
+	}
+
+	public String getNodeName() {
+		return nodeName;
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	/**
+	 * @return wall clock time startup has been requested
+	 */
+	public long getScheduledAt() {
+		return scheduledAt;
+	}
+
+	/**
+	 * @return time spent waiting for dependencies and parallelism slot, or -1 if not started yet
+	 */
+	public long getQueueTime() {
+		return startedAfter;
+	}
+
+	/**
+	 * @return time spent in initialization, or -1 if not finished yet
+	 */
+	public long getStartupTime() {
+		return finishedAfter < 0 ? -1 : finishedAfter - startedAfter;
+	}
+
+	/**
+	 * @return time from request to completion of startup, or -1 if not finished yet
+	 */
+	public long getTotalTime() {
+		return finishedAfter;
+	}
+
+	public boolean isFinished() {
+		return finishedAfter >= 0;
+	}
+
+	/**
+	 * @return initialization error or <code>null</code>
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(nodeName).append(" [").append(group).append("]");
+		if (startedAfter < 0) {
+			sb.append(" queued");
+		}
+		else {
+			sb.append(" queued ").append(startedAfter).append("ms");
+			if (finishedAfter < 0) {
+				sb.append(", starting");
+			}
+			else {
+				sb.append(", started ").append(getStartupTime()).append("ms");
+			}
+		}
+		if (error != null) {
+			sb.append(", failed: ").append(error.toString());
+		}
+		return sb.toString();
+	}
+}
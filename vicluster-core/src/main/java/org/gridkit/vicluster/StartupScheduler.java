@@ -0,0 +1,363 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Launches node initialization tasks in parallel.
+ * <br/>
+ * Concurrency is limited globally and per startup group (usually a host or a provider).
+ * A node may declare name patterns of nodes which should be started before it;
+ * matching nodes are started on demand, cyclic dependencies are ignored.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class StartupScheduler {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(StartupScheduler.class);
+
+	/** Number of completed startups retained for timeline */
+	private final static int TIMELINE_LIMIT = 4096;
+
+	interface NodeResolver {
+
+		/** @return names of known nodes matching pattern */
+		public Collection<String> resolve(String pattern);
+
+		/** Requests start of named node, should call back {@link StartupScheduler#schedule} */
+		public void start(String name);
+
+	}
+
+	private final NodeResolver resolver;
+	private final ExecutorService threads;
+
+	private int parallelism;
+	private int running;
+	private boolean terminated;
+
+	/** Pending and running entries, in order of scheduling */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	/** Records of completed entries, in order of completion */
+	private final Map<String, StartupRecord> completed = new LinkedHashMap<String, StartupRecord>() {
+
+		private static final long serialVersionUID = 20140301L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, StartupRecord> eldest) {
+			return size() > TIMELINE_LIMIT;
+		}
+	};
+	private final List<Entry> pending = new ArrayList<Entry>();
+	private final Map<String, Group> groups = new HashMap<String, Group>();
+
+	public StartupScheduler(NodeResolver resolver, int parallelism) {
+		this.resolver = resolver;
+		this.parallelism = parallelism;
+		this.threads = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			int counter = 1;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setName("ViManager-starter-" + (counter++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be positive");
+		}
+		synchronized(this) {
+			this.parallelism = parallelism;
+		}
+		dispatch();
+	}
+
+	/**
+	 * @param name node name
+	 * @param task initialization task
+	 * @param completion called once startup is recorded as finished, may be <code>null</code>
+	 * @param group startup group
+	 * @param groupLimit parallelism limit for group, non positive value means no limit
+	 * @param after comma separated name patterns of nodes to be started first, may be <code>null</code>
+	 */
+	public void schedule(String name, FutureTask<?> task, Runnable completion, String group, int groupLimit, String after) {
+		List<String> triggers = new ArrayList<String>();
+		synchronized(this) {
+			if (terminated) {
+				throw new IllegalStateException("Scheduler is terminated");
+			}
+			Entry entry = new Entry(name, group, task, completion);
+			Group g = groups.get(group);
+			if (g == null) {
+				g = new Group();
+				groups.put(group, g);
+			}
+			if (groupLimit > 0 && (g.limit <= 0 || groupLimit < g.limit)) {
+				g.limit = groupLimit;
+			}
+			if (after != null) {
+				for(String pattern: after.split(",")) {
+					pattern = pattern.trim();
+					if (pattern.length() == 0) {
+						continue;
+					}
+					for(String dep: resolver.resolve(pattern)) {
+						if (dep.equals(name) || entry.waitFor.contains(dep)) {
+							continue;
+						}
+						Entry de = entries.get(dep);
+						if (de == null) {
+							if (completed.containsKey(dep)) {
+								continue;
+							}
+							// trigger would release dependency if node is already started
+							triggers.add(dep);
+						}
+						else if (dependsOn(de, name, new HashSet<String>())) {
+							LOGGER.warn("ViNode[" + name + "] cyclic startup dependency on '" + dep + "' is ignored");
+							continue;
+						}
+						entry.waitFor.add(dep);
+					}
+				}
+			}
+			if (entries.containsKey(name)) {
+				// should not happen, node is initialized once
+				throw new IllegalStateException("ViNode[" + name + "] is already scheduled");
+			}
+			completed.remove(name);
+			entries.put(name, entry);
+			pending.add(entry);
+			if (!entry.waitFor.isEmpty()) {
+				LOGGER.debug("ViNode[" + name + "] startup is waiting for " + entry.waitFor);
+			}
+		}
+		for(final String dep: triggers) {
+			// trigger is asynchronous, caller may hold node's monitor
+			threads.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						resolver.start(dep);
+						if (!isActive(dep)) {
+							// node has been started before, or is not going to be started
+							release(dep);
+						}
+					}
+					catch(Exception e) {
+						LOGGER.debug("ViNode[" + dep + "] cannot be started as dependency: " + e.toString());
+						release(dep);
+					}
+				}
+			});
+		}
+		dispatch();
+	}
+
+	/**
+	 * Releases nodes waiting for named node, used if node would never be started.
+	 */
+	public void release(String name) {
+		synchronized(this) {
+			for(Entry e: pending) {
+				e.waitFor.remove(name);
+			}
+		}
+		dispatch();
+	}
+
+	private synchronized boolean isActive(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * @return records of completed startups followed by pending and running ones
+	 */
+	public synchronized List<StartupRecord> getTimeline() {
+		List<StartupRecord> timeline = new ArrayList<StartupRecord>(completed.size() + entries.size());
+		timeline.addAll(completed.values());
+		for(Entry e: entries.values()) {
+			timeline.add(e.toRecord());
+		}
+		return timeline;
+	}
+
+	public void shutdown() {
+		List<Entry> cancelled;
+		synchronized(this) {
+			terminated = true;
+			cancelled = new ArrayList<Entry>(pending);
+			pending.clear();
+			for(Entry e: cancelled) {
+				entries.remove(e.name);
+			}
+		}
+		// release threads waiting for initialization
+		for(Entry e: cancelled) {
+			e.task.cancel(false);
+		}
+		threads.shutdown();
+	}
+
+	private boolean dependsOn(Entry entry, String name, Set<String> visited) {
+		if (entry.waitFor.contains(name)) {
+			return true;
+		}
+		for(String dep: entry.waitFor) {
+			if (visited.add(dep)) {
+				Entry de = entries.get(dep);
+				if (de != null && dependsOn(de, name, visited)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void dispatch() {
+		List<Entry> ready = new ArrayList<Entry>();
+		synchronized(this) {
+			if (terminated) {
+				return;
+			}
+			for(Entry e: pending) {
+				if (running >= parallelism) {
+					break;
+				}
+				if (!e.waitFor.isEmpty()) {
+					continue;
+				}
+				Group g = groups.get(e.group);
+				if (g.limit > 0 && g.running >= g.limit) {
+					continue;
+				}
+				g.running++;
+				running++;
+				e.started = System.nanoTime();
+				e.state = State.RUNNING;
+				ready.add(e);
+			}
+			pending.removeAll(ready);
+		}
+		for(final Entry e: ready) {
+			threads.execute(new Runnable() {
+				@Override
+				public void run() {
+					e.task.run();
+					finished(e);
+				}
+			});
+		}
+	}
+
+	private void finished(Entry entry) {
+		try {
+			entry.task.get();
+		} catch (InterruptedException e) {
+			// task is already done
+		} catch (ExecutionException e) {
+			entry.error = e.getCause();
+		}
+		StartupRecord r;
+		synchronized(this) {
+			entry.finished = System.nanoTime();
+			entry.state = State.FINISHED;
+			r = entry.toRecord();
+			// completed entry is pruned, only its record is retained
+			entries.remove(entry.name);
+			completed.put(entry.name, r);
+			groups.get(entry.group).running--;
+			running--;
+			for(Entry e: pending) {
+				e.waitFor.remove(entry.name);
+			}
+		}
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("ViNode[" + entry.name + "] startup " + (r.getError() == null ? "completed" : "failed") + " in " + r.getStartupTime() + "ms, queued for " + r.getQueueTime() + "ms");
+		}
+		dispatch();
+		if (entry.completion != null) {
+			entry.completion.run();
+		}
+	}
+
+	private enum State {
+		PENDING,
+		RUNNING,
+		FINISHED
+	}
+
+	private static class Group {
+
+		int limit;
+		int running;
+
+	}
+
+	private static class Entry {
+
+		final String name;
+		final String group;
+		final FutureTask<?> task;
+		final Runnable completion;
+		final Set<String> waitFor = new LinkedHashSet<String>();
+
+		final long scheduledAt = System.currentTimeMillis();
+		final long scheduled = System.nanoTime();
+		volatile State state = State.PENDING;
+		volatile long started;
+		volatile long finished;
+		volatile Throwable error;
+
+		public Entry(String name, String group, FutureTask<?> task, Runnable completion) {
+			this.name = name;
+			this.group = group;
+			this.task = task;
+			this.completion = completion;
+		}
+
+		public StartupRecord toRecord() {
+			State st = state;
+			return new StartupRecord(name, group, scheduledAt,
+					st == State.PENDING ? -1 : (started - scheduled) / 1000000,
+					st != State.FINISHED ? -1 : (finished - scheduled) / 1000000,
+					error);
+		}
+	}
+}
@@ -0,0 +1,546 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.gridkit.util.concurrent.Box;
+import org.gridkit.util.concurrent.FutureBox;
+import org.gridkit.util.concurrent.FutureEx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load balancing executor on top of a set of nodes.
+ * <br/>
+ * Tasks are kept in driver side queue and pulled by nodes according to their
+ * free capacity (credits). Each node executes at most <code>credits</code> tasks
+ * at once; with automatic credits, node's CPU count is used.
+ * <br/>
+ * Task may have a locality hint - a node name pattern. Such task is queued
+ * for matching nodes and is only stolen by other nodes if there are no other tasks
+ * for them.
+ * <br/>
+ * If node dies, its tasks are resubmitted to other nodes (up to retry limit).
+ * Node is considered dead if submission fails or call fails with {@link RemoteException}
+ * raised by transport. Exceptions thrown by task itself never exclude node.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class TaskFarm {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(TaskFarm.class);
+
+	/** Credits are derived from node's CPU count */
+	public static final int AUTO_CREDITS = 0;
+
+	private final Map<String, Worker> workers = new LinkedHashMap<String, Worker>();
+	private final LinkedList<Job<?>> queue = new LinkedList<Job<?>>();
+	private int maxRetries = 3;
+	private boolean shutdown;
+	/** Set while some thread is dispatching, other threads only request another round */
+	private boolean dispatching;
+	private boolean redispatch;
+
+	/**
+	 * Uses all nodes of cloud matching the pattern.
+	 */
+	public TaskFarm(ViNodeSet cloud, String pattern, int credits) {
+		this(cloud.listNodes(pattern), credits);
+	}
+
+	/**
+	 * Nodes are identified by their {@link Object#toString()}.
+	 */
+	public TaskFarm(Collection<? extends ViNode> nodes, int credits) {
+		if (credits < 0) {
+			throw new IllegalArgumentException("Credits should be non negative");
+		}
+		for(ViNode node: nodes) {
+			String name = node.toString();
+			workers.put(name, new Worker(name, node, credits));
+		}
+		if (workers.isEmpty()) {
+			throw new IllegalArgumentException("No nodes");
+		}
+	}
+
+	/**
+	 * Number of additional attempts for a task, if node executing it has died.
+	 */
+	public synchronized void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public <T> FutureEx<T> submit(Callable<T> task) {
+		return submit(task, null);
+	}
+
+	/**
+	 * @param localityHint name pattern of preferred nodes, may be <code>null</code>
+	 */
+	public <T> FutureEx<T> submit(Callable<T> task, String localityHint) {
+		Job<T> job = new Job<T>(task);
+		synchronized(this) {
+			if (shutdown) {
+				throw new RejectedExecutionException("Farm is shutdown");
+			}
+			ensureLive();
+			boolean hinted = false;
+			if (localityHint != null) {
+				NamePattern hint = NamePattern.compile(localityHint);
+				for(Worker w: workers.values()) {
+					if (!w.dead && hint.matches(w.name)) {
+						w.local.add(job);
+						hinted = true;
+					}
+				}
+			}
+			if (!hinted) {
+				queue.add(job);
+			}
+		}
+		dispatch();
+		return job.result;
+	}
+
+	/**
+	 * @return number of tasks waiting for a node
+	 */
+	public synchronized int getQueueSize() {
+		// hinted tasks could be in several queues
+		Set<Job<?>> pending = new HashSet<Job<?>>(queue);
+		for(Worker w: workers.values()) {
+			for(Job<?> job: w.local) {
+				if (!job.taken) {
+					pending.add(job);
+				}
+			}
+		}
+		return pending.size();
+	}
+
+	/**
+	 * @return number of completed tasks per live node
+	 */
+	public synchronized Map<String, Integer> getCompletedCounts() {
+		Map<String, Integer> result = new LinkedHashMap<String, Integer>();
+		for(Worker w: workers.values()) {
+			if (!w.dead) {
+				result.put(w.name, w.completed);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Fails all queued tasks, running tasks are left to complete.
+	 */
+	public void shutdown() {
+		List<Job<?>> abandoned = new ArrayList<Job<?>>();
+		synchronized(this) {
+			shutdown = true;
+			abandoned.addAll(queue);
+			queue.clear();
+			for(Worker w: workers.values()) {
+				for(Job<?> job: w.local) {
+					if (!job.taken) {
+						job.taken = true;
+						abandoned.add(job);
+					}
+				}
+				w.local.clear();
+			}
+		}
+		for(Job<?> job: abandoned) {
+			job.result.setError(new CancellationException("Farm is shutdown"));
+		}
+	}
+
+	/**
+	 * Decides if call failure is caused by node's death. Exceptions thrown
+	 * by task itself are never passed here.
+	 */
+	protected boolean isNodeFailure(Throwable e) {
+		while(e != null) {
+			if (e instanceof RemoteException || e instanceof RejectedExecutionException) {
+				return true;
+			}
+			e = e.getCause();
+		}
+		return false;
+	}
+
+	private void ensureLive() {
+		if (!isLive()) {
+			throw new RejectedExecutionException("No live nodes");
+		}
+	}
+
+	private boolean isLive() {
+		for(Worker w: workers.values()) {
+			if (!w.dead) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Dispatch is iterative, so submission completing inline and calling
+	 * back here does not grow the stack, but requests another round.
+	 */
+	private void dispatch() {
+		synchronized(this) {
+			if (dispatching) {
+				redispatch = true;
+				return;
+			}
+			dispatching = true;
+		}
+		boolean finished = false;
+		try {
+			while(true) {
+				dispatchRound();
+				synchronized(this) {
+					if (!redispatch) {
+						dispatching = false;
+						finished = true;
+						return;
+					}
+					redispatch = false;
+				}
+			}
+		}
+		finally {
+			if (!finished) {
+				synchronized(this) {
+					dispatching = false;
+				}
+			}
+		}
+	}
+
+	private void dispatchRound() {
+		List<Job<?>> assigned = new ArrayList<Job<?>>();
+		List<Worker> probes = new ArrayList<Worker>();
+		synchronized(this) {
+			if (shutdown) {
+				return;
+			}
+			// nodes steal hinted tasks only after every node
+			// has got its own and unhinted tasks
+			for(boolean stealing: new boolean[]{false, true}) {
+				boolean progress = true;
+				while(progress) {
+					progress = false;
+					// round robin, one task per node per round
+					for(Worker w: workers.values()) {
+						if (w.dead || w.inflight >= w.credits) {
+							continue;
+						}
+						if (w.autoCredits && !w.probed) {
+							w.probed = true;
+							probes.add(w);
+						}
+						Job<?> job;
+						if (stealing) {
+							job = steal(w);
+						}
+						else {
+							job = pollLocal(w);
+							if (job == null && !queue.isEmpty()) {
+								job = queue.removeFirst();
+							}
+						}
+						if (job != null) {
+							job.taken = true;
+							job.owner = w;
+							w.inflight++;
+							assigned.add(job);
+							progress = true;
+						}
+					}
+				}
+			}
+		}
+		for(Worker w: probes) {
+			probe(w);
+		}
+		for(Job<?> job: assigned) {
+			execute(job);
+		}
+	}
+
+	private Job<?> pollLocal(Worker w) {
+		while(!w.local.isEmpty()) {
+			Job<?> job = w.local.removeFirst();
+			if (!job.taken) {
+				return job;
+			}
+		}
+		return null;
+	}
+
+	private Job<?> steal(Worker thief) {
+		for(Worker w: workers.values()) {
+			if (w != thief) {
+				Iterator<Job<?>> it = w.local.iterator();
+				while(it.hasNext()) {
+					Job<?> job = it.next();
+					it.remove();
+					if (!job.taken) {
+						return job;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private <T> void execute(final Job<T> job) {
+		final Worker w = job.owner;
+		Future<T> future;
+		try {
+			future = w.node.submit(new GuardedTask<T>(job.task));
+		}
+		catch(RuntimeException e) {
+			failed(job, w, e, true);
+			return;
+		}
+		ResultStream.addListener(future, new Box<T>() {
+			@Override
+			public void setData(T data) {
+				synchronized(TaskFarm.this) {
+					w.inflight--;
+					w.completed++;
+				}
+				job.result.setData(data);
+				dispatch();
+			}
+
+			@Override
+			public void setError(Throwable e) {
+				Throwable taskError = unwrapTaskFailure(e);
+				if (taskError != null) {
+					failed(job, w, taskError, false);
+				}
+				else {
+					failed(job, w, e, isNodeFailure(e));
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return exception thrown by task, or <code>null</code> if call has failed for other reason
+	 */
+	private static Throwable unwrapTaskFailure(Throwable e) {
+		while(e != null) {
+			if (e instanceof TaskFailure) {
+				return e.getCause() == null ? e : e.getCause();
+			}
+			e = e.getCause();
+		}
+		return null;
+	}
+
+	private void failed(Job<?> job, Worker w, Throwable e, boolean nodeFailure) {
+		Job<?> retry = null;
+		List<Job<?>> rejected = new ArrayList<Job<?>>();
+		synchronized(this) {
+			w.inflight--;
+			if (nodeFailure) {
+				if (!w.dead) {
+					LOGGER.warn("Node '" + w.name + "' has failed, excluded from farm: " + e.toString());
+					markDead(w);
+				}
+				if (job.attempts < maxRetries && !shutdown) {
+					retry = job.retry();
+					queue.addFirst(retry);
+				}
+			}
+			if (!isLive()) {
+				for(Job<?> j: queue) {
+					j.taken = true;
+					rejected.add(j);
+				}
+				queue.clear();
+			}
+		}
+		if (retry == null) {
+			job.result.setError(e);
+		}
+		for(Job<?> j: rejected) {
+			j.result.setError(new RejectedExecutionException("No live nodes"));
+		}
+		dispatch();
+	}
+
+	private void markDead(Worker w) {
+		w.dead = true;
+		// hinted tasks could be left only in queue of dead node
+		for(Job<?> job: w.local) {
+			if (!job.taken && !queue.contains(job)) {
+				boolean queued = false;
+				for(Worker ww: workers.values()) {
+					if (!ww.dead && ww.local.contains(job)) {
+						queued = true;
+						break;
+					}
+				}
+				if (!queued) {
+					queue.add(job);
+				}
+			}
+		}
+		w.local.clear();
+	}
+
+	private void probe(final Worker w) {
+		Future<Integer> future;
+		try {
+			future = w.node.submit(new CpuCount());
+		}
+		catch(RuntimeException e) {
+			// node failure would be detected by task submission
+			return;
+		}
+		ResultStream.addListener(future, new Box<Integer>() {
+			@Override
+			public void setData(Integer data) {
+				synchronized(TaskFarm.this) {
+					w.credits = Math.max(1, data);
+				}
+				dispatch();
+			}
+
+			@Override
+			public void setError(Throwable e) {
+				LOGGER.debug("Failed to detect CPU count of '" + w.name + "': " + e.toString());
+			}
+		});
+	}
+
+	private static class Worker {
+
+		final String name;
+		final ViNode node;
+		final boolean autoCredits;
+		final LinkedList<Job<?>> local = new LinkedList<Job<?>>();
+		int credits;
+		int inflight;
+		int completed;
+		boolean probed;
+		boolean dead;
+
+		public Worker(String name, ViNode node, int credits) {
+			this.name = name;
+			this.node = node;
+			this.autoCredits = credits == AUTO_CREDITS;
+			// until CPU count is known
+			this.credits = autoCredits ? 1 : credits;
+		}
+	}
+
+	private static class Job<T> {
+
+		final Callable<T> task;
+		final FutureBox<T> result;
+		int attempts;
+		/** Job is either executing or completed, hinted job may still be in some local queues */
+		boolean taken;
+		Worker owner;
+
+		public Job(Callable<T> task) {
+			this(task, new FutureBox<T>());
+		}
+
+		/**
+		 * Copies of failed job may still be in local queues,
+		 * so new instance is used for retry.
+		 */
+		public Job<T> retry() {
+			Job<T> job = new Job<T>(task, result);
+			job.attempts = attempts + 1;
+			return job;
+		}
+
+		private Job(Callable<T> task, FutureBox<T> result) {
+			this.task = task;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * Wraps exceptions thrown by task, to tell them from transport failures.
+	 */
+	@SuppressWarnings("serial")
+	private static class GuardedTask<T> implements Callable<T>, Serializable {
+
+		private final Callable<T> task;
+
+		public GuardedTask(Callable<T> task) {
+			this.task = task;
+		}
+
+		@Override
+		public T call() throws Exception {
+			try {
+				return task.call();
+			}
+			catch(Throwable e) {
+				throw new TaskFailure(e);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.valueOf(task);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	static class TaskFailure extends Exception {
+
+		public TaskFailure(Throwable cause) {
+			super(cause);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class CpuCount implements Callable<Integer>, Serializable {
+
+		@Override
+		public Integer call() {
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+}
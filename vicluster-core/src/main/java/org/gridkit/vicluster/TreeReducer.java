@@ -0,0 +1,41 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.io.Serializable;
+
+/**
+ * Reduction which could be split across relay tree.
+ * Each relay folds results of its own subtree into partial result,
+ * partials are combined on the way back to the driver.
+ * <br/>
+ * Reducer is sent to relays, so it should be serializable and stateless.
+ * 
+ * @see ViRelay
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface TreeReducer<T, R> extends Serializable {
+
+	/**
+	 * @return empty partial result
+	 */
+	public R init();
+
+	public R add(R partial, T value);
+	
+	public R combine(R partial1, R partial2);
+	
+}
@@ -18,6 +18,7 @@ package org.gridkit.vicluster;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -26,6 +27,8 @@ import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.gridkit.zerormi.BroadcastTask;
+
 /**
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
@@ -47,22 +50,48 @@ public class ViGroup implements ViNode {
 		}
 		return group;
 	}
+
+	/**
+	 * Mass submission to group is routed through relay, see {@link ViRelay#massSubmit(Collection, BroadcastTask)}.
+	 */
+	static ViGroup group(ViRelay relay, Collection<? extends ViNode> hosts) {
+		ViGroup group = group(hosts);
+		group.relay = relay;
+		return group;
+	}
 	
 	private ViNodeConfig config = new ViNodeConfig();
-	private List<ViNode> hosts = new ArrayList<ViNode>();
-	private boolean shutdown = false;
+	/** Copy-on-write, so execution methods do not need to lock group */
+	private volatile List<ViNode> hosts = Collections.emptyList();
+	private volatile boolean shutdown = false;
+	private ViRelay relay;
+	private int shutdownParallelism = NodeTeardown.DEFAULT_PARALLELISM;
+	private long shutdownTimeout = NodeTeardown.DEFAULT_TIMEOUT;
 	
+	/**
+	 * Configures concurrent shutdown of nodes. Nodes which have not stopped before timeout are killed.
+	 */
+	public synchronized void setShutdownPolicy(int parallelism, long timeout, TimeUnit tu) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be positive");
+		}
+		shutdownParallelism = parallelism;
+		shutdownTimeout = tu.toMillis(timeout);
+	}
+
 	private void checkActive() {
 		if (shutdown) {
 			throw new IllegalStateException("Group is shutdown");
 		}
 	}
 
-	private void checkExecutable() {
+	private List<ViNode> checkExecutable() {
 		checkActive();
+		List<ViNode> hosts = this.hosts;
 		if (hosts.isEmpty()) {
 			throw new IllegalStateException("No hosts in this group");
 		}
+		return hosts;
 	}
 	
 	public synchronized void addNode(ViNode host) {
@@ -70,8 +99,11 @@ public class ViGroup implements ViNode {
 			throw new NullPointerException("null ViNode reference");
 		}
 		checkActive();
+		List<ViNode> hosts = new ArrayList<ViNode>(this.hosts.size() + 1);
+		hosts.addAll(this.hosts);
 		hosts.add(host);
 		config.apply(host);
+		this.hosts = Collections.unmodifiableList(hosts);
 	}
 	
 	@Override
@@ -167,11 +199,9 @@ public class ViGroup implements ViNode {
 	}
 
 	@Override
-	public void kill() {
+	public synchronized void kill() {
 		if (!shutdown) {
-			for(ViNode host: hosts) {
-				host.kill();
-			}			
+			NodeTeardown.shutdown(hosts, true, shutdownParallelism, shutdownTimeout);
 			shutdown = true;
 		}		
 	}
@@ -179,9 +209,7 @@ public class ViGroup implements ViNode {
 	@Override
 	public synchronized void shutdown() {
 		if (!shutdown) {
-			for(ViNode host: hosts) {
-				host.shutdown();
-			}			
+			NodeTeardown.shutdown(hosts, false, shutdownParallelism, shutdownTimeout);
 			shutdown = true;
 		}		
 	}
@@ -192,46 +220,50 @@ public class ViGroup implements ViNode {
 	}
 
 	@Override
-	public synchronized void exec(Runnable task) {
+	public void exec(Runnable task) {
 		MassExec.waitAll(massSubmit(task));		
 	}
 	
 	@Override
-	public synchronized void exec(VoidCallable task) {
+	public void exec(VoidCallable task) {
 		MassExec.waitAll(massSubmit(task));		
 	}
 	
 	@Override
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public synchronized <T> T exec(Callable<T> task) {
+	public <T> T exec(Callable<T> task) {
 		return (T) MassExec.waitAll((List)massSubmit(task)).get(0);		
 	}
 	
 	@Override
-	public synchronized Future<Void> submit(Runnable task) {
+	public Future<Void> submit(Runnable task) {
 		return new GroupFuture<Void>(massSubmit(task));
 	}
 	
 	@Override
-	public synchronized Future<Void> submit(VoidCallable task) {
+	public Future<Void> submit(VoidCallable task) {
 		return new GroupFuture<Void>(massSubmit(task));
 	}
 	
 	@Override
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public synchronized <T> Future<T> submit(Callable<T> task) {
+	public <T> Future<T> submit(Callable<T> task) {
 		return new GroupFuture(massSubmit(task));
 	}
 	
 	@Override
 	@SuppressWarnings({ "unchecked", "rawtypes" })
-	public synchronized <T> List<T> massExec(Callable<? extends T> task) {
+	public <T> List<T> massExec(Callable<? extends T> task) {
 		return MassExec.waitAll((List)massSubmit(task));
 	}
 	
 	@Override
-	public synchronized List<Future<Void>> massSubmit(Runnable task) {
-		checkExecutable();
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public List<Future<Void>> massSubmit(Runnable task) {
+		List<ViNode> hosts = checkExecutable();
+		if (hosts.size() > 1 || relay != null) {
+			return (List)broadcast(hosts, new BroadcastTask(task));
+		}
 		List<Future<Void>> results = new ArrayList<Future<Void>>();
 		for(ViNode host: hosts) {
 			results.addAll(host.massSubmit(task));
@@ -240,8 +272,12 @@ public class ViGroup implements ViNode {
 	}
 	
 	@Override
-	public synchronized List<Future<Void>> massSubmit(VoidCallable task) {
-		checkExecutable();
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public List<Future<Void>> massSubmit(VoidCallable task) {
+		List<ViNode> hosts = checkExecutable();
+		if (hosts.size() > 1 || relay != null) {
+			return (List)broadcast(hosts, new BroadcastTask(new VoidCallable.VoidCallableWrapper(task)));
+		}
 		List<Future<Void>> results = new ArrayList<Future<Void>>();
 		for(ViNode host: hosts) {
 			results.addAll(host.massSubmit(task));
@@ -250,14 +286,33 @@ public class ViGroup implements ViNode {
 	}
 	
 	@Override
-	public synchronized <T> List<Future<T>> massSubmit(Callable<? extends T> task) {
-		checkExecutable();
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public <T> List<Future<T>> massSubmit(Callable<? extends T> task) {
+		List<ViNode> hosts = checkExecutable();
+		if (hosts.size() > 1 || relay != null || task instanceof BroadcastTask) {
+			return (List)broadcast(hosts, task instanceof BroadcastTask ? (BroadcastTask)task : new BroadcastTask(task));
+		}
 		List<Future<T>> results = new ArrayList<Future<T>>();
 		for(ViNode host: hosts) {
 			results.addAll(host.massSubmit(task));
 		}
 		return results;
 	}
+
+	/**
+	 * Same {@link BroadcastTask} is passed to every host, so task is serialized
+	 * at most once regardless of number of remote nodes in group.
+	 */
+	private List<Future<Object>> broadcast(List<ViNode> hosts, BroadcastTask task) {
+		if (relay != null) {
+			return relay.massSubmit(hosts, task);
+		}
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for(ViNode host: hosts) {
+			results.addAll(host.massSubmit(task));
+		}
+		return results;
+	}
 	
 	private static class GroupFuture<T> implements Future<T> {
 		
@@ -25,19 +25,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.gridkit.util.concurrent.FutureBox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,45 +48,87 @@ public class ViManager implements ViNodeSet {
 
 	private final static Logger LOGGER = LoggerFactory.getLogger(ViNodeSet.class);
 	
-	private Map<String, ManagedNode> liveNodes = new TreeMap<String, ManagedNode>();
-	private Map<String, ManagedNode> deadNodes = new TreeMap<String, ManagedNode>();
-	private Map<String, NodeSelector> dynamicSelectors = new LinkedHashMap<String, NodeSelector>();
+	/*
+	 * Registries are copy-on-write, updates are done under manager's monitor,
+	 * lookups and submission paths never lock it.
+	 */
+	private volatile Map<String, ManagedNode> liveNodes = new TreeMap<String, ManagedNode>();
+	private volatile Map<String, ManagedNode> deadNodes = new TreeMap<String, ManagedNode>();
+	private volatile Map<String, NodeSelector> dynamicSelectors = new LinkedHashMap<String, NodeSelector>();
+	/** Index of live nodes, for pattern lookups */
+	private final NameIndex<ManagedNode> liveIndex = new NameIndex<ManagedNode>();
+	/** Index of selectors, for rule inference. Guarded by manager's monitor */
+	private final PatternIndex<NodeSelector> selectorIndex = new PatternIndex<NodeSelector>();
 	
 	private ViNodeProvider provider;
-	private ExecutorService asyncInitThreads;
-	private boolean terminated = false;
+	/** Nodes of this manager are children of {@link ViRelay#ROOT} */
+	private final ViRelay relay = ViRelay.create();
+	private final StartupScheduler startup;
+	private final int deferedTaskLimit;
+	private int shutdownParallelism = NodeTeardown.DEFAULT_PARALLELISM;
+	private long shutdownTimeout = NodeTeardown.DEFAULT_TIMEOUT;
+	private volatile Map<String, Long> shutdownTimeline = Collections.emptyMap();
+	private volatile boolean terminated = false;
 	
-	private long ruleCounter = 0;
+	private final AtomicLong ruleCounter = new AtomicLong();
+
+	private static final int DEFAULT_STARTUP_PARALLELISM = 64;
 	
 	public ViManager(ViNodeProvider provider) {
 		this(provider, 32);
 	}
 
+	/**
+	 * @param deferedTaskLimit max number of tasks queued per node until it is initialized,
+	 *        submitter is blocked once limit is reached; non positive value means no limit
+	 */
 	public ViManager(ViNodeProvider provider, int deferedTaskLimit) {
 		this.provider = provider;
-		if (deferedTaskLimit == 0) {
-			asyncInitThreads = Executors.newSingleThreadExecutor();
-		}
-		else {
-			asyncInitThreads = new ThreadPoolExecutor(deferedTaskLimit, deferedTaskLimit, 100, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1024), new ThreadFactory() {
-				
-				int counter = 1;
-				
-				@Override
-				public synchronized Thread newThread(Runnable r) {
-					Thread t = new Thread(r);
-					t.setName("ViManager-worker-" + (counter++));
-					t.setDaemon(true);
-					return t;
-				}
-			});
-		}
+		this.deferedTaskLimit = deferedTaskLimit;
+		startup = new StartupScheduler(new StartupResolver(), DEFAULT_STARTUP_PARALLELISM);
 	}
 	
 	public ViNodeProvider getProvider() {
 		return provider;
 	}
 
+	public ViRelay getRelay() {
+		return relay;
+	}
+
+	/**
+	 * Limits number of nodes being initialized concurrently.
+	 * Per group limits could be configured using {@link ViProps#STARTUP_PARALLELISM}.
+	 */
+	public void setStartupParallelism(int parallelism) {
+		startup.setParallelism(parallelism);
+	}
+
+	/**
+	 * @return startup timeline of nodes in order of startup requests
+	 */
+	public List<StartupRecord> getStartupTimeline() {
+		return startup.getTimeline();
+	}
+
+	/**
+	 * Configures concurrent shutdown of nodes. Nodes which have not stopped before timeout are killed.
+	 */
+	public synchronized void setShutdownPolicy(int parallelism, long timeout, TimeUnit tu) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be positive");
+		}
+		shutdownParallelism = parallelism;
+		shutdownTimeout = tu.toMillis(timeout);
+	}
+
+	/**
+	 * @return shutdown time in milliseconds per node, -1 for nodes which have been killed
+	 */
+	public Map<String, Long> getShutdownTimeline() {
+		return shutdownTimeline;
+	}
+
 	private void ensureAlive() {
 		if (terminated) {
 			throw new IllegalStateException("Cloud has been terminated");
@@ -96,29 +136,58 @@ public class ViManager implements ViNodeSet {
 	}
 
 	@Override
-	public synchronized ViNode node(String namePattern) {
+	public ViNode node(String namePattern) {
 		ensureAlive();
-		if (liveNodes.containsKey(namePattern)) {
-			return liveNodes.get(namePattern);
-		}
-		else if (deadNodes.containsKey(namePattern)) {
-			return deadNodes.get(namePattern);
+		ViNode node = lookup(namePattern);
+		if (node != null) {
+			return node;
 		}
-		else if (dynamicSelectors.containsKey(namePattern)){
-			return dynamicSelectors.get(namePattern);
+		synchronized(this) {
+			ensureAlive();
+			node = lookup(namePattern);
+			if (node != null) {
+				return node;
+			}
+			else if (isPattern(namePattern)) {
+				NodeSelector selector = new NodeSelector(namePattern);
+				dynamicSelectors = put(dynamicSelectors, namePattern, selector);
+				selectorIndex.put(selector.namePattern, selector);
+				return selector;
+			}
+			else {
+				String name = namePattern;
+				ManagedNode mnode = new ManagedNode(name);
+				mnode.config.setProp(ViProps.RELAY_PROP, relay.getId());
+				inferConfiguration(mnode);
+				liveNodes = put(liveNodes, name, mnode);
+				liveIndex.put(name, mnode);
+				relay.addChild(ViRelay.ROOT, name, mnode);
+				return mnode;
+			}
 		}
-		else if (isPattern(namePattern)) {
-			NodeSelector selector = new NodeSelector(namePattern);
-			dynamicSelectors.put(namePattern, selector);
-			return selector;
+	}
+
+	private ViNode lookup(String namePattern) {
+		ViNode node = liveNodes.get(namePattern);
+		if (node == null) {
+			node = deadNodes.get(namePattern);
 		}
-		else {
-			String name = namePattern;
-			ManagedNode node = new ManagedNode(name);
-			inferConfiguration(node);
-			liveNodes.put(name, node);
-			return node;
+		if (node == null) {
+			node = dynamicSelectors.get(namePattern);
 		}
+		return node;
+	}
+
+	private static <V> Map<String, V> put(Map<String, V> map, String key, V value) {
+		Map<String, V> copy = map instanceof LinkedHashMap ? new LinkedHashMap<String, V>(map) : new TreeMap<String, V>(map);
+		copy.put(key, value);
+		return copy;
+	}
+
+	private static <V> Map<String, V> remove(Map<String, V> map, String key) {
+		Map<String, V> copy = new TreeMap<String, V>(map);
+		copy.remove(key);
+		return copy;
 	}
 
 	public ViNode nodes(String... patterns) {
@@ -127,15 +196,13 @@ public class ViManager implements ViNodeSet {
 		for(String pattern: patterns) {
 			nodes.add(node(pattern));
 		}
-		return ViGroup.group(nodes);
+		return ViGroup.group(relay, nodes);
 	}
 	
 	private synchronized void inferConfiguration(ManagedNode node) {
 		List<Rule> rules = new ArrayList<ViManager.Rule>();
-		for(NodeSelector selector: dynamicSelectors.values()) {
-			if (selector.match(node)) {
-				rules.addAll(selector.rules);
-			}
+		for(NodeSelector selector: selectorIndex.match(node.name)) {
+			rules.addAll(selector.rules);
 		}		
 		Collections.sort(rules);
 		for(Rule rule: rules) {
@@ -148,19 +215,13 @@ public class ViManager implements ViNodeSet {
 	}
 
 	@Override
-	public synchronized Collection<ViNode> listNodes(String namePattern) {
+	public Collection<ViNode> listNodes(String namePattern) {
 		ensureAlive();
-		Set<ViNode> result = new LinkedHashSet<ViNode>();
-		Pattern regEx = GlobHelper.translate(namePattern, ".");
-		for(ManagedNode vinode: liveNodes.values()) {
-			if (match(regEx, vinode)) {
-				result.add(vinode);
-			}
-		}
-		return result;
+		return new LinkedHashSet<ViNode>(liveIndex.match(NamePattern.compile(namePattern)));
 	}
 
 	protected Collection<ViNode> listNodes(Pattern regEx) {
+		Map<String, ManagedNode> liveNodes = this.liveNodes;
 		if (liveNodes.isEmpty()) {
 			return Collections.emptyList();
 		}
@@ -184,58 +245,38 @@ public class ViManager implements ViNodeSet {
 
 	@Override
 	public void shutdown() {
-		// TODO concurrency design is rather poor for this class
-		List<Future<?>> epitaphs;
+		List<ManagedNode> nodes;
+		int parallelism;
+		long timeout;
 		synchronized(this) {
 			if (terminated == true) {
 				return;
 			}
 			terminated = true;
-			epitaphs = new ArrayList<Future<?>>();
-			for(final ManagedNode node: liveNodes.values()) {
-				epitaphs.add(asyncInitThreads.submit(new Runnable() {
-					@Override
-					public void run() {
-						try {
-							node.shutdown();
-						}
-						catch(Exception e) {
-							LOGGER.warn("Exception on shutdown for '" + node.name + "'", e);
-						}
-					}
-				}));
-			}
-		}
-		for(Future<?> e: epitaphs) {
-			try {
-				e.get();
-			} catch (InterruptedException ee) {
-				break;
-			} catch (ExecutionException ee) {
-				LOGGER.warn("Exception on shutdown", ee.getCause());
-			}
-		}
-		// there could be a race between initialization and shutdown here
-		asyncInitThreads.shutdown();
-		try {
-			asyncInitThreads.awaitTermination(10, TimeUnit.SECONDS);
-		} catch (InterruptedException e) {
-			LOGGER.warn("ViManager shutdown: Defered task threads are still active");
-		}		
+			nodes = new ArrayList<ManagedNode>(liveNodes.values());
+			parallelism = shutdownParallelism;
+			timeout = shutdownTimeout;
+		}
+		// pending initializations are cancelled first, so no node is started during teardown
+		startup.shutdown();
+		shutdownTimeline = Collections.unmodifiableMap(NodeTeardown.shutdown(nodes, false, parallelism, timeout));
+		relay.dispose();
 	}
 	
 	public synchronized void resetDeadNode() {
 		ensureAlive();
-		deadNodes.clear();
+		deadNodes = new TreeMap<String, ManagedNode>();
 	}
 	
 	protected synchronized void markAsDead(ManagedNode node) {
-		liveNodes.remove(node.name);
-		deadNodes.put(node.name, node);
+		liveNodes = remove(liveNodes, node.name);
+		liveIndex.remove(node.name);
+		relay.removeChild(ViRelay.ROOT, node.name);
+		deadNodes = put(deadNodes, node.name, node);
 	}
 	
-	protected synchronized Rule newRule(NodeSelector selector) {
-		Rule rule = new Rule(ruleCounter++, selector);
+	protected Rule newRule(NodeSelector selector) {
+		Rule rule = new Rule(ruleCounter.getAndIncrement(), selector);
 		return rule;
 	}
 	
@@ -273,10 +314,22 @@ public class ViManager implements ViNodeSet {
 
 		private String name;
 		private ViNodeConfig config = new ViNodeConfig();
-		private ViExecutor nodeExecutor;
-		private ViNode realNode;
-		private FutureTask<Void> initBarrier = new FutureTask<Void>(new InitTask(), null);
-		private boolean terminated;
+		private volatile ViExecutor nodeExecutor;
+		/** Written under node's monitor, volatile for methods which do not lock node */
+		private volatile ViNode realNode;
+		/** Node being shutdown, used to kill it if shutdown hangs */
+		private ViNode stoppingNode;
+		private FutureTask<Void> initBarrier = new FutureTask<Void>(new InitTask(), null) {
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					// cancelled startup is not reported by scheduler
+					initDone();
+				}
+			}
+		};
+		private volatile DeferedNodeExecutor deferedExecutor;
+		private volatile boolean terminated;
 		
 		public ManagedNode(String name) {
 			this.name = name;
@@ -286,8 +339,9 @@ public class ViManager implements ViNodeSet {
 		public void setProp(String propName, String value) {
 			ensureAlive();
 			config.setProp(propName, value);
-			if (realNode != null) {
-				realNode.setProp(propName, value);
+			ViNode node = realNode;
+			if (node != null) {
+				node.setProp(propName, value);
 			}
 		}
 
@@ -295,8 +349,9 @@ public class ViManager implements ViNodeSet {
 		public void setProps(Map<String, String> props) {
 			ensureAlive();
 			config.setProps(props);
-			if (realNode != null) {
-				realNode.setProps(props);
+			ViNode node = realNode;
+			if (node != null) {
+				node.setProps(props);
 			}
 		}
 
@@ -304,8 +359,9 @@ public class ViManager implements ViNodeSet {
 		public void setConfigElement(String key, Object value) {
 			ensureAlive();
 			this.config.setConfigElement(key, value);
-			if (realNode != null) {
-				realNode.setConfigElement(key, value);
+			ViNode node = realNode;
+			if (node != null) {
+				node.setConfigElement(key, value);
 			}
 		}
 
@@ -313,8 +369,9 @@ public class ViManager implements ViNodeSet {
 		public void setConfigElements(Map<String, Object> config) {
 			ensureAlive();
 			this.config.setConfigElements(config);
-			if (realNode != null) {
-				realNode.setConfigElements(config);
+			ViNode node = realNode;
+			if (node != null) {
+				node.setConfigElements(config);
 			}
 		}
 
@@ -322,8 +379,9 @@ public class ViManager implements ViNodeSet {
 		public void addStartupHook(String name, Runnable hook, boolean override) {
 			ensureAlive();
 			config.addStartupHook(name, hook, override);
-			if (realNode != null) {
-				realNode.addStartupHook(name, hook, override);
+			ViNode node = realNode;
+			if (node != null) {
+				node.addStartupHook(name, hook, override);
 			}			
 		}
 
@@ -331,8 +389,9 @@ public class ViManager implements ViNodeSet {
 		public void addStartupHook(String name, Runnable hook) {
 			ensureAlive();
 			config.addStartupHook(name, hook);
-			if (realNode != null) {
-				realNode.addStartupHook(name, hook);
+			ViNode node = realNode;
+			if (node != null) {
+				node.addStartupHook(name, hook);
 			}			
 		}
 
@@ -376,20 +435,17 @@ public class ViManager implements ViNodeSet {
 
 		@Override
 		public Future<Void> submit(Runnable task) {
-			ensureExecutor();
-			return nodeExecutor.submit(task);
+			return executor().submit(task);
 		}
 
 		@Override
 		public Future<Void> submit(VoidCallable task) {
-			ensureExecutor();
-			return nodeExecutor.submit(task);
+			return executor().submit(task);
 		}
 
 		@Override
-		public synchronized <T> Future<T> submit(Callable<T> task) {
-			ensureExecutor();
-			return nodeExecutor.submit(task);
+		public <T> Future<T> submit(Callable<T> task) {
+			return executor().submit(task);
 		}
 
 		@Override
@@ -452,50 +508,123 @@ public class ViManager implements ViNodeSet {
 			}
 		}
 
+		/**
+		 * Node's monitor is not held during shutdown, so
+		 * a slow shutdown could be interrupted by {@link #kill()}.
+		 */
 		@Override
-		public synchronized void shutdown() {
-			if (!terminated) {
-				if (realNode != null) {
-					realNode.shutdown();
-					realNode = null;
-				}
-				if (nodeExecutor != null) {
-					nodeExecutor = null;
+		public void shutdown() {
+			ViNode node;
+			synchronized(this) {
+				if (terminated) {
+					return;
 				}
-				
+				node = realNode;
+				stoppingNode = node;
+				realNode = null;
+				nodeExecutor = null;
 				terminated = true;
+			}
+			try {
+				if (node != null) {
+					node.shutdown();
+				}
+			}
+			finally {
+				synchronized(this) {
+					stoppingNode = null;
+				}
 				ViManager.this.markAsDead(this);
 			}
 		}
 
 		@Override
-		public synchronized void kill() {
-			if (!terminated) {
-				if (realNode != null) {
-					realNode.kill();
-					realNode = null;
+		public void kill() {
+			ViNode node;
+			synchronized(this) {
+				if (terminated) {
+					// kill node which is still being shutdown
+					node = stoppingNode;
+					stoppingNode = null;
+					if (node == null) {
+						return;
+					}
 				}
-				if (nodeExecutor != null) {
+				else {
+					node = realNode;
+					realNode = null;
 					nodeExecutor = null;
+					terminated = true;
 				}
-				
-				terminated = true;
+			}
+			try {
+				if (node != null) {
+					node.kill();
+				}
+			}
+			finally {
 				ViManager.this.markAsDead(this);
 			}
 		}
 
-		private synchronized void ensureExecutor() {
+		/**
+		 * Lock free once node is initialized.
+		 */
+		private ViExecutor executor() {
+			ViExecutor executor = nodeExecutor;
+			if (executor == null || terminated) {
+				executor = ensureExecutor();
+			}
+			return executor;
+		}
+		
+		private synchronized ViExecutor ensureExecutor() {
 			if (terminated) {
 				throw new IllegalStateException("ViNode[" + name + "] is terminated");
 			}
 			if (nodeExecutor == null) {
-				nodeExecutor = new DeferedNodeExecutor(name, initBarrier, asyncInitThreads, this);
+				String group = startupGroup();
+				int limit = startupParallelism();
+				startup.schedule(name, initBarrier, new Runnable() {
+					@Override
+					public void run() {
+						// startup is recorded as finished before deferred tasks are forwarded
+						initDone();
+					}
+				}, group, limit, config.getProp(ViProps.STARTUP_AFTER));
+				deferedExecutor = new DeferedNodeExecutor(name, initBarrier, deferedTaskLimit);
+				nodeExecutor = deferedExecutor;
+				if (initBarrier.isDone()) {
+					// initialization may fail before executor is assigned
+					initDone();
+				}
 				LOGGER.debug("ViNode[" + name + "] instantiating");
-				
-				asyncInitThreads.execute(initBarrier);
 			}
+			return nodeExecutor;
 		}
 		
+		/**
+		 * Forwards tasks submitted during initialization and
+		 * switches submission to real node.
+		 */
+		private void initDone() {
+			DeferedNodeExecutor deferred = deferedExecutor;
+			if (deferred == null) {
+				// would be called again by ensureExecutor()
+				return;
+			}
+			ViNode node;
+			synchronized(this) {
+				node = terminated ? null : realNode;
+			}
+			deferred.drain(node);
+			synchronized(this) {
+				if (!terminated && realNode != null && nodeExecutor == deferred) {
+					nodeExecutor = realNode;
+				}
+			}
+		}
+
 		private synchronized void ensureStarted() {
 			if (terminated) {
 				throw new IllegalStateException("ViNode[" + name + "] is terminated");
@@ -513,6 +642,31 @@ public class ViManager implements ViNodeSet {
 			return name;
 		}
 
+		private String startupGroup() {
+			String group = config.getProp(ViProps.STARTUP_GROUP);
+			if (group == null) {
+				// remote host is defined by telecontrol-ssh
+				group = config.getProp("remote:host");
+			}
+			if (group == null) {
+				group = config.getProp(ViProps.NODE_TYPE);
+			}
+			return group == null ? "default" : group;
+		}
+
+		private int startupParallelism() {
+			String limit = config.getProp(ViProps.STARTUP_PARALLELISM);
+			if (limit == null) {
+				return 0;
+			}
+			try {
+				return Integer.parseInt(limit.trim());
+			}
+			catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid " + ViProps.STARTUP_PARALLELISM + " for node '" + name + "': " + limit);
+			}
+		}
+
 		private ViNode createNode() {
 			if (ViProps.NODE_TYPE_ALIAS.equals(config.getProp(ViProps.NODE_TYPE))) {
 				String host = config.getProp(ViProps.HOST);
@@ -543,8 +697,8 @@ public class ViManager implements ViNodeSet {
 								realNode.shutdown();
 							}
 							else {
+								// node executor is switched once deferred tasks are forwarded
 								ManagedNode.this.realNode = realNode;
-								nodeExecutor = realNode;
 								LOGGER.debug("ViNode[" + name + "] instantiated");
 							}
 						}
@@ -562,18 +716,48 @@ public class ViManager implements ViNodeSet {
 		}
 	}
 	
-	private static class DeferedNodeExecutor implements ViExecutor {
+	private class StartupResolver implements StartupScheduler.NodeResolver {
 
-		private String name;
-		private Future<Void> barrier;
-		private ExecutorService executor;
-		private ViExecutor target;
+		@Override
+		public Collection<String> resolve(String pattern) {
+			List<String> names = new ArrayList<String>();
+			for(ManagedNode node: liveIndex.match(NamePattern.compile(pattern))) {
+				names.add(node.name);
+			}
+			return names;
+		}
 
-		public DeferedNodeExecutor(String name, Future<Void> barrier, ExecutorService executor, ViExecutor target) {
+		@Override
+		public void start(String name) {
+			ManagedNode node = liveNodes.get(name);
+			if (node == null) {
+				throw new IllegalStateException("ViNode[" + name + "] is terminated");
+			}
+			node.ensureExecutor();
+		}
+	}
+
+	/**
+	 * Queues tasks submitted before node is initialized. Once node is ready,
+	 * queue is forwarded to the node in submission order, without
+	 * waiting for individual tasks, so no threads are blocked meanwhile.
+	 * Submitters are blocked while queue is at its limit.
+	 */
+	private static class DeferedNodeExecutor implements ViExecutor {
+
+		private final String name;
+		private final Future<Void> barrier;
+		private final int limit;
+		/** <code>null</code> once node is ready */
+		private List<DeferedTask<?>> pending = new ArrayList<DeferedTask<?>>();
+		private final Object drainLock = new Object();
+		private volatile ViExecutor target;
+		private volatile Throwable failure;
+
+		public DeferedNodeExecutor(String name, Future<Void> barrier, int limit) {
 			this.name = name;
 			this.barrier = barrier;
-			this.executor = executor;
-			this.target = target;
+			this.limit = limit;
 		}
 
 		@Override
@@ -598,65 +782,126 @@ public class ViManager implements ViNodeSet {
 
 		@Override
 		public Future<Void> submit(final Runnable task) {
-			return executor.submit(new Callable<Void>() {
+			return defer(new DeferedTask<Void>() {
 				@Override
-				public Void call() throws Exception {
-					String tname = swapThreadName("ViNode[" + name + "] defered submission " + task.toString());
-					try {
-						try {
-							barrier.get();
-						}
-						catch(ExecutionException e) {
-							if (e.getCause() instanceof Exception) {
-								throw ((Exception)e.getCause());
-							}
-							else {
-								throw e;
-							}
-						}
-						target.exec(task);
-						return null;
-					}
-					finally {
-						swapThreadName(tname);
-					}
+				protected Future<Void> submitTo(ViExecutor executor) {
+					return executor.submit(task);
 				}
 			});
 		}
 
 		@Override
 		public Future<Void> submit(final VoidCallable task) {
-			return executor.submit(new Callable<Void>() {
+			return defer(new DeferedTask<Void>() {
 				@Override
-				public Void call() throws Exception {
-					String tname = swapThreadName("ViNode[" + name + "] defered submission " + task.toString());
-					try {
-						barrier.get();
-						target.exec(task);
-						return null;
-					}
-					finally {
-						swapThreadName(tname);
-					}
+				protected Future<Void> submitTo(ViExecutor executor) {
+					return executor.submit(task);
 				}
 			});
 		}
 
 		@Override
 		public <T> Future<T> submit(final Callable<T> task) {
-			return executor.submit(new Callable<T>() {
+			return defer(new DeferedTask<T>() {
 				@Override
-				public T call() throws Exception {
-					String tname = swapThreadName("ViNode[" + name + "] defered submission " + task.toString());
+				protected Future<T> submitTo(ViExecutor executor) {
+					return executor.submit(task);
+				}
+			});
+		}
+
+		private <T> Future<T> defer(DeferedTask<T> task) {
+			synchronized(this) {
+				while(limit > 0 && pending != null && pending.size() >= limit) {
 					try {
-						barrier.get();
-						return target.exec(task);
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						task.result.setError(e);
+						return task.result;
+					}
+				}
+				if (pending != null) {
+					pending.add(task);
+					return task.result;
+				}
+			}
+			// reference to this executor has been obtained before node got ready
+			if (target == null) {
+				task.result.setError(failure);
+				return task.result;
+			}
+			else {
+				return task.submitTo(target);
+			}
+		}
+
+		/**
+		 * Forwards pending tasks, called once node initialization is complete.
+		 * @param node initialized node or <code>null</code> if initialization has failed
+		 */
+		public void drain(ViExecutor node) {
+			synchronized(drainLock) {
+				synchronized(this) {
+					if (pending == null) {
+						// already drained
+						return;
 					}
-					finally {
-						swapThreadName(tname);
+				}
+				Throwable e = null;
+				if (node == null) {
+					e = initFailure();
+					if (e == null) {
+						e = new IllegalStateException("ViNode[" + name + "] is terminated");
 					}
+					failure = e;
 				}
-			});
+				else {
+					target = node;
+				}
+				while(true) {
+					List<DeferedTask<?>> batch;
+					synchronized(this) {
+						if (pending == null) {
+							return;
+						}
+						else if (pending.isEmpty()) {
+							pending = null;
+							notifyAll();
+							return;
+						}
+						batch = pending;
+						// tasks submitted while draining are queued after this batch
+						pending = new ArrayList<DeferedTask<?>>();
+						notifyAll();
+					}
+					for(DeferedTask<?> task: batch) {
+						if (e != null) {
+							task.result.setError(e);
+						}
+						else {
+							task.forward(node);
+						}
+					}
+				}
+			}
+		}
+
+		private Throwable initFailure() {
+			try {
+				barrier.get();
+				return null;
+			}
+			catch(ExecutionException e) {
+				return e.getCause() == null ? e : e.getCause();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return e;
+			}
+			catch(CancellationException e) {
+				return e;
+			}
 		}
 
 		@Override
@@ -680,6 +925,25 @@ public class ViManager implements ViNodeSet {
 		}
 	}
 	
+	private static abstract class DeferedTask<T> {
+
+		final FutureBox<T> result = new FutureBox<T>();
+
+		protected abstract Future<T> submitTo(ViExecutor executor);
+
+		void forward(ViExecutor executor) {
+			Future<T> future;
+			try {
+				future = submitTo(executor);
+			}
+			catch(RuntimeException e) {
+				result.setError(e);
+				return;
+			}
+			ResultStream.addListener(future, result);
+		}
+	}
+
 	private static class Rule implements Comparable<Rule> {
 		
 		private final long ruleNo;
@@ -709,21 +973,17 @@ public class ViManager implements ViNodeSet {
 	private class NodeSelector implements ViNode {
 		
 		private String pattern;
-		private Pattern regEx;
+		private NamePattern namePattern;
 		
 		private List<Rule> rules = new ArrayList<Rule>();
 		
 		public NodeSelector(String pattern) {
 			this.pattern = pattern;
-			this.regEx = GlobHelper.translate(pattern, ".");
+			this.namePattern = NamePattern.compile(pattern);
 		}
 		
-		public boolean match(ManagedNode node) {
-			return ViManager.match(regEx, node);
-		}
-
 		private ViGroup select() {
-			return ViGroup.group(listNodes(regEx));
+			return ViGroup.group(relay, liveIndex.match(namePattern));
 		}
 		
 		private ViNodeConfig rule() {
@@ -37,6 +37,11 @@ public class ViProps implements ViNodeProps {
 	 */
 	public static final String NAME_PROP = "vinode.name";
 
+	/**
+	 * System property there id of {@link ViRelay} of node's cloud could be found
+	 */
+	public static final String RELAY_PROP = "vinode.relay";
+
 	/**
 	 * Arbitrary UID of ViNode. May be used by certain providers.
 	 */
@@ -59,6 +64,24 @@ public class ViProps implements ViNodeProps {
 	 * after shutdown.
 	 */
 	public static final String NODE_SILENT_SHUTDOWN = "node:silent-shutdown";
+
+	/**
+	 * Nodes of same startup group share {@link #STARTUP_PARALLELISM} limit.
+	 * Defaults to <code>remote:host</code> if present, otherwise to node type.
+	 */
+	public static final String STARTUP_GROUP = "node:startup-group";
+
+	/**
+	 * Max number of nodes of same startup group being initialized concurrently.
+	 * If nodes of a group disagree, smallest value is used.
+	 */
+	public static final String STARTUP_PARALLELISM = "node:startup-parallelism";
+
+	/**
+	 * Comma separated name patterns of nodes which should be started before this node.
+	 * Matching nodes are started on demand.
+	 */
+	public static final String STARTUP_AFTER = "node:startup-after";
 	
 	public static ViProps at(ViConfigurable config) {
 		return new ViProps(config);
@@ -95,6 +118,28 @@ public class ViProps implements ViNodeProps {
 		return this;
 	}
 	
+	public ViProps setStartupGroup(String group) {
+		config.setProp(STARTUP_GROUP, group);
+		return this;
+	}
+
+	public ViProps setStartupParallelism(int parallelism) {
+		config.setProp(STARTUP_PARALLELISM, String.valueOf(parallelism));
+		return this;
+	}
+
+	public ViProps setStartupAfter(String... patterns) {
+		StringBuilder sb = new StringBuilder();
+		for(String pattern: patterns) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(pattern);
+		}
+		config.setProp(STARTUP_AFTER, sb.toString());
+		return this;
+	}
+
 	public ViProps setSilentShutdown() {
 		config.setProp(NODE_SILENT_SHUTDOWN, "true");
 		return this;
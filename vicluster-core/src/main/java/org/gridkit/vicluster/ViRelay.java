@@ -0,0 +1,475 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+import org.gridkit.zerormi.BroadcastTask;
+
+/**
+ * Tree structured fan out for mass execution.
+ * <br/>
+ * Relay instance represents topology of a single cloud. Each JVM keeps
+ * its own part of it: named relays and nodes directly reachable from them.
+ * Driver sends task to its children only, each child executes task,
+ * forwards it to its own children (if it is a relay) and returns results
+ * of whole subtree back, either as a list or as partial reduction. Thus
+ * driver talks to K nodes, and broadcast latency grows with depth of
+ * the tree instead of cluster size.
+ * <br/>
+ * {@link ViManager} owns a relay and registers its nodes as children of {@link #ROOT}.
+ * Id of relay is available on nodes as {@link ViProps#RELAY_PROP} system property,
+ * so a node which starts nodes of its own could attach them to the tree.
+ * Mass submission to groups of {@link ViManager} is routed through its relay.
+ * <br/>
+ * Task is serialized once, on driver, and forwarded by relays as is.
+ * <pre>
+ * // on relay1, e.g. via cloud.node("relay1").exec(...)
+ * ViRelay.current().addChild("relay1", "node11", node11);
+ * 
+ * // on driver, node11 would receive task via relay1
+ * List&lt;T&gt; results = cloud.getRelay().massExec(ViRelay.ROOT, task);
+ * </pre>
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class ViRelay {
+
+	public static final String ROOT = "";
+
+	/** Parts of topology present in this JVM, by relay id */
+	private static final Map<String, ViRelay> RELAYS = new ConcurrentHashMap<String, ViRelay>();
+
+	/**
+	 * Creates relay for a new cloud.
+	 */
+	public static ViRelay create() {
+		return join(UUID.randomUUID().toString());
+	}
+
+	/**
+	 * @return part of topology of given cloud in this JVM, it is created if necessary
+	 */
+	public static synchronized ViRelay join(String id) {
+		ViRelay relay = RELAYS.get(id);
+		if (relay == null) {
+			relay = new ViRelay(id);
+			RELAYS.put(id, relay);
+		}
+		return relay;
+	}
+
+	/**
+	 * @return relay of cloud this JVM belongs to, or <code>null</code> if it is not a node
+	 */
+	public static ViRelay current() {
+		String id = System.getProperty(ViProps.RELAY_PROP);
+		return id == null ? null : join(id);
+	}
+
+	private final String id;
+	/** Copy-on-write, updated under relay's monitor */
+	private volatile Map<String, Map<String, ViNode>> topology = Collections.emptyMap();
+
+	private ViRelay(String id) {
+		this.id = id;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Forgets this JVM's part of topology.
+	 */
+	public void dispose() {
+		synchronized(ViRelay.class) {
+			if (RELAYS.get(id) == this) {
+				RELAYS.remove(id);
+			}
+		}
+		synchronized(this) {
+			topology = Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Registers node directly reachable from relay in this JVM.
+	 */
+	public synchronized void addChild(String relay, String name, ViNode node) {
+		if (node == null) {
+			throw new NullPointerException("null ViNode reference");
+		}
+		Map<String, ViNode> children = topology.get(relay);
+		children = children == null ? new LinkedHashMap<String, ViNode>() : new LinkedHashMap<String, ViNode>(children);
+		children.put(name, node);
+		Map<String, Map<String, ViNode>> topology = new LinkedHashMap<String, Map<String,ViNode>>(this.topology);
+		topology.put(relay, Collections.unmodifiableMap(children));
+		this.topology = topology;
+	}
+
+	public synchronized void removeChild(String relay, String name) {
+		Map<String, ViNode> children = topology.get(relay);
+		if (children != null && children.containsKey(name)) {
+			children = new LinkedHashMap<String, ViNode>(children);
+			children.remove(name);
+			Map<String, Map<String, ViNode>> topology = new LinkedHashMap<String, Map<String,ViNode>>(this.topology);
+			if (children.isEmpty()) {
+				topology.remove(relay);
+			}
+			else {
+				topology.put(relay, Collections.unmodifiableMap(children));
+			}
+			this.topology = topology;
+		}
+	}
+
+	/**
+	 * @return children of relay known in this JVM, empty map for leaf nodes
+	 */
+	public Map<String, ViNode> getChildren(String relay) {
+		Map<String, ViNode> children = topology.get(relay);
+		return children == null ? Collections.<String, ViNode>emptyMap() : children;
+	}
+
+	/**
+	 * Distributes names into a tree with given fan out, breadth first.
+	 * Useful to decide which node should act as relay for which.
+	 * @return parent to children mapping
+	 */
+	public static Map<String, List<String>> layout(String root, List<String> names, int fanOut) {
+		if (fanOut < 1) {
+			throw new IllegalArgumentException("Fan out should be positive");
+		}
+		Map<String, List<String>> tree = new LinkedHashMap<String, List<String>>();
+		List<String> parents = new ArrayList<String>();
+		parents.add(root);
+		int next = 0;
+		for(String name: names) {
+			String parent = parents.get(next);
+			List<String> children = tree.get(parent);
+			if (children == null) {
+				children = new ArrayList<String>();
+				tree.put(parent, children);
+			}
+			children.add(name);
+			parents.add(name);
+			if (children.size() == fanOut) {
+				++next;
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Executes task on every node below <code>root</code>, root itself is excluded.
+	 * @return results of all nodes, relay result precedes results of its subtree
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> massExec(String root, Callable<? extends T> task) {
+		List<Object> results = new ArrayList<Object>();
+		for(Object partial: fanOut(id, getChildren(root), new BroadcastTask(task), null)) {
+			results.addAll((List<Object>)partial);
+		}
+		return (List<T>)results;
+	}
+
+	/**
+	 * Executes task on every node below <code>root</code> and reduces results.
+	 * Each relay reduces results of its own subtree.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, R> R reduce(String root, Callable<? extends T> task, TreeReducer<T, R> reducer) {
+		R result = reducer.init();
+		for(Object partial: fanOut(id, getChildren(root), new BroadcastTask(task), reducer)) {
+			result = reducer.combine(result, (R)partial);
+		}
+		return result;
+	}
+
+	/**
+	 * Submits task to each of <code>hosts</code>. Host registered as child of {@link #ROOT}
+	 * forwards task to its subtree, its future yields host's own result once whole
+	 * subtree is complete. Other hosts receive task directly.
+	 */
+	public List<Future<Object>> massSubmit(Collection<ViNode> hosts, BroadcastTask task) {
+		Map<ViNode, String> names = new IdentityHashMap<ViNode, String>();
+		for(Map.Entry<String, ViNode> child: getChildren(ROOT).entrySet()) {
+			names.put(child.getValue(), child.getKey());
+		}
+		List<Future<Object>> results = new ArrayList<Future<Object>>(hosts.size());
+		for(ViNode host: hosts) {
+			String name = names.get(host);
+			if (name == null) {
+				results.addAll(host.massSubmit(task));
+			}
+			else {
+				results.add(host.submit(new RelayTask(id, name, task, null, true)));
+			}
+		}
+		return results;
+	}
+
+	private static List<Future<Object>> submit(String id, Map<String, ViNode> children, BroadcastTask task, TreeReducer<?, ?> reducer) {
+		List<Future<Object>> futures = new ArrayList<Future<Object>>(children.size());
+		for(Map.Entry<String, ViNode> child: children.entrySet()) {
+			futures.add(child.getValue().submit(new RelayTask(id, child.getKey(), task, reducer, false)));
+		}
+		return futures;
+	}
+
+	private static List<Object> fanOut(String id, Map<String, ViNode> children, BroadcastTask task, TreeReducer<?, ?> reducer) {
+		return waitAll(submit(id, children, task, reducer));
+	}
+
+	/**
+	 * Unlike {@link MassExec#waitAll(List)}, first failure cancels futures which are not complete yet.
+	 * @return results in order of futures
+	 */
+	private static List<Object> waitAll(List<Future<Object>> futures) {
+		Object[] results = new Object[futures.size()];
+		ResultStream<Object> stream = MassExec.stream(futures);
+		boolean complete = false;
+		try {
+			while(stream.hasNext()) {
+				Object result = stream.next();
+				results[stream.lastIndex()] = result;
+			}
+			complete = true;
+		}
+		finally {
+			if (!complete) {
+				stream.cancelRemaining();
+			}
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Sums numeric results as <code>long</code>s.
+	 */
+	public static TreeReducer<Number, Long> longSum() {
+		return new LongSum();
+	}
+
+	/**
+	 * Concatenates collections returned by nodes.
+	 */
+	public static <T> TreeReducer<Collection<? extends T>, List<T>> merge() {
+		return new Merge<T>();
+	}
+
+	/**
+	 * Keeps <code>k</code> greatest results according to comparator, comparator should be serializable.
+	 * @return list sorted in descending order
+	 */
+	public static <T> TreeReducer<T, List<T>> topK(int k, Comparator<? super T> cmp) {
+		if (k <= 0) {
+			throw new IllegalArgumentException("k should be positive");
+		}
+		return new TopK<T>(k, cmp);
+	}
+	
+	private static final TreeReducer<Object, Object> DISCARD = new Discard();
+
+	private static class RelayTask implements Callable<Object>, Serializable {
+
+		private static final long serialVersionUID = 20140301L;
+		
+		private final String relayId;
+		private final String name;
+		private final BroadcastTask task;
+		@SuppressWarnings("rawtypes")
+		private final TreeReducer reducer;
+		/** Return own result of node, results of subtree are discarded */
+		private final boolean own;
+		
+		public RelayTask(String relayId, String name, BroadcastTask task, TreeReducer<?, ?> reducer, boolean own) {
+			this.relayId = relayId;
+			this.name = name;
+			this.task = task;
+			this.reducer = reducer;
+			this.own = own;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Object call() throws Exception {
+			ViRelay relay = RELAYS.get(relayId);
+			Map<String, ViNode> children = relay == null ? Collections.<String, ViNode>emptyMap() : relay.getChildren(name);
+			// subtree is started first, so local execution overlaps with it
+			List<Future<Object>> futures = submit(relayId, children, task, own ? DISCARD : reducer);
+			Object local;
+			try {
+				local = task.call();
+			}
+			catch(Exception e) {
+				cancel(futures);
+				throw e;
+			}
+			List<Object> partials = waitAll(futures);
+			if (own) {
+				return local;
+			}
+			else if (reducer == null) {
+				List<Object> results = new ArrayList<Object>();
+				results.add(local);
+				for(Object partial: partials) {
+					results.addAll((List<Object>)partial);
+				}
+				return results;
+			}
+			else {
+				Object result = reducer.add(reducer.init(), local);
+				for(Object partial: partials) {
+					result = reducer.combine(result, partial);
+				}
+				return result;
+			}
+		}
+
+		private void cancel(List<Future<Object>> futures) {
+			for(Future<Object> f: futures) {
+				try {
+					f.cancel(true);
+				}
+				catch(RuntimeException e) {
+					// ignore;
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Relay[" + name + "] " + task;
+		}
+	}
+
+	private static class Discard implements TreeReducer<Object, Object> {
+
+		private static final long serialVersionUID = 20140301L;
+
+		@Override
+		public Object init() {
+			return null;
+		}
+
+		@Override
+		public Object add(Object partial, Object value) {
+			return null;
+		}
+
+		@Override
+		public Object combine(Object partial1, Object partial2) {
+			return null;
+		}
+	}
+	
+	private static class LongSum implements TreeReducer<Number, Long> {
+
+		private static final long serialVersionUID = 20140301L;
+
+		@Override
+		public Long init() {
+			return 0l;
+		}
+
+		@Override
+		public Long add(Long partial, Number value) {
+			return partial + value.longValue();
+		}
+
+		@Override
+		public Long combine(Long partial1, Long partial2) {
+			return partial1 + partial2;
+		}
+	}
+
+	private static class Merge<T> implements TreeReducer<Collection<? extends T>, List<T>> {
+
+		private static final long serialVersionUID = 20140301L;
+
+		@Override
+		public List<T> init() {
+			return new ArrayList<T>();
+		}
+
+		@Override
+		public List<T> add(List<T> partial, Collection<? extends T> value) {
+			if (value != null) {
+				partial.addAll(value);
+			}
+			return partial;
+		}
+
+		@Override
+		public List<T> combine(List<T> partial1, List<T> partial2) {
+			partial1.addAll(partial2);
+			return partial1;
+		}
+	}
+
+	private static class TopK<T> implements TreeReducer<T, List<T>> {
+		
+		private static final long serialVersionUID = 20140301L;
+		
+		private final int k;
+		private final Comparator<? super T> cmp;
+
+		public TopK(int k, Comparator<? super T> cmp) {
+			this.k = k;
+			this.cmp = cmp;
+		}
+
+		@Override
+		public List<T> init() {
+			return new ArrayList<T>();
+		}
+
+		@Override
+		public List<T> add(List<T> partial, T value) {
+			partial.add(value);
+			return trim(partial);
+		}
+		
+		@Override
+		public List<T> combine(List<T> partial1, List<T> partial2) {
+			partial1.addAll(partial2);
+			return trim(partial1);
+		}
+
+		private List<T> trim(List<T> list) {
+			Collections.sort(list, Collections.reverseOrder(cmp));
+			while(list.size() > k) {
+				list.remove(list.size() - 1);
+			}
+			return list;
+		}
+	}
+}
@@ -42,6 +42,8 @@ public class JvmConfig implements Serializable {
 	private List<String> jvmOptions = new ArrayList<String>();
 	private List<String> classpathChanges = new ArrayList<String>();
 	private Map<String, String> enviroment = new HashMap<String, String>();
+	private int preforkPoolSize = 0;
+	private long preforkIdleTimeout = 60000;
 	
 	public JvmConfig() {		
 	}
@@ -80,6 +82,31 @@ public class JvmConfig implements Serializable {
 	public Map<String, String> getEnviroment() {
         return enviroment;
     }
+
+	/**
+	 * @return number of idle bootstrapped JVMs factory should keep ready for this configuration, 0 - no pooling
+	 */
+	public int getPreforkPoolSize() {
+		return preforkPoolSize;
+	}
+
+	public void setPreforkPoolSize(int preforkPoolSize) {
+		if (preforkPoolSize < 0) {
+			throw new IllegalArgumentException("Pool size should not be negative");
+		}
+		this.preforkPoolSize = preforkPoolSize;
+	}
+
+	/**
+	 * @return time in milliseconds after which unused pooled JVMs are terminated
+	 */
+	public long getPreforkIdleTimeout() {
+		return preforkIdleTimeout;
+	}
+
+	public void setPreforkIdleTimeout(long preforkIdleTimeout) {
+		this.preforkIdleTimeout = preforkIdleTimeout;
+	}
 	
 	public List<ClasspathEntry> filterClasspath(List<ClasspathEntry> classpath) {
 		if (classpathChanges.isEmpty()) {
@@ -15,17 +15,24 @@
  */
 package org.gridkit.vicluster.telecontrol;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.gridkit.util.concurrent.AdvancedExecutor;
@@ -33,15 +40,22 @@ import org.gridkit.util.concurrent.FutureBox;
 import org.gridkit.util.concurrent.FutureEx;
 import org.gridkit.vicluster.telecontrol.bootstraper.Bootstraper;
 import org.gridkit.zerormi.DuplexStream;
-import org.gridkit.zerormi.SocketStream;
 import org.gridkit.zerormi.hub.LegacySpore;
 import org.gridkit.zerormi.hub.RemotingHub;
 import org.gridkit.zerormi.hub.RemotingHub.SessionEventListener;
+import org.gridkit.zerormi.hub.SelectorSocketAcceptor;
 import org.gridkit.zerormi.zlog.ZLogFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Starts child JVMs on local host.
+ * <br/>
+ * If {@link JvmConfig#getPreforkPoolSize()} is positive, factory keeps
+ * that number of already bootstrapped JVMs per distinct command line
+ * and hands them out on {@link #createProcess(String, JvmConfig)},
+ * so node creation does not pay for JVM startup. Pool is replenished
+ * in background and terminated after idle timeout.
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
@@ -55,8 +69,11 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 	// TODO configure ZLog
 	private RemotingHub hub = new RemotingHub(ZLogFactory.getDefaultRootLogger());
 	private ServerSocket socket;
-	private Thread accepter;
+	private SelectorSocketAcceptor acceptor;
 	private List<Process> processes = new ArrayList<Process>();
+	private Map<String, WarmPool> warmPools = new HashMap<String, WarmPool>();
+	private ScheduledExecutorService poolWorker;
+	private boolean stopped;
 	
 	public LocalJvmProcessFactory() {
 		javaHome = System.getProperty("java.home");
@@ -87,31 +104,16 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 		try {
 			
 			SocketAddress addr = new InetSocketAddress("127.0.0.1", 0);
-			ServerSocket socket = new ServerSocket();
-			socket.bind(addr);
-			this.socket = socket;
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			channel.socket().bind(addr);
+			this.socket = channel.socket();
+			// slave connections are served by shared selector threads
+			acceptor = new SelectorSocketAcceptor();
+			acceptor.bind(channel, hub);
+			acceptor.start();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		Runnable accepterTask = new Runnable() {
-			@Override
-			public void run() {
-				try {					
-					while(!socket.isClosed()) {
-						Socket conn = socket.accept();
-						hub.dispatch(new SocketStream(conn));
-					}
-				}
-				catch(IOException e) {
-					LOGGER.warn("ACCEPTER: " + e.toString());
-				}
-			}
-		};
-		
-		accepter = new Thread(accepterTask);
-		accepter.setDaemon(true);
-		accepter.setName("Control hub accepter [127.0.0.1:" + socket.getLocalPort() + "]");
-		accepter.start();
 	}
 
 	public void setJavaHome(String javaHome) {
@@ -123,13 +125,19 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 	}
 
 	public void stop() {
-		accepter.interrupt();
-		try {
-			socket.close();
-		} catch (IOException e) {
-			// ignore
+		synchronized(this) {
+			stopped = true;
+			warmPools.clear();
+			if (poolWorker != null) {
+				poolWorker.shutdownNow();
+			}
+		}
+		acceptor.close();
+		List<Process> snapshot;
+		synchronized(this) {
+			snapshot = new ArrayList<Process>(processes);
 		}
-		for(Process p: processes) {
+		for(Process p: snapshot) {
 			try {
 				p.destroy();
 			}
@@ -142,14 +150,48 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 	@Override
 	public ManagedProcess createProcess(String caption, JvmConfig jvmArgs) throws IOException {
 
-		RemoteControlSession session;
-
 		String filesep = System.getProperty("file.separator");
 		ExecCommand jvmCmd = new ExecCommand(javaHome + filesep + "bin" + filesep + "java");
 		jvmCmd.addArg("-cp").addArg(jvmArgs.filterClasspath(defaultClasspath));
 		jvmArgs.apply(jvmCmd);
 		jvmCmd.addArg(Bootstraper.class.getName());
 
+		if (jvmArgs.getPreforkPoolSize() > 0) {
+			RemoteControlSession session = takeFromPool(jvmCmd, jvmArgs.getPreforkPoolSize(), jvmArgs.getPreforkIdleTimeout());
+			if (session != null) {
+				try {
+					awaitConnected(session);
+					hub.renameSession(session.sessionId, caption);
+					LOGGER.debug("Pre-forked JVM " + session.sessionId + " is used for " + caption);
+					return session;
+				}
+				catch(IOException e) {
+					LOGGER.warn("Pre-forked JVM has failed, starting new one. " + e.getMessage());
+				}
+			}
+		}
+
+		RemoteControlSession session = launch(caption, jvmCmd);
+		awaitConnected(session);
+		return session;
+	}
+
+	/**
+	 * @return number of idle pre-forked JVMs across all pools
+	 */
+	public synchronized int getPooledProcessCount() {
+		int n = 0;
+		for(WarmPool pool: warmPools.values()) {
+			n += pool.ready.size();
+		}
+		return n;
+	}
+
+	private RemoteControlSession launch(String caption, ExecCommand template) throws IOException {
+
+		RemoteControlSession session;
+		ExecCommand jvmCmd = template.clone();
+
 		synchronized(this) {
 			
 			session = new RemoteControlSession();
@@ -166,6 +208,11 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 			session.setProcess(p);
 		}
 		
+		return session;
+	}
+
+	private void awaitConnected(RemoteControlSession session) throws IOException {
+		Process p = session.process;
 		while(true) {
 			AdvancedExecutor exec = session.ensureRemoteExecutor(100);
 			if (exec != null) {
@@ -183,10 +230,174 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 				// process is still alive
 			}
 		}
-		
+	}
+
+	private synchronized RemoteControlSession takeFromPool(ExecCommand jvmCmd, int size, long idleTimeout) {
+		if (stopped) {
+			return null;
+		}
+		String key = jvmCmd.toString() + " " + new TreeMap<String, String>(jvmCmd.getEviroment());
+		WarmPool pool = warmPools.get(key);
+		if (pool == null) {
+			pool = new WarmPool(key, jvmCmd.clone());
+			warmPools.put(key, pool);
+			scheduleEviction(pool, idleTimeout);
+		}
+		pool.size = size;
+		pool.idleTimeout = idleTimeout;
+		pool.lastUsed = System.nanoTime();
+
+		RemoteControlSession session = null;
+		while(session == null && !pool.ready.isEmpty()) {
+			RemoteControlSession candidate = pool.ready.remove(0);
+			if (isAlive(candidate.process)) {
+				session = candidate;
+			}
+			else {
+				unlist(candidate.process);
+			}
+		}
+		scheduleRefill(pool);
 		return session;
 	}
 
+	private static boolean isAlive(Process p) {
+		try {
+			p.exitValue();
+			return false;
+		}
+		catch(IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Drops session as soon as child process is found dead, so pending calls fail
+	 * without waiting for hub's reconnect timeout. Watching stops once session is resumed.
+	 */
+	private synchronized void watchExit(final RemoteControlSession session) {
+		if (stopped || session.process == null) {
+			return;
+		}
+		getPoolWorker().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (session.linked) {
+					// stream has been resumed
+					return;
+				}
+				if (!isAlive(session.process)) {
+					try {
+						hub.dropSession(session.sessionId);
+					}
+					catch(IllegalArgumentException e) {
+						// already dropped
+					}
+				}
+				else {
+					watchExit(session);
+				}
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized ScheduledExecutorService getPoolWorker() {
+		if (poolWorker == null) {
+			ScheduledThreadPoolExecutor worker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r);
+					t.setDaemon(true);
+					t.setName("LocalJvmProcessFactory worker [127.0.0.1:" + socket.getLocalPort() + "]");
+					return t;
+				}
+			});
+			poolWorker = worker;
+		}
+		return poolWorker;
+	}
+
+	private synchronized void scheduleRefill(final WarmPool pool) {
+		if (pool.refillPending || pool.ready.size() + pool.starting >= pool.size) {
+			return;
+		}
+		pool.refillPending = true;
+		getPoolWorker().execute(new Runnable() {
+			@Override
+			public void run() {
+				refill(pool);
+			}
+		});
+	}
+
+	private void refill(WarmPool pool) {
+		while(true) {
+			synchronized(this) {
+				if (stopped || warmPools.get(pool.key) != pool || pool.ready.size() + pool.starting >= pool.size) {
+					pool.refillPending = false;
+					return;
+				}
+				pool.starting++;
+			}
+			RemoteControlSession session = null;
+			try {
+				session = launch("prefork", pool.command);
+				// nobody reads output of idle JVM, child could block on full pipe otherwise
+				session.parkOutput();
+			}
+			catch(IOException e) {
+				LOGGER.warn("Failed to pre-fork JVM: " + e.toString());
+			}
+			synchronized(this) {
+				pool.starting--;
+				if (session == null) {
+					// do not spin on broken command line, next request will retry
+					pool.refillPending = false;
+					return;
+				}
+				if (stopped || warmPools.get(pool.key) != pool) {
+					session.destroy();
+					pool.refillPending = false;
+					return;
+				}
+				pool.ready.add(session);
+			}
+		}
+	}
+
+	private synchronized void scheduleEviction(final WarmPool pool, long delayMs) {
+		if (stopped) {
+			return;
+		}
+		getPoolWorker().schedule(new Runnable() {
+			@Override
+			public void run() {
+				evictIfIdle(pool);
+			}
+		}, Math.max(1, delayMs), TimeUnit.MILLISECONDS);
+	}
+
+	private void evictIfIdle(WarmPool pool) {
+		List<RemoteControlSession> evicted;
+		synchronized(this) {
+			if (warmPools.get(pool.key) != pool) {
+				return;
+			}
+			long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pool.lastUsed);
+			if (idleMs < pool.idleTimeout) {
+				scheduleEviction(pool, pool.idleTimeout - idleMs);
+				return;
+			}
+			warmPools.remove(pool.key);
+			evicted = new ArrayList<RemoteControlSession>(pool.ready);
+			pool.ready.clear();
+		}
+		for(RemoteControlSession session: evicted) {
+			LOGGER.debug("Terminating idle pre-forked JVM " + session.sessionId);
+			session.destroy();
+		}
+	}
+
 	protected Process startProcess(String name, ExecCommand jvmCmd) throws IOException {
 		ProcessBuilder pb;
 		pb = jvmCmd.getProcessBuilder();
@@ -203,12 +414,94 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 		processes.remove(p);
 	}
 
+	private static class WarmPool {
+		
+		final String key;
+		final ExecCommand command;
+		final List<RemoteControlSession> ready = new ArrayList<RemoteControlSession>();
+		int size;
+		long idleTimeout;
+		long lastUsed;
+		int starting;
+		boolean refillPending;
+		
+		WarmPool(String key, ExecCommand command) {
+			this.key = key;
+			this.command = command;
+		}
+	}
+
+	/**
+	 * Keeps limited amount of output until real target is bound, excess output is dropped.
+	 */
+	private static class ParkedOutput extends OutputStream {
+
+		private static final int LIMIT = 64 << 10;
+
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private OutputStream target;
+		private boolean bound;
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			write(new byte[]{(byte)b}, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if (bound) {
+				if (target != null) {
+					target.write(b, off, len);
+				}
+			}
+			else {
+				buffer.write(b, off, Math.min(len, Math.max(0, LIMIT - buffer.size())));
+			}
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			if (target != null) {
+				target.flush();
+			}
+		}
+
+		/**
+		 * @param os new target, <code>null</code> to discard output
+		 */
+		public synchronized void bind(OutputStream os) {
+			bound = true;
+			target = os;
+			if (target != null && buffer.size() > 0) {
+				try {
+					buffer.writeTo(target);
+					target.flush();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+			buffer = null;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (target != null) {
+				target.close();
+			}
+		}
+	}
+
 	private class RemoteControlSession implements SessionEventListener, ManagedProcess {
 		
 		String sessionId;
 		Process process;
 		AdvancedExecutor executor;
 		CountDownLatch connected = new CountDownLatch(1);
+		/** <code>false</code> while stream is interrupted */
+		volatile boolean linked;
+		/** Output of pre-forked JVM collected until it is bound, <code>null</code> for regular JVM */
+		ParkedOutput parkedOut;
+		ParkedOutput parkedErr;
 		
 		@Override
 		public AdvancedExecutor getExecutionService() {
@@ -223,6 +516,13 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 			this.process = process;
 		}
 
+		void parkOutput() {
+			parkedOut = new ParkedOutput();
+			parkedErr = new ParkedOutput();
+			BackgroundStreamDumper.link(process.getInputStream(), parkedOut);
+			BackgroundStreamDumper.link(process.getErrorStream(), parkedErr);
+		}
+
 		@SuppressWarnings("unused")
 		private boolean isConnected() {
 			return connected.getCount() == 0;
@@ -245,6 +545,7 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 		@Override
 		public void connected(DuplexStream stream) {
 			executor = hub.getExecutionService(sessionId);
+			linked = true;
 			connected.countDown();
 			LOGGER.info("Conntected: " + stream);
 		}
@@ -252,10 +553,14 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 		@Override
 		public void interrupted(DuplexStream stream) {
 			LOGGER.info("Interrupted: " + stream);
+			linked = false;
+			// hub keeps session for reconnect, but dead child would never reconnect
+			watchExit(this);
 		}
 
 		@Override
 		public void reconnected(DuplexStream stream) {
+			linked = true;
 			LOGGER.info("Reconnected: " + stream);
 		}
 
@@ -275,7 +580,10 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 
 		@Override
 		public void bindStdOut(OutputStream os) {
-			if (os != null) {
+			if (parkedOut != null) {
+				parkedOut.bind(os);
+			}
+			else if (os != null) {
 				BackgroundStreamDumper.link(process.getInputStream(), os);
 			}
 			else {
@@ -290,7 +598,10 @@ public class LocalJvmProcessFactory implements JvmProcessFactory {
 
 		@Override
 		public void bindStdErr(OutputStream os) {
-			if (os != null) {
+			if (parkedErr != null) {
+				parkedErr.bind(os);
+			}
+			else if (os != null) {
 				BackgroundStreamDumper.link(process.getErrorStream(), os);
 			}
 			else {
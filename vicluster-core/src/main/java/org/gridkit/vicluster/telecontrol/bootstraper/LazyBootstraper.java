@@ -0,0 +1,56 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster.telecontrol.bootstraper;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Alternative main class for remotely controlled JVM.
+ * Instead of requiring whole classpath to be present on host,
+ * it loads {@link Bootstraper} and all its dependencies via
+ * {@link RemoteClassLoader}.
+ * <br/>
+ * Arguments: <code>cache-dir classpath-port classpath-id session-id host port</code>
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class LazyBootstraper {
+
+	public static void main(String[] args) throws Throwable {
+		File cacheDir = new File(args[0]);
+		int cpPort = Integer.valueOf(args[1]);
+		String cpId = args[2];
+		String id = args[3];
+		String host = args[4];
+		String port = args[5];
+
+		// bypass application class loader, everything except JDK should come from master
+		ClassLoader parent = ClassLoader.getSystemClassLoader().getParent();
+		RemoteClassLoader cl = new RemoteClassLoader(parent, host, cpPort, cpId, cacheDir);
+		Thread.currentThread().setContextClassLoader(cl);
+
+		Class<?> boot = cl.loadClass(Bootstraper.class.getName());
+		Method main = boot.getMethod("main", String[].class);
+		try {
+			main.invoke(null, (Object)new String[]{id, host, port});
+		}
+		catch(InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
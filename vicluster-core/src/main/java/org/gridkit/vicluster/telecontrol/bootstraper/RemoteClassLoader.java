@@ -0,0 +1,234 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster.telecontrol.bootstraper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class loader fetching classes and resources on demand from master
+ * (see {@link RemoteClasspathServer}).
+ * <br/>
+ * Fetched resources are stored in local cache directory
+ * under hash of classpath entry they belong to, so they
+ * are transfered to host only once.
+ * <br/>
+ * This class should depend on JDK classes only.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class RemoteClassLoader extends ClassLoader {
+
+	static final String MAGIC = "CLASSPATH";
+
+	private final File cacheDir;
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	/** Protection domains per local root of classpath entry */
+	private final Map<File, ProtectionDomain> domainCache = new HashMap<File, ProtectionDomain>();
+
+	public RemoteClassLoader(ClassLoader parent, String host, int port, String classpathId, File cacheDir) throws IOException {
+		super(parent);
+		this.cacheDir = cacheDir;
+		this.socket = new Socket(host, port);
+		this.socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeUTF(MAGIC);
+		out.writeUTF(classpathId);
+		out.flush();
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		String path = name.replace('.', '/') + ".class";
+		File file;
+		try {
+			file = fetch(path);
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+		if (file == null) {
+			throw new ClassNotFoundException(name);
+		}
+		byte[] data;
+		try {
+			data = readFile(file);
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+		int n = name.lastIndexOf('.');
+		if (n > 0) {
+			String pname = name.substring(0, n);
+			if (getPackage(pname) == null) {
+				try {
+					definePackage(pname, null, null, null, null, null, null, null);
+				}
+				catch(IllegalArgumentException e) {
+					// defined concurrently
+				}
+			}
+		}
+		return defineClass(name, data, 0, data.length, getProtectionDomain(file, path));
+	}
+
+	/**
+	 * Code source of class is local copy of classpath entry it was loaded from.
+	 */
+	private synchronized ProtectionDomain getProtectionDomain(File file, String path) throws ClassNotFoundException {
+		File root = file;
+		for(int i = path.split("/").length; i != 0; --i) {
+			root = root.getParentFile();
+		}
+		ProtectionDomain domain = domainCache.get(root);
+		if (domain == null) {
+			URL url;
+			try {
+				url = root.toURI().toURL();
+			} catch (MalformedURLException e) {
+				throw new ClassNotFoundException(path, e);
+			}
+			domain = new ProtectionDomain(new CodeSource(url, (Certificate[])null), null, this, null);
+			domainCache.put(root, domain);
+		}
+		return domain;
+	}
+
+	@Override
+	protected URL findResource(String name) {
+		try {
+			File file = fetch(name);
+			return file == null ? null : file.toURI().toURL();
+		} catch (MalformedURLException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) throws IOException {
+		List<URL> urls = new ArrayList<URL>();
+		for(File file: fetch(name, true)) {
+			urls.add(file.toURI().toURL());
+		}
+		return Collections.enumeration(urls);
+	}
+
+	/**
+	 * @return local copy of resource or <code>null</code> if master has no such resource
+	 */
+	protected File fetch(String name) throws IOException {
+		List<File> files = fetch(name, false);
+		return files.isEmpty() ? null : files.get(0);
+	}
+
+	/**
+	 * @param all if <code>false</code> only first match is fetched
+	 * @return local copies of resource from all classpath entries having it
+	 */
+	protected synchronized List<File> fetch(String name, boolean all) throws IOException {
+		if (name.startsWith("/")) {
+			name = name.substring(1);
+		}
+		out.writeBoolean(all);
+		out.writeUTF(name);
+		out.flush();
+		List<File> files = new ArrayList<File>();
+		while(true) {
+			String entryHash = in.readUTF();
+			if (entryHash.length() == 0) {
+				break;
+			}
+			int size = in.readInt();
+			File file = new File(new File(cacheDir, entryHash), name);
+			if (file.isFile() && file.length() == size) {
+				out.writeBoolean(false);
+				out.flush();
+			}
+			else {
+				out.writeBoolean(true);
+				out.flush();
+				byte[] data = new byte[size];
+				in.readFully(data);
+				store(file, data);
+			}
+			files.add(file);
+		}
+		return files;
+	}
+
+	private void store(File file, byte[] data) throws IOException {
+		file.getParentFile().mkdirs();
+		File temp = File.createTempFile(file.getName() + ".", "", file.getParentFile());
+		OutputStream fos = new FileOutputStream(temp);
+		try {
+			fos.write(data);
+		}
+		finally {
+			fos.close();
+		}
+		if (!temp.renameTo(file)) {
+			// other JVM may have been faster
+			temp.delete();
+			if (!file.isFile() || file.length() != data.length) {
+				throw new IOException("Failed to store " + file.getPath());
+			}
+		}
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		InputStream is = new FileInputStream(file);
+		try {
+			DataInputStream dis = new DataInputStream(is);
+			dis.readFully(data);
+		}
+		finally {
+			is.close();
+		}
+		return data;
+	}
+
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+}
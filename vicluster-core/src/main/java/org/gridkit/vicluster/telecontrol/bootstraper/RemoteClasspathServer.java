@@ -0,0 +1,258 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster.telecontrol.bootstraper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.gridkit.vicluster.telecontrol.Classpath.ClasspathEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Master side counterpart of {@link RemoteClassLoader}.
+ * Serves resources from local classpath entries.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class RemoteClasspathServer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RemoteClasspathServer.class);
+
+	private Map<String, String> classpathIds = new HashMap<String, String>();
+	private Map<String, List<Source>> classpaths = new HashMap<String, List<Source>>();
+	private Map<File, JarFile> jars = new HashMap<File, JarFile>();
+
+	/**
+	 * @return classpath ID to be passed to remote side
+	 */
+	public synchronized String register(List<ClasspathEntry> classpath) {
+		StringBuilder key = new StringBuilder();
+		for(ClasspathEntry ce: classpath) {
+			key.append(ce.getContentHash()).append('|');
+		}
+		String id = classpathIds.get(key.toString());
+		if (id == null) {
+			id = String.valueOf(classpathIds.size());
+			List<Source> sources = new ArrayList<Source>();
+			for(ClasspathEntry ce: classpath) {
+				try {
+					sources.add(new Source(ce));
+				} catch (URISyntaxException e) {
+					LOGGER.warn("Classpath entry cannot be served: " + ce.getUrl());
+				}
+			}
+			classpathIds.put(key.toString(), id);
+			classpaths.put(id, sources);
+		}
+		return id;
+	}
+
+	/**
+	 * Starts a daemon thread serving single {@link RemoteClassLoader} connection.
+	 */
+	public void serve(String name, InputStream is, OutputStream os) {
+		Thread t = new Connection(name, is, os);
+		t.start();
+	}
+
+	private synchronized List<Source> getClasspath(String id) {
+		return classpaths.get(id);
+	}
+
+	private synchronized JarFile getJar(File file) throws IOException {
+		JarFile jar = jars.get(file);
+		if (jar == null) {
+			jar = new JarFile(file);
+			jars.put(file, jar);
+		}
+		return jar;
+	}
+
+	public synchronized void close() {
+		for(JarFile jar: jars.values()) {
+			try {
+				jar.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+		jars.clear();
+	}
+
+	private class Source {
+
+		final ClasspathEntry entry;
+		final File file;
+		private String root;
+
+		public Source(ClasspathEntry entry) throws URISyntaxException {
+			this.entry = entry;
+			this.file = new File(entry.getUrl().toURI());
+		}
+
+		public byte[] read(String name) throws IOException {
+			if (file.isDirectory()) {
+				File f = new File(file, name);
+				if (!isWithinRoot(f)) {
+					LOGGER.warn("Request for resource outside of classpath entry is rejected: " + name);
+					return null;
+				}
+				return f.isFile() ? toBytes(new FileInputStream(f)) : null;
+			}
+			else {
+				JarFile jar = getJar(file);
+				JarEntry je = jar.getJarEntry(name);
+				return je == null || je.isDirectory() ? null : toBytes(jar.getInputStream(je));
+			}
+		}
+
+		private boolean isWithinRoot(File f) throws IOException {
+			if (root == null) {
+				root = file.getCanonicalPath() + File.separator;
+			}
+			return f.getCanonicalPath().startsWith(root);
+		}
+
+		private byte[] toBytes(InputStream is) throws IOException {
+			try {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				byte[] buf = new byte[4 << 10];
+				while(true) {
+					int n = is.read(buf);
+					if (n < 0) {
+						break;
+					}
+					bos.write(buf, 0, n);
+				}
+				return bos.toByteArray();
+			}
+			finally {
+				is.close();
+			}
+		}
+	}
+
+	private class Connection extends Thread {
+
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		public Connection(String name, InputStream is, OutputStream os) {
+			this.in = new DataInputStream(new BufferedInputStream(is));
+			this.out = new DataOutputStream(new BufferedOutputStream(os));
+			setName("ClasspathServer[" + name + "]");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				String magic = in.readUTF();
+				if (!RemoteClassLoader.MAGIC.equals(magic)) {
+					throw new IOException("Magic not match, expected [" + RemoteClassLoader.MAGIC + "], read [" + magic + "]");
+				}
+				String id = in.readUTF();
+				List<Source> classpath = getClasspath(id);
+				if (classpath == null) {
+					throw new IOException("Unknown classpath ID: " + id);
+				}
+				while(true) {
+					boolean all;
+					try {
+						all = in.readBoolean();
+					}
+					catch(EOFException e) {
+						break;
+					}
+					String name = in.readUTF();
+					serve(classpath, name, all);
+				}
+			}
+			catch(IOException e) {
+				LOGGER.debug("Classpath connection terminated: " + e.toString());
+			}
+			finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+				try {
+					out.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+
+		/**
+		 * Each match is sent as entry hash and size, data is sent if requested by client.
+		 * Empty hash terminates the response.
+		 */
+		private void serve(List<Source> classpath, String name, boolean all) throws IOException {
+			if (isValidName(name)) {
+				for(Source source: classpath) {
+					byte[] data = source.read(name);
+					if (data != null) {
+						out.writeUTF(source.entry.getContentHash());
+						out.writeInt(data.length);
+						out.flush();
+						if (in.readBoolean()) {
+							out.write(data);
+						}
+						if (!all) {
+							break;
+						}
+					}
+				}
+			}
+			else {
+				LOGGER.warn("Invalid resource name is rejected: " + name);
+			}
+			out.writeUTF("");
+			out.flush();
+		}
+	}
+
+	static boolean isValidName(String name) {
+		if (name.length() == 0 || name.startsWith("/") || name.indexOf('\\') >= 0) {
+			return false;
+		}
+		for(String segment: name.split("/")) {
+			if (segment.equals("..")) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -450,17 +450,22 @@ public class Tunneller extends TunnellerIO {
 			setName("CONNECTION[" + sock.getRemoteSocketAddress() + "]");
 
 			
+			// request/response protocols (e.g. remote class loading) are latency sensitive
+			// so poll interval grows gradually after last activity
+			long idleSleep = 1;
 			while(sock.isConnected() && !sock.isClosed()) {
 				if (	pump(soIn, os)
 					 || pump(is, soOut)) {
 					writePending();
+					idleSleep = 1;
 					continue;
 				}
 				else {
 					try {
-						sleep(50);
+						sleep(idleSleep);
 					} catch (InterruptedException e) {
 					}
+					idleSleep = Math.min(50, 2 * idleSleep);
 				}
 			}
 			close(is); // TODO control side should close input
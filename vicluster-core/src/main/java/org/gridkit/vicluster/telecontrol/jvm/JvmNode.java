@@ -19,10 +19,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -30,6 +33,8 @@ import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.gridkit.util.concurrent.AdvancedExecutor;
+import org.gridkit.util.concurrent.Box;
+import org.gridkit.util.concurrent.FutureEx;
 import org.gridkit.vicluster.MassExec;
 import org.gridkit.vicluster.ViNode;
 import org.gridkit.vicluster.ViNodeConfig;
@@ -37,6 +42,7 @@ import org.gridkit.vicluster.ViNodeConfig.ReplyProps;
 import org.gridkit.vicluster.ViProps;
 import org.gridkit.vicluster.VoidCallable;
 import org.gridkit.vicluster.telecontrol.ManagedProcess;
+import org.gridkit.zerormi.zlog.ZLogFactory;
 
 /**
  * 
@@ -54,6 +60,26 @@ class JvmNode implements ViNode {
 	private ViNodeConfig config = new ViNodeConfig();
 	
 	private boolean active;
+
+	/*
+	 * Property updates made while tasks are in flight are attached to next tasks
+	 * until node confirms them, once node is idle remaining updates are flushed.
+	 * Otherwise updates are sent right away. Driver caches properties read from node,
+	 * cache is valid until a task is executed (task may change properties).
+	 */
+	private final Object propLock = new Object();
+	/** Identifies this node for tracking of applied updates on remote side */
+	private final String propSyncId = UUID.randomUUID().toString();
+	private final Map<String, PropUpdate> unconfirmedProps = new LinkedHashMap<String, PropUpdate>();
+	private long propVersion;
+	/** Known property values, <code>null</code> value stands for absent property */
+	private final Map<String, String> propCache = new HashMap<String, String>();
+	private long cacheEpoch;
+	/** Incremented on each task submission and completion */
+	private long taskEpoch;
+	private int tasksInFlight;
+	/** Set on termination, no updates are flushed afterwards */
+	private boolean propsReleased;
 	
 	public JvmNode(String name, ViNodeConfig config, ManagedProcess cp) throws IOException {
 		this.name = name;
@@ -169,19 +195,101 @@ class JvmNode implements ViNode {
 	@Override
 	public Future<Void> submit(Runnable task) {
 		ensureStarted();
-		return executor.submit(task);
+		return dispatch(task, true);
 	}
 
 	@Override
 	public Future<Void> submit(VoidCallable task) {
 		ensureStarted();
-		return executor.submit(new VoidCallable.VoidCallableWrapper(task));
+		return dispatch(new VoidCallable.VoidCallableWrapper(task), true);
 	}
 
 	@Override
 	public <T> Future<T> submit(Callable<T> task) {
 		ensureStarted();
-		return executor.submit(task);
+		return dispatch(task, true);
+	}
+
+	/**
+	 * Submits task, unconfirmed property updates are sent along with it.
+	 * @param userTask <code>false</code> for tasks which do not change node's properties
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> FutureEx<T> dispatch(Object task, final boolean userTask) {
+		final PropSync sync;
+		synchronized(propLock) {
+			if (userTask) {
+				taskEpoch++;
+				tasksInFlight++;
+			}
+			if (unconfirmedProps.isEmpty()) {
+				sync = null;
+			}
+			else {
+				Map<String, String> props = new LinkedHashMap<String, String>();
+				for(String key: unconfirmedProps.keySet()) {
+					props.put(key, unconfirmedProps.get(key).value);
+				}
+				sync = new PropSync(propSyncId, props, propVersion, task);
+			}
+		}
+		FutureEx<T> future;
+		try {
+			if (sync != null) {
+				future = (FutureEx<T>) executor.submit(sync);
+			}
+			else if (task instanceof Callable) {
+				future = executor.submit((Callable<T>) task);
+			}
+			else {
+				future = (FutureEx<T>) executor.submit((Runnable) task);
+			}
+		}
+		catch(RuntimeException e) {
+			completed(userTask, null);
+			throw e;
+		}
+		future.addListener(new Box<T>() {
+			@Override
+			public void setData(T data) {
+				completed(userTask, sync);
+			}
+
+			@Override
+			public void setError(Throwable e) {
+				// failure may be a transport error, so updates are kept unconfirmed
+				completed(userTask, null);
+			}
+		});
+		return future;
+	}
+
+	private void completed(boolean userTask, PropSync sync) {
+		boolean flush;
+		synchronized(propLock) {
+			if (userTask) {
+				taskEpoch++;
+				tasksInFlight--;
+			}
+			if (sync != null) {
+				Iterator<PropUpdate> it = unconfirmedProps.values().iterator();
+				while(it.hasNext()) {
+					if (it.next().version <= sync.version) {
+						it.remove();
+					}
+				}
+			}
+			// updates made during last task may be not attached to any task
+			flush = userTask && tasksInFlight == 0 && !unconfirmedProps.isEmpty() && !propsReleased;
+		}
+		if (flush) {
+			try {
+				dispatch(new PropFlush(), false);
+			}
+			catch(RuntimeException e) {
+				// node is terminated, updates are kept unconfirmed
+			}
+		}
 	}
 
 	@Override
@@ -210,27 +318,61 @@ class JvmNode implements ViNode {
 		}
 	}
 
+	/**
+	 * Property is set on node before any task submitted after this call.
+	 * If no task is in flight, property is set on node once this call returns.
+	 */
 	@Override
 	public void setProp(final String propName, final String value) {
-		exec(new Runnable(){
-			@Override
-			public void run() {
-				System.setProperty(propName, value);
-			}
-		});
+		ensureStarted();
+		boolean flush;
+		synchronized(propLock) {
+			updateProp(propName, value);
+			flush = tasksInFlight == 0;
+		}
+		if (flush) {
+			flushProps();
+		}
 	}
 
 	@Override
 	public void setProps(Map<String, String> props) {
-		final Map<String, String> copy = new LinkedHashMap<String, String>(props);
-		exec(new Runnable() {
-			@Override
-			public void run() {
-				for(String name: copy.keySet()) {
-					System.setProperty(name, copy.get(name));
-				}
+		ensureStarted();
+		boolean flush;
+		synchronized(propLock) {
+			for(String name: props.keySet()) {
+				updateProp(name, props.get(name));
 			}
-		});
+			flush = tasksInFlight == 0;
+		}
+		if (flush) {
+			flushProps();
+		}
+	}
+
+	/**
+	 * Sends unconfirmed updates to node and waits until they are applied.
+	 */
+	private void flushProps() {
+		try {
+			dispatch(new PropFlush(), false).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			ExceptionHelper.throwUnchecked(e);
+			throw new Error("Unreachable");			
+		}
+	}
+
+	private void updateProp(String propName, String value) {
+		++propVersion;
+		// remove and put, to keep updates in order of versions
+		unconfirmedProps.remove(propName);
+		unconfirmedProps.put(propName, new PropUpdate(value, propVersion));
+		if (cacheEpoch == taskEpoch) {
+			propCache.put(propName, value);
+		}
 	}
 
 	@Override
@@ -270,15 +412,42 @@ class JvmNode implements ViNode {
 		}
 	}
 
+	/**
+	 * Property values are cached on driver side, until
+	 * a task is executed on node.
+	 */
 	@Override
 	public String getProp(final String propName) {
 		// TODO handling special props
-		return exec(new Callable<String>() {
-			@Override
-			public String call() throws Exception {
-				return System.getProperty(propName);
+		ensureStarted();
+		long epoch;
+		synchronized(propLock) {
+			if (cacheEpoch != taskEpoch) {
+				propCache.clear();
+				cacheEpoch = taskEpoch;
 			}
-		});
+			else if (propCache.containsKey(propName)) {
+				return propCache.get(propName);
+			}
+			epoch = taskEpoch;
+		}
+		String value;
+		try {
+			value = this.<String>dispatch(new PropFetch(propName), false).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			ExceptionHelper.throwUnchecked(e);
+			throw new Error("Unreachable");			
+		}
+		synchronized(propLock) {
+			// value set locally while fetch was in flight takes precedence
+			if (epoch == taskEpoch && tasksInFlight == 0 && !propCache.containsKey(propName)) {
+				propCache.put(propName, value);
+			}
+			return value;
+		}
 	}
 
 	@Override
@@ -316,7 +485,11 @@ class JvmNode implements ViNode {
 			}
 			boolean destroyDelay = false;
 			try {
-				Future<Void> f = submit(poisonPill(gracefully));
+				synchronized(propLock) {
+					propsReleased = true;
+				}
+				// JVM may outlive node (exit is suppressed), so applied version is released
+				Future<Void> f = submit(new PropSyncRelease(propSyncId, poisonPill(gracefully)));
 				try {
 					f.get(100, TimeUnit.MILLISECONDS);
 					destroyDelay = true;
@@ -364,6 +537,120 @@ class JvmNode implements ViNode {
 		}
 	}
 
+	private static class PropUpdate {
+
+		final String value;
+		final long version;
+
+		public PropUpdate(String value, long version) {
+			this.value = value;
+			this.version = version;
+		}
+	}
+
+	/**
+	 * Applies property updates on node, then executes task.
+	 * Updates older than already applied are ignored, newer update
+	 * always includes all values of older unconfirmed ones.
+	 * Applied versions are tracked per node, several nodes may share a JVM.
+	 * Version of node is released by {@link PropSyncRelease} on termination.
+	 */
+	@SuppressWarnings("serial")
+	private static class PropSync implements Callable<Object>, Serializable {
+
+		private static final Map<String, Long> APPLIED_VERSIONS = new HashMap<String, Long>();
+
+		private final String nodeId;
+		private final Map<String, String> props;
+		private final long version;
+		private final Object task;
+
+		public PropSync(String nodeId, Map<String, String> props, long version, Object task) {
+			this.nodeId = nodeId;
+			this.props = props;
+			this.version = version;
+			this.task = task;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			synchronized(APPLIED_VERSIONS) {
+				Long applied = APPLIED_VERSIONS.get(nodeId);
+				if (applied == null || version > applied) {
+					boolean zlog = false;
+					for(String key: props.keySet()) {
+						String val = props.get(key);
+						if (val == null) {
+							System.getProperties().remove(key);
+						}
+						else {
+							System.setProperty(key, val);
+						}
+						zlog |= key.startsWith("zlog.");
+					}
+					if (zlog) {
+						ZLogFactory.refreshConfiguration();
+					}
+					APPLIED_VERSIONS.put(nodeId, version);
+				}
+			}
+			if (task instanceof Callable) {
+				return ((Callable<?>)task).call();
+			}
+			else {
+				((Runnable)task).run();
+				return null;
+			}
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class PropFlush implements Runnable, Serializable {
+
+		@Override
+		public void run() {
+			// updates are applied by PropSync wrapping this task
+		}
+	}
+
+	/**
+	 * Forgets applied version of node, then executes last task of node.
+	 */
+	@SuppressWarnings("serial")
+	private static class PropSyncRelease implements Runnable, Serializable {
+
+		private final String nodeId;
+		private final Runnable task;
+
+		public PropSyncRelease(String nodeId, Runnable task) {
+			this.nodeId = nodeId;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			synchronized(PropSync.APPLIED_VERSIONS) {
+				PropSync.APPLIED_VERSIONS.remove(nodeId);
+			}
+			task.run();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class PropFetch implements Callable<String>, Serializable {
+
+		private final String propName;
+
+		public PropFetch(String propName) {
+			this.propName = propName;
+		}
+
+		@Override
+		public String call() {
+			return System.getProperty(propName);
+		}
+	}
+
 	// TODO make wrapper print stream shared utility class
 	private static class WrapperPrintStream extends FilterOutputStream {
 
@@ -64,6 +64,14 @@ public class JvmNodeProvider implements ViNodeProvider {
 		if (wd != null) {
 			jvmConfig.setWorkDir(wd);
 		}
+		String poolSize = config.getProp(JvmProps.JVM_PREFORK_POOL_SIZE);
+		if (poolSize != null) {
+			jvmConfig.setPreforkPoolSize(Integer.parseInt(poolSize.trim()));
+		}
+		String idleTimeout = config.getProp(JvmProps.JVM_PREFORK_IDLE_TIMEOUT);
+		if (idleTimeout != null) {
+			jvmConfig.setPreforkIdleTimeout(Long.parseLong(idleTimeout.trim()));
+		}
 		return jvmConfig;
 	}
 
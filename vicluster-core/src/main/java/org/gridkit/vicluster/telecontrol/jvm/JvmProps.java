@@ -55,6 +55,17 @@ public class JvmProps implements ViNodeProps {
      * Addition environment variables for JVM.
      */ 
     public static String JVM_ENV = "jvm:env:";
+
+	/**
+	 * Number of bootstrapped JVMs kept ready for nodes with same command line.
+	 * Pool is used only by process factories supporting it (e.g. local one).
+	 */	
+	public static String JVM_PREFORK_POOL_SIZE = "jvm:prefork-pool-size";
+
+	/**
+	 * Time in milliseconds after which unused pre-forked JVMs are terminated.
+	 */	
+	public static String JVM_PREFORK_IDLE_TIMEOUT = "jvm:prefork-idle-timeout";
 	
 	/**
 	 * JDK version
@@ -143,6 +154,11 @@ public class JvmProps implements ViNodeProps {
 		return this;
 	}
 	
+	public JvmProps setPreforkPool(int size, long idleTimeoutMs) {
+		setPreforkPool(config, size, idleTimeoutMs);
+		return this;
+	}
+	
 	public static void setJvmArg(String logicalName, ViConfigurable config, String string) {
 		config.setProp(JVM_XX + logicalName, string);
 	}
@@ -151,6 +167,11 @@ public class JvmProps implements ViNodeProps {
 		config.setProp(JVM_WORK_DIR, workDir);
 	}
 	
+	public static void setPreforkPool(ViConfigurable config, int size, long idleTimeoutMs) {
+		config.setProp(JVM_PREFORK_POOL_SIZE, String.valueOf(size));
+		config.setProp(JVM_PREFORK_IDLE_TIMEOUT, String.valueOf(idleTimeoutMs));
+	}
+	
     public JvmProps setEnv(String string, String value) {
         setEnv(config, string, value);
         return this;
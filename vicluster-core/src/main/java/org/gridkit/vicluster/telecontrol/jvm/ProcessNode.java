@@ -44,6 +44,7 @@ import org.gridkit.vicluster.ViNodeLifeCycleHelper.Interceptor;
 import org.gridkit.vicluster.ViNodeLifeCycleHelper.Phase;
 import org.gridkit.vicluster.VoidCallable;
 import org.gridkit.vicluster.telecontrol.ManagedProcess;
+import org.gridkit.zerormi.zlog.ZLogFactory;
 
 /**
  * 
@@ -241,8 +242,13 @@ class ProcessNode implements ViNode {
 		exec(new Runnable() {
 			@Override
 			public void run() {
+				boolean zlog = false;
 				for(String name: copy.keySet()) {
 					System.setProperty(name, copy.get(name));
+					zlog |= name.startsWith("zlog.");
+				}
+				if (zlog) {
+					ZLogFactory.refreshConfiguration();
 				}
 			}
 		});
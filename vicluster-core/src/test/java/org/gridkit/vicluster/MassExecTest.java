@@ -0,0 +1,193 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.gridkit.util.concurrent.Box;
+import org.gridkit.util.concurrent.FutureBox;
+import org.gridkit.util.concurrent.FutureEx;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MassExecTest {
+
+	private List<FutureBox<Integer>> boxes(int n) {
+		List<FutureBox<Integer>> list = new ArrayList<FutureBox<Integer>>();
+		for(int i = 0; i != n; ++i) {
+			list.add(new FutureBox<Integer>());
+		}
+		return list;
+	}
+	
+	@Test
+	public void stream_in_completion_order() {
+		List<FutureBox<Integer>> boxes = boxes(3);
+		ResultStream<Integer> stream = MassExec.stream(boxes);
+		boxes.get(2).setData(2);
+		Assert.assertEquals(2, stream.next().intValue());
+		Assert.assertEquals(2, stream.lastIndex());
+		boxes.get(0).setData(0);
+		boxes.get(1).setData(1);
+		Assert.assertEquals(0, stream.next().intValue());
+		Assert.assertEquals(1, stream.next().intValue());
+		Assert.assertFalse(stream.hasNext());
+	}
+
+	@Test
+	public void stream_next_keeps_interrupt() {
+		ResultStream<Integer> stream = MassExec.stream(boxes(1));
+		Thread.currentThread().interrupt();
+		try {
+			stream.next();
+			Assert.fail("Exception expected");
+		}
+		catch(RuntimeException e) {
+			Assert.assertTrue(e.getCause() instanceof InterruptedException);
+		}
+		Assert.assertTrue(Thread.interrupted());
+	}
+
+	@Test
+	public void stream_plain_futures() throws InterruptedException {
+		final FutureTask<Integer> slow = new FutureTask<Integer>(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return 1;
+			}
+		});
+		FutureTask<Integer> fast = new FutureTask<Integer>(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return 2;
+			}
+		});
+		fast.run();
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		futures.add(slow);
+		futures.add(fast);
+		ResultStream<Integer> stream = MassExec.stream(futures);
+		Assert.assertEquals(2, stream.next().intValue());
+		new Thread(slow).start();
+		Assert.assertEquals(1, stream.next().intValue());
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void stream_stops_at_first_failure() {
+		List<FutureBox<Integer>> boxes = boxes(2);
+		ResultStream<Integer> stream = MassExec.stream(boxes);
+		boxes.get(1).setError(new IllegalStateException());
+		for(Integer i: stream) {
+			Assert.fail("Unexpected result " + i);
+		}
+	}
+
+	@Test
+	public void reduce_sum_and_top_k() {
+		List<FutureBox<Integer>> boxes = boxes(5);
+		for(int i = 0; i != 5; ++i) {
+			boxes.get(i).setData(i * 10);
+		}
+		Assert.assertEquals(100l, MassExec.reduce(boxes, MassExec.longSum()).longValue());
+		Assert.assertEquals(Arrays.asList(40, 30), MassExec.reduce(boxes, MassExec.topK(2, new NaturalOrder())));
+	}
+	
+	@Test
+	public void reduce_merge() {
+		List<FutureEx<Collection<String>>> futures = new ArrayList<FutureEx<Collection<String>>>();
+		futures.add(FutureBox.<Collection<String>>dataFuture(Arrays.asList("a", "b")));
+		futures.add(FutureBox.<Collection<String>>dataFuture(Collections.singleton("c")));
+		List<String> merged = MassExec.reduce(futures, MassExec.<String>merge());
+		Collections.sort(merged);
+		Assert.assertEquals(Arrays.asList("a", "b", "c"), merged);
+	}
+	
+	@Test
+	public void reduce_cancels_on_failure() {
+		List<FutureBox<Integer>> boxes = boxes(3);
+		boxes.get(1).setError(new IllegalArgumentException());
+		try {
+			MassExec.reduce(boxes, MassExec.longSum());
+			Assert.fail("Exception expected");
+		}
+		catch(IllegalArgumentException e) {
+			// expected
+		}
+		Assert.assertTrue(boxes.get(0).isCancelled());
+		Assert.assertTrue(boxes.get(2).isCancelled());
+	}
+
+	@Test
+	public void for_each_callback() throws Exception {
+		List<FutureBox<Integer>> boxes = boxes(3);
+		final List<Integer> seen = new ArrayList<Integer>();
+		FutureEx<Void> done = MassExec.forEach(boxes, new Box<Integer>() {
+			@Override
+			public void setData(Integer data) {
+				seen.add(data);
+			}
+
+			@Override
+			public void setError(Throwable e) {
+				seen.add(-1);
+			}
+		});
+		boxes.get(1).setData(1);
+		boxes.get(0).setData(0);
+		Assert.assertFalse(done.isDone());
+		boxes.get(2).setData(2);
+		done.get(1, TimeUnit.SECONDS);
+		Assert.assertEquals(Arrays.asList(1, 0, 2), seen);
+	}
+
+	@Test
+	public void for_each_early_exit() throws Exception {
+		List<FutureBox<Integer>> boxes = boxes(3);
+		final List<Integer> seen = new ArrayList<Integer>();
+		FutureEx<Void> done = MassExec.forEach(boxes, new Box<Integer>() {
+			@Override
+			public void setData(Integer data) {
+				seen.add(data);
+			}
+			
+			@Override
+			public void setError(Throwable e) {
+				seen.add(-1);
+			}
+		});
+		boxes.get(1).setData(1);
+		boxes.get(0).setError(new RuntimeException());
+		boxes.get(2).setData(2);
+		Assert.assertTrue(done.isDone());
+		Assert.assertEquals(Arrays.asList(1, -1), seen);
+	}
+
+	private static class NaturalOrder implements Comparator<Integer> {
+		@Override
+		public int compare(Integer o1, Integer o2) {
+			return o1.compareTo(o2);
+		}
+	}
+}
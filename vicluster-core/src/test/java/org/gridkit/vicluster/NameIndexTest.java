@@ -0,0 +1,128 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NameIndexTest {
+
+	private static final String[] SEGMENTS = {"a", "b", "ab", "node1", "node2", "x", ""};
+	private static final String[] TOKENS = {"a", "b", "*", "**", "?", "a*", "*b", "node?", "**b", ""};
+
+	private static String randomName(Random rnd, String[] parts, int maxLen) {
+		int len = 1 + rnd.nextInt(maxLen);
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i != len; ++i) {
+			if (i > 0) {
+				sb.append('.');
+			}
+			sb.append(parts[rnd.nextInt(parts.length)]);
+		}
+		return sb.toString();
+	}
+	
+	private List<String> names(Random rnd, int n) {
+		Set<String> names = new TreeSet<String>();
+		while(names.size() < n) {
+			String name = randomName(rnd, SEGMENTS, 4);
+			if (name.length() > 0) {
+				names.add(name);
+			}
+		}
+		return new ArrayList<String>(names);
+	}
+
+	private List<String> scan(List<String> names, String pattern) {
+		List<String> result = new ArrayList<String>();
+		NamePattern np = NamePattern.compile(pattern);
+		for(String name: names) {
+			if (np.matches(name)) {
+				result.add(name);
+			}
+		}
+		return result;
+	}
+	
+	@Test
+	public void name_index_matches_scan() {
+		Random rnd = new Random(1);
+		List<String> names = names(rnd, 300);
+		NameIndex<String> index = new NameIndex<String>();
+		for(String name: names) {
+			index.put(name, name);
+		}
+		for(int i = 0; i != 2000; ++i) {
+			String pattern = randomName(rnd, TOKENS, 4);
+			Assert.assertEquals("Pattern " + pattern, scan(names, pattern), index.match(NamePattern.compile(pattern)));
+		}
+	}
+
+	@Test
+	public void pattern_index_matches_scan() {
+		Random rnd = new Random(2);
+		List<String> patterns = new ArrayList<String>();
+		PatternIndex<String> index = new PatternIndex<String>();
+		for(int i = 0; i != 300; ++i) {
+			String pattern = randomName(rnd, TOKENS, 4);
+			patterns.add(pattern);
+			index.put(NamePattern.compile(pattern), pattern);
+		}
+		for(String name: names(rnd, 500)) {
+			Set<String> expected = new HashSet<String>();
+			for(String pattern: patterns) {
+				if (NamePattern.compile(pattern).matches(name)) {
+					expected.add(pattern);
+				}
+			}
+			Assert.assertEquals("Name " + name, expected, new HashSet<String>(index.match(name)));
+		}
+	}
+
+	@Test
+	public void remove_from_index() {
+		NameIndex<String> index = new NameIndex<String>();
+		index.put("a.b", "a.b");
+		index.put("a.b.c", "a.b.c");
+		index.put("a", "a");
+		index.remove("a.b.c");
+		Assert.assertEquals(Arrays.asList("a", "a.b"), index.match(NamePattern.compile("**")));
+		index.remove("a");
+		Assert.assertEquals(Arrays.asList("a.b"), index.match(NamePattern.compile("a.**")));
+		index.remove("a.b");
+		Assert.assertEquals(0, index.match(NamePattern.compile("**")).size());
+	}
+
+	@Test
+	public void separator_variants() {
+		List<String> names = Arrays.asList("a", "a.b", "x.a");
+		NameIndex<String> index = new NameIndex<String>();
+		for(String name: names) {
+			index.put(name, name);
+		}
+		Assert.assertEquals(Arrays.asList("a", "x.a"), index.match(NamePattern.compile("*.a")));
+		Assert.assertEquals(Arrays.asList("a", "a.b"), index.match(NamePattern.compile("a.*")));
+		Assert.assertEquals(Arrays.asList("a"), index.match(NamePattern.compile(".a.")));
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures submission throughput through {@link ViManager} and {@link ViGroup}
+ * for growing number of driver threads. Nodes execute tasks inline, so
+ * only driver side overhead is measured. Run as a main class.
+ */
+public class SubmissionConcurrencyBenchmark {
+
+	private static final long DURATION = TimeUnit.SECONDS.toNanos(2);
+	
+	static volatile Object sink;
+	
+	public static void main(String[] args) throws Exception {
+		ViManager manager = new ViManager(new ViNodeProvider() {
+			@Override
+			public boolean verifyNodeConfig(ViNodeConfig config) {
+				return true;
+			}
+			
+			@Override
+			public ViNode createNode(String name, ViNodeConfig config) {
+				return new InlineNode();
+			}
+		});
+		int maxThreads = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+		for(int i = 0; i != maxThreads; ++i) {
+			manager.node("node" + i).touch();
+		}
+		final ViNode group = manager.node("node*");
+		
+		for(int round = 0; round != 2; ++round) {
+			System.out.println("Round " + round);
+			for(int threads = 1; threads <= maxThreads; threads *= 2) {
+				bench("node submit", manager, threads, false);
+			}
+			for(int threads = 1; threads <= maxThreads; threads *= 2) {
+				bench("node lookup + submit", manager, threads, true);
+			}
+			for(int threads = 1; threads <= maxThreads; threads *= 2) {
+				benchGroup(group, threads);
+			}
+		}
+		manager.shutdown();
+	}
+
+	private static void bench(String name, final ViManager manager, int threads, final boolean lookup) throws InterruptedException {
+		final ViNode[] nodes = new ViNode[threads];
+		for(int i = 0; i != threads; ++i) {
+			nodes[i] = manager.node("node" + i);
+		}
+		long ops = run(threads, new Worker() {
+			@Override
+			void run(int thread) throws Exception {
+				ViNode node = lookup ? manager.node("node" + thread) : nodes[thread];
+				sink = node.submit(TASK).get();
+			}
+		});
+		report(name, threads, ops);
+	}
+
+	private static void benchGroup(final ViNode group, int threads) throws InterruptedException {
+		long ops = run(threads, new Worker() {
+			@Override
+			void run(int thread) throws Exception {
+				for(Future<String> f: group.massSubmit(TASK)) {
+					sink = f.get();
+				}
+			}
+		});
+		report("group massSubmit", threads, ops);
+	}
+
+	private static void report(String name, int threads, long ops) {
+		double rate = ops / (DURATION / 1e9);
+		System.out.println(String.format("  %-22s %2d threads %10.0f op/s, %10.0f op/s per thread", name, threads, rate, rate / threads));
+	}
+
+	private static long run(int threads, final Worker worker) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] counts = new long[threads];
+		List<Thread> workers = new ArrayList<Thread>();
+		for(int i = 0; i != threads; ++i) {
+			final int n = i;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						long deadline = System.nanoTime() + DURATION;
+						long c = 0;
+						while(System.nanoTime() < deadline) {
+							worker.run(n);
+							++c;
+						}
+						counts[n] = c;
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			t.start();
+			workers.add(t);
+		}
+		start.countDown();
+		long total = 0;
+		for(int i = 0; i != threads; ++i) {
+			workers.get(i).join();
+			total += counts[i];
+		}
+		return total;
+	}
+	
+	private static final Callable<String> TASK = new Callable<String>() {
+		@Override
+		public String call() {
+			return "done";
+		}
+	};
+
+	private static abstract class Worker {
+		abstract void run(int thread) throws Exception;
+	}
+	
+	private static class InlineNode extends DummyViNode {
+		
+		@Override
+		public <T> Future<T> submit(Callable<T> task) {
+			FutureTask<T> ft = new FutureTask<T>(task);
+			ft.run();
+			return ft;
+		}
+	}
+}
@@ -0,0 +1,283 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gridkit.util.concurrent.FutureBox;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TaskFarmTest {
+
+	private ViManager cloud = new ViManager(new InProcessViNodeProvider());
+
+	@After
+	public void shutdown() {
+		cloud.shutdown();
+	}
+
+	@Test
+	public void tasks_are_balanced_within_credits() throws Exception {
+		cloud.nodes("node1", "node2").touch();
+		TaskFarm farm = new TaskFarm(cloud, "node*", 2);
+		Sleeper.active.set(0);
+		Sleeper.peak.set(0);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(int i = 0; i != 20; ++i) {
+			results.add(farm.submit(new Sleeper(i)));
+		}
+		for(int i = 0; i != 20; ++i) {
+			Assert.assertEquals(i, results.get(i).get().intValue());
+		}
+		Assert.assertTrue("Peak concurrency " + Sleeper.peak, Sleeper.peak.get() <= 4);
+		Assert.assertTrue(farm.getCompletedCounts().get("node1") > 0);
+		Assert.assertTrue(farm.getCompletedCounts().get("node2") > 0);
+		Assert.assertEquals(0, farm.getQueueSize());
+	}
+
+	@Test
+	public void locality_hint() throws Exception {
+		cloud.nodes("node1", "node2", "node3").touch();
+		TaskFarm farm = new TaskFarm(cloud, "**", 1);
+		for(int i = 0; i != 5; ++i) {
+			farm.submit(new Sleeper(i), "node3").get();
+		}
+		Assert.assertEquals(5, farm.getCompletedCounts().get("node3").intValue());
+	}
+
+	@Test
+	public void hinted_tasks_are_stolen() throws Exception {
+		cloud.nodes("node1", "node2").touch();
+		TaskFarm farm = new TaskFarm(cloud, "**", 1);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(int i = 0; i != 10; ++i) {
+			results.add(farm.submit(new Sleeper(i), "node1"));
+		}
+		for(Future<Integer> f: results) {
+			f.get();
+		}
+		Assert.assertTrue(farm.getCompletedCounts().get("node2") > 0);
+	}
+
+	@Test
+	public void retry_on_node_death() throws Exception {
+		// node1 is never started, so kill is instant
+		cloud.nodes("node1", "node2");
+		cloud.node("node2").touch();
+		Collection<ViNode> nodes = cloud.listNodes("**");
+		cloud.node("node1").kill();
+		TaskFarm farm = new TaskFarm(nodes, 2);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(int i = 0; i != 10; ++i) {
+			results.add(farm.submit(new Sleeper(i)));
+		}
+		for(int i = 0; i != 10; ++i) {
+			Assert.assertEquals(i, results.get(i).get().intValue());
+		}
+		Assert.assertEquals(1, farm.getCompletedCounts().size());
+		Assert.assertEquals(10, farm.getCompletedCounts().get("node2").intValue());
+	}
+
+	@Test
+	public void all_nodes_dead() throws Exception {
+		cloud.node("node1");
+		Collection<ViNode> nodes = cloud.listNodes("**");
+		cloud.node("node1").kill();
+		TaskFarm farm = new TaskFarm(nodes, 1);
+		try {
+			farm.submit(new Sleeper(1)).get();
+			Assert.fail("Exception expected");
+		}
+		catch(ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	@Test
+	public void task_failure_is_not_retried() throws Exception {
+		cloud.nodes("node1", "node2").touch();
+		TaskFarm farm = new TaskFarm(cloud, "**", 1);
+		try {
+			farm.submit(new Failure()).get();
+			Assert.fail("Exception expected");
+		}
+		catch(ExecutionException e) {
+			Assert.assertEquals("task failure", e.getCause().getMessage());
+		}
+		Assert.assertEquals(2, farm.getCompletedCounts().size());
+		Assert.assertEquals(Integer.valueOf(3), farm.submit(new Sleeper(3)).get());
+	}
+
+	@Test
+	public void task_remote_exception_does_not_kill_node() throws Exception {
+		cloud.node("node1").touch();
+		TaskFarm farm = new TaskFarm(cloud, "**", 1);
+		try {
+			farm.submit(new RemoteFailure()).get();
+			Assert.fail("Exception expected");
+		}
+		catch(ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RemoteException);
+		}
+		Assert.assertEquals(1, farm.getCompletedCounts().size());
+		Assert.assertEquals(Integer.valueOf(3), farm.submit(new Sleeper(3)).get());
+	}
+
+	@Test
+	public void inline_completion_does_not_recurse() throws Exception {
+		// completed futures notify listeners inline, dispatch should iterate, not recurse
+		InlineNode node = new InlineNode();
+		TaskFarm farm = new TaskFarm(Collections.singletonList(node), 1);
+		node.hold = true;
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(int i = 0; i != 20000; ++i) {
+			results.add(farm.submit(new Constant(i)));
+		}
+		Assert.assertEquals(19999, farm.getQueueSize());
+		// completes held task, the rest is executed by completion listener
+		node.release();
+		for(int i = 0; i != 20000; ++i) {
+			Assert.assertEquals(i, results.get(i).get().intValue());
+		}
+	}
+
+	@Test
+	public void auto_credits() throws Exception {
+		cloud.nodes("node1", "node2").touch();
+		TaskFarm farm = new TaskFarm(cloud, "**", TaskFarm.AUTO_CREDITS);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(int i = 0; i != 10; ++i) {
+			results.add(farm.submit(new Sleeper(i)));
+		}
+		for(int i = 0; i != 10; ++i) {
+			Assert.assertEquals(i, results.get(i).get().intValue());
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class Sleeper implements Callable<Integer>, Serializable {
+
+		static final AtomicInteger active = new AtomicInteger();
+		static final AtomicInteger peak = new AtomicInteger();
+
+		private final int n;
+
+		public Sleeper(int n) {
+			this.n = n;
+		}
+
+		@Override
+		public Integer call() throws Exception {
+			int a = active.incrementAndGet();
+			synchronized(peak) {
+				peak.set(Math.max(a, peak.get()));
+			}
+			Thread.sleep(20);
+			active.decrementAndGet();
+			return n;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class Failure implements Callable<Integer>, Serializable {
+
+		@Override
+		public Integer call() throws Exception {
+			throw new IllegalArgumentException("task failure");
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class RemoteFailure implements Callable<Integer>, Serializable {
+		
+		@Override
+		public Integer call() throws Exception {
+			throw new RemoteException("task failure");
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class Constant implements Callable<Integer>, Serializable {
+
+		private final int n;
+
+		public Constant(int n) {
+			this.n = n;
+		}
+
+		@Override
+		public Integer call() {
+			return n;
+		}
+	}
+
+	/**
+	 * Executes tasks in caller thread, so futures are complete before listener is added.
+	 * If {@link #hold} is set, next task is held until {@link #release()}.
+	 */
+	public static class InlineNode extends DummyViNode {
+
+		volatile boolean hold;
+		private Callable<?> heldTask;
+		private FutureBox<?> heldResult;
+
+		@Override
+		public synchronized <T> Future<T> submit(Callable<T> task) {
+			FutureBox<T> box = new FutureBox<T>();
+			if (hold) {
+				hold = false;
+				heldTask = task;
+				heldResult = box;
+			}
+			else {
+				complete(task, box);
+			}
+			return box;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public void release() {
+			Callable task;
+			FutureBox box;
+			synchronized(this) {
+				task = heldTask;
+				box = heldResult;
+			}
+			complete(task, box);
+		}
+
+		private static <T> void complete(Callable<T> task, FutureBox<T> box) {
+			try {
+				box.setData(task.call());
+			}
+			catch(Exception e) {
+				box.setError(e);
+			}
+		}
+	}
+}
@@ -15,6 +15,7 @@
  */
 package org.gridkit.vicluster;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -73,6 +74,29 @@ public class ViGroupTest {
 		Assert.assertEquals(2, counter.intValue());		
 	}
 	
+	@Test
+	public void test_group_broadcast_keeps_local_identity() {
+		
+		ViGroup group = new ViGroup();
+		group.addNode(new DummyViNode());
+		group.addNode(new DummyViNode());
+		group.addNode(ViGroup.group(new DummyViNode(), new DummyViNode()));
+		
+		final Object marker = new Object();
+		
+		List<Object> results = group.massExec(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return marker;
+			}
+		});
+		
+		Assert.assertEquals(4, results.size());
+		for(Object r: results) {
+			Assert.assertSame(marker, r);
+		}
+	}
+	
 	public class CounterCallable implements Callable<Integer> {
 		
 		private AtomicInteger counter = new AtomicInteger();
@@ -16,7 +16,20 @@
 package org.gridkit.vicluster;
 
 import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
@@ -52,6 +65,334 @@ public class ViManagerTest {
 		man.node("d*").exec(new Echo());
 	}
 	
+	@Test
+	public void concurrent_lookup_and_submit() throws InterruptedException {
+		final ViNode[][] seen = new ViNode[8][4];
+		final AtomicInteger errors = new AtomicInteger();
+		Thread[] threads = new Thread[seen.length];
+		for(int i = 0; i != threads.length; ++i) {
+			final int t = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for(int n = 0; n != 4; ++n) {
+							seen[t][n] = man.node("node" + n);
+							Assert.assertEquals("echo", seen[t][n].exec(new Echo()));
+							Assert.assertEquals(1, man.listNodes("node" + n).size());
+						}
+					}
+					catch(Throwable e) {
+						e.printStackTrace();
+						errors.incrementAndGet();
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for(Thread t: threads) {
+			t.join();
+		}
+		Assert.assertEquals(0, errors.get());
+		for(int t = 1; t != seen.length; ++t) {
+			for(int n = 0; n != 4; ++n) {
+				Assert.assertSame(seen[0][n], seen[t][n]);
+			}
+		}
+		Assert.assertEquals(4, man.listNodes("**").size());
+	}
+	
+	@Test
+	public void parallel_startup() {
+		SlowProvider slow = new SlowProvider(300);
+		ViManager cloud = new ViManager(slow);
+		try {
+			for(int i = 0; i != 8; ++i) {
+				cloud.node("node" + i);
+			}
+			long start = System.nanoTime();
+			cloud.node("**").touch();
+			long time = (System.nanoTime() - start) / 1000000;
+			Assert.assertTrue("Startup took " + time + "ms", time < 4 * 300);
+			Assert.assertTrue(slow.maxConcurrency("default") > 1);
+			Assert.assertEquals(8, cloud.getStartupTimeline().size());
+			for(StartupRecord r: cloud.getStartupTimeline()) {
+				Assert.assertTrue(r.toString(), r.isFinished());
+				Assert.assertTrue(r.toString(), r.getStartupTime() >= 250);
+				Assert.assertNull(r.getError());
+			}
+		}
+		finally {
+			cloud.shutdown();
+		}
+	}
+
+	@Test
+	public void group_startup_parallelism() {
+		SlowProvider slow = new SlowProvider(100);
+		ViManager cloud = new ViManager(slow);
+		try {
+			for(int i = 0; i != 6; ++i) {
+				ViProps.at(cloud.node("a" + i)).setStartupGroup("hostA").setStartupParallelism(2);
+				ViProps.at(cloud.node("b" + i)).setStartupGroup("hostB");
+			}
+			cloud.node("**").touch();
+			Assert.assertEquals(2, slow.maxConcurrency("hostA"));
+			Assert.assertTrue(slow.maxConcurrency("hostB") > 2);
+		}
+		finally {
+			cloud.shutdown();
+		}
+	}
+
+	@Test
+	public void startup_dependencies() {
+		SlowProvider slow = new SlowProvider(100);
+		ViManager cloud = new ViManager(slow);
+		try {
+			cloud.node("server1");
+			cloud.node("server2");
+			cloud.node("client1");
+			ViProps.at(cloud.node("client*")).setStartupAfter("server*");
+			// only client is touched, servers are started on demand
+			cloud.node("client1").touch();
+			Assert.assertEquals(3, slow.started.size());
+			Assert.assertEquals("client1", slow.started.get(2));
+		}
+		finally {
+			cloud.shutdown();
+		}
+	}
+
+	@Test
+	public void cyclic_startup_dependencies() {
+		SlowProvider slow = new SlowProvider(10);
+		ViManager cloud = new ViManager(slow);
+		try {
+			ViProps.at(cloud.node("a")).setStartupAfter("b");
+			ViProps.at(cloud.node("b")).setStartupAfter("a");
+			cloud.node("**").touch();
+			Assert.assertEquals(2, slow.started.size());
+		}
+		finally {
+			cloud.shutdown();
+		}
+	}
+
+	@Test
+	public void parallel_shutdown() {
+		SlowShutdownProvider slow = new SlowShutdownProvider(300);
+		ViManager cloud = new ViManager(slow);
+		for(int i = 0; i != 8; ++i) {
+			cloud.node("node" + i);
+		}
+		cloud.node("**").touch();
+		long start = System.nanoTime();
+		cloud.shutdown();
+		long time = (System.nanoTime() - start) / 1000000;
+		Assert.assertTrue("Shutdown took " + time + "ms", time < 4 * 300);
+		Assert.assertEquals(8, cloud.getShutdownTimeline().size());
+		for(long t: cloud.getShutdownTimeline().values()) {
+			Assert.assertTrue(t >= 250);
+		}
+		Assert.assertTrue(slow.killed.isEmpty());
+	}
+
+	@Test
+	public void stuck_shutdown_is_killed() {
+		SlowShutdownProvider slow = new SlowShutdownProvider(0);
+		slow.delays.put("stuck", 60000l);
+		ViManager cloud = new ViManager(slow);
+		cloud.setShutdownPolicy(4, 300, TimeUnit.MILLISECONDS);
+		cloud.nodes("node1", "node2", "stuck").touch();
+		long start = System.nanoTime();
+		cloud.shutdown();
+		long time = (System.nanoTime() - start) / 1000000;
+		Assert.assertTrue("Shutdown took " + time + "ms", time < 5000);
+		Assert.assertEquals(Long.valueOf(-1), cloud.getShutdownTimeline().get("stuck"));
+		Assert.assertTrue(cloud.getShutdownTimeline().get("node1") >= 0);
+		Assert.assertEquals(Collections.singletonList("stuck"), slow.killed);
+	}
+
+	@Test
+	public void parallel_group_kill() {
+		SlowShutdownProvider slow = new SlowShutdownProvider(300);
+		ViManager cloud = new ViManager(slow);
+		try {
+			cloud.nodes("node1", "node2", "node3", "node4").touch();
+			long start = System.nanoTime();
+			cloud.node("node*").kill();
+			long time = (System.nanoTime() - start) / 1000000;
+			Assert.assertTrue("Kill took " + time + "ms", time < 2 * 300);
+			Assert.assertEquals(4, slow.killed.size());
+			Assert.assertTrue(cloud.listNodes("**").isEmpty());
+		}
+		finally {
+			cloud.shutdown();
+		}
+	}
+
+	@Test
+	public void deferred_submissions_are_forwarded() throws Exception {
+		ViManager cloud = new ViManager(new SlowProvider(200));
+		try {
+			ViNode node = cloud.node("node1");
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			// far more tasks, than any thread pool could hold
+			for(int i = 0; i != 2000; ++i) {
+				results.add(node.submit(new Echo("task" + i)));
+			}
+			for(int i = 0; i != results.size(); ++i) {
+				Assert.assertEquals("task" + i, results.get(i).get());
+			}
+			Assert.assertEquals("echo", node.exec(new Echo()));
+		}
+		finally {
+			cloud.shutdown();
+		}
+	}
+
+	@Test
+	public void deferred_submissions_fail_with_node() throws Exception {
+		ViManager cloud = new ViManager(new ViNodeProvider() {
+			@Override
+			public boolean verifyNodeConfig(ViNodeConfig config) {
+				return true;
+			}
+
+			@Override
+			public ViNode createNode(String name, ViNodeConfig config) {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				throw new IllegalArgumentException("No way");
+			}
+		});
+		try {
+			ViNode node = cloud.node("node1");
+			List<Future<String>> results = new ArrayList<Future<String>>();
+			for(int i = 0; i != 10; ++i) {
+				results.add(node.submit(new Echo()));
+			}
+			for(Future<String> f: results) {
+				try {
+					f.get();
+					Assert.fail("Exception expected");
+				}
+				catch(ExecutionException e) {
+					Assert.assertEquals("No way", e.getCause().getMessage());
+				}
+			}
+		}
+		finally {
+			cloud.shutdown();
+		}
+	}
+
+	/**
+	 * Nodes are slow to shutdown and to kill.
+	 */
+	static class SlowShutdownProvider implements ViNodeProvider {
+
+		private final InProcessViNodeProvider provider = new InProcessViNodeProvider();
+		private final long delay;
+		final Map<String, Long> delays = new ConcurrentHashMap<String, Long>();
+		final List<String> killed = Collections.synchronizedList(new ArrayList<String>());
+
+		public SlowShutdownProvider(long delay) {
+			this.delay = delay;
+		}
+
+		@Override
+		public boolean verifyNodeConfig(ViNodeConfig config) {
+			return true;
+		}
+
+		@Override
+		public ViNode createNode(final String name, ViNodeConfig config) {
+			final ViNode node = provider.createNode(name, config);
+			return (ViNode) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ViNode.class}, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("shutdown") || method.getName().equals("kill")) {
+						if (method.getName().equals("kill")) {
+							killed.add(name);
+							// kill is not instant either, but should not hang
+							Thread.sleep(delay);
+						}
+						else {
+							Long d = delays.get(name);
+							try {
+								Thread.sleep(d == null ? delay : d);
+							}
+							catch(InterruptedException e) {
+								return null;
+							}
+						}
+					}
+					try {
+						return method.invoke(node, args);
+					}
+					catch(InvocationTargetException e) {
+						throw e.getCause();
+					}
+				}
+			});
+		}
+	}
+
+	static class SlowProvider implements ViNodeProvider {
+
+		private final InProcessViNodeProvider provider = new InProcessViNodeProvider();
+		private final long delay;
+		private final Map<String, AtomicInteger> active = new ConcurrentHashMap<String, AtomicInteger>();
+		private final Map<String, AtomicInteger> peaks = new ConcurrentHashMap<String, AtomicInteger>();
+		final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+
+		public SlowProvider(long delay) {
+			this.delay = delay;
+		}
+
+		public int maxConcurrency(String group) {
+			AtomicInteger peak = peaks.get(group);
+			return peak == null ? 0 : peak.get();
+		}
+
+		@Override
+		public boolean verifyNodeConfig(ViNodeConfig config) {
+			return true;
+		}
+
+		@Override
+		public ViNode createNode(String name, ViNodeConfig config) {
+			String group = config.getProp(ViProps.STARTUP_GROUP);
+			group = group == null ? "default" : group;
+			AtomicInteger a;
+			AtomicInteger p;
+			synchronized(this) {
+				if (!active.containsKey(group)) {
+					active.put(group, new AtomicInteger());
+					peaks.put(group, new AtomicInteger());
+				}
+				a = active.get(group);
+				p = peaks.get(group);
+			}
+			int n = a.incrementAndGet();
+			synchronized(p) {
+				p.set(Math.max(n, p.get()));
+			}
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			a.decrementAndGet();
+			started.add(name);
+			return provider.createNode(name, config);
+		}
+	}
+
 	@SuppressWarnings("serial")
 	public static class Echo implements Callable<String>, Serializable {
 		
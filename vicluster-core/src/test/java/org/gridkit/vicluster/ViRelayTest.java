@@ -0,0 +1,212 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gridkit.util.concurrent.FutureBox;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ViRelayTest {
+
+	private ViRelay relay = ViRelay.create();
+
+	private void buildTree(String root, int size, int fanOut) {
+		List<String> names = new ArrayList<String>();
+		for(int i = 0; i != size; ++i) {
+			names.add(root + "." + i);
+		}
+		Map<String, List<String>> tree = ViRelay.layout(root, names, fanOut);
+		for(String parent: tree.keySet()) {
+			for(String child: tree.get(parent)) {
+				relay.addChild(parent, child, new DummyViNode());
+			}
+		}
+	}
+	
+	@After
+	public void cleanTopology() {
+		relay.dispose();
+	}
+
+	@Test
+	public void layout_is_k_ary_tree() {
+		Map<String, List<String>> tree = ViRelay.layout("root", Arrays.asList("a", "b", "c", "d", "e", "f", "g"), 2);
+		Assert.assertEquals(Arrays.asList("a", "b"), tree.get("root"));
+		Assert.assertEquals(Arrays.asList("c", "d"), tree.get("a"));
+		Assert.assertEquals(Arrays.asList("e", "f"), tree.get("b"));
+		Assert.assertEquals(Arrays.asList("g"), tree.get("c"));
+	}
+	
+	@Test
+	public void mass_exec_reaches_every_node_once() {
+		buildTree("mass", 40, 3);
+		Assert.assertEquals(3, relay.getChildren("mass").size());
+		
+		final AtomicInteger counter = new AtomicInteger();
+		List<Integer> results = relay.massExec("mass", new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return counter.incrementAndGet();
+			}
+		});
+		
+		Assert.assertEquals(40, counter.get());
+		Collections.sort(results);
+		for(int i = 0; i != 40; ++i) {
+			Assert.assertEquals(i + 1, results.get(i).intValue());
+		}
+	}
+	
+	@Test
+	public void partial_reduction() {
+		buildTree("reduce", 30, 4);
+		
+		long sum = relay.reduce("reduce", new Constant(2), ViRelay.longSum());
+		Assert.assertEquals(60, sum);
+		
+		final AtomicInteger counter = new AtomicInteger();
+		List<Integer> top = relay.reduce("reduce", new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return counter.incrementAndGet();
+			}
+		}, ViRelay.topK(3, new NaturalOrder()));
+		Assert.assertEquals(Arrays.asList(30, 29, 28), top);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void failure_is_propagated() {
+		buildTree("failure", 10, 2);
+		final AtomicInteger counter = new AtomicInteger();
+		relay.massExec("failure", new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				if (counter.incrementAndGet() == 7) {
+					throw new IllegalStateException();
+				}
+				return 0;
+			}
+		});
+	}
+
+	@Test
+	public void failure_cancels_sibling_subtrees() throws InterruptedException {
+		relay.addChild("cancel", "a", new DummyViNode() {
+			@Override
+			public <T> Future<T> submit(Callable<T> task) {
+				FutureBox<T> box = new FutureBox<T>();
+				box.setError(new IllegalStateException("Node is down"));
+				return box;
+			}
+		});
+		relay.addChild("cancel", "b", new DummyViNode());
+		relay.addChild("b", "b1", new DummyViNode());
+		relay.addChild("b", "b2", new DummyViNode());
+
+		final AtomicInteger completed = new AtomicInteger();
+		long start = System.nanoTime();
+		try {
+			relay.massExec("cancel", new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					Thread.sleep(1000);
+					return completed.incrementAndGet();
+				}
+			});
+			Assert.fail("Exception expected");
+		}
+		catch(IllegalStateException e) {
+			// expected
+		}
+		Assert.assertTrue("Failure should not wait for siblings", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+		Thread.sleep(1500);
+		Assert.assertEquals(0, completed.get());
+	}
+
+	@Test
+	public void group_submission_is_routed_through_relay() {
+		ViNode a = new DummyViNode();
+		ViNode b = new DummyViNode();
+		relay.addChild(ViRelay.ROOT, "a", a);
+		relay.addChild("a", "a1", new DummyViNode());
+		relay.addChild("a1", "a11", new DummyViNode());
+
+		final AtomicInteger counter = new AtomicInteger();
+		List<Integer> results = ViGroup.group(relay, Arrays.asList(a, b)).massExec(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return counter.incrementAndGet();
+			}
+		});
+
+		// one result per member, subtree of relay member is executed too
+		Assert.assertEquals(2, results.size());
+		Assert.assertEquals(4, counter.get());
+	}
+
+	@Test
+	public void relays_are_isolated_per_cloud() {
+		ViRelay another = ViRelay.create();
+		try {
+			relay.addChild("root", "a", new DummyViNode());
+			another.addChild("root", "b", new DummyViNode());
+			another.addChild("root", "c", new DummyViNode());
+
+			Assert.assertEquals(Collections.singleton("a"), relay.getChildren("root").keySet());
+			Assert.assertEquals(2, another.massExec("root", new Constant(1)).size());
+			Assert.assertSame(another, ViRelay.join(another.getId()));
+		}
+		finally {
+			another.dispose();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class Constant implements Callable<Integer>, Serializable {
+		
+		private final int value;
+
+		public Constant(int value) {
+			this.value = value;
+		}
+
+		@Override
+		public Integer call() {
+			return value;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static class NaturalOrder implements Comparator<Integer>, Serializable {
+		@Override
+		public int compare(Integer o1, Integer o2) {
+			return o1.compareTo(o2);
+		}
+	}
+}
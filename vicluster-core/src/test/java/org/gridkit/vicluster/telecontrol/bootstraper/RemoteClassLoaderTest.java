@@ -0,0 +1,143 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.vicluster.telecontrol.bootstraper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.gridkit.vicluster.telecontrol.Classpath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemoteClassLoaderTest {
+
+	private ServerSocket socket;
+	private RemoteClasspathServer server = new RemoteClasspathServer();
+	private String cpId;
+	private File cacheDir = new File("target/remote-cl-cache");
+
+	@Before
+	public void start() throws IOException {
+		cpId = server.register(Classpath.getClasspath(getClass().getClassLoader()));
+		socket = new ServerSocket();
+		socket.bind(new InetSocketAddress("127.0.0.1", 0));
+		Thread acceptor = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(true) {
+						Socket so = socket.accept();
+						server.serve("test", so.getInputStream(), so.getOutputStream());
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@After
+	public void stop() throws IOException {
+		socket.close();
+		server.close();
+	}
+
+	private RemoteClassLoader newLoader() throws IOException {
+		return new RemoteClassLoader(ClassLoader.getSystemClassLoader().getParent(), "127.0.0.1", socket.getLocalPort(), cpId, cacheDir);
+	}
+
+	@Test
+	public void verify_remote_class_loading() throws Exception {
+		RemoteClassLoader cl = newLoader();
+		Class<?> c = cl.loadClass(HalloWelt.class.getName());
+		Assert.assertSame(cl, c.getClassLoader());
+		Assert.assertNotSame(HalloWelt.class, c);
+		Assert.assertNotNull(c.getPackage());
+		URL location = c.getProtectionDomain().getCodeSource().getLocation();
+		String path = c.getName().replace('.', '/') + ".class";
+		Assert.assertTrue(location.toString(), new File(new File(location.toURI()), path).isFile());
+		cl.close();
+	}
+
+	@Test
+	public void verify_resource_loading() throws Exception {
+		RemoteClassLoader cl = newLoader();
+		String name = Tunneller.class.getName().replace('.', '/') + ".class";
+		Assert.assertNotNull(cl.getResource(name));
+		Assert.assertNull(cl.getResource("no/such/resource.txt"));
+		cl.close();
+	}
+
+	@Test
+	public void verify_disk_cache_reuse() throws Exception {
+		RemoteClassLoader cl1 = newLoader();
+		String name = HalloWelt.class.getName().replace('.', '/') + ".class";
+		File f1 = cl1.fetch(name);
+		cl1.close();
+		long ts = f1.lastModified();
+
+		RemoteClassLoader cl2 = newLoader();
+		File f2 = cl2.fetch(name);
+		cl2.close();
+		Assert.assertEquals(f1, f2);
+		Assert.assertEquals(ts, f2.lastModified());
+	}
+
+	@Test
+	public void verify_all_resource_occurrences() throws Exception {
+		RemoteClassLoader cl = newLoader();
+		List<URL> urls = Collections.list(cl.getResources("META-INF/MANIFEST.MF"));
+		cl.close();
+		Assert.assertTrue("Found " + urls, urls.size() > 1);
+	}
+
+	@Test
+	public void verify_path_traversal_is_rejected() throws Exception {
+		RemoteClassLoader cl = newLoader();
+		try {
+			Assert.assertTrue(new File("pom.xml").isFile());
+			Assert.assertNull(cl.fetch("../../pom.xml"));
+			Assert.assertNull(cl.fetch("org/../../../pom.xml"));
+			// connection is still usable
+			Assert.assertNotNull(cl.fetch(HalloWelt.class.getName().replace('.', '/') + ".class"));
+		}
+		finally {
+			cl.close();
+		}
+	}
+
+	@Test(expected=ClassNotFoundException.class)
+	public void verify_missing_class() throws Exception {
+		RemoteClassLoader cl = newLoader();
+		try {
+			cl.loadClass("no.such.Class");
+		}
+		finally {
+			cl.close();
+		}
+	}
+}
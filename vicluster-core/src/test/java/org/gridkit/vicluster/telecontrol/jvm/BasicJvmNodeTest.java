@@ -15,11 +15,19 @@
  */
 package org.gridkit.vicluster.telecontrol.jvm;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import junit.framework.Assert;
 
 import org.gridkit.vicluster.ViManager;
 import org.gridkit.vicluster.ViNode;
+import org.gridkit.vicluster.ViNodeConfig;
 import org.gridkit.vicluster.telecontrol.LocalJvmProcessFactory;
+import org.gridkit.vicluster.telecontrol.ManagedProcess;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -105,6 +113,104 @@ public class BasicJvmNodeTest {
 		});
 		
 		
+		node.shutdown();
+	}	
+
+	@Test
+	public void test_prop_updates_are_sent_with_tasks() {
+		
+		ViNode node = cloud.node("HalloWelt");
+		node.touch();
+		
+		node.setProp("test-property1", "A");
+		Map<String, String> props = new LinkedHashMap<String, String>();
+		props.put("test-property1", "B");
+		props.put("test-property2", "C");
+		node.setProps(props);
+		
+		node.exec(new Runnable() {
+			@Override
+			public void run() {
+				Assert.assertEquals("B", System.getProperty("test-property1"));
+				Assert.assertEquals("C", System.getProperty("test-property2"));
+			}
+		});
+		
+		node.setProp("test-property2", "D");
+		Assert.assertEquals("D", node.getProp("test-property2"));
+		Assert.assertEquals("B", node.getProp("test-property1"));
+		
+		node.shutdown();
+	}	
+
+	@Test
+	public void test_prop_update_reaches_node_without_tasks() throws InterruptedException {
+		
+		PrintStream out = System.out;
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		// node output is bound to System.out at node creation
+		System.setOut(new PrintStream(bos, true));
+		ViManager jvmNodeCloud = new ViManager(new JvmNodeProvider(new LocalJvmProcessFactory()) {
+			@Override
+			protected ViNode createViNode(String name, ViNodeConfig config, ManagedProcess process) throws IOException {
+				return new JvmNode(name, config, process);
+			}
+		});
+		try {
+			ViNode node = jvmNodeCloud.node("HalloWelt");
+			node.exec(new Runnable() {
+				@Override
+				public void run() {
+					Thread watcher = new Thread() {
+						@Override
+						public void run() {
+							try {
+								long deadline = System.currentTimeMillis() + 10000;
+								while(System.getProperty("test-watched-property") == null && System.currentTimeMillis() < deadline) {
+									Thread.sleep(10);
+								}
+								System.out.println("Watched property: " + System.getProperty("test-watched-property"));
+							} catch (InterruptedException e) {
+								// ignore
+							}
+						}
+					};
+					watcher.setDaemon(true);
+					watcher.start();
+				}
+			});
+			
+			node.setProp("test-watched-property", "X");
+			
+			// no other tasks are sent to node
+			long deadline = System.currentTimeMillis() + 10000;
+			while(!bos.toString().contains("Watched property: ") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(bos.toString(), bos.toString().contains("Watched property: X"));
+		}
+		finally {
+			jvmNodeCloud.shutdown();
+			System.setOut(out);
+		}
+	}	
+
+	@Test
+	public void test_prop_changed_by_task_is_visible() {
+		
+		ViNode node = cloud.node("HalloWelt");
+		
+		Assert.assertNull(node.getProp("test-property"));
+		
+		node.exec(new Runnable() {
+			@Override
+			public void run() {
+				System.setProperty("test-property", "Y-a-a-hoo");
+			}
+		});
+		
+		Assert.assertEquals("Y-a-a-hoo", node.getProp("test-property"));
+		
 		node.shutdown();
 	}	
 }
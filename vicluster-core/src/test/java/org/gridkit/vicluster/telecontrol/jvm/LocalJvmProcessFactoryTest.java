@@ -17,12 +17,14 @@ package org.gridkit.vicluster.telecontrol.jvm;
 
 import static org.hamcrest.CoreMatchers.not;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.management.ManagementFactory;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.gridkit.vicluster.telecontrol.JvmConfig;
 import org.gridkit.vicluster.telecontrol.LocalJvmProcessFactory;
@@ -72,6 +74,75 @@ public class LocalJvmProcessFactoryTest {
 		process.destroy();
 	}	
 
+	@Test
+	public void test_prefork_pool() throws IOException, InterruptedException, ExecutionException {
+		
+		LocalJvmProcessFactory factory = new LocalJvmProcessFactory();
+		try {
+			JvmConfig config = new JvmConfig();
+			config.setPreforkPoolSize(1);
+			
+			ManagedProcess p1 = factory.createProcess("node1", config);
+			waitForPool(factory, 1);
+			
+			long requested = System.currentTimeMillis();
+			ManagedProcess p2 = factory.createProcess("node2", config);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			p2.bindStdOut(out);
+			waitForPool(factory, 1);
+			
+			String n1 = p1.getExecutionService().submit(new GetJvmName()).get();
+			String n2 = p2.getExecutionService().submit(new GetJvmName()).get();
+			Assert.assertThat(n1, not(n2));
+			Assert.assertThat(n2, not(ManagementFactory.getRuntimeMXBean().getName()));
+			// pooled JVM has been started before it was requested
+			long started = p2.getExecutionService().submit(new GetJvmStartTime()).get();
+			Assert.assertTrue("JVM started " + (started - requested) + "ms after request", started < requested);
+			
+			// output of pooled JVM is forwarded once bound
+			p2.getExecutionService().submit(new Print("Hallo from pool")).get();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while(!out.toString().contains("Hallo from pool") && System.nanoTime() < deadline) {
+				Thread.sleep(20);
+			}
+			Assert.assertTrue(out.toString(), out.toString().contains("Hallo from pool"));
+			
+			p1.destroy();
+			p2.destroy();
+		}
+		finally {
+			factory.stop();
+		}
+	}
+
+	@Test
+	public void test_prefork_pool_idle_eviction() throws IOException, InterruptedException {
+		
+		LocalJvmProcessFactory factory = new LocalJvmProcessFactory();
+		try {
+			JvmConfig config = new JvmConfig();
+			config.setPreforkPoolSize(1);
+			config.setPreforkIdleTimeout(2000);
+			
+			ManagedProcess p1 = factory.createProcess("node1", config);
+			waitForPool(factory, 1);
+			waitForPool(factory, 0);
+			p1.destroy();
+		}
+		finally {
+			factory.stop();
+		}
+	}
+
+	private static void waitForPool(LocalJvmProcessFactory factory, int size) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		while(factory.getPooledProcessCount() != size) {
+			if (System.nanoTime() > deadline) {
+				Assert.fail("Pool size is " + factory.getPooledProcessCount() + " expected " + size);
+			}
+			Thread.sleep(20);
+		}
+	}
 
 	@SuppressWarnings("serial")
 	private final static class GetJvmName implements Callable<String>, Serializable {
@@ -80,4 +151,29 @@ public class LocalJvmProcessFactoryTest {
 			return ManagementFactory.getRuntimeMXBean().getName();
 		}
 	}	
+
+	@SuppressWarnings("serial")
+	private final static class GetJvmStartTime implements Callable<Long>, Serializable {
+		@Override
+		public Long call() throws Exception {
+			return ManagementFactory.getRuntimeMXBean().getStartTime();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private final static class Print implements Callable<Void>, Serializable {
+
+		private final String text;
+
+		public Print(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			System.out.println(text);
+			System.out.flush();
+			return null;
+		}
+	}
 }
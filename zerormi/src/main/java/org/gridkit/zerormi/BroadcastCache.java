@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU of broadcast payloads bounded by number of entries and total size.
+ * Sending side uses it to track digests of payloads known to peer, so it
+ * keeps only digest and size of each payload. Receiving side keeps payloads
+ * for resolution of digest only references.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class BroadcastCache {
+
+	private final int maxEntries;
+	private final long maxBytes;
+	
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long totalBytes;
+	
+	public BroadcastCache(int maxEntries, long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Adds payload to cache, payloads larger than cache capacity are ignored.
+	 */
+	public synchronized void put(String digest, byte[] payload) {
+		add(digest, new Entry(payload.length, payload));
+	}
+
+	/**
+	 * Adds digest of payload without payload itself, size is accounted
+	 * the same way as for {@link #put(String, byte[])}.
+	 */
+	public synchronized void putDigest(String digest, int size) {
+		add(digest, new Entry(size, null));
+	}
+
+	private void add(String digest, Entry entry) {
+		if (entry.size > maxBytes) {
+			return;
+		}
+		Entry prev = entries.put(digest, entry);
+		if (prev != null) {
+			totalBytes -= prev.size;
+		}
+		totalBytes += entry.size;
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while(entries.size() > maxEntries || totalBytes > maxBytes) {
+			Entry evicted = it.next().getValue();
+			it.remove();
+			totalBytes -= evicted.size;
+		}
+	}
+	
+	/**
+	 * @return cached payload or <code>null</code>, access refreshes entry
+	 */
+	public synchronized byte[] get(String digest) {
+		Entry entry = entries.get(digest);
+		return entry == null ? null : entry.payload;
+	}
+
+	/**
+	 * Access refreshes entry.
+	 */
+	public synchronized boolean contains(String digest) {
+		return entries.get(digest) != null;
+	}
+
+	public synchronized void remove(String digest) {
+		Entry prev = entries.remove(digest);
+		if (prev != null) {
+			totalBytes -= prev.size;
+		}
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private static class Entry {
+
+		final int size;
+		final byte[] payload;
+
+		Entry(int size, byte[] payload) {
+			this.size = size;
+			this.payload = payload;
+		}
+	}
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Callable;
+
+/**
+ * Wrapper for a task which is going to be sent to many nodes.
+ * <br/>
+ * Task is serialized lazily, once, into immutable payload which is
+ * shared by all transports. {@link RmiGateway} tracks payload digests
+ * already delivered to its peer and sends only digest for repeated payloads.
+ * <br/>
+ * If task has never left local JVM, it is invoked directly without copying.
+ * Tasks which cannot be serialized standalone (e.g. they refer to objects which
+ * should be exported) are sent as usual by each transport.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public final class BroadcastTask implements Callable<Object>, Serializable {
+
+	private static final long serialVersionUID = 20140301L;
+
+	private static final SmartRmiMarshaler MARSHALER = new SmartRmiMarshaler();
+	
+	private transient Object task;
+	private transient boolean prepared;
+	
+	private String digest;
+	private byte[] payload;
+
+	/**
+	 * @param task {@link Runnable} or {@link Callable}
+	 */
+	public BroadcastTask(Object task) {
+		if (!(task instanceof Runnable || task instanceof Callable)) {
+			throw new IllegalArgumentException("Runnable or Callable is expected: " + task);
+		}
+		this.task = task;
+	}
+
+	BroadcastTask(String digest, byte[] payload) {
+		this.digest = digest;
+		this.payload = payload;
+		this.prepared = true;
+	}
+
+	/**
+	 * Serializes task if it was not done yet.
+	 * @return <code>true</code> if task could be broadcast as payload
+	 */
+	public synchronized boolean prepare() {
+		if (!prepared && task != null) {
+			prepared = true;
+			try {
+				payload = marshal(task);
+				digest = digest(payload);
+			}
+			catch(IOException e) {
+				payload = null;
+			}
+		}
+		return payload != null;
+	}
+	
+	/**
+	 * @return content hash of serialized task or <code>null</code> if task cannot be broadcast
+	 */
+	public String getDigest() {
+		return prepare() ? digest : null;
+	}
+
+	/**
+	 * @return size of serialized task or -1 if task cannot be broadcast
+	 */
+	public int getPayloadSize() {
+		return prepare() ? payload.length : -1;
+	}
+
+	byte[] getPayload() {
+		return prepare() ? payload : null;
+	}
+	
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Object call() throws Exception {
+		Object t = task;
+		if (t == null) {
+			// each invocation works with its own copy, same as for ordinary remote call
+			t = unmarshal(payload);
+		}
+		if (t instanceof Callable) {
+			return ((Callable)t).call();
+		}
+		else {
+			((Runnable)t).run();
+			return null;
+		}
+	}
+	
+	private Object writeReplace() throws ObjectStreamException {
+		if (task == null || prepare()) {
+			return this;
+		}
+		else {
+			return new DirectTask(task);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return task != null ? String.valueOf(task) : "BroadcastTask[" + digest + "]";
+	}
+
+	static byte[] marshal(Object task) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PayloadOutputStream oos = new PayloadOutputStream(bos);
+		oos.writeObject(task);
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	static Object unmarshal(byte[] payload) throws IOException, ClassNotFoundException {
+		PayloadInputStream ois = new PayloadInputStream(new ByteArrayInputStream(payload));
+		return ois.readObject();
+	}
+	
+	static String digest(byte[] payload) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] hash = md.digest(payload);
+			StringBuilder sb = new StringBuilder(2 * hash.length + 8);
+			for(byte b: hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+				sb.append(Character.forDigit(b & 0xF, 16));
+			}
+			sb.append('-').append(Integer.toHexString(payload.length));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static class PayloadOutputStream extends ObjectOutputStream {
+
+		public PayloadOutputStream(OutputStream out) throws IOException {
+			super(out);
+			enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) throws IOException {
+			Object r = MARSHALER.writeReplace(obj);
+			if (r instanceof Exported) {
+				throw new NotSerializableException("Remote reference cannot be broadcast: " + obj.getClass().getName());
+			}
+			return r;
+		}
+	}
+
+	private static class PayloadInputStream extends ObjectInputStream {
+		
+		public PayloadInputStream(InputStream in) throws IOException {
+			super(in);
+			enableResolveObject(true);
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) throws IOException {
+			return MARSHALER.readResolve(obj);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			ClassLoader cl = Thread.currentThread().getContextClassLoader();
+			if (cl != null) {
+				try {
+					return Class.forName(desc.getName(), false, cl);
+				}
+				catch(ClassNotFoundException e) {
+					// fall back to default
+				}
+			}
+			return super.resolveClass(desc);
+		}
+	}
+
+	/**
+	 * Used in place of {@link BroadcastTask} if task could not be serialized standalone.
+	 */
+	static class DirectTask implements Callable<Object>, Serializable {
+
+		private static final long serialVersionUID = 20140301L;
+		
+		private final Object task;
+
+		public DirectTask(Object task) {
+			this.task = task;
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public Object call() throws Exception {
+			if (task instanceof Callable) {
+				return ((Callable)task).call();
+			}
+			else {
+				((Runnable)task).run();
+				return null;
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return String.valueOf(task);
+		}
+	}
+
+	/**
+	 * Sent instead of payload already known to the peer.
+	 */
+	static class PayloadRef implements Serializable {
+
+		private static final long serialVersionUID = 20140301L;
+
+		final String digest;
+
+		public PayloadRef(String digest) {
+			this.digest = digest;
+		}
+	}
+
+	/**
+	 * Resolved in place of {@link PayloadRef} if peer has evicted payload.
+	 */
+	static class MissingPayload implements Callable<Object>, Serializable {
+		
+		private static final long serialVersionUID = 20140301L;
+		
+		final String digest;
+		
+		public MissingPayload(String digest) {
+			this.digest = digest;
+		}
+
+		@Override
+		public Object call() throws Exception {
+			throw new PayloadMissingException(digest);
+		}
+	}
+	
+	static class PayloadMissingException extends Exception {
+
+		private static final long serialVersionUID = 20140301L;
+
+		final String digest;
+		
+		public PayloadMissingException(String digest) {
+			super("Broadcast payload " + digest + " is not cached");
+			this.digest = digest;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi;
+
+import java.io.IOException;
+
+/**
+ * {@link DuplexStream} which pushes inbound data as complete frames
+ * from its own I/O thread, so consumer does not need a dedicated reader thread.
+ * <br/>
+ * Frame format is the one used by {@link RmiGateway}: 4 byte big endian length followed by payload.
+ * {@link #getInput()} is not available for such streams.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface FramedDuplexStream extends DuplexStream {
+
+	/**
+	 * Starts delivery of inbound frames. Frames are delivered sequentially from single thread.
+	 * Frames received before this call are delivered by calling thread.
+	 */
+	public void setFrameReceiver(FrameReceiver receiver);
+
+	public interface FrameReceiver {
+
+		/**
+		 * Called from transport's I/O thread, so receiver should not block or do
+		 * any heavy processing here. Buffer content is valid only during the call.
+		 */
+		public void frame(byte[] buffer, int offset, int length) throws IOException;
+
+		/**
+		 * Called once stream is terminated.
+		 * @param error {@link java.io.EOFException} if stream was closed by remote side
+		 */
+		public void closed(Exception error);
+
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Bounded buffer of sent, but not yet acknowledged frames.
+ * <br/>
+ * If limits are exceeded oldest frames are dropped, after that
+ * session could be resumed only if peer has received them.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class RetransmitBuffer {
+
+	private final int maxFrames;
+	private final long maxBytes;
+	private final Deque<Entry> frames = new ArrayDeque<Entry>();
+	private long bytes;
+	private long lastAdded;
+	private long lastDropped;
+
+	public RetransmitBuffer(int maxFrames, long maxBytes) {
+		this.maxFrames = maxFrames;
+		this.maxBytes = maxBytes;
+	}
+
+	public synchronized void add(long seq, byte[] frame) {
+		frames.addLast(new Entry(seq, frame));
+		bytes += frame.length;
+		lastAdded = seq;
+		while(frames.size() > maxFrames || (bytes > maxBytes && frames.size() > 1)) {
+			Entry e = frames.removeFirst();
+			bytes -= e.frame.length;
+			lastDropped = e.seq;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if adding frame of given size would evict an unacknowledged frame
+	 */
+	public synchronized boolean isFull(int frameSize) {
+		return frames.size() >= maxFrames || (!frames.isEmpty() && bytes + frameSize > maxBytes);
+	}
+
+	/**
+	 * Discards all frames up to sequence number inclusive.
+	 */
+	public synchronized void ack(long seq) {
+		while(!frames.isEmpty() && frames.peekFirst().seq <= seq) {
+			Entry e = frames.removeFirst();
+			bytes -= e.frame.length;
+		}
+		if (lastDropped < seq) {
+			lastDropped = seq;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if every frame after <code>peerAck</code> is still available
+	 */
+	public synchronized boolean canResume(long peerAck) {
+		return peerAck >= lastDropped && peerAck <= lastAdded;
+	}
+
+	/**
+	 * @return frames after given sequence number in order
+	 */
+	public synchronized List<byte[]> after(long seq) {
+		List<byte[]> result = new ArrayList<byte[]>(frames.size());
+		for(Entry e: frames) {
+			if (e.seq > seq) {
+				result.add(e.frame);
+			}
+		}
+		return result;
+	}
+
+	public synchronized int size() {
+		return frames.size();
+	}
+
+	private static class Entry {
+
+		final long seq;
+		final byte[] frame;
+
+		Entry(long seq, byte[] frame) {
+			this.seq = seq;
+			this.frame = frame;
+		}
+	}
+}
@@ -15,24 +15,35 @@
  */
 package org.gridkit.zerormi;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.gridkit.util.concurrent.AdvancedExecutor;
 import org.gridkit.util.concurrent.AdvancedExecutorAdapter;
@@ -43,25 +54,78 @@ import org.gridkit.zerormi.zlog.ZLogFactory;
 import org.gridkit.zerormi.zlog.ZLogger;
 
 /**
+ * Each message is sent as a frame: 4 byte big endian length followed by payload.
+ * Framing allows inbound side to be driven either by dedicated reader thread
+ * or, for {@link FramedDuplexStream}, by shared I/O thread without blocking it.
+ * In latter case frames are only queued by I/O thread and processed by gateway's worker thread.
+ * <br/>
+ * Message frame payload starts with sequence number and acknowledgment of last received frame.
+ * Sent frames are kept in bounded {@link RetransmitBuffer} until acknowledged, so
+ * if stream is broken and then reconnected, unacknowledged calls and returns are
+ * replayed and duplicates are discarded by receiver. Acknowledgments and replay are
+ * written by worker thread, never by thread reading the stream. Session is resumed only with same peer
+ * instance and only if no unacknowledged frame was evicted from buffer, otherwise gateway is terminated.
+ * <br/>
+ * 8 byte frame is an acknowledgment, it doubles as heartbeat. Zero length frame is a heartbeat.
+ * Both are handled by transport and never reach RMI layer.
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
 public class RmiGateway {
 
+	/** Larger frame buffers are not retained between messages */
+	private static final int RETAINED_FRAME_BUFFER = 256 << 10;
+
+	/** Explicit acknowledgment is sent after this number of inbound frames */
+	private static final int ACK_BATCH = 64;
+
+	private static final long HANDSHAKE_SEQ = 0;
+	/** Unsequenced control message, never replayed */
+	private static final long CONTROL_SEQ = -1;
+
+	private static final int SEQ_HEADER = 16;
+
+	/** Default limits of {@link RetransmitBuffer} */
+	public static final int DEFAULT_RETRANSMIT_FRAMES = 256;
+	public static final long DEFAULT_RETRANSMIT_BYTES = 4l << 20;
+
+	private static final int BROADCAST_CACHE_ENTRIES = 64;
+	private static final long BROADCAST_CACHE_BYTES = 64l << 20;
+	/** Number of attempts to resend broadcast payload evicted by peer */
+	private static final int BROADCAST_RETRIES = 3;
+
 	private final RmiChannel channel;
 	private final ExecutorService executor;
 	
 	private boolean connected = false;
 	private boolean terminated = false; 
 	
-	private String name;
+	private volatile String name;
 	private DuplexStream socket;
-	private RmiObjectInputStream in;
-	private RmiObjectOutputStream out;
+	private DataInputStream in;
+	private FrameDecoder decoder;
+	private final FrameWriter writer;
+	private final long instanceId = UUID.randomUUID().getMostSignificantBits() | 1;
+	private final CounterAgent localAgent = new LocalAgent();
+
+	/** Digests of broadcast payloads delivered to peer, only digest is sent for them */
+	final BroadcastCache sentBroadcasts = new BroadcastCache(BROADCAST_CACHE_ENTRIES, BROADCAST_CACHE_BYTES);
+	/** Broadcast payloads in frame being serialized, digest to size, guarded by writer */
+	private final Map<String, Integer> framedBroadcasts = new HashMap<String, Integer>();
+	/** Broadcast payloads received from peer */
+	final BroadcastCache receivedBroadcasts = new BroadcastCache(BROADCAST_CACHE_ENTRIES, BROADCAST_CACHE_BYTES);
 
 	private RemoteExecutionService service;
 	private CounterAgent remote;
 	private Thread readerThread;
+
+	private volatile long lastInbound = System.nanoTime();
+	private volatile long lastOutbound = System.nanoTime();
+
+	// inbound sequencing, updated by reader
+	private volatile long lastReceived;
+	private long peerInstanceId;
+	private boolean everConnected;
 	
 	private final LogStream logVerbose;
 	private final LogStream logInfo;
@@ -112,40 +176,77 @@ public class RmiGateway {
 		this.logVerbose = logger.get(getClass().getSimpleName(), LogLevel.VERBOSE);
 		this.logInfo = logger.get(getClass().getSimpleName(), LogLevel.INFO);
 		this.logCritical = logger.get(getClass().getSimpleName(), LogLevel.CRITICAL);
+		try {
+			this.writer = new FrameWriter(new RetransmitBuffer(DEFAULT_RETRANSMIT_FRAMES, DEFAULT_RETRANSMIT_BYTES));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		channel.exportObject(CounterAgent.class, localAgent);
 	}
 	
 	public AdvancedExecutor getRemoteExecutorService() {
 		return service;
 	}
 	
+	/**
+	 * Changes name used in logs and in names of new worker threads.
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
 	public void setStreamErrorHandler(StreamErrorHandler errorHandler) {
 		this.streamErrorHandler = errorHandler;
 	}
-	
+
+	/**
+	 * Limits memory used for unacknowledged frames. Exceeding limit does not break connection,
+	 * but makes session not resumable if connection is lost before peer acknowledges evicted frames.
+	 */
+	public void setRetransmitBufferLimit(int maxFrames, long maxBytes) {
+		writer.setRetransmitBuffer(new RetransmitBuffer(maxFrames, maxBytes));
+	}
+
+	/**
+	 * Closes current stream notifying peer, so peer terminates the session.
+	 */
 	public void disconnect() {
+		dropStream(true, null);
+	}
+
+	/**
+	 * Drops current stream without notifying peer, e.g. if stream is broken.
+	 * Session could be resumed by {@link #connect(DuplexStream)}.
+	 */
+	public void detach() {
+		dropStream(false, null);
+	}
+
+	/**
+	 * @param expected if not <code>null</code>, stream is dropped only if it is still current one
+	 */
+	private void dropStream(boolean notifyPeer, DuplexStream expected) {
 		Thread readerThread = null;
 		synchronized(this) {
-			if (connected) {
+			if (connected && (expected == null || expected == socket)) {
 				
-				logInfo.log("RMI gateway [" + name +"] disconneted.");
+				logInfo.log("RMI gateway [%s] disconneted.", name);
 				
 				readerThread = this.readerThread;
-				
-				try {
-					out.writeObject("close");
-				}
-				catch(Exception e) {
-					// ignore
+				if (notifyPeer) {
+					try {
+						writer.sendControl("close");
+					}
+					catch(Exception e) {
+						// ignore
+					}
 				}
 				
+				// closing stream first releases writer blocked on it
 				try {
-					in.close();
-				}
-				catch(Exception e) {
-					// ignore
-				}
-				try {
-					out.close();
+					if (in != null) {
+						in.close();
+					}
 				}
 				catch(Exception e) {
 					// ignore
@@ -156,14 +257,15 @@ public class RmiGateway {
 				catch(Exception e) {
 					// ignore
 				}
+				writer.detach();
 				
 				in = null;
-				out = null;
+				decoder = null;
 				socket = null;
 				connected = false;
 			}
 		}
-		if (readerThread != null) {
+		if (readerThread != null && readerThread != Thread.currentThread()) {
 			readerThread.interrupt();
 			try {
 				readerThread.join();
@@ -176,27 +278,62 @@ public class RmiGateway {
 	public synchronized boolean isConnected() {
 		return connected && !terminated && !socket.isClosed();
 	}
+
+	public synchronized boolean isTerminated() {
+		return terminated;
+	}
+
+	/**
+	 * Schedules heartbeat frame, unless any other frame has been sent recently.
+	 * Heartbeat also acknowledges received frames.
+	 * <br/>
+	 * Method never blocks, frame is written by worker thread. If previous heartbeat
+	 * or acknowledgment is still pending (e.g. link is congested), heartbeat is skipped.
+	 * @return <code>true</code> if heartbeat frame was scheduled
+	 */
+	public boolean sendHeartbeat(long idleThreshold, TimeUnit tu) {
+		if (getOutboundIdleTime(TimeUnit.NANOSECONDS) < tu.toNanos(idleThreshold)) {
+			// regular traffic works as heartbeat
+			return false;
+		}
+		synchronized(this) {
+			if (!connected) {
+				return false;
+			}
+		}
+		return writer.scheduleAck();
+	}
+
+	/**
+	 * @return time since last frame (message or heartbeat) has been received
+	 */
+	public long getInboundIdleTime(TimeUnit tu) {
+		return tu.convert(System.nanoTime() - lastInbound, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return time since last frame (message or heartbeat) has been sent
+	 */
+	public long getOutboundIdleTime(TimeUnit tu) {
+		return tu.convert(System.nanoTime() - lastOutbound, TimeUnit.NANOSECONDS);
+	}
 	
 	public synchronized void shutdown() {
 		if (terminated) {
 			return;
 		}
-		logInfo.log("RMI gateway [" + name +"] terminated.");
+		logInfo.log("RMI gateway [%s] terminated.", name);
 		terminated = true;
+		notifyAll();
 		
 		try {
-			out.writeObject("close");
+			writer.sendControl("close");
 		}
 		catch(Exception e) {
 			// ignore
 		}
+		writer.detach();
 
-		try {
-			out.close();
-		}
-		catch(Exception e) {
-			// ignore
-		}
 		try {
 			in.close();
 		}
@@ -228,6 +365,90 @@ public class RmiGateway {
 			// ignore
 		}
 	}
+
+	private synchronized void setRemoteAgent(CounterAgent agent) {
+		remote = agent;
+		notifyAll();
+	}
+
+	/**
+	 * For {@link FramedDuplexStream} handshake is completed asynchronously,
+	 * so remote agent may be not available yet.
+	 */
+	private synchronized CounterAgent getRemoteAgent() throws IOException {
+		while(remote == null) {
+			if (terminated) {
+				throw new IOException("RMI gateway [" + name + "] is terminated");
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted");
+			}
+		}
+		return remote;
+	}
+
+	/**
+	 * Verifies peer identity on handshake.
+	 * @return <code>false</code> if peer is another instance and session cannot be resumed
+	 */
+	private synchronized boolean acceptPeer(long peerId) {
+		if (peerInstanceId == 0) {
+			peerInstanceId = peerId;
+			return true;
+		}
+		else {
+			return peerInstanceId == peerId;
+		}
+	}
+
+	/**
+	 * @param socket failed stream, failure is ignored if stream has been already replaced
+	 */
+	private void readFailed(DuplexStream socket, Exception e) {
+		InputStream in;
+		synchronized(this) {
+			if (this.socket != socket) {
+				return;
+			}
+			in = this.in;
+			readerThread = null;
+		}
+		if (IOHelper.isSocketTerminationException(e)) {
+			logVerbose.log("RMI stream, socket has been discontinued [%s] - %s", socket, e.toString());
+		}
+		else {
+			logCritical.log("RMI stream read exception [%s]", socket, e);
+		}
+		logVerbose.log("disconnecting");
+		dropStream(false, socket);
+		if (IOHelper.isSocketTerminationException(e)) {
+			streamErrorHandler.streamClosed(socket, in);
+		}
+		else {
+			streamErrorHandler.streamError(socket, in, e);
+		}
+	}
+
+	private void resumeFailed() {
+		logCritical.log("RMI gateway [%s], unacknowledged frames were evicted, session cannot be resumed", name);
+		shutdown();
+	}
+
+	private synchronized void overflow() {
+		if (terminated) {
+			return;
+		}
+		logCritical.log("RMI gateway [%s], retransmit buffer is exhausted while disconnected, session is terminated", name);
+		shutdown();
+	}
+
+	private void linkFailed(IOException e) {
+		DuplexStream socket = this.socket;
+		detach();
+		streamErrorHandler.streamError(socket, writer, e);
+	}
 	
 	private final class SocketReader extends Thread implements Closeable {
 		
@@ -261,38 +482,183 @@ public class RmiGateway {
 		@Override
 		public void run() {
 			
-			RmiObjectInputStream chin = in;
+			DataInputStream chin = in;
+			FrameDecoder chdec = decoder;
+			if (chdec == null) {
+				// stream has been dropped before reader has started
+				return;
+			}
 			try {
 				while(true) {
-					Object message = chin.readObject();
-					if (message != null) {
-						if ("close".equals(message)) {
-							logInfo.log("RMI gateway [" + name + "], remote side has requested termination");
-							shutdown();
-						}
-						else {
-							channel.handleMessage((RemoteMessage) message);
+					chdec.readFrame(chin);
+				}
+			}
+			catch(Exception e) {
+				readFailed(chdec.stream, e);
+			}
+		}
+	}
+
+	/**
+	 * Decodes inbound frames. First frame is handshake carrying remote {@link CounterAgent}.
+	 */
+	private final class FrameDecoder implements FramedDuplexStream.FrameReceiver, Runnable {
+
+		private final DuplexStream stream;
+		private final FrameInput input = new FrameInput();
+		private RmiObjectInputStream objIn;
+
+		/** Frames (or terminating exception) pushed by transport I/O thread */
+		private final Queue<Object> inbound = new ConcurrentLinkedQueue<Object>();
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private boolean failed;
+
+		FrameDecoder(DuplexStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void frame(byte[] buffer, int offset, int length) {
+			inbound.add(Arrays.copyOfRange(buffer, offset, offset + length));
+			scheduleDrain();
+		}
+
+		@Override
+		public void closed(Exception error) {
+			inbound.add(error);
+			scheduleDrain();
+		}
+
+		private void scheduleDrain() {
+			if (draining.compareAndSet(false, true)) {
+				try {
+					executor.execute(this);
+				}
+				catch(RejectedExecutionException e) {
+					// gateway is terminated
+					inbound.clear();
+					draining.set(false);
+				}
+			}
+		}
+
+		/**
+		 * Processes queued frames in order, only one thread drains queue at a time.
+		 */
+		@Override
+		public void run() {
+			while(true) {
+				Object item;
+				while((item = inbound.poll()) != null) {
+					if (failed) {
+						continue;
+					}
+					try {
+						if (item instanceof Exception) {
+							throw (Exception) item;
 						}
+						byte[] frame = (byte[]) item;
+						input.append(frame, 0, frame.length);
+						process(frame.length);
+					}
+					catch(Exception e) {
+						failed = true;
+						readFailed(stream, e);
 					}
 				}
+				draining.set(false);
+				if (inbound.isEmpty() || !draining.compareAndSet(false, true)) {
+					return;
+				}
 			}
-			catch(Exception e) {
-				if (IOHelper.isSocketTerminationException(e)) {
-					logVerbose.log("RMI stream, socket has been discontinued [" + socket + "] - " + e.toString());
+		}
+
+		void readFrame(DataInputStream is) throws IOException {
+			int len = is.readInt();
+			if (len < 0) {
+				throw new IOException("Corrupted frame, length " + len);
+			}
+			input.fill(is, len);
+			process(len);
+		}
+
+		private void process(int len) throws IOException {
+			lastInbound = System.nanoTime();
+			if (len == 0) {
+				// heartbeat
+				return;
+			}
+			if (len < SEQ_HEADER) {
+				if (len != 8) {
+					throw new IOException("Corrupted frame, length " + len);
 				}
-				else {
-					logCritical.log("RMI stream read exception [" + socket + "]", e);
+				// acknowledgment
+				writer.acknowledge(input.readLong());
+				return;
+			}
+			long seq = input.readLong();
+			writer.acknowledge(input.readLong());
+			if (seq == HANDSHAKE_SEQ) {
+				handshake();
+			}
+			else if (seq == CONTROL_SEQ) {
+				Object message = decode();
+				if ("close".equals(message)) {
+					logInfo.log("RMI gateway [%s], remote side has requested termination", name);
+					shutdown();
 				}
-				DuplexStream socket = RmiGateway.this.socket;
-				InputStream in = RmiGateway.this.in;
-				readerThread = null;
-				logVerbose.log("disconnecting");
-				disconnect();
-				if (IOHelper.isSocketTerminationException(e)) {
-					streamErrorHandler.streamClosed(socket, in);
+			}
+			else if (seq <= lastReceived) {
+				// duplicate of replayed frame
+				input.clear();
+			}
+			else if (seq != lastReceived + 1) {
+				throw new IOException("Frame sequence gap, expected " + (lastReceived + 1) + " but got " + seq);
+			}
+			else {
+				Object message = decode();
+				lastReceived = seq;
+				if (message != null) {
+					channel.handleMessage((RemoteMessage) message);
 				}
-				else {
-					streamErrorHandler.streamError(socket, in, e);
+				if (lastReceived - writer.ackSent >= ACK_BATCH) {
+					writer.scheduleAck();
+				}
+			}
+		}
+
+		private void handshake() throws IOException {
+			long peerId = input.readLong();
+			// peer's acknowledgment has been already applied
+			long peerAck = writer.lastAcknowledged;
+			if (!acceptPeer(peerId)) {
+				logCritical.log("RMI gateway [%s], peer has been restarted, session cannot be resumed", name);
+				shutdown();
+				throw new IOException("Peer instance has changed");
+			}
+			// stream header is part of handshake frame
+			objIn = new RmiObjectInputStream(input);
+			setRemoteAgent((CounterAgent) decode());
+			if (!writer.canResume(peerAck)) {
+				resumeFailed();
+				throw new IOException("Session cannot be resumed");
+			}
+			writer.scheduleResume(peerAck);
+		}
+
+		private Object decode() throws IOException {
+			if (objIn == null) {
+				throw new IOException("Handshake is expected first");
+			}
+			try {
+				return objIn.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+			finally {
+				if (input.available() > 0) {
+					// frame should be consumed completely
+					input.clear();
 				}
 			}
 		}
@@ -305,26 +671,29 @@ public class RmiGateway {
 		try {
 			this.socket = socket;
 			
-			out = new RmiObjectOutputStream(socket.getOutput());
-			
-			CounterAgent localAgent = new LocalAgent();			
-			channel.exportObject(CounterAgent.class, localAgent);
-			synchronized(out) {					
-				out.writeUnshared(localAgent);
-				out.reset();
-				out.flush();
+			remote = null;
+			lastInbound = System.nanoTime();
+			decoder = new FrameDecoder(socket);
+			writer.attach(socket.getOutput(), localAgent);
+
+			if (socket instanceof FramedDuplexStream) {
+				// remote agent would arrive with first frame
+				connected = true;
+				((FramedDuplexStream) socket).setFrameReceiver(decoder);
 			}
-	
-			// important create out stream first!
-			in = new RmiObjectInputStream(socket.getInput());
-			remote = (CounterAgent) in.readObject();
+			else {
+				in = new DataInputStream(socket.getInput());
+				decoder.readFrame(in);
 			
-			readerThread = new SocketReader();
-			readerThread.setName("RMI-Receiver: " + socket);
-			readerThread.start();
-			connected = true;			
+				readerThread = new SocketReader();
+				readerThread.setName("RMI-Receiver: " + socket);
+				readerThread.start();
+				connected = true;			
+			}
+			everConnected = true;
 			
 		} catch (Exception e) {
+			writer.detach();
 			try {
 				if (in != null) {
 					in.close();
@@ -332,13 +701,6 @@ public class RmiGateway {
 			} catch (IOException e1) {
 				// ignore
 			}
-			try {
-				if (out != null) {
-					out.close();
-				}
-			} catch (IOException e1) {
-				// ignore
-			}
 			try {
 				if (this.socket != null) {
 					this.socket.close();
@@ -348,7 +710,7 @@ public class RmiGateway {
 				//ignore
 			}
 			in = null;
-			out = null;
+			decoder = null;
 			this.socket = null;
 			if (e instanceof IOException) {
 				throw (IOException) e;
@@ -359,6 +721,13 @@ public class RmiGateway {
 		}
 	}
 
+	/**
+	 * @return <code>true</code> if gateway has been connected at least once
+	 */
+	public synchronized boolean wasConnected() {
+		return everConnected;
+	}
+
 	private class RmiObjectInputStream extends ObjectInputStream {
 		
 		public RmiObjectInputStream(InputStream in) throws IOException {
@@ -368,6 +737,22 @@ public class RmiGateway {
 
 		@Override
 		protected Object resolveObject(Object obj) throws IOException {
+			if (obj instanceof BroadcastTask) {
+				BroadcastTask task = (BroadcastTask) obj;
+				receivedBroadcasts.put(task.getDigest(), task.getPayload());
+				return task;
+			}
+			else if (obj instanceof BroadcastTask.PayloadRef) {
+				String digest = ((BroadcastTask.PayloadRef) obj).digest;
+				byte[] payload = receivedBroadcasts.get(digest);
+				if (payload == null) {
+					// sender will retry with full payload
+					return new BroadcastTask.MissingPayload(digest);
+				}
+				else {
+					return new BroadcastTask(digest, payload);
+				}
+			}
 			Object r = channel.streamResolveObject(obj);
 			return r;
 		}
@@ -380,41 +765,452 @@ public class RmiGateway {
 
 	private class RmiObjectOutputStream extends ObjectOutputStream {
 
-		public RmiObjectOutputStream(OutputStream in) throws IOException {
-			super(in);
+		public RmiObjectOutputStream(OutputStream out) throws IOException {
+			super(out);
 			enableReplaceObject(true);
 		}
 
 		@Override
 		protected Object replaceObject(Object obj) throws IOException {
+			if (obj instanceof BroadcastTask) {
+				// only prepared tasks reach here, see BroadcastTask.writeReplace()
+				BroadcastTask task = (BroadcastTask) obj;
+				String digest = task.getDigest();
+				if (sentBroadcasts.contains(digest) || framedBroadcasts.containsKey(digest)) {
+					return new BroadcastTask.PayloadRef(digest);
+				}
+				else {
+					// marked as sent only once frame is written
+					framedBroadcasts.put(digest, task.getPayload().length);
+					return task;
+				}
+			}
 			Object r = channel.streamReplaceObject(obj);
 			return r;
 		}
 	}
+
+	/**
+	 * Serializes and sequences outbound messages. Single object stream is used for gateway
+	 * lifetime, each frame starts with stream reset so frames are self contained and
+	 * could be replayed over another connection.
+	 */
+	private final class FrameWriter {
+
+		private final FrameBuffer buffer = new FrameBuffer();
+		private final RmiObjectOutputStream oos;
+		private final AtomicBoolean ackPending = new AtomicBoolean();
+		private volatile RetransmitBuffer retransmit;
+		private OutputStream link;
+		/** Set after peer's handshake, until then new frames are only buffered */
+		private boolean resumed;
+		private long sendSeq;
+		volatile long ackSent;
+		volatile long lastAcknowledged;
+
+		FrameWriter(RetransmitBuffer retransmit) throws IOException {
+			this.retransmit = retransmit;
+			this.oos = new RmiObjectOutputStream(buffer);
+			// stream header is sent explicitly with each handshake
+			oos.flush();
+			buffer.discard();
+		}
+
+		synchronized void setRetransmitBuffer(RetransmitBuffer retransmit) {
+			if (sendSeq > 0) {
+				throw new IllegalStateException("Gateway is already in use");
+			}
+			this.retransmit = retransmit;
+		}
+
+		synchronized void attach(OutputStream os, CounterAgent agent) throws IOException {
+			link = os;
+			resumed = false;
+			long ack = lastReceived;
+			buffer.begin(HANDSHAKE_SEQ, ack);
+			buffer.writeLong(instanceId);
+			buffer.writeShort(ObjectStreamConstants.STREAM_MAGIC);
+			buffer.writeShort(ObjectStreamConstants.STREAM_VERSION);
+			serialize(agent);
+			write(buffer.finish(), ack);
+		}
+
+		synchronized void detach() {
+			link = null;
+			resumed = false;
+		}
+
+		boolean canResume(long peerAck) {
+			return retransmit.canResume(peerAck);
+		}
+
+		/**
+		 * Replays frames not received by peer on current link, using worker thread.
+		 * New frames are written only after replay.
+		 */
+		void scheduleResume(final long peerAck) {
+			final OutputStream target;
+			synchronized(this) {
+				target = link;
+			}
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					int replayed;
+					try {
+						replayed = resume(target, peerAck);
+					}
+					catch(IOException e) {
+						linkFailed(e);
+						return;
+					}
+					if (replayed < 0) {
+						resumeFailed();
+					}
+					else if (replayed > 0) {
+						logInfo.log("RMI gateway [%s] resumed, %d frames replayed", name, replayed);
+					}
+				}
+			});
+		}
+
+		/**
+		 * @return number of replayed frames or -1 if session cannot be resumed
+		 */
+		private synchronized int resume(OutputStream target, long peerAck) throws IOException {
+			if (link != target || link == null) {
+				// link has been replaced meanwhile
+				return 0;
+			}
+			if (!retransmit.canResume(peerAck)) {
+				return -1;
+			}
+			List<byte[]> frames = retransmit.after(peerAck);
+			try {
+				for(byte[] frame: frames) {
+					link.write(frame);
+				}
+				link.flush();
+			}
+			catch(IOException e) {
+				link = null;
+				throw e;
+			}
+			resumed = true;
+			lastOutbound = System.nanoTime();
+			return frames.size();
+		}
+
+		/**
+		 * Sends acknowledgment using worker thread, unless one is already pending.
+		 * @return <code>false</code> if acknowledgment is already pending or gateway is terminated
+		 */
+		boolean scheduleAck() {
+			if (!ackPending.compareAndSet(false, true)) {
+				return false;
+			}
+			boolean scheduled = execute(new Runnable() {
+				@Override
+				public void run() {
+					ackPending.set(false);
+					try {
+						sendAck();
+					}
+					catch(IOException e) {
+						linkFailed(e);
+					}
+				}
+			});
+			if (!scheduled) {
+				ackPending.set(false);
+			}
+			return scheduled;
+		}
+
+		private boolean execute(Runnable task) {
+			try {
+				executor.execute(task);
+				return true;
+			}
+			catch(RejectedExecutionException e) {
+				// gateway is terminated
+				return false;
+			}
+		}
+
+		synchronized void acknowledge(long seq) {
+			if (seq > lastAcknowledged) {
+				lastAcknowledged = seq;
+			}
+			retransmit.ack(seq);
+		}
+
+		/**
+		 * Message is retained for replay even if link is not available.
+		 * While link is down, message is rejected if it would evict unacknowledged frame,
+		 * such session could not be resumed anyway.
+		 * @return <code>false</code> if link has failed
+		 * @throws RetransmitOverflowException if link is down and retransmit buffer is full
+		 */
+		synchronized boolean send(Object message) throws IOException {
+			long ack = lastReceived;
+			buffer.begin(sendSeq + 1, ack);
+			serialize(message);
+			byte[] frame = buffer.finish();
+			if ((link == null || !resumed) && retransmit.isFull(frame.length)) {
+				framedBroadcasts.clear();
+				throw new RetransmitOverflowException("RMI gateway [" + name + "] is disconnected, retransmit buffer is full");
+			}
+			++sendSeq;
+			retransmit.add(sendSeq, frame);
+			if (link == null || !resumed) {
+				// frame would be replayed, but payloads are not marked as sent
+				framedBroadcasts.clear();
+			}
+			else {
+				try {
+					write(frame, ack);
+				}
+				catch(IOException e) {
+					link = null;
+					resumed = false;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		synchronized void sendControl(Object message) throws IOException {
+			if (link != null) {
+				long ack = lastReceived;
+				buffer.begin(CONTROL_SEQ, ack);
+				serialize(message);
+				write(buffer.finish(), ack);
+			}
+		}
+
+		synchronized boolean sendAck() throws IOException {
+			if (link == null) {
+				return false;
+			}
+			long ack = lastReceived;
+			byte[] frame = new byte[12];
+			FrameBuffer.putInt(frame, 0, 8);
+			FrameBuffer.putLong(frame, 4, ack);
+			write(frame, ack);
+			return true;
+		}
+
+		private void serialize(Object message) throws IOException {
+			framedBroadcasts.clear();
+			try {
+				oos.reset();
+				oos.writeUnshared(message);
+				oos.flush();
+			}
+			catch(IOException e) {
+				// partially serialized message should never reach the wire
+				buffer.discard();
+				framedBroadcasts.clear();
+				throw e;
+			}
+			catch(RuntimeException e) {
+				buffer.discard();
+				framedBroadcasts.clear();
+				throw e;
+			}
+		}
+
+		/**
+		 * Broadcast payloads of last serialized frame are marked as known
+		 * to peer only if frame has been written successfully.
+		 */
+		private void write(byte[] frame, long ack) throws IOException {
+			try {
+				link.write(frame);
+				link.flush();
+			}
+			catch(IOException e) {
+				framedBroadcasts.clear();
+				throw e;
+			}
+			for(Map.Entry<String, Integer> e: framedBroadcasts.entrySet()) {
+				sentBroadcasts.putDigest(e.getKey(), e.getValue());
+			}
+			framedBroadcasts.clear();
+			ackSent = ack;
+			lastOutbound = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Accumulates single frame, first 4 bytes are reserved for length.
+	 */
+	private static class FrameBuffer extends ByteArrayOutputStream {
+
+		public FrameBuffer() {
+			super(4 << 10);
+			count = 4;
+		}
+
+		public void begin(long seq, long ack) {
+			count = 4;
+			writeLong(seq);
+			writeLong(ack);
+		}
+
+		public void writeLong(long v) {
+			ensure(8);
+			putLong(buf, count, v);
+			count += 8;
+		}
+
+		public void writeShort(short v) {
+			write((v >>> 8) & 0xFF);
+			write(v & 0xFF);
+		}
+
+		private void ensure(int n) {
+			if (count + n > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(count + n, 2 * buf.length));
+			}
+		}
+
+		/**
+		 * @return complete frame including length
+		 */
+		public byte[] finish() {
+			putInt(buf, 0, count - 4);
+			byte[] frame = Arrays.copyOf(buf, count);
+			discard();
+			return frame;
+		}
+
+		public void discard() {
+			count = 4;
+			if (buf.length > RETAINED_FRAME_BUFFER) {
+				buf = new byte[4 << 10];
+			}
+		}
+
+		static void putInt(byte[] b, int off, int v) {
+			b[off] = (byte) (v >>> 24);
+			b[off + 1] = (byte) (v >>> 16);
+			b[off + 2] = (byte) (v >>> 8);
+			b[off + 3] = (byte) v;
+		}
+
+		static void putLong(byte[] b, int off, long v) {
+			putInt(b, off, (int) (v >>> 32));
+			putInt(b, off + 4, (int) v);
+		}
+
+		static long getLong(byte[] b, int off) {
+			long v = 0;
+			for(int i = 0; i != 8; ++i) {
+				v = (v << 8) | (0xFF & b[off + i]);
+			}
+			return v;
+		}
+	}
+
+	/**
+	 * Input stream over received frame.
+	 */
+	private static class FrameInput extends InputStream {
+
+		private byte[] buf = new byte[4 << 10];
+		private int pos;
+		private int limit;
+
+		private void ensureSpace(int len) {
+			if (pos > 0) {
+				System.arraycopy(buf, pos, buf, 0, limit - pos);
+				limit -= pos;
+				pos = 0;
+			}
+			if (buf.length > RETAINED_FRAME_BUFFER && limit + len <= (4 << 10)) {
+				buf = Arrays.copyOf(buf, 4 << 10);
+			}
+			if (limit + len > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(limit + len, 2 * buf.length));
+			}
+		}
+
+		public void append(byte[] data, int offset, int length) {
+			ensureSpace(length);
+			System.arraycopy(data, offset, buf, limit, length);
+			limit += length;
+		}
+
+		public void fill(DataInputStream is, int length) throws IOException {
+			ensureSpace(length);
+			is.readFully(buf, limit, length);
+			limit += length;
+		}
+
+		public long readLong() throws IOException {
+			if (limit - pos < 8) {
+				throw new IOException("Corrupted frame");
+			}
+			long v = FrameBuffer.getLong(buf, pos);
+			pos += 8;
+			return v;
+		}
+
+		public void clear() {
+			pos = 0;
+			limit = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return pos < limit ? (0xFF & buf[pos++]) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (pos >= limit) {
+				return -1;
+			}
+			int n = Math.min(len, limit - pos);
+			System.arraycopy(buf, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return limit - pos;
+		}
+	}
 	
 	private class MessageOut implements RmiChannel1.OutputChannel {
 		public void send(RemoteMessage message) throws IOException {
+			// on link failure message would be replayed after reconnect
 			try {
-				synchronized(out) {
-					out.writeUnshared(message);
-					out.reset();
-				}
-			}
-			catch (NullPointerException e) {
-				if (out == null) {
-					throw new IOException("RMI gatway [" + name + "] channel is not connected");
+				if (!writer.send(message)) {
+					linkFailed(new IOException("RMI gateway [" + name + "] link failed"));
 				}
-				else throw e;
 			}
-			catch (IOException e) {
-				DuplexStream socket = RmiGateway.this.socket;
-				OutputStream out = RmiGateway.this.out;			
-				disconnect();
-				streamErrorHandler.streamError(socket, out, e);
+			catch(RetransmitOverflowException e) {
+				// pending calls are failed right away, instead of waiting for reconnect timeout
+				overflow();
 				throw e;
 			}
 		}
 	}
+
+	@SuppressWarnings("serial")
+	private static class RetransmitOverflowException extends RemoteException {
+
+		public RetransmitOverflowException(String message) {
+			super(message);
+		}
+	}
 	
 	public interface StreamErrorHandler {
 		
@@ -450,9 +1246,27 @@ public class RmiGateway {
 		}
 
 		private <T> Callable<T> wrap(final Callable<T> task) {
+			if (task instanceof BroadcastTask) {
+				return new Callable<T>() {
+					public T call() throws Exception {
+						for(int n = 0; ; ++n) {
+							try {
+								return getRemoteAgent().remoteCall(task);
+							}
+							catch(BroadcastTask.PayloadMissingException e) {
+								if (n >= BROADCAST_RETRIES) {
+									throw e;
+								}
+								// peer has evicted payload, send it again 
+								sentBroadcasts.remove(e.digest);
+							}
+						}
+					}
+				};
+			}
 			return new Callable<T>() {
 				public T call() throws Exception {
-					return remote.remoteCall(task);
+					return getRemoteAgent().remoteCall(task);
 				}
 			};
 		}
@@ -17,13 +17,21 @@ package org.gridkit.zerormi;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class handles serialization of anonymous inner classes using reflection.
@@ -54,23 +62,69 @@ class SmartAnonMarshaler {
 		return obj != null && (!(obj instanceof Serializable)) && obj.getClass().isAnonymousClass();
 	}
 
+	/**
+	 * Reflective metadata is cached per class. Classes are referenced weakly
+	 * and metadata softly, so metadata survives until memory is short and
+	 * cache cannot pin unused class beyond that. Lookup does not lock.
+	 */
+	private static final ConcurrentMap<ClassKey, Reference<ClassMeta>> META_CACHE = new ConcurrentHashMap<ClassKey, Reference<ClassMeta>>();
+	private static final ReferenceQueue<Class<?>> UNLOADED = new ReferenceQueue<Class<?>>();
+	
+	static ClassMeta getMeta(Class<?> type) {
+		ClassKey key = new ClassKey(type, null);
+		Reference<ClassMeta> ref = META_CACHE.get(key);
+		ClassMeta meta = ref == null ? null : ref.get();
+		if (meta == null) {
+			expungeUnloaded();
+			meta = new ClassMeta(type);
+			// concurrent put may replace equivalent metadata, which is harmless
+			META_CACHE.put(new ClassKey(type, UNLOADED), new SoftReference<ClassMeta>(meta));
+		}
+		return meta;
+	}
+
+	private static void expungeUnloaded() {
+		Reference<?> ref;
+		while((ref = UNLOADED.poll()) != null) {
+			META_CACHE.remove(ref);
+		}
+	}
+
+	private static class ClassKey extends WeakReference<Class<?>> {
+
+		private final int hash;
+
+		public ClassKey(Class<?> type, ReferenceQueue<Class<?>> queue) {
+			super(type, queue);
+			this.hash = System.identityHashCode(type);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (obj instanceof ClassKey) {
+				Class<?> type = get();
+				return type != null && type == ((ClassKey)obj).get();
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Field values are serialized as plain array in {@link ClassMeta} field order.
+	 */
 	@SuppressWarnings("serial")
 	public static class AnonEnvelop implements Serializable {
 
-		private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<Class<?>, Object>();
-		static {
-			PRIMITIVE_DEFAULTS.put(boolean.class, Boolean.FALSE);
-			PRIMITIVE_DEFAULTS.put(byte.class, Byte.valueOf((byte)0));
-			PRIMITIVE_DEFAULTS.put(short.class, Short.valueOf((byte)0));
-			PRIMITIVE_DEFAULTS.put(char.class, Character.valueOf((char)0));
-			PRIMITIVE_DEFAULTS.put(int.class, Integer.valueOf((char)0));
-			PRIMITIVE_DEFAULTS.put(long.class, Long.valueOf((char)0));
-			PRIMITIVE_DEFAULTS.put(float.class, Float.valueOf(0f));
-			PRIMITIVE_DEFAULTS.put(double.class, Double.valueOf(0f));
-		}		
-		
 		private Class<?> type;
-		private Map<String, Object> fields;
+		private Object[] values;
 		
 		public AnonEnvelop(Object instance) {
 			snapshot(instance);
@@ -79,74 +133,107 @@ class SmartAnonMarshaler {
 		private void snapshot(Object instance) {
 			try {
 				type = instance.getClass();
-				fields = new HashMap<String, Object>();
-				Field[] ff = collectFields(type);
-				for(Field f: ff) {
-					if (isPersistent(f)) {
-						f.setAccessible(true);
-						fields.put(f.getName(), f.get(instance));
-					}
-				}
+				values = getMeta(type).read(instance);
 			} catch (Exception e) {
 				throw new RuntimeException("Cannot capture object state", e);
 			}
 		}
 
 		public Object unmarshal() throws IOException {
+			try {
+				return getMeta(type).create(values);
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	static class ClassMeta {
+
+		private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<Class<?>, Object>();
+		static {
+			PRIMITIVE_DEFAULTS.put(boolean.class, Boolean.FALSE);
+			PRIMITIVE_DEFAULTS.put(byte.class, Byte.valueOf((byte)0));
+			PRIMITIVE_DEFAULTS.put(short.class, Short.valueOf((byte)0));
+			PRIMITIVE_DEFAULTS.put(char.class, Character.valueOf((char)0));
+			PRIMITIVE_DEFAULTS.put(int.class, Integer.valueOf((char)0));
+			PRIMITIVE_DEFAULTS.put(long.class, Long.valueOf((char)0));
+			PRIMITIVE_DEFAULTS.put(float.class, Float.valueOf(0f));
+			PRIMITIVE_DEFAULTS.put(double.class, Double.valueOf(0f));
+		}		
+
+		private final Constructor<?> constructor;
+		/** Shared, never passed outside */
+		private final Object[] defaultArgs;
+		private final Field[] fields;
 
+		ClassMeta(Class<?> type) {
 			Constructor<?> c = type.getDeclaredConstructors()[0];
 			c.setAccessible(true);
 			// we have to init primitive params, cause null cannot be converted to primitive value
-			Object[] params = new Object[c.getParameterTypes().length];
+			Class<?>[] ptypes = c.getParameterTypes();
+			Object[] params = new Object[ptypes.length];
 			for(int i = 0; i != params.length; ++i) {
-				Class<?> p = c.getParameterTypes()[i];
-				params[i] = PRIMITIVE_DEFAULTS.get(p);
+				params[i] = PRIMITIVE_DEFAULTS.get(ptypes[i]);
 			}
+			constructor = c;
+			defaultArgs = params;
 
-			Object oo;
-			try {
-				oo = c.newInstance(params);
-				
-				Field[] ff = collectFields(type);
-				
-				for(Field f : ff) {
-					if (isPersistent(f)) {
-						if (fields.containsKey(f.getName())) {
-							f.setAccessible(true);
-							Object v = fields.get(f.getName());
-							f.set(oo, v);
-						}
-					}
-				}
-				return oo;
-			} catch (Exception e) {
-				throw new IOException(e);
+			List<Field> result = new ArrayList<Field>();
+			collectFields(result, type);
+			fields = result.toArray(new Field[result.size()]);
+			for(Field f: fields) {
+				f.setAccessible(true);
+			}
+		}
+
+		public Object[] read(Object instance) throws IllegalAccessException {
+			Object[] values = new Object[fields.length];
+			for(int i = 0; i != fields.length; ++i) {
+				values[i] = fields[i].get(instance);
 			}
-			
+			return values;
 		}
 
-		private boolean isPersistent(Field f) {
+		public Object create(Object[] values) throws Exception {
+			if (values.length != fields.length) {
+				throw new IOException("Class " + constructor.getDeclaringClass().getName() + " has " + fields.length + " persistent fields, but " + values.length + " values received");
+			}
+			Object oo = constructor.newInstance(defaultArgs);
+			for(int i = 0; i != fields.length; ++i) {
+				fields[i].set(oo, values[i]);
+			}
+			return oo;
+		}
+
+		private static boolean isPersistent(Field f) {
 			return !f.getName().startsWith("this$") 
 					&& !Modifier.isStatic(f.getModifiers()) 
 					&& !Modifier.isTransient(f.getModifiers());
 		}
 		
-		private Field[] collectFields(Class<?> c) {
-			List<Field> result = new ArrayList<Field>();
-			collectFields(result, c);
-			return result.toArray(new Field[result.size()]);
-		}
-		
-		private void collectFields(List<Field> result, Class<?> c) {
+		/**
+		 * Superclass fields go first, fields of each class are sorted by name,
+		 * so order does not depend on JVM reflection order.
+		 */
+		private static void collectFields(List<Field> result, Class<?> c) {
 			Class<?> s = c.getSuperclass();
 			if (s != Object.class) {
 				collectFields(result, s);
 			}
+			List<Field> declared = new ArrayList<Field>();
 			for(Field f: c.getDeclaredFields()) {
-				if (!Modifier.isStatic(f.getModifiers())) {
-					result.add(f);
+				if (isPersistent(f)) {
+					declared.add(f);
 				}
 			}
+			Collections.sort(declared, new Comparator<Field>() {
+				@Override
+				public int compare(Field f1, Field f2) {
+					return f1.getName().compareTo(f2.getName());
+				}
+			});
+			result.addAll(declared);
 		}		
 	}	
 }
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi.hub;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel serving heartbeat checks for all sessions of a hub
+ * from single daemon thread. Thread is started lazily and exits when wheel is empty.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class HeartbeatWheel {
+
+	private static final int WHEEL_SIZE = 64;
+
+	private final String name;
+	private final long tickNs;
+	private final List<List<Entry>> slots = new ArrayList<List<Entry>>(WHEEL_SIZE);
+	private int size;
+	private long currentTick;
+	private Thread worker;
+
+	public HeartbeatWheel(String name, long tick, TimeUnit tu) {
+		this.name = name;
+		this.tickNs = Math.max(1, tu.toNanos(tick));
+		for(int i = 0; i != WHEEL_SIZE; ++i) {
+			slots.add(new ArrayList<Entry>());
+		}
+	}
+
+	public synchronized void schedule(Task task, long delay, TimeUnit tu) {
+		long ticks = Math.min(Long.MAX_VALUE / 4, Math.max(1, tu.toNanos(delay) / tickNs + 1));
+		long deadline = currentTick + ticks;
+		slots.get((int) (deadline % WHEEL_SIZE)).add(new Entry(task, deadline));
+		++size;
+		if (worker == null) {
+			worker = new Thread(name) {
+				@Override
+				public void run() {
+					loop();
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void loop() {
+		long nextTick = System.nanoTime() + tickNs;
+		while(true) {
+			List<Entry> due = new ArrayList<Entry>();
+			synchronized(this) {
+				if (size == 0) {
+					worker = null;
+					return;
+				}
+				Iterator<Entry> it = slots.get((int) (currentTick % WHEEL_SIZE)).iterator();
+				while(it.hasNext()) {
+					Entry e = it.next();
+					if (e.deadline <= currentTick) {
+						it.remove();
+						--size;
+						due.add(e);
+					}
+				}
+			}
+			for(Entry e: due) {
+				long delay;
+				try {
+					delay = e.task.run();
+				}
+				catch(Exception ex) {
+					// task is broken, drop it
+					delay = -1;
+				}
+				if (delay >= 0) {
+					schedule(e.task, delay, TimeUnit.NANOSECONDS);
+				}
+			}
+			long sleep = nextTick - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException ex) {
+					// ignore
+				}
+			}
+			nextTick += tickNs;
+			synchronized(this) {
+				++currentTick;
+			}
+		}
+	}
+
+	public interface Task {
+
+		/**
+		 * @return delay in nanoseconds before next run, negative value cancels task
+		 */
+		public long run();
+
+	}
+
+	private static class Entry {
+
+		final Task task;
+		final long deadline;
+
+		Entry(Task task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -18,13 +18,7 @@ package org.gridkit.zerormi.hub;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketAddress;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import org.gridkit.zerormi.DuplexStream;
 import org.gridkit.zerormi.RmiGateway;
@@ -42,6 +36,7 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 
 	public static final String HEARTBEAT_PERIOD = "org.gridkit.telecontrol.slave.heart-beat-period";
 	public static final String HEARTBEAT_TIMEOUT = "org.gridkit.telecontrol.slave.heart-beat-timeout";
+	public static final String RECONNECT_TIMEOUT = "org.gridkit.telecontrol.slave.reconnect-timeout";
 
 //	private static final Logger LOGGER = LoggerFactory.getLogger(RemotingEndPoint.class);
 	
@@ -61,9 +56,10 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 	
 	private long pingInterval = Long.valueOf(System.getProperty(HEARTBEAT_PERIOD, "1000"));
 	private long heartBeatTimeout = Long.valueOf(System.getProperty(HEARTBEAT_TIMEOUT, "60000"));
+	private long reconnectTimeout = Long.valueOf(System.getProperty(RECONNECT_TIMEOUT, "10000"));
 	private Object pingSingnal = new Object();
 
-	private long lastHeartBeat = System.nanoTime(); 
+	private boolean deathWatch; 
 	
 	public RemotingEndPoint(String uid, SocketAddress addr) {
 		this.uid = uid;
@@ -72,41 +68,18 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 		this.gateway.setStreamErrorHandler(this);
 	}
 	
+	/**
+	 * Process would be halted if nothing is received from master for heartbeat timeout.
+	 * Check is done by {@link #run()} loop, no extra thread is started.
+	 */
 	public void enableHeartbeatDeatchWatch() {
 		if (heartBeatTimeout != Integer.MAX_VALUE) {
-			Thread t = new Thread() {
-				@Override
-				public void run() {
-					try {
-						while(true) {
-							Thread.currentThread().setName("HeatbeatDeathWatch-" + SimpleDateFormat.getDateTimeInstance().format(new Date()));
-							long stale = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastHeartBeat);					
-							if (stale > heartBeatTimeout) {
-								System.err.println("Terminating process due to heartbeat timeout");
-								System.err.flush();
-								Runtime.getRuntime().halt(0);
-							}
-							try {
-								Thread.sleep(1000);
-							} catch (InterruptedException e) {
-								// ignore;
-							}
-						}
-					}
-					catch(Throwable e) {
-						System.err.println("Unexpected exception in death watch thread " + e.toString());
-						System.err.flush();
-						Runtime.getRuntime().halt(0);
-					}
-				}
-			};
-			t.setDaemon(true);
-			t.setName("HeartbeatDeathWatch");
-			t.start();
+			deathWatch = true;
 		}
 	}
 	
 	public void run() {
+		long reconnectDelay = 100;
 		while(true) {
 			
 			try {
@@ -116,6 +89,9 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 			}
 			
 			try {
+				if (gateway.isTerminated()) {
+					break;
+				}
 				if (!gateway.isConnected()) {
 				
 					LINFO.log("Connecting to master socket");
@@ -124,9 +100,17 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 					try {
 						sock.connect(addr);
 					} catch (IOException e) {
+						if (gateway.wasConnected() && gateway.getInboundIdleTime(TimeUnit.MILLISECONDS) < reconnectTimeout) {
+							// session could be resumed, in-flight calls would be replayed
+							LWARN.log("Reconnect has failed, retry in %dms - %s", reconnectDelay, e.toString());
+							Thread.sleep(reconnectDelay);
+							reconnectDelay = Math.min(2000, 2 * reconnectDelay);
+							continue;
+						}
 						LFATAL.log("Connection has failed", addr);
 						return;
 					}
+					reconnectDelay = 100;
 					
 					byte[] magic = uid.getBytes();
 					sock.getOutputStream().write(magic);
@@ -143,35 +127,20 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 					pingSingnal.wait(pingInterval);
 				}
 				
-				LTRACE.log("Ping");
-				try {
-					Future<?> f = gateway.getRemoteExecutorService().submit(new Ping());
-					while(true) {
-						try {
-							f.get(5, TimeUnit.SECONDS);
-							break;
-						}
-						catch(TimeoutException e) {
-							long stale = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastHeartBeat);					
-							if (stale > heartBeatTimeout) {
-								System.err.println("Terminating process due to heartbeat timeout");
-								System.err.flush();
-								break;
-							}
-							
-						}
+				if (pingInterval != Integer.MAX_VALUE) {
+					// heartbeat frame is sent only if link was idle
+					if (gateway.sendHeartbeat(pingInterval, TimeUnit.MILLISECONDS)) {
+						LTRACE.log("Heartbeat");
 					}
-					lastHeartBeat = System.nanoTime();
-				}
-				catch(RejectedExecutionException e) {
-					// shutting down
-					break;
 				}
-				catch(ExecutionException e) {
-					if (!gateway.isConnected()) {
-						break;
+				
+				if (deathWatch) {
+					long stale = gateway.getInboundIdleTime(TimeUnit.MILLISECONDS);
+					if (stale > heartBeatTimeout) {
+						System.err.println("Terminating process due to heartbeat timeout");
+						System.err.flush();
+						Runtime.getRuntime().halt(0);
 					}
-					LWARN.log("Ping failed: " + e.getCause().toString());
 				}
 			} catch (Exception e) {
 				LERROR.log("Communication error %s", e);
@@ -182,7 +151,7 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 
 	@Override
 	public void streamError(DuplexStream socket, Object stream, Exception error) {
-		LWARN.log("Slave read error: " + error.toString());
+		LWARN.log("Slave read error: %s", error.toString());
 		synchronized(pingSingnal) {
 			pingSingnal.notifyAll();
 		}
@@ -192,7 +161,7 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 				socket.close();
 			}
 		} catch (IOException e) {
-			LERROR.log("Stream error " + socket, e);
+			LERROR.log("Stream error %s", socket, e);
 		}
 	}
 
@@ -207,7 +176,7 @@ public class RemotingEndPoint implements Runnable, RmiGateway.StreamErrorHandler
 				socket.close();
 			}
 		} catch (IOException e) {
-			LERROR.log("Stream error " + socket, e);
+			LERROR.log("Stream error %s", socket, e);
 		}		
 	}
 }
@@ -21,6 +21,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.gridkit.util.concurrent.AdvancedExecutor;
 import org.gridkit.zerormi.DuplexStream;
@@ -33,18 +34,31 @@ import org.gridkit.zerormi.zlog.ZLogger;
 /**
  * This is a hub managing multiple RMI channel connection.
  * It accepts duplex stream, verifies and matches ID token.
+ * <br/>
+ * Liveness of all sessions is tracked by single {@link HeartbeatWheel}.
+ * Heartbeat frame is sent to slave only if nothing else was sent during heartbeat period.
+ * Heartbeats are written by gateway's worker threads, so stuck connection does not delay others.
+ * Session of slave silent for longer than heartbeat timeout is dropped right away, so
+ * pending calls fail instead of waiting for reconnect. Session with broken stream is dropped
+ * if slave does not reconnect within reconnect timeout.
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
 public class RemotingHub implements MasterHub {
 	
-	private final static int UID_LENGTH = 32;
+	final static int UID_LENGTH = 32;
 	
 	private LogStream logInfo;
 	private LogStream logWarn;
 	private LogStream logError;
 	private SecureRandom srnd ;	
 	private ConcurrentMap<String, SessionContext> connections = new ConcurrentHashMap<String, SessionContext>();
+	private long heartbeatPeriod = TimeUnit.SECONDS.toNanos(1);
+	private long heartbeatTimeout = TimeUnit.SECONDS.toNanos(60);
+	private long reconnectTimeout = TimeUnit.SECONDS.toNanos(10);
+	private int retransmitFrames = RmiGateway.DEFAULT_RETRANSMIT_FRAMES;
+	private long retransmitBytes = RmiGateway.DEFAULT_RETRANSMIT_BYTES;
+	private HeartbeatWheel wheel = new HeartbeatWheel("RemotingHub-Heartbeat", 100, TimeUnit.MILLISECONDS);
 	
 	public RemotingHub(ZLogger logger) {
 		try {
@@ -57,19 +71,49 @@ public class RemotingHub implements MasterHub {
 		}
 	}
 	
+	/**
+	 * @param period heartbeat is sent to idle slave with this period
+	 * @param timeout slave silent for longer than timeout is considered dead, its session is dropped
+	 */
+	public void setHeartbeat(long period, long timeout, TimeUnit tu) {
+		heartbeatPeriod = tu.toNanos(period);
+		heartbeatTimeout = tu.toNanos(timeout);
+	}
+
+	/**
+	 * Broken session is kept for this time waiting for slave to reconnect,
+	 * in-flight calls are replayed on reconnect. After that session is dropped.
+	 */
+	public void setReconnectTimeout(long timeout, TimeUnit tu) {
+		reconnectTimeout = tu.toNanos(timeout);
+	}
+	
+	/**
+	 * Limits memory retained per session for replay of unacknowledged frames,
+	 * applies to sessions allocated after this call.
+	 * @see RmiGateway#setRetransmitBufferLimit(int, long)
+	 */
+	public void setRetransmitBufferLimit(int maxFrames, long maxBytes) {
+		retransmitFrames = maxFrames;
+		retransmitBytes = maxBytes;
+	}
+
 	@Override
 	public SlaveSpore allocateSession(String name, SessionEventListener listener) {
 		while(true) {
 			String uid = generateUID();
 			SessionContext ctx = new SessionContext();
+			ctx.id = uid;
 			ctx.listener = listener;			
 			synchronized(ctx) {
 				if (connections.putIfAbsent(uid, ctx) != null) {
 					continue;
 				}
 				ctx.gateway = new RmiGateway(name);
+				ctx.gateway.setRetransmitBufferLimit(retransmitFrames, retransmitBytes);
 				ctx.gateway.setStreamErrorHandler(ctx);
 			}
+			wheel.schedule(ctx, heartbeatPeriod, TimeUnit.NANOSECONDS);
 			return new LegacySpore(uid);
 		}		
 	}
@@ -85,6 +129,19 @@ public class RemotingHub implements MasterHub {
 		}
 	}
 	
+	/**
+	 * Changes name of session's gateway, e.g. once pre-allocated session gets its owner.
+	 */
+	public void renameSession(String sessionId, String name) {
+		SessionContext ctx = connections.get(sessionId);
+		if (ctx == null) {
+			throw new IllegalArgumentException("Connection not found " + sessionId);
+		}
+		synchronized(ctx) {
+			ctx.gateway.setName(name);
+		}
+	}
+
 	private String generateUID() {
 		byte[] magic = new byte[UID_LENGTH / 2];
 		srnd.nextBytes(magic);
@@ -125,7 +182,13 @@ public class RemotingHub implements MasterHub {
 	
 	@Override
 	public void dispatch(DuplexStream stream) {
-		String id = readId(stream);
+		dispatch(readId(stream), stream);
+	}
+
+	/**
+	 * Connects stream to session, for transports which have already read session ID from stream.
+	 */
+	public void dispatch(String id, DuplexStream stream) {
 		if (id != null) {
 			SessionContext ctx = connections.get(id);
 			if (ctx != null) {
@@ -133,29 +196,36 @@ public class RemotingHub implements MasterHub {
 					ctx = connections.get(id);
 					if (ctx != null) {
 						if (ctx.stream != null) {
-							logWarn.log("New stream for " + id + " " + stream);
-							logWarn.log("Old stream for " + id + " would be disposed " + ctx.stream);
+							logWarn.log("New stream for %s %s", id, stream);
+							logWarn.log("Old stream for %s would be disposed %s", id, ctx.stream);
 							silentClose(ctx.stream);
-							ctx.gateway.disconnect();
+							ctx.gateway.detach();
 							if (ctx.stream != null) {
 								ctx.listener.interrupted(ctx.stream);
 								ctx.stream = null;
 							}
 						}
 						try {
+							boolean resume = ctx.gateway.wasConnected();
 							ctx.gateway.connect(stream);
 							ctx.stream = stream;
-							ctx.listener.connected(stream);
+							if (resume) {
+								// unacknowledged calls are replayed by gateway
+								ctx.listener.reconnected(stream);
+							}
+							else {
+								ctx.listener.connected(stream);
+							}
 						} catch (IOException e) {
-							logError.log("Stream connection failed " + stream);
+							logError.log("Stream connection failed %s", stream);
 						}
-						logInfo.log("Stream connected at end point " + id + " - " + stream);
+						logInfo.log("Stream connected at end point %s - %s", id, stream);
 						return;
 					}
 				}
 			}
 		}
-		logWarn.log("Stream were not connected " + stream);
+		logWarn.log("Stream were not connected %s", stream);
 		silentClose(stream);
 	}
 	
@@ -182,24 +252,73 @@ public class RemotingHub implements MasterHub {
 		public void closed();		
 	}
 	
-	private class SessionContext implements StreamErrorHandler {
+	private class SessionContext implements StreamErrorHandler, HeartbeatWheel.Task {
 		
+		private String id;
 		private SessionEventListener listener;
 		private RmiGateway gateway;
-		private DuplexStream stream;
+		private volatile DuplexStream stream;
+		private volatile long disconnectedAt;
+
+		@Override
+		public long run() {
+			if (connections.get(id) != this || gateway.isTerminated()) {
+				return -1;
+			}
+			if (!gateway.isConnected() && gateway.wasConnected()) {
+				if (System.nanoTime() - disconnectedAt > reconnectTimeout) {
+					logWarn.log("Session %s was not resumed in %dms, dropping", id, TimeUnit.NANOSECONDS.toMillis(reconnectTimeout));
+					try {
+						dropSession(id);
+					}
+					catch(IllegalArgumentException e) {
+						// already dropped
+					}
+					return -1;
+				}
+			}
+			else if (gateway.isConnected()) {
+				gateway.sendHeartbeat(heartbeatPeriod, TimeUnit.NANOSECONDS);
+				long silence = gateway.getInboundIdleTime(TimeUnit.NANOSECONDS);
+				if (silence > heartbeatTimeout) {
+					logWarn.log("No heartbeat from %s for %dms, dropping session - %s", id, TimeUnit.NANOSECONDS.toMillis(silence), stream);
+					// slave is gone, pending calls are failed right away
+					try {
+						dropSession(id);
+					}
+					catch(IllegalArgumentException e) {
+						// already dropped
+					}
+					return -1;
+				}
+			}
+			return Math.max(0, heartbeatPeriod - gateway.getOutboundIdleTime(TimeUnit.NANOSECONDS));
+		}
 
 		@Override
 		public synchronized void streamError(DuplexStream socket, Object stream, Exception error) {
-			gateway.disconnect();
+			if (this.stream != socket) {
+				// stale stream, already replaced
+				return;
+			}
+			disconnectedAt = System.nanoTime();
+			gateway.detach();
 			this.stream = null;
 			listener.interrupted(socket);
 		}
 
 		@Override
-		public void streamClosed(DuplexStream socket, Object stream) {
-			gateway.disconnect();
+		public synchronized void streamClosed(DuplexStream socket, Object stream) {
+			if (this.stream != socket) {
+				// stale stream, already replaced
+				return;
+			}
+			disconnectedAt = System.nanoTime();
+			gateway.detach();
 			this.stream = null;
-			logInfo.log("Closed: " + stream);
+			logInfo.log("Closed: %s", stream);
+			// session could be resumed by slave
+			listener.interrupted(socket);
 		}
 	}
 	
@@ -0,0 +1,525 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi.hub;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.gridkit.zerormi.FramedDuplexStream;
+import org.gridkit.zerormi.zlog.LogLevel;
+import org.gridkit.zerormi.zlog.LogStream;
+import org.gridkit.zerormi.zlog.ZLogFactory;
+
+/**
+ * Socket server passing incoming connections to {@link RemotingHub}.
+ * <br/>
+ * Unlike {@link SimpleSocketAcceptor}, connections are served by small fixed group
+ * of selector threads, which read session ID and then push RMI frames to
+ * {@link org.gridkit.zerormi.RmiGateway}. So number of master threads does not depend on
+ * number of connected slaves.
+ * <br/>
+ * Selector threads only do non blocking reads and hand data off. Session dispatch
+ * is done by a worker thread, frames are processed by gateway's own threads.
+ * Writes are done by caller thread; writer waiting for socket buffer space longer than
+ * write timeout fails the connection.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class SelectorSocketAcceptor {
+
+	private static final int READ_BUFFER_SIZE = 64 << 10;
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final int ioThreads;
+	private RemotingHub hub;
+	private ServerSocketChannel server;
+	private IoLoop[] loops;
+	private int nextLoop;
+	private ExecutorService dispatcher;
+	private volatile long writeTimeoutNs = TimeUnit.SECONDS.toNanos(30);
+
+	private final LogStream logWarn;
+	private final LogStream logCritical;
+
+	public SelectorSocketAcceptor() {
+		this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+	}
+
+	public SelectorSocketAcceptor(int ioThreads) {
+		if (ioThreads <= 0) {
+			throw new IllegalArgumentException("ioThreads should be positive");
+		}
+		this.ioThreads = ioThreads;
+		this.logWarn = ZLogFactory.getDefaultRootLogger().getLogger(getClass().getPackage().getName()).get(getClass().getSimpleName(), LogLevel.WARN);
+		this.logCritical = ZLogFactory.getDefaultRootLogger().getLogger(getClass().getPackage().getName()).get(getClass().getSimpleName(), LogLevel.CRITICAL);
+	}
+
+	/**
+	 * Writer blocked for longer than timeout without any progress fails the connection.
+	 */
+	public void setWriteTimeout(long timeout, TimeUnit tu) {
+		writeTimeoutNs = tu.toNanos(timeout);
+	}
+
+	public void bind(ServerSocketChannel server, RemotingHub hub) {
+		this.server = server;
+		this.hub = hub;
+	}
+
+	public synchronized void start() throws IOException {
+		if (loops != null) {
+			throw new IllegalStateException("Already started");
+		}
+		final String addr = String.valueOf(server.socket().getLocalSocketAddress());
+		dispatcher = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			int counter = 1;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setName("RMI-Dispatcher-" + (counter++) + " [" + addr + "]");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		loops = new IoLoop[ioThreads];
+		for(int i = 0; i != ioThreads; ++i) {
+			loops[i] = new IoLoop(Selector.open());
+			loops[i].setName("RMI-Selector-" + i + " [" + addr + "]");
+			loops[i].setDaemon(true);
+		}
+		server.configureBlocking(false);
+		server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		for(IoLoop loop: loops) {
+			loop.start();
+		}
+	}
+
+	public void close() {
+		try {
+			server.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		IoLoop[] loops;
+		synchronized(this) {
+			loops = this.loops;
+		}
+		if (loops != null) {
+			for(IoLoop loop: loops) {
+				loop.shutdown();
+			}
+			dispatcher.shutdown();
+		}
+	}
+
+	private synchronized IoLoop nextLoop() {
+		IoLoop loop = loops[nextLoop];
+		nextLoop = (nextLoop + 1) % loops.length;
+		return loop;
+	}
+
+	private void accept() throws IOException {
+		while(true) {
+			SocketChannel ch = server.accept();
+			if (ch == null) {
+				return;
+			}
+			ch.configureBlocking(false);
+			ch.socket().setTcpNoDelay(true);
+			nextLoop().enlist(new ChannelStream(ch));
+		}
+	}
+
+	private class IoLoop extends Thread {
+
+		private final Selector selector;
+		private final Queue<ChannelStream> pending = new ConcurrentLinkedQueue<ChannelStream>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private volatile boolean stopped;
+
+		IoLoop(Selector selector) {
+			this.selector = selector;
+		}
+
+		void enlist(ChannelStream stream) {
+			pending.add(stream);
+			selector.wakeup();
+		}
+
+		void shutdown() {
+			stopped = true;
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(!stopped) {
+					selector.select();
+					ChannelStream stream;
+					while((stream = pending.poll()) != null) {
+						try {
+							stream.key = stream.channel.register(selector, SelectionKey.OP_READ, stream);
+						}
+						catch(IOException e) {
+							stream.failed(e);
+						}
+					}
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while(it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							try {
+								accept();
+							}
+							catch(IOException e) {
+								if (server.isOpen()) {
+									logWarn.log("Accept failed: %s", e.toString());
+								}
+							}
+						}
+						else if (key.isReadable()) {
+							((ChannelStream) key.attachment()).read(readBuffer);
+						}
+					}
+				}
+			}
+			catch(ClosedSelectorException e) {
+				// closed
+			}
+			catch(IOException e) {
+				logCritical.log("Selector failed: %s", e.toString());
+			}
+			finally {
+				for(SelectionKey key: selector.keys()) {
+					if (key.attachment() instanceof ChannelStream) {
+						((ChannelStream) key.attachment()).close();
+					}
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private class ChannelStream implements FramedDuplexStream {
+
+		private final SocketChannel channel;
+		private SelectionKey key;
+		private volatile FrameReceiver receiver;
+		private volatile boolean closed;
+
+		/** Frames received before session is dispatched, guarded by receiveLock */
+		private final Object receiveLock = new Object();
+		private final List<byte[]> pending = new ArrayList<byte[]>();
+
+		// read state, accessed from I/O thread only
+		private final byte[] id = new byte[RemotingHub.UID_LENGTH];
+		private int idRead;
+		private final ByteBuffer header = ByteBuffer.allocate(4);
+		private byte[] frame = new byte[0];
+		private int frameLength = -1;
+		private int frameRead;
+
+		private final Object writeLock = new Object();
+		private volatile Selector writeSelector;
+		private final OutputStream output = new ChannelOutput();
+
+		ChannelStream(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void setFrameReceiver(FrameReceiver receiver) {
+			try {
+				synchronized(receiveLock) {
+					for(byte[] frame: pending) {
+						receiver.frame(frame, 0, frame.length);
+					}
+					pending.clear();
+					this.receiver = receiver;
+				}
+			}
+			catch(IOException e) {
+				failed(e);
+			}
+		}
+
+		@Override
+		public InputStream getInput() throws IOException {
+			throw new IOException("Inbound data is delivered as frames");
+		}
+
+		@Override
+		public OutputStream getOutput() throws IOException {
+			return output;
+		}
+
+		@Override
+		public boolean isClosed() {
+			return closed;
+		}
+
+		void read(ByteBuffer buffer) {
+			try {
+				buffer.clear();
+				int n = channel.read(buffer);
+				if (n < 0) {
+					throw new EOFException("Connection closed by remote side");
+				}
+				buffer.flip();
+				while(buffer.hasRemaining() && !closed) {
+					consume(buffer);
+				}
+			}
+			catch(Exception e) {
+				failed(e);
+			}
+		}
+
+		private void consume(ByteBuffer buffer) throws IOException {
+			if (idRead < id.length) {
+				int n = Math.min(id.length - idRead, buffer.remaining());
+				buffer.get(id, idRead, n);
+				idRead += n;
+				if (idRead == id.length) {
+					dispatch(new String(id, ASCII));
+				}
+			}
+			else if (frameLength < 0) {
+				while(header.hasRemaining() && buffer.hasRemaining()) {
+					header.put(buffer.get());
+				}
+				if (!header.hasRemaining()) {
+					header.flip();
+					int len = header.getInt();
+					header.clear();
+					if (len < 0) {
+						throw new IOException("Corrupted frame, length " + len);
+					}
+					if (buffer.remaining() >= len) {
+						// whole frame is in buffer, no copy needed
+						int pos = buffer.position();
+						buffer.position(pos + len);
+						deliver(buffer.array(), buffer.arrayOffset() + pos, len);
+					}
+					else {
+						if (frame.length < len) {
+							frame = new byte[len];
+						}
+						frameLength = len;
+						frameRead = 0;
+					}
+				}
+			}
+			else {
+				int n = Math.min(frameLength - frameRead, buffer.remaining());
+				buffer.get(frame, frameRead, n);
+				frameRead += n;
+				if (frameRead == frameLength) {
+					int len = frameLength;
+					frameLength = -1;
+					if (frame.length > READ_BUFFER_SIZE) {
+						byte[] data = frame;
+						frame = new byte[0];
+						deliver(data, 0, len);
+					}
+					else {
+						deliver(frame, 0, len);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Session lookup and gateway handshake may block, so they are done by worker thread.
+		 */
+		private void dispatch(final String sessionId) {
+			try {
+				dispatcher.execute(new Runnable() {
+					@Override
+					public void run() {
+						hub.dispatch(sessionId, ChannelStream.this);
+						if (receiver == null) {
+							// session was not found
+							close();
+						}
+					}
+				});
+			}
+			catch(RejectedExecutionException e) {
+				// acceptor is closed
+				close();
+			}
+		}
+
+		private void deliver(byte[] buffer, int offset, int length) throws IOException {
+			FrameReceiver r = receiver;
+			if (r == null) {
+				synchronized(receiveLock) {
+					r = receiver;
+					if (r == null) {
+						pending.add(Arrays.copyOfRange(buffer, offset, offset + length));
+						return;
+					}
+				}
+			}
+			r.frame(buffer, offset, length);
+		}
+
+		void failed(Exception e) {
+			if (shutdown()) {
+				FrameReceiver r = receiver;
+				if (r != null) {
+					r.closed(e);
+				}
+			}
+		}
+
+		/**
+		 * Receiver is notified about closing, as it would be on error.
+		 * Never blocks, writer waiting on this stream is released.
+		 */
+		@Override
+		public void close() {
+			failed(new EOFException("Stream closed"));
+		}
+
+		/**
+		 * @return <code>false</code> if stream was already closed
+		 */
+		private boolean shutdown() {
+			synchronized(receiveLock) {
+				if (closed) {
+					return false;
+				}
+				closed = true;
+			}
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			Selector ws = writeSelector;
+			if (ws != null) {
+				try {
+					// wakes up blocked writer
+					ws.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return channel.socket().toString();
+		}
+
+		/**
+		 * Writes are done by caller thread. If socket buffer is full,
+		 * writer waits on private selector, I/O threads are never blocked.
+		 * Wait without progress is limited by write timeout.
+		 */
+		private class ChannelOutput extends OutputStream {
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[]{(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				ByteBuffer bb = ByteBuffer.wrap(b, off, len);
+				synchronized(writeLock) {
+					long deadline = System.nanoTime() + writeTimeoutNs;
+					while(bb.hasRemaining()) {
+						if (channel.write(bb) > 0) {
+							deadline = System.nanoTime() + writeTimeoutNs;
+						}
+						else {
+							long wait = deadline - System.nanoTime();
+							if (wait <= 0) {
+								IOException e = new IOException("Write timeout, peer is not reading - " + ChannelStream.this);
+								failed(e);
+								throw e;
+							}
+							awaitWritable(wait);
+						}
+					}
+				}
+			}
+
+			private void awaitWritable(long waitNs) throws IOException {
+				try {
+					if (writeSelector == null) {
+						Selector ws = Selector.open();
+						writeSelector = ws;
+						channel.register(ws, SelectionKey.OP_WRITE);
+					}
+					if (closed) {
+						writeSelector.close();
+						throw new IOException("Socket closed");
+					}
+					writeSelector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNs)));
+					writeSelector.selectedKeys().clear();
+				}
+				catch(ClosedSelectorException e) {
+					throw new IOException("Socket closed");
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				ChannelStream.this.close();
+			}
+		}
+	}
+}
@@ -16,6 +16,8 @@
 package org.gridkit.zerormi.zlog;
 
 /**
+ * Message is formatted only if stream is enabled, using cached {@link LogTemplate}.
+ * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
 abstract class AbstractLogStream implements LogStream {
@@ -40,29 +42,53 @@ abstract class AbstractLogStream implements LogStream {
 	}
 
 	@Override
-	public void log(String format, Object... args) {
+	public void log(String format, Object argument) {
 		if (!isEnabled()) {
 			return;
 		}
-		Throwable e = null;
-		if (args.length > 0) {
-			if (args[args.length - 1] instanceof Throwable) {
-				e = (Throwable) args[args.length - 1];
-			}
+		logFormatted(format, 1, argument, null, null, null);
+	}
+
+	@Override
+	public void log(String format, Object argument1, Object argument2) {
+		if (!isEnabled()) {
+			return;
+		}
+		logFormatted(format, 2, argument1, argument2, null, null);
+	}
+
+	@Override
+	public void log(String format, Object argument1, Object argument2, Object argument3) {
+		if (!isEnabled()) {
+			return;
 		}
+		logFormatted(format, 3, argument1, argument2, argument3, null);
+	}
+
+	@Override
+	public void log(String format, Object... args) {
+		if (!isEnabled()) {
+			return;
+		}
+		logFormatted(format, args.length, null, null, null, args);
+	}
+
+	private void logFormatted(String format, int argc, Object a1, Object a2, Object a3, Object[] args) {
+		Object last = argc == 0 ? null : LogTemplate.arg(argc - 1, a1, a2, a3, args);
+		Throwable e = last instanceof Throwable ? (Throwable) last : null;
 		String msg;
 		try {
-			msg = String.format(format, args);
+			msg = LogTemplate.compile(format).format(argc, a1, a2, a3, args);
 		}
 		catch(Exception x) {
 			StringBuilder sb = new StringBuilder();
 			sb.append(format);
-			for(Object a: args) {
+			for(int i = 0; i != argc; ++i) {
 				try {
-					sb.append(' ').append(String.valueOf(a));
+					sb.append(' ').append(String.valueOf(LogTemplate.arg(i, a1, a2, a3, args)));
 				}
 				catch(Exception xx) {
-					sb.append(" !").append(e.toString()).append("!");
+					sb.append(" !").append(xx.toString()).append("!");
 				}
 			}
 			msg = sb.toString();
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi.zlog;
+
+/**
+ * Moves formatting and printing of log records to single daemon thread.
+ * <br/>
+ * Records are passed through preallocated ring buffer, so enqueueing does not allocate.
+ * If buffer is full, caller waits for writer thread. Pending records are written on JVM shutdown.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class AsyncLogAppender {
+
+	private final Record[] ring;
+	private final int mask;
+	private long head;
+	private long tail;
+	private Thread writer;
+
+	public AsyncLogAppender(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		ring = new Record[size];
+		mask = size - 1;
+		for(int i = 0; i != size; ++i) {
+			ring[i] = new Record();
+		}
+	}
+
+	public void append(PrintStreamLogStream stream, long timestamp, String msg, Throwable e) {
+		synchronized(this) {
+			ensureStarted();
+			while(tail - head == ring.length) {
+				if (Thread.currentThread() == writer) {
+					// logging from inside of writer, avoid deadlock
+					stream.write(timestamp, msg, e);
+					return;
+				}
+				try {
+					wait();
+				} catch (InterruptedException x) {
+					Thread.currentThread().interrupt();
+					stream.write(timestamp, msg, e);
+					return;
+				}
+			}
+			Record r = ring[(int) (tail & mask)];
+			r.stream = stream;
+			r.timestamp = timestamp;
+			r.msg = msg;
+			r.error = e;
+			if (tail++ == head) {
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Blocks until all records appended so far are written.
+	 */
+	public void flush() {
+		synchronized(this) {
+			long target = tail;
+			while(head < target && writer != null && writer.isAlive() && writer != Thread.currentThread()) {
+				try {
+					wait(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private void ensureStarted() {
+		if (writer == null) {
+			writer = new Thread("zlog-async-writer") {
+				@Override
+				public void run() {
+					drainLoop();
+				}
+			};
+			writer.setDaemon(true);
+			writer.start();
+			try {
+				Runtime.getRuntime().addShutdownHook(new Thread("zlog-async-flush") {
+					@Override
+					public void run() {
+						flush();
+					}
+				});
+			}
+			catch(IllegalStateException e) {
+				// shutdown in progress
+			}
+		}
+	}
+
+	private void drainLoop() {
+		Record[] batch = new Record[Math.min(ring.length, 64)];
+		for(int i = 0; i != batch.length; ++i) {
+			batch[i] = new Record();
+		}
+		while(true) {
+			int n;
+			synchronized(this) {
+				while(head == tail) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+				n = (int) Math.min(batch.length, tail - head);
+				for(int i = 0; i != n; ++i) {
+					Record r = ring[(int) ((head + i) & mask)];
+					batch[i].copy(r);
+					r.clear();
+				}
+			}
+			for(int i = 0; i != n; ++i) {
+				try {
+					batch[i].stream.write(batch[i].timestamp, batch[i].msg, batch[i].error);
+				}
+				catch(Exception e) {
+					// ignore
+				}
+				batch[i].clear();
+			}
+			synchronized(this) {
+				// records are consumed only after they are written, so flush() is precise
+				head += n;
+				notifyAll();
+			}
+		}
+	}
+
+	private static class Record {
+
+		PrintStreamLogStream stream;
+		long timestamp;
+		String msg;
+		Throwable error;
+
+		void copy(Record r) {
+			stream = r.stream;
+			timestamp = r.timestamp;
+			msg = r.msg;
+			error = r.error;
+		}
+
+		void clear() {
+			stream = null;
+			msg = null;
+			error = null;
+		}
+	}
+}
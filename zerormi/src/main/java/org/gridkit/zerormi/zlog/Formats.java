@@ -24,6 +24,9 @@ class Formats {
 	public static final String DATE_STAMP = "%1$tFT%1$tT.%1$tL%1$tz";
 	public static final String FILE_DATE_STAMP = "%1$tY%1$tm%1$td-%1$tH%1$tM%1$tS";
 	public static final String TIME_STAMP = "%1$tT.%1$tL";
+	public static final String DATE_TIME_STAMP = "%1$tF %1$tT.%1$tL%1$tz";
+
+	private static volatile SecondStamp LAST_SECOND = new SecondStamp(Long.MIN_VALUE, "", "");
 	
 	public static final String toTimestamp(long millis) {
 		return String.format(TIME_STAMP, millis);	
@@ -45,6 +48,39 @@ class Formats {
 		return toFileDatestamp(System.currentTimeMillis());
 	}
 	
+	/**
+	 * Same as {@link #DATE_TIME_STAMP} format, but text is formatted only once per second.
+	 */
+	public static final void appendDateTimeStamp(StringBuilder sb, long millis) {
+		long second = millis < 0 ? (millis - 999) / 1000 : millis / 1000;
+		SecondStamp stamp = LAST_SECOND;
+		if (stamp.second != second) {
+			String text = String.format(DATE_TIME_STAMP, second * 1000);
+			int dot = text.lastIndexOf('.');
+			stamp = new SecondStamp(second, text.substring(0, dot + 1), text.substring(dot + 4));
+			LAST_SECOND = stamp;
+		}
+		int ms = (int) (millis - second * 1000);
+		sb.append(stamp.head);
+		sb.append((char) ('0' + ms / 100));
+		sb.append((char) ('0' + (ms / 10) % 10));
+		sb.append((char) ('0' + ms % 10));
+		sb.append(stamp.zone);
+	}
+
+	private static class SecondStamp {
+
+		final long second;
+		final String head;
+		final String zone;
+
+		SecondStamp(long second, String head, String zone) {
+			this.second = second;
+			this.head = head;
+			this.zone = zone;
+		}
+	}
+
 	public static final String toMemorySize(long n) {
 		if (n < (10l << 10)) {
 			return String.valueOf(n);
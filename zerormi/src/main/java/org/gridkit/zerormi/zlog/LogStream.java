@@ -23,5 +23,15 @@ public interface LogStream {
 
 	public void log(Throwable e);
 	
+	/**
+	 * Overloads with fixed number of arguments avoid varargs array allocation
+	 * if stream is disabled.
+	 */
+	public void log(String format, Object argument);
+
+	public void log(String format, Object argument1, Object argument2);
+
+	public void log(String format, Object argument1, Object argument2, Object argument3);
+
 	public void log(String format, Object... argument);
 }
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi.zlog;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pre-parsed message format.
+ * <br/>
+ * Plain <code>%s</code>, <code>%d</code>, <code>%%</code> and <code>%n</code> are handled
+ * without {@link String#format(String, Object...)}, any other conversion makes template
+ * fall back to it. Templates are cached by format string.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class LogTemplate {
+
+	private static final int CACHE_LIMIT = 1024;
+	
+	private static final ConcurrentMap<String, LogTemplate> CACHE = new ConcurrentHashMap<String, LogTemplate>();
+
+	private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+	
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	
+	public static LogTemplate compile(String format) {
+		LogTemplate t = CACHE.get(format);
+		if (t == null) {
+			t = new LogTemplate(format);
+			if (CACHE.size() < CACHE_LIMIT) {
+				CACHE.putIfAbsent(format, t);
+			}
+		}
+		return t;
+	}
+
+	static Object arg(int n, Object a1, Object a2, Object a3, Object[] args) {
+		if (args != null) {
+			return args[n];
+		}
+		switch(n) {
+			case 0: return a1;
+			case 1: return a2;
+			case 2: return a3;
+			default: throw new IndexOutOfBoundsException(String.valueOf(n));
+		}
+	}
+	
+	private final String format;
+	/** Literal text between conversions */
+	private final String[] literals;
+	/** Conversion following each literal, last literal has none */
+	private final char[] conversions;
+	private final int argCount;
+	private final boolean simple;
+	
+	LogTemplate(String format) {
+		this.format = format;
+		List<String> lits = new ArrayList<String>();
+		StringBuilder conv = new StringBuilder();
+		StringBuilder lit = new StringBuilder();
+		boolean simple = true;
+		int argc = 0;
+		int n = 0;
+		while(n < format.length()) {
+			char ch = format.charAt(n);
+			if (ch != '%') {
+				lit.append(ch);
+				++n;
+				continue;
+			}
+			char c = n + 1 < format.length() ? format.charAt(n + 1) : 0;
+			if (c == '%') {
+				lit.append('%');
+			}
+			else if (c == 'n') {
+				lit.append(LINE_SEPARATOR);
+			}
+			else if (c == 's' || c == 'd') {
+				lits.add(lit.toString());
+				lit.setLength(0);
+				conv.append(c);
+				++argc;
+			}
+			else {
+				// width, flags, explicit index etc
+				simple = false;
+				break;
+			}
+			n += 2;
+		}
+		lits.add(lit.toString());
+		this.literals = lits.toArray(new String[lits.size()]);
+		this.conversions = conv.toString().toCharArray();
+		this.argCount = argc;
+		this.simple = simple;
+	}
+
+	public String format(int argc, Object a1, Object a2, Object a3, Object[] args) {
+		if (!simple || argc < argCount || hasFormattable(argc, a1, a2, a3, args)) {
+			if (args == null) {
+				args = argc == 1 ? new Object[]{a1} : argc == 2 ? new Object[]{a1, a2} : new Object[]{a1, a2, a3};
+			}
+			return String.format(format, args);
+		}
+		StringBuilder sb = BUFFER.get();
+		sb.setLength(0);
+		for(int i = 0; i != conversions.length; ++i) {
+			sb.append(literals[i]);
+			Object v = arg(i, a1, a2, a3, args);
+			if (conversions[i] == 'd' && !isIntegral(v)) {
+				throw new IllegalArgumentException("%d is not applicable to " + (v == null ? null : v.getClass().getName()));
+			}
+			sb.append(v);
+		}
+		sb.append(literals[literals.length - 1]);
+		String result = sb.toString();
+		if (sb.capacity() > (16 << 10)) {
+			BUFFER.remove();
+		}
+		return result;
+	}
+	
+	private boolean hasFormattable(int argc, Object a1, Object a2, Object a3, Object[] args) {
+		for(int i = 0; i != argCount; ++i) {
+			if (arg(i, a1, a2, a3, args) instanceof Formattable) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isIntegral(Object v) {
+		return v == null || v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte || v instanceof BigInteger;
+	}
+
+	@Override
+	public String toString() {
+		return format;
+	}
+}
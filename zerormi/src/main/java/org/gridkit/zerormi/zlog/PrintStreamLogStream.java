@@ -21,12 +21,42 @@ class PrintStreamLogStream extends AbstractLogStream {
 
 	private final PrintStream ps;
 	private final String pattern;
+	private final AsyncLogAppender appender;
+	/** Literal parts around message, if pattern is standard timestamp followed by message */
+	private final String lead;
+	private final String trail;
 	boolean enabled;
 	
 	public PrintStreamLogStream(String pattern, PrintStream ps, boolean enabled) {
+		this(pattern, ps, enabled, null);
+	}
+
+	/**
+	 * @param appender if not <code>null</code> records are written asynchronously
+	 */
+	public PrintStreamLogStream(String pattern, PrintStream ps, boolean enabled, AsyncLogAppender appender) {
 		this.pattern = pattern;
 		this.ps = ps;
 		this.enabled = enabled;
+		this.appender = appender;
+		String[] parts = splitPattern(pattern);
+		this.lead = parts == null ? null : parts[0];
+		this.trail = parts == null ? null : parts[1];
+	}
+
+	private static String[] splitPattern(String pattern) {
+		if (pattern.startsWith(Formats.DATE_TIME_STAMP)) {
+			String tail = pattern.substring(Formats.DATE_TIME_STAMP.length());
+			int n = tail.indexOf("%2$s");
+			if (n >= 0) {
+				String lead = tail.substring(0, n);
+				String trail = tail.substring(n + 4);
+				if (lead.indexOf('%') < 0 && trail.indexOf('%') < 0) {
+					return new String[]{lead, trail};
+				}
+			}
+		}
+		return null;
 	}
 
 	public void setEnabled(boolean enabled) {
@@ -39,7 +69,24 @@ class PrintStreamLogStream extends AbstractLogStream {
 	}
 
 	protected void logInternal(String msg, Throwable e) {
-		String line = String.format(pattern, System.currentTimeMillis(), msg);
+		if (appender != null) {
+			appender.append(this, System.currentTimeMillis(), msg, e);
+		}
+		else {
+			write(System.currentTimeMillis(), msg, e);
+		}
+	}
+
+	void write(long timestamp, String msg, Throwable e) {
+		String line;
+		if (lead != null) {
+			StringBuilder sb = new StringBuilder(64 + lead.length() + msg.length() + trail.length());
+			Formats.appendDateTimeStamp(sb, timestamp);
+			line = sb.append(lead).append(msg).append(trail).toString();
+		}
+		else {
+			line = String.format(pattern, timestamp, msg);
+		}
 		ps.println(line);
 		if (e != null) {
 			e.printStackTrace(ps);
@@ -19,12 +19,28 @@ import java.io.PrintStream;
 
 class PrintStreamLogger implements ZLogger {
 
+	/** 
+	 * Incremented on each configuration change, streams reread their properties
+	 * only if version has changed, so {@link LogStream#isEnabled()} is a single volatile read.
+	 */
+	private static volatile int configVersion;
+
+	static synchronized void configurationChanged() {
+		++configVersion;
+	}
+
 	private final String root;
 	private final PrintStream out;
+	private final AsyncLogAppender appender;
 	
 	public PrintStreamLogger(String root, PrintStream out) {
+		this(root, out, null);
+	}
+
+	public PrintStreamLogger(String root, PrintStream out, AsyncLogAppender appender) {
 		this.root = root;
 		this.out = out;
+		this.appender = appender;
 	}
 
 	@Override
@@ -33,7 +49,7 @@ class PrintStreamLogger implements ZLogger {
 		if (path != null && path.length() > 0) {
 			ln += (ln.length() == 0 ? "" : ".") + path;
 		}
-		return new PrintStreamLogger(ln, out);
+		return new PrintStreamLogger(ln, out, appender);
 	}
 
 	@Override
@@ -46,10 +62,10 @@ class PrintStreamLogger implements ZLogger {
 	}
 
 	private LogStream createStream(String name, LogLevel level) {
-		String pattern = "%1$tF %1$tT.%1$tL%1$tz "+ name + " - [" + level.toString() + "] %2$s";
+		String pattern = Formats.DATE_TIME_STAMP + " " + name + " - [" + level.toString() + "] %2$s";
 		String propname = "zlog." + name + "." + level.toString().toLowerCase();
 		boolean enabled = level == LogLevel.CRITICAL || level == LogLevel.FATAL || level == LogLevel.WARN;		
-		LogStream sl = new PropConfiguredLogStream(pattern, out, propname, enabled);
+		LogStream sl = new PropConfiguredLogStream(pattern, out, propname, enabled, appender);
 		return sl;
 	}
 	
@@ -57,9 +73,10 @@ class PrintStreamLogger implements ZLogger {
 
 		private final String propName;
 		private final boolean defaultEnabled;
+		private volatile int version = -1;
 		
-		public PropConfiguredLogStream(String pattern, PrintStream ps, String propName, boolean defaultEnabled) {
-			super(pattern, ps, false);
+		public PropConfiguredLogStream(String pattern, PrintStream ps, String propName, boolean defaultEnabled, AsyncLogAppender appender) {
+			super(pattern, ps, false, appender);
 			this.propName = propName;
 			this.defaultEnabled = defaultEnabled;
 		}
@@ -67,12 +84,18 @@ class PrintStreamLogger implements ZLogger {
 		@Override
 		public void setEnabled(boolean enabled) {
 			System.setProperty(propName, String.valueOf(enabled));
+			configurationChanged();
 		}
 
 		@Override
 		public boolean isEnabled() {
-			String val = System.getProperty(propName);
-			return val == null ? defaultEnabled : "true".equalsIgnoreCase(System.getProperty(propName));
+			int v = configVersion;
+			if (version != v) {
+				String val = System.getProperty(propName);
+				enabled = val == null ? defaultEnabled : "true".equalsIgnoreCase(val);
+				version = v;
+			}
+			return enabled;
 		}
 	}
 }
@@ -17,10 +17,34 @@ package org.gridkit.zerormi.zlog;
 
 public class ZLogFactory {
 
+	private static AsyncLogAppender ASYNC_APPENDER;
+
+	/**
+	 * If <code>zlog-async</code> system property is <code>true</code>, records are printed
+	 * by background thread.
+	 */
 	public static ZLogger getStdErrRootLogger() {
+		if ("true".equalsIgnoreCase(System.getProperty("zlog-async"))) {
+			return getAsyncStdErrRootLogger();
+		}
 		return new PrintStreamLogger("", System.err);
 	}
 
+	public static synchronized ZLogger getAsyncStdErrRootLogger() {
+		if (ASYNC_APPENDER == null) {
+			ASYNC_APPENDER = new AsyncLogAppender(Integer.getInteger("zlog-async-buffer", 4096));
+		}
+		return new PrintStreamLogger("", System.err, ASYNC_APPENDER);
+	}
+
+	/**
+	 * Enablement of std err log streams is cached. This method should be called
+	 * after <code>zlog.*</code> system properties were changed directly.
+	 */
+	public static void refreshConfiguration() {
+		PrintStreamLogger.configurationChanged();
+	}
+
 	public static ZLogger getDefaultRootLogger() {
 		if ("slf4j".equals(System.getProperty("zlog-mode"))) {
 			return getSlf4JRootLogger();
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.gridkit.zerormi.RmiChannelPipeTest.Echo;
+import org.gridkit.zerormi.RmiChannelPipeTest.NotSerializable;
+import org.gridkit.zerormi.RmiChannelPipeTest.ProxyAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("serial")
+public class BroadcastTaskTest {
+
+	static final AtomicInteger SERIALIZATIONS = new AtomicInteger();
+	
+	RmiGateway left;
+	RmiGateway right;
+
+	@Before
+	public void connect() throws Exception {
+		ServerSocket ss = new ServerSocket();
+		ss.bind(new InetSocketAddress("127.0.0.1", 0));
+		Socket ls = new Socket();
+		ls.connect(ss.getLocalSocketAddress());
+		Socket rs = ss.accept();
+		ss.close();
+		left = new RmiGateway("left");
+		right = new RmiGateway("right");
+		final DuplexStream rsock = new NamedStreamPair("RIGHT", rs.getInputStream(), rs.getOutputStream());
+		Thread rightStarter = new Thread() {
+			public void run() {
+				try {
+					right.connect(rsock);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		rightStarter.start();
+		left.connect(new NamedStreamPair("LEFT", ls.getInputStream(), ls.getOutputStream()));
+		rightStarter.join();
+	}
+	
+	@After
+	public void disconnect() {
+		left.shutdown();
+		right.shutdown();
+	}
+	
+	@Test
+	public void local_call_uses_original_task() throws Exception {
+		Identity task = new Identity();
+		Assert.assertSame(task, new BroadcastTask(task).call());
+	}
+
+	@Test
+	public void equal_content_has_equal_digest() {
+		BroadcastTask a = new BroadcastTask(new Echo<String>("abc"));
+		BroadcastTask b = new BroadcastTask(new Echo<String>("abc"));
+		BroadcastTask c = new BroadcastTask(new Echo<String>("abd"));
+		Assert.assertEquals(a.getDigest(), b.getDigest());
+		Assert.assertFalse(a.getDigest().equals(c.getDigest()));
+	}
+
+	@Test
+	public void anonymous_task_is_broadcast() throws Exception {
+		final String msg = "anon";
+		BroadcastTask task = new BroadcastTask(new Callable<String>() {
+			@Override
+			public String call() {
+				return msg;
+			}
+		});
+		Assert.assertTrue(task.prepare());
+		Assert.assertEquals("anon", left.getRemoteExecutorService().submit(task).get());
+	}
+
+	@Test
+	public void task_is_serialized_once() throws Exception {
+		SERIALIZATIONS.set(0);
+		BroadcastTask task = new BroadcastTask(new Counted());
+		Assert.assertEquals("counted", left.getRemoteExecutorService().submit(task).get());
+		Assert.assertEquals("counted", left.getRemoteExecutorService().submit(task).get());
+		Assert.assertEquals("counted", right.getRemoteExecutorService().submit(task).get());
+		Assert.assertEquals(1, SERIALIZATIONS.get());
+	}
+	
+	@Test
+	public void repeated_payload_is_sent_by_digest() throws Exception {
+		BroadcastTask task1 = new BroadcastTask(new Echo<String>("abc"));
+		BroadcastTask task2 = new BroadcastTask(new Echo<String>("abc"));
+		Assert.assertEquals("abc", left.getRemoteExecutorService().submit(task1).get());
+		Assert.assertTrue(left.sentBroadcasts.contains(task1.getDigest()));
+		Assert.assertNull(left.sentBroadcasts.get(task1.getDigest()));
+		Assert.assertNotNull(right.receivedBroadcasts.get(task1.getDigest()));
+		Assert.assertEquals("abc", left.getRemoteExecutorService().submit(task2).get());
+		Assert.assertEquals(1, left.sentBroadcasts.size());
+		Assert.assertEquals(1, right.receivedBroadcasts.size());
+	}
+
+	@Test
+	public void evicted_payload_is_resent() throws Exception {
+		BroadcastTask task = new BroadcastTask(new Echo<String>("xyz"));
+		Assert.assertEquals("xyz", left.getRemoteExecutorService().submit(task).get());
+		right.receivedBroadcasts.remove(task.getDigest());
+		Assert.assertEquals("xyz", left.getRemoteExecutorService().submit(task).get());
+		Assert.assertNotNull(right.receivedBroadcasts.get(task.getDigest()));
+	}
+	
+	@Test
+	public void task_requiring_export_is_sent_directly() throws Exception {
+		BroadcastTask task = new BroadcastTask(new ProxyAdapter<String>(new NotSerializable()));
+		Assert.assertFalse(task.prepare());
+		Assert.assertEquals("NotSerializable", left.getRemoteExecutorService().submit(task).get());
+		Assert.assertEquals(0, left.sentBroadcasts.size());
+	}
+
+	@Test
+	public void cache_is_bounded() {
+		BroadcastCache cache = new BroadcastCache(2, 100);
+		cache.put("a", new byte[10]);
+		cache.put("b", new byte[10]);
+		cache.get("a");
+		cache.put("c", new byte[10]);
+		Assert.assertNotNull(cache.get("a"));
+		Assert.assertNull(cache.get("b"));
+		cache.put("d", new byte[90]);
+		Assert.assertNull(cache.get("c"));
+		Assert.assertEquals(2, cache.size());
+		cache.put("e", new byte[200]);
+		Assert.assertNull(cache.get("e"));
+		Assert.assertNotNull(cache.get("d"));
+	}
+	
+	public static class Identity implements Callable<Object>, Serializable {
+		@Override
+		public Object call() {
+			return this;
+		}
+	}
+
+	public static class Counted implements Callable<String>, Serializable {
+		
+		@Override
+		public String call() {
+			return "counted";
+		}
+		
+		private void writeObject(ObjectOutputStream oos) throws IOException {
+			SERIALIZATIONS.incrementAndGet();
+			oos.defaultWriteObject();
+		}
+	}
+}
@@ -44,7 +44,7 @@ public class RemotingHubTest {
 
 	int hubPort;
 	
-	private RemotingHub hub;
+	protected RemotingHub hub;
 	private RemotingEndPoint endPoint1;
 	private RemotingEndPoint endPoint2;
 	private SimpleSocketAcceptor acceptor;
@@ -84,11 +84,7 @@ public class RemotingHubTest {
 		String uid2 = LegacySpore.uidOf(hub.allocateSession("side2", sessionListener));
 		
 		
-		acceptor = new SimpleSocketAcceptor();
-		ServerSocket ssock = openServerSocket();
-		
-		acceptor.bind(ssock, hub);
-		acceptor.start();
+		startAcceptor();
 		
 		endPoint1 = new RemotingEndPoint(uid1, new InetSocketAddress("localhost", hubPort));
 		new Thread(endPoint1).start();
@@ -114,9 +110,21 @@ public class RemotingHubTest {
 		return ssock;
 	}
 	
+	protected void startAcceptor() {
+		acceptor = new SimpleSocketAcceptor();
+		ServerSocket ssock = openServerSocket();
+		
+		acceptor.bind(ssock, hub);
+		acceptor.start();
+	}
+
+	protected void stopAcceptor() {
+		acceptor.close();
+	}
+	
 	@After
 	public void shutdown() {
-		acceptor.close();
+		stopAcceptor();
 	}
 	
 	@Test
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("serial")
+public class RmiGatewayReconnectTest {
+
+	RmiGateway left = new RmiGateway("l");
+	RmiGateway right = new RmiGateway("r");
+
+	{
+		left.setStreamErrorHandler(new KeepSession(left));
+		right.setStreamErrorHandler(new KeepSession(right));
+	}
+
+	@After
+	public void stopRmi() {
+		left.shutdown();
+		right.shutdown();
+	}
+
+	private void connect() throws Exception {
+		ServerSocket ss = new ServerSocket();
+		ss.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+		final Socket ls = new Socket();
+		ls.connect(ss.getLocalSocketAddress());
+		final Socket rs = ss.accept();
+		ss.close();
+
+		final List<Exception> errors = new ArrayList<Exception>();
+		Thread lt = new Thread() {
+			public void run() {
+				try {
+					left.connect(new SocketStream(ls));
+				} catch (IOException e) {
+					errors.add(e);
+				}
+			}
+		};
+		lt.start();
+		right.connect(new SocketStream(rs));
+		lt.join();
+		if (!errors.isEmpty()) {
+			throw errors.get(0);
+		}
+	}
+
+	@Test
+	public void in_flight_call_survives_reconnect() throws Exception {
+		connect();
+		Assert.assertEquals("warmup", left.getRemoteExecutorService().submit(new Sleep("warmup", 0)).get());
+
+		Future<String> task = left.getRemoteExecutorService().submit(new Sleep("slow", 500));
+		Thread.sleep(100);
+		left.detach();
+		awaitDisconnected(right);
+
+		// call return is produced while link is down
+		Thread.sleep(600);
+		try {
+			task.get(10, TimeUnit.MILLISECONDS);
+			Assert.fail("Link is down");
+		}
+		catch(TimeoutException e) {
+			// expected
+		}
+
+		connect();
+		Assert.assertEquals("slow", task.get(5, TimeUnit.SECONDS));
+		Assert.assertEquals("after", left.getRemoteExecutorService().submit(new Sleep("after", 0)).get());
+	}
+
+	@Test
+	public void call_submitted_while_disconnected_is_delivered() throws Exception {
+		connect();
+		left.detach();
+		awaitDisconnected(right);
+
+		Future<String> task = left.getRemoteExecutorService().submit(new Sleep("queued", 0));
+		connect();
+		Assert.assertEquals("queued", task.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void calls_fail_once_retransmit_buffer_is_exhausted() throws Exception {
+		left.shutdown();
+		left = new RmiGateway("l");
+		left.setStreamErrorHandler(new KeepSession(left));
+		left.setRetransmitBufferLimit(8, 1 << 20);
+		connect();
+		Future<String> inflight = left.getRemoteExecutorService().submit(new Sleep("slow", 10000));
+		Thread.sleep(100);
+		left.detach();
+		awaitDisconnected(right);
+
+		List<Future<String>> queued = new ArrayList<Future<String>>();
+		for(int i = 0; i != 16; ++i) {
+			queued.add(left.getRemoteExecutorService().submit(new Sleep("queued", 0)));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(!left.isTerminated()) {
+			if (System.nanoTime() > deadline) {
+				Assert.fail("Session should be terminated");
+			}
+			Thread.sleep(10);
+		}
+		try {
+			inflight.get(1, TimeUnit.SECONDS);
+			Assert.fail("Call should fail");
+		}
+		catch(ExecutionException e) {
+			// expected
+		}
+		for(Future<String> f: queued) {
+			try {
+				f.get(1, TimeUnit.SECONDS);
+				Assert.fail("Call should fail");
+			}
+			catch(ExecutionException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test(expected=ExecutionException.class)
+	public void fresh_peer_is_not_resumed() throws Exception {
+		connect();
+		left.detach();
+		awaitDisconnected(right);
+
+		// peer is replaced with new instance
+		right.shutdown();
+		right = new RmiGateway("r2");
+		right.setStreamErrorHandler(new KeepSession(right));
+		Future<String> task = left.getRemoteExecutorService().submit(new Sleep("lost", 0));
+		try {
+			connect();
+		}
+		catch(IOException e) {
+			// expected
+		}
+		task.get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void disconnect_terminates_peer() throws Exception {
+		connect();
+		Assert.assertEquals("warmup", left.getRemoteExecutorService().submit(new Sleep("warmup", 0)).get());
+		left.disconnect();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(!right.isTerminated()) {
+			if (System.nanoTime() > deadline) {
+				Assert.fail("Peer should be terminated");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private void awaitDisconnected(RmiGateway gw) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while(gw.isConnected()) {
+			if (System.nanoTime() > deadline) {
+				Assert.fail("Gateway is still connected");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static class KeepSession implements RmiGateway.StreamErrorHandler {
+
+		private final RmiGateway gateway;
+
+		public KeepSession(RmiGateway gateway) {
+			this.gateway = gateway;
+		}
+
+		@Override
+		public void streamError(DuplexStream socket, Object stream, Exception error) {
+			gateway.detach();
+		}
+
+		@Override
+		public void streamClosed(DuplexStream socket, Object stream) {
+			gateway.detach();
+		}
+	}
+
+	public static class Sleep implements Callable<String>, Serializable {
+
+		private final String result;
+		private final long sleep;
+
+		public Sleep(String result, long sleep) {
+			this.result = result;
+			this.sleep = sleep;
+		}
+
+		@Override
+		public String call() throws Exception {
+			Thread.sleep(sleep);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.gridkit.util.concurrent.AdvancedExecutor;
+import org.gridkit.zerormi.hub.LegacySpore;
+import org.gridkit.zerormi.hub.RemotingHub.SessionEventListener;
+import org.gridkit.zerormi.hub.SelectorSocketAcceptor;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Runs {@link RemotingHubTest} over selector based acceptor.
+ */
+public class SelectorSocketAcceptorTest extends RemotingHubTest {
+
+	private SelectorSocketAcceptor acceptor;
+
+	@Override
+	protected void startAcceptor() {
+		try {
+			ServerSocketChannel ssc = ServerSocketChannel.open();
+			ssc.socket().bind(new InetSocketAddress(0));
+			hubPort = ssc.socket().getLocalPort();
+			// single I/O thread serves both slaves
+			acceptor = new SelectorSocketAcceptor(1);
+			acceptor.setWriteTimeout(500, TimeUnit.MILLISECONDS);
+			acceptor.bind(ssc, hub);
+			acceptor.start();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected void stopAcceptor() {
+		acceptor.close();
+	}
+
+	@Test
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void stalled_peer_is_disconnected() throws Exception {
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		String uid = LegacySpore.uidOf(hub.allocateSession("stalled", new NullListener() {
+			@Override
+			public void interrupted(DuplexStream stream) {
+				interrupted.countDown();
+			}
+		}));
+		Socket socket = new Socket("localhost", hubPort);
+		socket.setReceiveBufferSize(4 << 10);
+		socket.getOutputStream().write(uid.getBytes("US-ASCII"));
+		socket.getOutputStream().flush();
+		GatedStream stream = new GatedStream(socket);
+		RmiGateway peer = new RmiGateway("stalled-peer");
+		peer.connect(stream);
+
+		AdvancedExecutor stalled = hub.getExecutionService(uid);
+		Assert.assertEquals("abc", stalled.submit(new Echo("abc")).get());
+
+		// peer stops reading, so master's writer gets stuck on large call
+		stream.stall();
+		stalled.submit(new Payload(new byte[16 << 20]));
+
+		// other sessions are not affected
+		verify_executor1();
+		verify_executor2();
+
+		Assert.assertTrue("Stalled connection should be dropped", interrupted.await(5, TimeUnit.SECONDS));
+		peer.shutdown();
+		socket.close();
+	}
+
+	private static class GatedStream extends SocketStream {
+
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private boolean stalled;
+
+		public GatedStream(Socket socket) {
+			super(socket);
+		}
+
+		public synchronized void stall() {
+			stalled = true;
+		}
+
+		private synchronized boolean isStalled() {
+			return stalled;
+		}
+
+		@Override
+		public InputStream getInput() throws IOException {
+			return new FilterInputStream(super.getInput()) {
+
+				@Override
+				public int read() throws IOException {
+					waitGate();
+					return super.read();
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					waitGate();
+					return super.read(b, off, len);
+				}
+			};
+		}
+
+		private void waitGate() throws IOException {
+			if (isStalled()) {
+				try {
+					gate.await();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted");
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			gate.countDown();
+			super.close();
+		}
+	}
+
+	private static class NullListener implements SessionEventListener {
+
+		@Override
+		public void connected(DuplexStream stream) {
+		}
+
+		@Override
+		public void interrupted(DuplexStream stream) {
+		}
+
+		@Override
+		public void reconnected(DuplexStream stream) {
+		}
+
+		@Override
+		public void closed() {
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class Payload implements Callable<Integer>, Serializable {
+
+		private final byte[] data;
+
+		public Payload(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public Integer call() {
+			return data.length;
+		}
+	}
+}
@@ -59,6 +59,46 @@ public class SmartRmiMarshalerTest {
 		Assert.assertEquals("task.10.100", SmartAnonMarshaler.unmarshal(md).toString());		
 	}		
 	
+	@Test
+	public void test_repeated_serialization_with_super_fields() throws IOException, ClassNotFoundException {
+		for(int i = 0; i != 3; ++i) {
+			final int n = i;
+			Base task = new Base() {
+				String name = "anon";
+				transient String ignored = "ignored";
+				
+				public String toString() {
+					return name + "." + n + "." + base + "." + ignored;
+				}
+			};
+			task.base = 10 + i;
+			
+			Object md = roundTrip(SmartAnonMarshaler.marshal(task));
+			Assert.assertEquals("anon." + i + "." + (10 + i) + ".ignored", SmartAnonMarshaler.unmarshal(md).toString());
+		}
+		Assert.assertSame(SmartAnonMarshaler.getMeta(Base.class), SmartAnonMarshaler.getMeta(Base.class));
+	}
+
+	private Object roundTrip(Object ms) throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bos);
+		oos.writeObject(ms);
+		oos.close();
+		
+		ByteArrayInputStream bis = new ByteArrayInputStream(bos.toByteArray());
+		ObjectInputStream ois = new ObjectInputStream(bis);
+		return ois.readObject();
+	}
+
+	public static abstract class Base implements Runnable {
+		
+		int base;
+		
+		@Override
+		public void run() {
+		}
+	}
+	
 	@Test
 	public void check_PingServerA() throws IOException {
 		assertRemotes(PingServerA.class, PingA.class);
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi.hub;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeartbeatWheelTest {
+
+	@Test
+	public void verify_periodic_task() throws InterruptedException {
+		HeartbeatWheel wheel = new HeartbeatWheel("test-wheel", 5, TimeUnit.MILLISECONDS);
+		final CountDownLatch latch = new CountDownLatch(5);
+		wheel.schedule(new HeartbeatWheel.Task() {
+			@Override
+			public long run() {
+				latch.countDown();
+				return latch.getCount() == 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(10);
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void verify_many_tasks_single_thread() throws InterruptedException {
+		HeartbeatWheel wheel = new HeartbeatWheel("test-wheel", 5, TimeUnit.MILLISECONDS);
+		final int n = 500;
+		final CountDownLatch latch = new CountDownLatch(n);
+		final AtomicInteger threads = new AtomicInteger();
+		final ThreadLocal<Boolean> seen = new ThreadLocal<Boolean>();
+		for(int i = 0; i != n; ++i) {
+			// delays span several wheel turns
+			wheel.schedule(new HeartbeatWheel.Task() {
+				@Override
+				public long run() {
+					if (seen.get() == null) {
+						seen.set(Boolean.TRUE);
+						threads.incrementAndGet();
+					}
+					latch.countDown();
+					return -1;
+				}
+			}, i, TimeUnit.MILLISECONDS);
+		}
+		Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(1, threads.get());
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 2013 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.zerormi.zlog;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Microbenchmark for disabled and enabled log calls. Run as a main class,
+ * reports average time per call for each case.
+ */
+public class LogStreamBenchmark {
+
+	private static final int WARMUP = 2000000;
+	private static final int ITERATIONS = 5000000;
+
+	static volatile Object sink;
+
+	public static void main(String[] args) {
+		PrintStream devnull = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+
+		ZLogger logger = new PrintStreamLogger("bench", devnull);
+		LogStream disabled = logger.get("disabled", LogLevel.TRACE);
+		LogStream enabled = logger.get("enabled", LogLevel.WARN);
+		LogStream async = new PrintStreamLogger("bench", devnull, new AsyncLogAppender(4096)).get("async", LogLevel.WARN);
+		final Object arg = "argument";
+
+		for(int round = 0; round != 3; ++round) {
+			System.out.println("Round " + round);
+			bench("disabled, plain", new Case() { void run(LogStream ls) { ls.log("message"); } }, disabled);
+			bench("disabled, 1 arg", new Case() { void run(LogStream ls) { ls.log("message %s", arg); } }, disabled);
+			bench("disabled, 4 args", new Case() { void run(LogStream ls) { ls.log("message %s %s %s %s", arg, arg, arg, arg); } }, disabled);
+			bench("enabled, plain", new Case() { void run(LogStream ls) { ls.log("message"); } }, enabled);
+			bench("enabled, 2 args", new Case() { void run(LogStream ls) { ls.log("message %s %s", arg, arg); } }, enabled);
+			bench("enabled, String.format", new Case() { void run(LogStream ls) { ls.log(String.format("message %s %s", arg, arg)); } }, enabled);
+			bench("async, 2 args", new Case() { void run(LogStream ls) { ls.log("message %s %s", arg, arg); } }, async);
+		}
+	}
+
+	private static void bench(String name, Case c, LogStream ls) {
+		int n = ls.isEnabled() ? ITERATIONS / 20 : ITERATIONS;
+		for(int i = 0; i != WARMUP / (ls.isEnabled() ? 20 : 1); ++i) {
+			c.run(ls);
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i != n; ++i) {
+			c.run(ls);
+		}
+		long time = System.nanoTime() - start;
+		System.out.println(String.format("  %-24s %8.1f ns/call", name, ((double) time) / n));
+	}
+
+	private static abstract class Case {
+		abstract void run(LogStream ls);
+	}
+}
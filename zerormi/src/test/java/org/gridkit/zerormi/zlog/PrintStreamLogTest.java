@@ -15,7 +15,11 @@
  */
 package org.gridkit.zerormi.zlog;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
 import org.gridkit.zerormi.zlog.PrintStreamLogStream;
+import org.junit.Assert;
 import org.junit.Test;
 
 public class PrintStreamLogTest {
@@ -32,4 +36,99 @@ public class PrintStreamLogTest {
 		
 	}
 	
+	@Test
+	public void template_matches_string_format() {
+		assertFormat("plain text");
+		assertFormat("a %s b", "x");
+		assertFormat("%s%s", "x", "y");
+		assertFormat("%d items, %s", 10, null);
+		assertFormat("100%% done%n");
+		assertFormat("%-6s|", "x");
+		assertFormat("%2$s %1$s", "a", "b");
+		assertFormat("%08d", 42);
+		assertFormat("%s %s %s %s", 1, 2, 3, 4);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void template_rejects_non_integral_decimal() {
+		LogTemplate.compile("%d").format(1, "x", null, null, null);
+	}
+
+	private void assertFormat(String format, Object... args) {
+		String expected = String.format(format, args);
+		Assert.assertEquals(expected, LogTemplate.compile(format).format(args.length, null, null, null, args));
+		if (args.length > 0 && args.length <= 3) {
+			Object a1 = args[0];
+			Object a2 = args.length > 1 ? args[1] : null;
+			Object a3 = args.length > 2 ? args[2] : null;
+			Assert.assertEquals(expected, LogTemplate.compile(format).format(args.length, a1, a2, a3, null));
+		}
+	}
+
+	@Test
+	public void cached_timestamp_matches_string_format() {
+		long now = System.currentTimeMillis();
+		long[] samples = {now, now + 1, now + 999, now + 1000, now - 7, 0, 5, 1000};
+		for(long t: samples) {
+			StringBuilder sb = new StringBuilder();
+			Formats.appendDateTimeStamp(sb, t);
+			Assert.assertEquals(String.format(Formats.DATE_TIME_STAMP, t), sb.toString());
+		}
+	}
+
+	@Test
+	public void parameterized_log() {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PrintStreamLogStream ps = new PrintStreamLogStream("%2$s", new PrintStream(bos, true), true);
+
+		ps.log("a=%s", "A");
+		ps.log("a=%s b=%s", "A", "B");
+		ps.log("a=%s b=%s c=%s", "A", "B", "C");
+		ps.log("a=%s b=%d", "A", "X");
+		ps.log("error %s", "E", new RuntimeException("boom"));
+
+		String[] lines = bos.toString().split("[\r\n]+");
+		Assert.assertEquals("a=A", lines[0]);
+		Assert.assertEquals("a=A b=B", lines[1]);
+		Assert.assertEquals("a=A b=B c=C", lines[2]);
+		Assert.assertEquals("a=%s b=%d A X", lines[3]);
+		Assert.assertEquals("error E", lines[4]);
+		Assert.assertEquals("java.lang.RuntimeException: boom", lines[5]);
+	}
+
+	@Test
+	public void cached_enablement_follows_changes() {
+		String prop = "zlog.zlog-test.cached.info";
+		LogStream stream = new PrintStreamLogger("zlog-test", System.out).get("cached", LogLevel.INFO);
+		Assert.assertFalse(stream.isEnabled());
+
+		((PrintStreamLogStream) stream).setEnabled(true);
+		Assert.assertTrue(stream.isEnabled());
+
+		System.setProperty(prop, "false");
+		// direct property change is not seen until refresh
+		Assert.assertTrue(stream.isEnabled());
+		ZLogFactory.refreshConfiguration();
+		Assert.assertFalse(stream.isEnabled());
+		System.clearProperty(prop);
+		ZLogFactory.refreshConfiguration();
+	}
+
+	@Test
+	public void async_appender_preserves_order() {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		AsyncLogAppender appender = new AsyncLogAppender(16);
+		PrintStreamLogStream ps = new PrintStreamLogStream("%2$s", new PrintStream(bos, true), true, appender);
+
+		for(int i = 0; i != 1000; ++i) {
+			ps.log("line %d", i);
+		}
+		appender.flush();
+
+		String[] lines = bos.toString().split("[\r\n]+");
+		Assert.assertEquals(1000, lines.length);
+		for(int i = 0; i != 1000; ++i) {
+			Assert.assertEquals("line " + i, lines[i]);
+		}
+	}
 }